@@ -35,8 +35,13 @@ public class App {
     }
 
     private static void testQueryOptimiser() throws Exception {
-        CostBasedQueryOptimizer costOptimizer = new CostBasedQueryOptimizer();
-        MachineLearningOptimizer mlOptimizer = new MachineLearningOptimizer();
+        try (MachineLearningOptimizer mlOptimizer = MachineLearningOptimizer.start()) {
+            testQueryOptimiser(mlOptimizer);
+        }
+    }
+
+    private static void testQueryOptimiser(MachineLearningOptimizer mlOptimizer) throws Exception {
+        CostBasedQueryOptimizer costOptimizer = new CostBasedQueryOptimizer(mlOptimizer);
 
         // Create a Hybrid Optimizer
         HybridQueryOptimizer hybridOptimizer = new HybridQueryOptimizer(costOptimizer, mlOptimizer);
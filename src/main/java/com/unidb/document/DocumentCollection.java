@@ -0,0 +1,268 @@
+package com.unidb.document;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.unidb.transaction.IsolationLevel;
+import com.unidb.transaction.VersionManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A named set of JSON documents stored as versioned values in the shared
+ * {@link VersionManager}. Each document's key carries the collection id in
+ * its high bits. Secondary indexes on JSON paths are maintained on every
+ * write. A write adds entries for its new values immediately. Entries for
+ * values that the committed version no longer has are dropped once the
+ * writing transaction commits or rolls back. Lookups read each candidate's
+ * visible version and re-check the predicate, so in-flight entries never
+ * leak uncommitted or outdated matches.
+ */
+@Slf4j
+public class DocumentCollection {
+    private static final long DOCUMENT_KEY_FLAG = 1L << 62; // keeps document keys apart from plain keys
+    private static final int ID_BITS = 40;
+    static final long MAX_DOCUMENT_ID = (1L << ID_BITS) - 1;
+    static final int MAX_COLLECTION_ID = (1 << (62 - ID_BITS)) - 1;
+
+    private final String name;
+    private final int collectionId;
+    private final VersionManager versionManager;
+    private final ObjectMapper objectMapper;
+    private final Map<String, JsonPathIndex> indexes;
+    private final Set<Long> documentIds; // every id that may have a visible version
+    private final Map<Long, Map<Long, PendingWrite>> pendingWrites; // transaction -> document -> write
+
+    DocumentCollection(String name, int collectionId, VersionManager versionManager, ObjectMapper objectMapper) {
+        this.name = name;
+        this.collectionId = collectionId;
+        this.versionManager = versionManager;
+        this.objectMapper = objectMapper;
+        this.indexes = new ConcurrentHashMap<>();
+        this.documentIds = new ConcurrentSkipListSet<>();
+        this.pendingWrites = new ConcurrentHashMap<>();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Declares a secondary index on a JSON path such as $.customer.id and fills it from the committed documents
+    public synchronized void createIndex(String path) {
+        if (indexes.containsKey(path)) {
+            return;
+        }
+        JsonPathIndex index = new JsonPathIndex(path);
+        for (long documentId : documentIds) {
+            index.add(documentId, latestCommitted(documentId));
+        }
+        for (Map<Long, PendingWrite> writes : pendingWrites.values()) {
+            for (PendingWrite write : writes.values()) {
+                write.written.forEach(document -> index.add(write.documentId, document));
+            }
+        }
+        indexes.put(path, index);
+        log.info("Created index on {}{} with {} entries.", name, path, index.size());
+    }
+
+    public boolean hasIndex(String path) {
+        return indexes.containsKey(path);
+    }
+
+    // Writes a document version in the transaction and indexes its values right away
+    public synchronized void put(long transactionId, long documentId, String json) {
+        JsonNode document = parse(json);
+        write(transactionId, documentId, document, json);
+    }
+
+    public synchronized void delete(long transactionId, long documentId) {
+        write(transactionId, documentId, null, null);
+    }
+
+    public String get(long transactionId, long documentId, IsolationLevel isolationLevel) {
+        return versionManager.readVersion(transactionId, keyOf(documentId), isolationLevel);
+    }
+
+    // Visible documents whose value at the path equals the given number, string or boolean
+    public Map<Long, String> find(long transactionId, IsolationLevel isolationLevel, String path, Object value) {
+        return findRange(transactionId, isolationLevel, path, value, value);
+    }
+
+    // Visible documents with a value at the path in [low, high], in value order when the path is indexed
+    public Map<Long, String> findRange(long transactionId, IsolationLevel isolationLevel, String path, Object low,
+            Object high) {
+        Comparable<?> from = JsonPathIndex.normalize(low);
+        Comparable<?> to = JsonPathIndex.normalize(high);
+        JsonPathIndex index = indexes.get(path);
+        JsonPathIndex matcher = index != null ? index : new JsonPathIndex(path);
+        Iterable<Long> candidates;
+        if (index != null) {
+            candidates = index.range(from, to);
+        } else {
+            log.info("No index on {}{}; scanning {} documents.", name, path, documentIds.size());
+            candidates = documentIds;
+        }
+        Map<Long, String> results = new LinkedHashMap<>();
+        for (long documentId : candidates) {
+            if (results.containsKey(documentId)) {
+                continue; // several values of one document matched
+            }
+            String json = get(transactionId, documentId, isolationLevel);
+            if (json != null && matcher.matches(parse(json), from, to)) {
+                results.put(documentId, json);
+            }
+        }
+        return results;
+    }
+
+    // Ids that may have a visible version; deleted documents drop out when their transaction settles
+    public long getDocumentCount() {
+        return documentIds.size();
+    }
+
+    /**
+     * Up to maxRows committed documents chosen uniformly at random, by
+     * reservoir sampling over the ids, so only the chosen documents are read
+     * and parsed. Each is flattened into a map from field name to number,
+     * string, boolean or null; nested fields are named by their dotted path
+     * such as customer.id, and arrays are left out.
+     */
+    public List<Map<String, Object>> sample(int maxRows) {
+        List<Long> reservoir = new ArrayList<>(Math.min(maxRows, 1024));
+        long seen = 0;
+        for (long documentId : documentIds) {
+            if (reservoir.size() < maxRows) {
+                reservoir.add(documentId);
+            } else {
+                long slot = ThreadLocalRandom.current().nextLong(seen + 1);
+                if (slot < maxRows) {
+                    reservoir.set((int) slot, documentId);
+                }
+            }
+            seen++;
+        }
+        List<Map<String, Object>> rows = new ArrayList<>(reservoir.size());
+        for (long documentId : reservoir) {
+            JsonNode document = latestCommitted(documentId);
+            if (document != null && document.isObject()) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                flatten("", document, row);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static void flatten(String prefix, JsonNode node, Map<String, Object> row) {
+        if (node.isObject()) {
+            node.fields().forEachRemaining(field -> flatten(prefix.isEmpty() ? field.getKey()
+                    : prefix + "." + field.getKey(), field.getValue(), row));
+        } else if (node.isNumber()) {
+            row.put(prefix, node.numberValue());
+        } else if (node.isTextual()) {
+            row.put(prefix, node.textValue());
+        } else if (node.isBoolean()) {
+            row.put(prefix, node.booleanValue());
+        } else if (node.isNull()) {
+            row.put(prefix, null);
+        }
+    }
+
+    // ---------------- TRANSACTION OUTCOME ----------------
+    // Call after the version manager committed or rolled back the transaction; returns the documents it wrote
+    synchronized int settle(long transactionId) {
+        Map<Long, PendingWrite> writes = pendingWrites.remove(transactionId);
+        if (writes == null) {
+            return 0;
+        }
+        for (PendingWrite write : writes.values()) {
+            JsonNode committed = latestCommitted(write.documentId);
+            List<JsonNode> stillNeeded = new ArrayList<>();
+            stillNeeded.add(committed);
+            for (Map<Long, PendingWrite> others : pendingWrites.values()) {
+                PendingWrite other = others.get(write.documentId);
+                if (other != null) {
+                    stillNeeded.addAll(other.written);
+                }
+            }
+            for (JsonPathIndex index : indexes.values()) {
+                Set<Comparable<?>> keep = new HashSet<>();
+                stillNeeded.forEach(document -> keep.addAll(index.valuesOf(document)));
+                Set<Comparable<?>> stale = new HashSet<>(index.valuesOf(write.before));
+                write.written.forEach(document -> stale.addAll(index.valuesOf(document)));
+                for (Comparable<?> value : stale) {
+                    if (keep.stream().noneMatch(kept -> JsonPathIndex.inRange(kept, value, value))) {
+                        index.remove(write.documentId, value);
+                    }
+                }
+            }
+            if (committed == null && stillNeeded.size() == 1) {
+                documentIds.remove(write.documentId);
+            }
+        }
+        return writes.size();
+    }
+
+    // ---------------- HELPERS ----------------
+    private void write(long transactionId, long documentId, JsonNode document, String json) {
+        if (documentId < 0 || documentId > MAX_DOCUMENT_ID) {
+            throw new IllegalArgumentException("Document id out of range: " + documentId);
+        }
+        PendingWrite write = pendingWrites.computeIfAbsent(transactionId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(documentId, id -> new PendingWrite(id, latestCommitted(id)));
+        versionManager.writeVersion(transactionId, keyOf(documentId), json);
+        if (document != null) {
+            write.written.add(document);
+            documentIds.add(documentId);
+            for (JsonPathIndex index : indexes.values()) {
+                index.add(documentId, document);
+            }
+        }
+    }
+
+    // Newest committed version, or null if there is none or it is a deletion
+    private JsonNode latestCommitted(long documentId) {
+        String json = versionManager.readVersion(Long.MAX_VALUE, keyOf(documentId), IsolationLevel.READ_COMMITTED);
+        return json == null ? null : parse(json);
+    }
+
+    private JsonNode parse(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON document: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    // Whether a version store key belongs to a document rather than to the plain key-value table
+    public static boolean isDocumentKey(long key) {
+        return (key & (3L << 62)) == DOCUMENT_KEY_FLAG;
+    }
+
+    long keyOf(long documentId) {
+        return DOCUMENT_KEY_FLAG | ((long) collectionId << ID_BITS) | documentId;
+    }
+
+    // A document's committed state before the transaction and the versions the transaction wrote
+    private static final class PendingWrite {
+        private final long documentId;
+        private final JsonNode before;
+        private final List<JsonNode> written;
+
+        private PendingWrite(long documentId, JsonNode before) {
+            this.documentId = documentId;
+            this.before = before;
+            this.written = new ArrayList<>();
+        }
+    }
+}
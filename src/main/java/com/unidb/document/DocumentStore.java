@@ -0,0 +1,62 @@
+package com.unidb.document;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.unidb.transaction.VersionManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registry of the document collections that share one version store. The
+ * store hands out collection ids and forwards transaction outcomes to every
+ * collection so that their secondary indexes drop stale entries.
+ */
+@Slf4j
+public class DocumentStore {
+    private final VersionManager versionManager;
+    private final ObjectMapper objectMapper;
+    private final Map<String, DocumentCollection> collections;
+    private final AtomicInteger nextCollectionId;
+
+    public DocumentStore(VersionManager versionManager) {
+        this.versionManager = versionManager;
+        this.objectMapper = new ObjectMapper();
+        this.collections = new ConcurrentHashMap<>();
+        this.nextCollectionId = new AtomicInteger();
+    }
+
+    public DocumentCollection createCollection(String name) {
+        return collections.computeIfAbsent(name, collectionName -> {
+            int collectionId = nextCollectionId.getAndIncrement();
+            if (collectionId > DocumentCollection.MAX_COLLECTION_ID) {
+                throw new IllegalStateException("Too many document collections");
+            }
+            log.info("Created document collection {} with id {}.", collectionName, collectionId);
+            return new DocumentCollection(collectionName, collectionId, versionManager, objectMapper);
+        });
+    }
+
+    public DocumentCollection getCollection(String name) {
+        DocumentCollection collection = collections.get(name);
+        if (collection == null) {
+            throw new IllegalArgumentException("Unknown document collection: " + name);
+        }
+        return collection;
+    }
+
+    // Call after the version manager committed or rolled back the transaction; returns documents written by collection
+    public Map<String, Integer> transactionFinished(long transactionId) {
+        Map<String, Integer> written = new HashMap<>();
+        for (DocumentCollection collection : collections.values()) {
+            int documents = collection.settle(transactionId);
+            if (documents > 0) {
+                written.put(collection.getName(), documents);
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,167 @@
+package com.unidb.document;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Ordered secondary index from the scalar values found at one JSON path to
+ * the ids of the documents holding them. Numbers sort before strings, and
+ * strings before booleans; numbers compare by value, so 1 and 1.0 are equal.
+ * When the path ends at an array, each scalar element is indexed. Entries are
+ * a superset of the visible state, and callers re-check every candidate
+ * against the document version they can see.
+ */
+final class JsonPathIndex {
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingInt(entry -> rank(entry.value))
+            .thenComparing((a, b) -> compareValues(a.value, b.value))
+            .thenComparingLong(entry -> entry.documentId);
+
+    private final String path;
+    private final JsonPointer pointer;
+    private final NavigableSet<Entry> entries;
+
+    JsonPathIndex(String path) {
+        this.path = path;
+        this.pointer = compile(path);
+        this.entries = new ConcurrentSkipListSet<>(ORDER);
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    void add(long documentId, JsonNode document) {
+        for (Comparable<?> value : valuesOf(document)) {
+            entries.add(new Entry(value, documentId));
+        }
+    }
+
+    void remove(long documentId, Comparable<?> value) {
+        entries.remove(new Entry(value, documentId));
+    }
+
+    long size() {
+        return entries.size();
+    }
+
+    // Ids of documents with a value in [low, high], in value order; a document can appear more than once
+    List<Long> range(Comparable<?> low, Comparable<?> high) {
+        List<Long> documentIds = new ArrayList<>();
+        for (Entry entry : entries.subSet(new Entry(low, Long.MIN_VALUE), true, new Entry(high, Long.MAX_VALUE), true)) {
+            documentIds.add(entry.documentId);
+        }
+        return documentIds;
+    }
+
+    // Scalar values at the path, normalized for comparison; empty when the path is missing or not scalar
+    List<Comparable<?>> valuesOf(JsonNode document) {
+        List<Comparable<?>> values = new ArrayList<>();
+        if (document == null) {
+            return values;
+        }
+        JsonNode node = document.at(pointer);
+        if (node.isArray()) {
+            for (JsonNode element : node) {
+                addScalar(element, values);
+            }
+        } else {
+            addScalar(node, values);
+        }
+        return values;
+    }
+
+    boolean matches(JsonNode document, Comparable<?> low, Comparable<?> high) {
+        for (Comparable<?> value : valuesOf(document)) {
+            if (inRange(value, low, high)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Numbers become BigDecimal so that values compare exactly whatever their JSON or Java type
+    static Comparable<?> normalize(Object value) {
+        if (value instanceof BigDecimal decimal) {
+            return decimal;
+        }
+        if (value instanceof Number number) {
+            return new BigDecimal(number.toString());
+        }
+        if (value instanceof String || value instanceof Boolean) {
+            return (Comparable<?>) value;
+        }
+        throw new IllegalArgumentException("Only numbers, strings and booleans can be indexed: " + value);
+    }
+
+    static boolean inRange(Comparable<?> value, Comparable<?> low, Comparable<?> high) {
+        return rank(value) == rank(low) && rank(value) == rank(high) && compareValues(value, low) >= 0
+                && compareValues(value, high) <= 0;
+    }
+
+    private static void addScalar(JsonNode node, List<Comparable<?>> values) {
+        if (node.isNumber()) {
+            values.add(node.decimalValue());
+        } else if (node.isTextual()) {
+            values.add(node.textValue());
+        } else if (node.isBoolean()) {
+            values.add(node.booleanValue());
+        }
+    }
+
+    private static int rank(Comparable<?> value) {
+        return value instanceof BigDecimal ? 0 : value instanceof String ? 1 : 2;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValues(Comparable a, Comparable b) {
+        return a.compareTo(b);
+    }
+
+    // Accepts paths like $.customer.id or $.items[0].sku
+    static JsonPointer compile(String path) {
+        if (path == null || !path.startsWith("$")) {
+            throw new IllegalArgumentException("JSON path must start with '$': " + path);
+        }
+        StringBuilder pointer = new StringBuilder();
+        int i = 1;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            int end;
+            if (c == '.') {
+                end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == i + 1) {
+                    throw new IllegalArgumentException("Empty field name in JSON path: " + path);
+                }
+                pointer.append('/').append(path.substring(i + 1, end).replace("~", "~0").replace("/", "~1"));
+                i = end;
+            } else if (c == '[') {
+                end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed '[' in JSON path: " + path);
+                }
+                String index = path.substring(i + 1, end);
+                if (!index.matches("\\d+")) {
+                    throw new IllegalArgumentException("Array index must be a number in JSON path: " + path);
+                }
+                pointer.append('/').append(index);
+                i = end + 1;
+            } else {
+                throw new IllegalArgumentException("Unexpected '" + c + "' in JSON path: " + path);
+            }
+        }
+        return JsonPointer.compile(pointer.toString());
+    }
+
+    private record Entry(Comparable<?> value, long documentId) {
+    }
+}
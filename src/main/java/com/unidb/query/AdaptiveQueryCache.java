@@ -1,50 +1,582 @@
 package com.unidb.query;
 
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Thread-safe query result cache bounded by the estimated memory of its
+ * entries, using W-TinyLFU in independent shards. New entries enter a small
+ * LRU window. Entries leaving the window are admitted to the main space
+ * only if a frequency sketch has seen their query more often than the main
+ * space's eviction victim, so a long tail of one-off queries cannot flush
+ * the hot results. The main space is a segmented LRU: probation for entries
+ * read once since admission, protected for the rest. Each shard adapts its
+ * window size by hill climbing on its hit rate.
+ *
+ * <p>Reads are lock-free. They record the access in a lossy ring buffer that
+ * is replayed under the shard lock. Expiry is driven by a timer wheel that
+ * advances during that maintenance, so lookups never read the clock or
+ * check deadlines; an entry can outlive its time to live by up to two
+ * ticks, about two seconds.
+ *
+ * <p>Every result is tagged with the key or key range it was read from and
+ * the invalidation epoch at which the read started. Committed
+ * writes call {@link #invalidate(long[])}, which advances the epoch for the
+ * written keys and drops exactly the entries whose range covers one of them.
+ * A result whose keys were invalidated while it was being computed is
+ * refused, so a read racing a commit cannot cache the value it replaced.
+ */
 @Slf4j
 public class AdaptiveQueryCache {
-    private final Map<String, CacheEntry> cache;
-    private final int capacity;
-    private long expirationTime;
-    private final long minExpirationTime = 10000; // 10s
-    private final long maxExpirationTime = 60000; // 60s
-    
-    public AdaptiveQueryCache(int capacity, long initialExpirationTime) {
-        this.capacity = capacity;
-        this.expirationTime = initialExpirationTime;
-        this.cache = new LinkedHashMap<>(capacity, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
-                return size() > AdaptiveQueryCache.this.capacity || eldest.getValue().isExpired();
-            }
-        };
+    private static final int ENTRY_OVERHEAD = 96; // entry, map node and string headers
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int TICK_SHIFT = 30; // about one second per wheel bucket
+    private static final int WHEEL_SIZE = 128;
+    private static final int EPOCH_STRIPES = 4096;
+
+    private final Shard[] shards;
+    private final long expireAfterWriteNanos;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    // Invalidation state: the last epoch per key stripe and the tagged entries by point key or range
+    private final AtomicLong epoch;
+    private final AtomicLongArray keyEpochs;
+    private final Map<Long, Set<CacheEntry>> pointDependents;
+    private final Set<CacheEntry> rangeDependents;
+    private final LongAdder invalidations;
+    private final LongAdder refusedPuts;
+
+    public AdaptiveQueryCache(long maximumWeightBytes, long expireAfterWriteMillis) {
+        this.expireAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(expireAfterWriteMillis);
+        if ((expireAfterWriteNanos >> TICK_SHIFT) + 2 >= WHEEL_SIZE) {
+            throw new IllegalArgumentException("Expiry beyond " + (WHEEL_SIZE << TICK_SHIFT) / 1_000_000 + " ms");
+        }
+        // Enough shards to spread the cores, few enough that each shard still holds a useful share
+        int count = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors() * 4, 1));
+        while (count > 1 && maximumWeightBytes / count < 64 * 1024) {
+            count >>= 1;
+        }
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(maximumWeightBytes / count);
+        }
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.epoch = new AtomicLong();
+        this.keyEpochs = new AtomicLongArray(EPOCH_STRIPES);
+        this.pointDependents = new ConcurrentHashMap<>();
+        this.rangeDependents = ConcurrentHashMap.newKeySet();
+        this.invalidations = new LongAdder();
+        this.refusedPuts = new LongAdder();
     }
 
     public boolean contains(String query) {
-        return cache.containsKey(query) && !cache.get(query).isExpired();
+        return shardFor(hash(query)).entries.containsKey(query);
     }
 
+    // One map lookup; null when the query is not cached
     public String get(String query) {
-        CacheEntry entry = cache.get(query);
-        return (entry != null && !entry.isExpired()) ? entry.result : null;
+        int hash = hash(query);
+        Shard shard = shardFor(hash);
+        CacheEntry entry = shard.entries.get(query);
+        if (entry == null) {
+            misses.increment();
+            shard.recordMiss(hash);
+            return null;
+        }
+        hits.increment();
+        shard.recordRead(entry);
+        return entry.result;
+    }
+
+    // ---------------- INVALIDATION ----------------
+    // Take before reading the store; pass to put so results read across a conflicting commit are refused
+    public long currentEpoch() {
+        return epoch.get();
     }
 
-    public void put(String query, String result) {
-        cache.put(query, new CacheEntry(result, System.currentTimeMillis() + expirationTime));
-        log.info("Cached result for query: {} with expiration: {} ms", query, expirationTime);
-        adjustExpirationTime(query);
+    /**
+     * Caches a result that depends on the committed versions of the keys in
+     * [low, high]. Returns false if one of those keys was invalidated since
+     * startEpoch; ranges are refused after any invalidation at all.
+     */
+    public boolean put(String query, String result, long low, long high, long startEpoch) {
+        int hash = hash(query);
+        boolean cached = shardFor(hash).put(query, result, hash, weigh(query, result), low, high, startEpoch);
+        if (!cached) {
+            refusedPuts.increment();
+        }
+        return cached;
     }
-    
-    private void adjustExpirationTime(String query) {
-        if (cache.containsKey(query)) {
-            expirationTime = Math.min(expirationTime + 5000, maxExpirationTime);
+
+    // Drops every entry depending on one of the keys; keys must be sorted
+    public void invalidate(long[] keys) {
+        if (keys.length == 0) {
+            return;
+        }
+        long invalidatedAt = epoch.incrementAndGet();
+        for (long key : keys) {
+            keyEpochs.accumulateAndGet(stripe(key), invalidatedAt, Math::max);
+        }
+        // Scanned only after the epochs moved: a put that registers later sees the new epoch and backs out
+        for (long key : keys) {
+            Set<CacheEntry> dependents = pointDependents.get(key);
+            if (dependents != null) {
+                for (CacheEntry entry : dependents) {
+                    invalidate(entry);
+                }
+            }
+        }
+        for (CacheEntry entry : rangeDependents) {
+            int first = Arrays.binarySearch(keys, entry.low);
+            first = first >= 0 ? first : -first - 1;
+            if (first < keys.length && keys[first] <= entry.high) {
+                invalidate(entry);
+            }
+        }
+    }
+
+    private void invalidate(CacheEntry entry) {
+        if (shardFor(hash(entry.query)).invalidate(entry)) {
+            invalidations.increment();
+        }
+    }
+
+    private boolean invalidatedSince(long low, long high, long startEpoch) {
+        return (low == high ? keyEpochs.get(stripe(low)) : epoch.get()) > startEpoch;
+    }
+
+    private void register(CacheEntry entry) {
+        if (entry.low == entry.high) {
+            pointDependents.computeIfAbsent(entry.low, key -> ConcurrentHashMap.newKeySet()).add(entry);
         } else {
-            expirationTime = Math.max(expirationTime - 5000, minExpirationTime);
+            rangeDependents.add(entry);
+        }
+    }
+
+    private void unregister(CacheEntry entry) {
+        if (entry.low == entry.high) {
+            pointDependents.computeIfPresent(entry.low, (key, dependents) -> {
+                dependents.remove(entry);
+                return dependents.isEmpty() ? null : dependents;
+            });
+        } else {
+            rangeDependents.remove(entry);
+        }
+    }
+
+    private static int stripe(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (EPOCH_STRIPES - 1);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.entries.size();
+        }
+        return size;
+    }
+
+    // ---------------- METRICS ----------------
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long requests = getHits() + getMisses();
+        return requests == 0 ? 0 : (double) getHits() / requests;
+    }
+
+    public long getEvictions() {
+        long evictions = 0;
+        for (Shard shard : shards) {
+            evictions += shard.evictions.sum();
+        }
+        return evictions;
+    }
+
+    public long getExpirations() {
+        long expirations = 0;
+        for (Shard shard : shards) {
+            expirations += shard.expirations.sum();
+        }
+        return expirations;
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public long getRefusedPuts() {
+        return refusedPuts.sum();
+    }
+
+    public long getWeightedSize() {
+        long weight = 0;
+        for (Shard shard : shards) {
+            weight += shard.weightedSize;
+        }
+        return weight;
+    }
+
+    public void logMetrics() {
+        log.info("Query cache: {} entries, {} bytes in {} shards, hit rate {} ({} hits, {} misses), {} evictions, "
+                + "{} expirations, {} invalidations, {} refused puts", size(), getWeightedSize(), shards.length,
+                String.format("%.4f", getHitRate()), getHits(), getMisses(), getEvictions(), getExpirations(),
+                getInvalidations(), getRefusedPuts());
+    }
+
+    // ---------------- HELPERS ----------------
+    private Shard shardFor(int hash) {
+        return shards[(hash >>> 16) & (shards.length - 1)];
+    }
+
+    private static int hash(String query) {
+        int h = query.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Strings are counted at two bytes per char whatever their internal coding
+    private static int weigh(String query, String result) {
+        long weight = ENTRY_OVERHEAD + 2L * query.length() + (result == null ? 0 : 2L * result.length());
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * One independent W-TinyLFU cache. The map is read without locking;
+     * every structural change happens under the lock.
+     */
+    private final class Shard {
+        private final ConcurrentHashMap<String, CacheEntry> entries;
+        private final ReentrantLock lock;
+        private final FrequencySketch sketch;
+        private final CacheEntry[] segments; // LRU list sentinels, least recently used first
+        private final long[] segmentWeights;
+        private final CacheEntry[] wheel;
+        private final AtomicReferenceArray<CacheEntry> readBuffer;
+        private final AtomicLong readCount;
+        private final LongAdder evictions;
+        private final LongAdder expirations;
+        private final long maximumWeight;
+        private volatile long weightedSize;
+        private long windowMaximum;
+        private long tick;
+        // Hill climbing state: hits and misses in the current sample, last sample's hit rate, current step
+        private int sampleHits;
+        private int sampleMisses;
+        private double previousHitRate;
+        private long stepSize;
+
+        private Shard(long maximumWeight) {
+            this.entries = new ConcurrentHashMap<>();
+            this.lock = new ReentrantLock();
+            this.sketch = new FrequencySketch((int) Math.min(maximumWeight / 512, 1 << 20));
+            this.segments = new CacheEntry[] { CacheEntry.sentinel(), CacheEntry.sentinel(), CacheEntry.sentinel() };
+            this.segmentWeights = new long[3];
+            this.wheel = new CacheEntry[WHEEL_SIZE];
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = CacheEntry.sentinel();
+            }
+            this.readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+            this.readCount = new AtomicLong();
+            this.evictions = new LongAdder();
+            this.expirations = new LongAdder();
+            this.maximumWeight = maximumWeight;
+            this.windowMaximum = Math.max(maximumWeight / 100, 1);
+            this.stepSize = -maximumWeight / 16; // first move shrinks the window
+            this.tick = System.nanoTime() >> TICK_SHIFT;
+        }
+
+        // A full slot drops the access; the sketch and LRU order only need a sample
+        private void recordRead(CacheEntry entry) {
+            long count = readCount.getAndIncrement();
+            int index = (int) count & (READ_BUFFER_SIZE - 1);
+            readBuffer.compareAndSet(index, null, entry);
+            if (index == READ_BUFFER_SIZE - 1 && lock.tryLock()) {
+                try {
+                    maintain();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        // Misses also count towards frequency, so a query that keeps coming back wins admission
+        private void recordMiss(int hash) {
+            if (lock.tryLock()) {
+                try {
+                    sketch.increment(hash);
+                    sampleMisses++;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * The entry is registered as a dependent before the epoch check and
+         * published in the map after it. Either the check sees a concurrent
+         * invalidation, or the invalidation finds the registered entry and
+         * then waits on this shard's lock to remove it.
+         */
+        private boolean put(String query, String result, int hash, int weight, long low, long high,
+                long startEpoch) {
+            lock.lock();
+            try {
+                maintain();
+                if (weight > maximumWeight || invalidatedSince(low, high, startEpoch)) {
+                    return false;
+                }
+                CacheEntry entry = new CacheEntry(query, result, weight, System.nanoTime() + expireAfterWriteNanos);
+                entry.low = low;
+                entry.high = high;
+                register(entry);
+                if (invalidatedSince(low, high, startEpoch)) {
+                    unregister(entry);
+                    entry.segment = CacheEntry.REMOVED; // an invalidation may still be waiting to remove it
+                    return false;
+                }
+                CacheEntry replaced = entries.get(query);
+                if (replaced != null) {
+                    remove(replaced);
+                }
+                sketch.increment(hash);
+                entries.put(query, entry);
+                weightedSize += weight;
+                link(CacheEntry.WINDOW, entry);
+                scheduleTimer(entry);
+                evict();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean invalidate(CacheEntry entry) {
+            lock.lock();
+            try {
+                if (entry.segment == CacheEntry.REMOVED) {
+                    return false;
+                }
+                remove(entry);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void maintain() {
+            for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+                CacheEntry entry = readBuffer.getAndSet(i, null);
+                if (entry != null && entry.segment != CacheEntry.REMOVED) {
+                    sketch.increment(hash(entry.query));
+                    sampleHits++;
+                    onAccess(entry);
+                }
+            }
+            expire(System.nanoTime());
+            climb();
+        }
+
+        // Window entries stay in the window; a second read promotes a probation entry to protected
+        private void onAccess(CacheEntry entry) {
+            if (entry.segment == CacheEntry.PROBATION) {
+                unlink(entry);
+                link(CacheEntry.PROTECTED, entry);
+                long protectedMaximum = (maximumWeight - windowMaximum) * 4 / 5;
+                while (segmentWeights[CacheEntry.PROTECTED] > protectedMaximum) {
+                    CacheEntry demoted = segments[CacheEntry.PROTECTED].next;
+                    unlink(demoted);
+                    link(CacheEntry.PROBATION, demoted);
+                }
+            } else {
+                int segment = entry.segment;
+                unlink(entry);
+                link(segment, entry);
+            }
+        }
+
+        /**
+         * Moves window overflow to the tail of probation as admission
+         * candidates, then evicts until the shard fits. Each round compares the
+         * oldest candidate with the least recently used probation entry and
+         * keeps the one the sketch has seen more often; ties go to the victim,
+         * which has already proven itself.
+         */
+        private void evict() {
+            CacheEntry candidate = null;
+            while (segmentWeights[CacheEntry.WINDOW] > windowMaximum) {
+                CacheEntry demoted = segments[CacheEntry.WINDOW].next;
+                unlink(demoted);
+                link(CacheEntry.PROBATION, demoted);
+                candidate = candidate == null ? demoted : candidate;
+            }
+            CacheEntry probation = segments[CacheEntry.PROBATION];
+            CacheEntry victim = probation.next == probation ? null : probation.next;
+            while (weightedSize > maximumWeight) {
+                if (victim == candidate) {
+                    victim = null; // only candidates are left in probation
+                }
+                CacheEntry evicted;
+                if (candidate == null && victim == null) {
+                    evicted = oldestOutsideProbation();
+                } else if (candidate == null) {
+                    evicted = victim;
+                    victim = next(victim);
+                } else if (victim == null || sketch.frequency(hash(candidate.query)) <= sketch
+                        .frequency(hash(victim.query))) {
+                    evicted = candidate;
+                    candidate = next(candidate);
+                } else {
+                    evicted = victim;
+                    victim = next(victim);
+                }
+                remove(evicted);
+                evictions.increment();
+            }
+        }
+
+        private CacheEntry oldestOutsideProbation() {
+            CacheEntry protectedHead = segments[CacheEntry.PROTECTED];
+            return protectedHead.next != protectedHead ? protectedHead.next : segments[CacheEntry.WINDOW].next;
+        }
+
+        private CacheEntry next(CacheEntry entry) {
+            return entry.next == segments[CacheEntry.PROBATION] ? null : entry.next;
+        }
+
+        // Advances the wheel to the current tick; after a long idle gap, entries of later laps stay in place
+        private void expire(long now) {
+            long current = now >> TICK_SHIFT;
+            long ticks = Math.min(current - tick, WHEEL_SIZE);
+            for (long t = current - ticks + 1; t <= current; t++) {
+                CacheEntry bucket = wheel[(int) (t & (WHEEL_SIZE - 1))];
+                CacheEntry entry = bucket.timerNext;
+                while (entry != bucket) {
+                    CacheEntry following = entry.timerNext;
+                    if (entry.expiresAtNanos - now <= 0) {
+                        remove(entry);
+                        expirations.increment();
+                    }
+                    entry = following;
+                }
+            }
+            tick = current;
+        }
+
+        // Every sample of reads moves the window by one step, reversing direction when the hit rate fell
+        private void climb() {
+            int sample = sampleHits + sampleMisses;
+            if (sample < 1000) {
+                return;
+            }
+            double hitRate = (double) sampleHits / sample;
+            if (hitRate < previousHitRate) {
+                stepSize = -stepSize;
+            }
+            windowMaximum = Math.max(maximumWeight / 100, Math.min(windowMaximum + stepSize, maximumWeight * 4 / 5));
+            stepSize = stepSize * 49 / 50; // settle once the best size is found
+            previousHitRate = hitRate;
+            sampleHits = 0;
+            sampleMisses = 0;
+        }
+
+        private void remove(CacheEntry entry) {
+            entries.remove(entry.query, entry);
+            unregister(entry);
+            unlink(entry);
+            unlinkTimer(entry);
+            weightedSize -= entry.weight;
+            entry.segment = CacheEntry.REMOVED;
+        }
+
+        private void link(int segment, CacheEntry entry) {
+            CacheEntry head = segments[segment];
+            entry.previous = head.previous;
+            entry.next = head;
+            head.previous.next = entry;
+            head.previous = entry;
+            entry.segment = segment;
+            segmentWeights[segment] += entry.weight;
+        }
+
+        private void unlink(CacheEntry entry) {
+            entry.previous.next = entry.next;
+            entry.next.previous = entry.previous;
+            segmentWeights[entry.segment] -= entry.weight;
+        }
+
+        // The bucket after the deadline's tick: once the wheel reaches it, every entry in it is due
+        private void scheduleTimer(CacheEntry entry) {
+            CacheEntry bucket = wheel[(int) (((entry.expiresAtNanos >> TICK_SHIFT) + 1) & (WHEEL_SIZE - 1))];
+            entry.timerPrevious = bucket.timerPrevious;
+            entry.timerNext = bucket;
+            bucket.timerPrevious.timerNext = entry;
+            bucket.timerPrevious = entry;
+        }
+
+        private void unlinkTimer(CacheEntry entry) {
+            entry.timerPrevious.timerNext = entry.timerNext;
+            entry.timerNext.timerPrevious = entry.timerPrevious;
+        }
+    }
+
+    // Hit rates on a skewed workload with a long tail of one-off queries, against an LRU map of the same budget
+    public static void main(String[] args) {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        long budget = 4L << 20;
+        String result = "x".repeat(400);
+        Random random = new Random(42);
+        String[] trace = new String[requests];
+        for (int i = 0; i < requests; i++) {
+            // Half the traffic is Zipf-like over 50k hot queries, half is never repeated
+            trace[i] = random.nextBoolean() ? "SELECT * FROM t WHERE id = " + (int) Math.pow(50_000, random.nextDouble())
+                    : "SELECT * FROM scan WHERE id = " + (requests + i);
+        }
+
+        AdaptiveQueryCache cache = new AdaptiveQueryCache(budget, 60_000);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            if (cache.get(trace[i]) == null) {
+                cache.put(trace[i], result, i, i, cache.currentEpoch());
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        cache.logMetrics();
+        log.info("W-TinyLFU: hit rate {}, {} ns/request", String.format("%.4f", cache.getHitRate()), nanos / requests);
+
+        long entries = budget / weigh(trace[0], result);
+        Map<String, String> lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > entries;
+            }
+        };
+        long lruHits = 0;
+        for (String query : trace) {
+            if (lru.get(query) != null) {
+                lruHits++;
+            } else {
+                lru.put(query, result);
+            }
         }
-        log.info("Adaptive expiration time adjusted to: {} ms", expirationTime);
+        log.info("LRU: hit rate {}", String.format("%.4f", (double) lruHits / requests));
     }
-}
\ No newline at end of file
+}
@@ -1,34 +1,554 @@
 package com.unidb.query;
 
-import java.util.TreeMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.unidb.storage.DiskManager;
+import com.unidb.storage.WalManager;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Disk-resident B+ tree. Every node is one fixed-size page obtained from the
+ * {@link DiskManager} (and therefore cached by its buffer pool); page 0 holds
+ * the tree's metadata so the index survives restarts. A node holds at most
+ * {@code order - 1} keys and is also split early when its prefix-compressed
+ * encoding no longer fits a page. Leaves are doubly linked for ordered scans.
+ * Splits, merges and root changes are logged to the WAL before the affected
+ * pages are written.
+ */
 @Slf4j
-class BPlusTreeIndexManager extends IndexManager{
-    @SuppressWarnings("unused")
+class BPlusTreeIndexManager extends IndexManager {
+    private static final int META_MAGIC = 0x55444249; // "UDBI"
+    private static final long META_PAGE = 0;
+    private static final long SYSTEM_TRANSACTION = -1; // WAL transaction id for structural changes
+
     private final int order;
-    private final TreeMap<Long, Long> index;
+    private final int maxKeys;
+    private final DiskManager diskManager;
+    private final WalManager walManager;
+    private long rootPageId;
+    private int height;
+    private long freeListHead;
+    private long size;
+    private long modifications; // lets open cursors notice that their next leaf may have moved
 
-    public BPlusTreeIndexManager(int order) {
+    // Each index needs its own page file and WAL; two trees on one file would overwrite each other's pages
+    public BPlusTreeIndexManager(int order, DiskManager diskManager, WalManager walManager) {
+        super(null); // every operation is overridden
+        if (order < 3) {
+            throw new IllegalArgumentException("B+ tree order must be at least 3");
+        }
         this.order = order;
-        this.index = new TreeMap<>();
+        this.maxKeys = order - 1;
+        this.diskManager = diskManager;
+        this.walManager = walManager;
+        try {
+            if (diskManager.pageCount() == 0) {
+                diskManager.allocatePage(); // meta page
+                rootPageId = allocateNode();
+                writeNode(new BPlusTreeNode(rootPageId, true));
+                writeMeta();
+            } else {
+                readMeta();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open B+ tree index", e);
+        }
     }
 
     @Override
-    public boolean containsKey(long key) {
-        return index.containsKey(key);
+    public synchronized boolean containsKey(long key) {
+        byte[] leaf = findLeaf(key);
+        return BPlusTreeNode.search(leaf, key) >= 0;
     }
 
     @Override
-    public long lookup(long key) {
+    public synchronized long lookup(long key) {
         log.info("B+ Tree Index lookup for key: {}", key);
-        return index.getOrDefault(key, key);
+        byte[] leaf = findLeaf(key);
+        int position = BPlusTreeNode.search(leaf, key);
+        return position >= 0 ? BPlusTreeNode.pointerAt(leaf, position) : key;
     }
 
     @Override
-    public void insert(long key) {
-        index.put(key, key);
+    public synchronized void insert(long key) {
+        insert(key, key);
         log.info("Inserted key into B+ Tree Index: {}", key);
     }
-}
\ No newline at end of file
+
+    public synchronized void insert(long key, long value) {
+        try {
+            long[] path = new long[height + 1];
+            int[] childIndexes = new int[path.length];
+            int depth = descend(key, path, childIndexes);
+            BPlusTreeNode leaf = readNode(path[depth]);
+            int position = leaf.search(key);
+            modifications++;
+            if (position >= 0) {
+                leaf.pointers[position] = value;
+                writeNode(leaf);
+                return;
+            }
+            leaf.insertEntry(-(position + 1), key, value);
+            size++;
+            splitUpwards(leaf, path, childIndexes, depth);
+            writeMeta();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to insert key " + key, e);
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(long key) {
+        try {
+            long[] path = new long[height + 1];
+            int[] childIndexes = new int[path.length];
+            int depth = descend(key, path, childIndexes);
+            BPlusTreeNode leaf = readNode(path[depth]);
+            int position = leaf.search(key);
+            if (position < 0) {
+                return false;
+            }
+            leaf.removeEntry(position);
+            size--;
+            modifications++;
+            mergeUpwards(leaf, path, childIndexes, depth);
+            writeMeta();
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to remove key " + key, e);
+        }
+    }
+
+    // Builds the tree bottom-up from entries in strictly ascending key order, filling each node to the
+    // fill factor. Nodes go to consecutive new pages, leaves first, so the file is written sequentially.
+    public synchronized void bulkLoad(IndexCursor sortedEntries, double fillFactor) {
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("Fill factor must be in (0, 1]");
+        }
+        if (size != 0 || height != 0) {
+            throw new IllegalStateException("Bulk load requires an empty index");
+        }
+        try {
+            int leafTarget = Math.max(1, (int) (maxKeys * fillFactor));
+            Level leaves = new Level();
+            BPlusTreeNode leaf = null;
+            long loaded = 0;
+            while (sortedEntries.next()) {
+                long key = sortedEntries.key();
+                if (leaf == null) {
+                    leaf = new BPlusTreeNode(diskManager.allocatePage(), true);
+                } else if (key <= leaf.keys[leaf.count - 1]) {
+                    throw new IllegalArgumentException("Bulk load input must be strictly ascending: " + key
+                            + " follows " + leaf.keys[leaf.count - 1]);
+                }
+                leaf.insertEntry(leaf.count, key, sortedEntries.value());
+                if (leaf.count > leafTarget || !leaf.fitsInPage()) {
+                    leaf.removeEntry(leaf.count - 1);
+                    BPlusTreeNode following = new BPlusTreeNode(diskManager.allocatePage(), true);
+                    leaf.next = following.pageId;
+                    following.prev = leaf.pageId;
+                    writeNode(leaf);
+                    leaves.add(leaf.keys[0], leaf.pageId);
+                    leaf = following;
+                    leaf.insertEntry(0, key, sortedEntries.value());
+                }
+                loaded++;
+            }
+            if (leaf == null) {
+                return;
+            }
+            writeNode(leaf);
+            leaves.add(leaf.keys[0], leaf.pageId);
+
+            int fanout = Math.max(3, Math.min(order, (int) Math.round(order * fillFactor)));
+            Level level = leaves;
+            int levels = 0;
+            while (level.size > 1) {
+                level = buildParents(level, fanout);
+                levels++;
+            }
+            walManager.logWrite(SYSTEM_TRANSACTION, level.pageIds[0],
+                    ("BULKLOAD " + loaded + " keys, root " + level.pageIds[0]).getBytes());
+            freeNode(rootPageId); // the empty root leaf
+            rootPageId = level.pageIds[0];
+            height = levels;
+            size = loaded;
+            modifications++;
+            writeMeta();
+            log.info("Bulk loaded {} keys into {} leaves, height {}.", loaded, leaves.size, height);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to bulk load B+ tree index", e);
+        }
+    }
+
+    @Override
+    public IndexCursor scan(long low, long high) {
+        return new LeafCursor(low, high, false);
+    }
+
+    @Override
+    public IndexCursor scanDescending(long low, long high) {
+        return new LeafCursor(low, high, true);
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public synchronized void close() throws IOException {
+        writeMeta();
+        diskManager.close();
+        if (walManager != null) {
+            walManager.close();
+        }
+    }
+
+    // ---------------- TRAVERSAL ----------------
+    private byte[] findLeaf(long key) {
+        try {
+            byte[] page = diskManager.readPage(rootPageId);
+            while (!BPlusTreeNode.isLeaf(page)) {
+                page = diskManager.readPage(BPlusTreeNode.pointerAt(page, BPlusTreeNode.childIndex(page, key)));
+            }
+            return page;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read B+ tree page", e);
+        }
+    }
+
+    // Records the root-to-leaf path for the key; returns the depth of the leaf
+    private int descend(long key, long[] path, int[] childIndexes) throws IOException {
+        int depth = 0;
+        path[0] = rootPageId;
+        byte[] page = diskManager.readPage(rootPageId);
+        while (!BPlusTreeNode.isLeaf(page)) {
+            int child = BPlusTreeNode.childIndex(page, key);
+            childIndexes[depth] = child;
+            path[++depth] = BPlusTreeNode.pointerAt(page, child);
+            page = diskManager.readPage(path[depth]);
+        }
+        return depth;
+    }
+
+    // ---------------- CURSORS ----------------
+    // Walks the leaf chain page by page. Pages are never modified in place, so the current page stays a
+    // consistent snapshot; when the tree changed since it was read, the next leaf is found by a fresh
+    // descent from the last returned key instead of the possibly stale sibling link.
+    private final class LeafCursor implements IndexCursor {
+        private final long low;
+        private final long high;
+        private final boolean descending;
+        private byte[] page;
+        private int position;
+        private long seenModifications;
+        private long key;
+        private long value;
+        private boolean exhausted;
+
+        private LeafCursor(long low, long high, boolean descending) {
+            this.low = low;
+            this.high = high;
+            this.descending = descending;
+            this.exhausted = low > high;
+        }
+
+        @Override
+        public boolean next() {
+            synchronized (BPlusTreeIndexManager.this) {
+                if (exhausted) {
+                    return false;
+                }
+                if (page == null) {
+                    locate(descending ? high : low);
+                } else {
+                    position += descending ? -1 : 1;
+                }
+                try {
+                    while (position < 0 || position >= BPlusTreeNode.count(page)) {
+                        if (seenModifications != modifications) {
+                            if (descending ? key == Long.MIN_VALUE : key == Long.MAX_VALUE) {
+                                return finish();
+                            }
+                            locate(descending ? key - 1 : key + 1);
+                            continue;
+                        }
+                        long sibling = descending ? BPlusTreeNode.prevPage(page) : BPlusTreeNode.nextPage(page);
+                        if (sibling == BPlusTreeNode.NO_PAGE) {
+                            return finish();
+                        }
+                        page = diskManager.readPage(sibling);
+                        position = descending ? BPlusTreeNode.count(page) - 1 : 0;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to read B+ tree page", e);
+                }
+                long current = BPlusTreeNode.keyAt(page, position);
+                if (descending ? current < low : current > high) {
+                    return finish();
+                }
+                key = current;
+                value = BPlusTreeNode.pointerAt(page, position);
+                return true;
+            }
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+
+        @Override
+        public long value() {
+            return value;
+        }
+
+        // Positions on the first key >= target (ascending) or the last key <= target (descending)
+        private void locate(long target) {
+            page = findLeaf(target);
+            seenModifications = modifications;
+            int found = BPlusTreeNode.search(page, target);
+            int insertion = found >= 0 ? found : -(found + 1);
+            position = found >= 0 || !descending ? insertion : insertion - 1;
+        }
+
+        private boolean finish() {
+            exhausted = true;
+            page = null;
+            return false;
+        }
+    }
+
+    // ---------------- BULK LOADING ----------------
+    // Smallest key and page id of each node of one tree level, in key order
+    private static final class Level {
+        private long[] minKeys = new long[16];
+        private long[] pageIds = new long[16];
+        private int size;
+
+        private void add(long minKey, long pageId) {
+            if (size == minKeys.length) {
+                minKeys = Arrays.copyOf(minKeys, size * 2);
+                pageIds = Arrays.copyOf(pageIds, size * 2);
+            }
+            minKeys[size] = minKey;
+            pageIds[size] = pageId;
+            size++;
+        }
+    }
+
+    // Spreads the children evenly over ceil(size / fanout) parents, lowering the fanout until every
+    // parent fits its page
+    private Level buildParents(Level children, int fanout) throws IOException {
+        while (true) {
+            int parents = (children.size + fanout - 1) / fanout;
+            BPlusTreeNode[] nodes = new BPlusTreeNode[parents];
+            boolean fits = true;
+            for (int p = 0; p < parents && fits; p++) {
+                int from = (int) ((long) children.size * p / parents);
+                int to = (int) ((long) children.size * (p + 1) / parents);
+                BPlusTreeNode node = new BPlusTreeNode(BPlusTreeNode.NO_PAGE, false);
+                node.pointers[0] = children.pageIds[from];
+                for (int child = from + 1; child < to; child++) {
+                    node.insertChild(node.count, children.minKeys[child], children.pageIds[child]);
+                }
+                fits = node.fitsInPage();
+                nodes[p] = node;
+            }
+            if (!fits && fanout > 3) {
+                fanout = Math.max(3, fanout * 3 / 4);
+                continue;
+            }
+            Level level = new Level();
+            for (int p = 0; p < parents; p++) {
+                BPlusTreeNode node = nodes[p];
+                BPlusTreeNode placed = new BPlusTreeNode(diskManager.allocatePage(), false);
+                placed.count = node.count;
+                placed.keys = node.keys;
+                placed.pointers = node.pointers;
+                writeNode(placed);
+                level.add(children.minKeys[(int) ((long) children.size * p / parents)], placed.pageId);
+            }
+            return level;
+        }
+    }
+
+    private boolean overflows(BPlusTreeNode node) {
+        return node.count > maxKeys || !node.fitsInPage();
+    }
+
+    private boolean underflows(BPlusTreeNode node) {
+        return node.count < Math.max(1, maxKeys / 2) || node.encodedSize() < DiskManager.PAGE_SIZE / 4;
+    }
+
+    // ---------------- SPLITS ----------------
+    private void splitUpwards(BPlusTreeNode node, long[] path, int[] childIndexes, int depth) throws IOException {
+        while (overflows(node)) {
+            BPlusTreeNode right = new BPlusTreeNode(allocateNode(), node.leaf);
+            long separator = node.splitInto(right);
+            walManager.logWrite(SYSTEM_TRANSACTION, node.pageId,
+                    ("SPLIT " + node.pageId + " -> " + right.pageId + " at " + separator).getBytes());
+            if (right.leaf && right.next != BPlusTreeNode.NO_PAGE) {
+                BPlusTreeNode following = readNode(right.next);
+                following.prev = right.pageId;
+                writeNode(following);
+            }
+            writeNode(right);
+            writeNode(node);
+
+            if (depth == 0) {
+                BPlusTreeNode root = new BPlusTreeNode(allocateNode(), false);
+                root.pointers[0] = node.pageId;
+                root.insertChild(0, separator, right.pageId);
+                walManager.logWrite(SYSTEM_TRANSACTION, root.pageId, ("NEWROOT " + root.pageId).getBytes());
+                writeNode(root);
+                rootPageId = root.pageId;
+                height++;
+                return;
+            }
+            depth--;
+            BPlusTreeNode parent = readNode(path[depth]);
+            parent.insertChild(childIndexes[depth], separator, right.pageId);
+            node = parent;
+        }
+        writeNode(node);
+    }
+
+    // ---------------- MERGES ----------------
+    private void mergeUpwards(BPlusTreeNode node, long[] path, int[] childIndexes, int depth) throws IOException {
+        while (depth > 0 && underflows(node)) {
+            BPlusTreeNode parent = readNode(path[depth - 1]);
+            int child = childIndexes[depth - 1];
+            int separatorIndex = child > 0 ? child - 1 : 0;
+            if (parent.count == 0) {
+                break;
+            }
+            BPlusTreeNode left = child > 0 ? readNode(parent.pointers[child - 1]) : node;
+            BPlusTreeNode right = child > 0 ? node : readNode(parent.pointers[child + 1]);
+
+            BPlusTreeNode merged = left.copy();
+            merged.absorb(parent.keys[separatorIndex], right);
+            if (overflows(merged)) {
+                break; // siblings too full to merge; leave the node underfull
+            }
+            walManager.logWrite(SYSTEM_TRANSACTION, left.pageId,
+                    ("MERGE " + right.pageId + " -> " + left.pageId).getBytes());
+            if (merged.leaf && merged.next != BPlusTreeNode.NO_PAGE) {
+                BPlusTreeNode following = readNode(merged.next);
+                following.prev = merged.pageId;
+                writeNode(following);
+            }
+            writeNode(merged);
+            freeNode(right.pageId);
+            parent.removeChild(separatorIndex);
+            node = parent;
+            depth--;
+        }
+        writeNode(node);
+
+        // A root left with a single child hands the root role down to that child
+        if (depth == 0 && !node.leaf && node.count == 0) {
+            walManager.logWrite(SYSTEM_TRANSACTION, node.pointers[0], ("NEWROOT " + node.pointers[0]).getBytes());
+            rootPageId = node.pointers[0];
+            height--;
+            freeNode(node.pageId);
+        }
+    }
+
+    // ---------------- PAGES ----------------
+    private BPlusTreeNode readNode(long pageId) throws IOException {
+        return BPlusTreeNode.decode(pageId, diskManager.readPage(pageId));
+    }
+
+    private void writeNode(BPlusTreeNode node) throws IOException {
+        diskManager.writePage(node.pageId, node.encode());
+    }
+
+    // Reuses freed pages before growing the file; free pages are chained through their first 8 bytes
+    private long allocateNode() throws IOException {
+        if (freeListHead != BPlusTreeNode.NO_PAGE) {
+            long pageId = freeListHead;
+            freeListHead = ByteBuffer.wrap(diskManager.readPage(pageId)).getLong(0);
+            return pageId;
+        }
+        return diskManager.allocatePage();
+    }
+
+    private void freeNode(long pageId) throws IOException {
+        byte[] page = new byte[DiskManager.PAGE_SIZE];
+        ByteBuffer.wrap(page).putLong(0, freeListHead);
+        diskManager.writePage(pageId, page);
+        freeListHead = pageId;
+    }
+
+    private void writeMeta() throws IOException {
+        byte[] page = new byte[DiskManager.PAGE_SIZE];
+        ByteBuffer meta = ByteBuffer.wrap(page);
+        meta.putInt(META_MAGIC).putInt(order).putLong(rootPageId).putInt(height).putLong(freeListHead)
+                .putLong(size);
+        diskManager.writePage(META_PAGE, page);
+    }
+
+    private void readMeta() throws IOException {
+        ByteBuffer meta = ByteBuffer.wrap(diskManager.readPage(META_PAGE));
+        if (meta.getInt() != META_MAGIC) {
+            throw new IOException("Not a B+ tree index file");
+        }
+        int storedOrder = meta.getInt();
+        if (storedOrder != order) {
+            log.warn("Index was built with order {}, opened with order {}.", storedOrder, order);
+        }
+        rootPageId = meta.getLong();
+        height = meta.getInt();
+        freeListHead = meta.getLong();
+        size = meta.getLong();
+    }
+
+    // Random insert and lookup throughput; pass the key count (e.g. 10000000) and the order
+    public static void main(String[] args) {
+        long keys = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000L;
+        int order = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        File indexFile = new File("unidb_index_bench.db");
+        File walFile = new File("unidb_index_bench_wal.log");
+        indexFile.delete();
+        walFile.delete();
+        try {
+            BPlusTreeIndexManager tree = new BPlusTreeIndexManager(order,
+                    new DiskManager(indexFile.getPath(), 65_536), new WalManager(walFile.getPath()));
+            Random random = new Random(42);
+            long start = System.nanoTime();
+            for (long i = 0; i < keys; i++) {
+                tree.insert(random.nextLong(), i);
+            }
+            long insertNanos = System.nanoTime() - start;
+
+            random = new Random(42);
+            start = System.nanoTime();
+            long found = 0;
+            for (long i = 0; i < keys; i++) {
+                if (tree.containsKey(random.nextLong())) {
+                    found++;
+                }
+            }
+            long lookupNanos = System.nanoTime() - start;
+            log.info("{} keys, order {}: {} inserts/s, {} lookups/s ({} found), {} pages", keys, order,
+                    keys * 1_000_000_000L / Math.max(1, insertNanos), keys * 1_000_000_000L / Math.max(1, lookupNanos),
+                    found, indexFile.length() / DiskManager.PAGE_SIZE);
+            tree.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            indexFile.delete();
+            walFile.delete();
+        }
+    }
+}
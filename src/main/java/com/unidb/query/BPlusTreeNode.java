@@ -0,0 +1,296 @@
+package com.unidb.query;
+
+import java.util.Arrays;
+
+import com.unidb.storage.DiskManager;
+
+/**
+ * In-memory form of one B+ tree page and its on-page encoding.
+ *
+ * Page layout: type(1) count(2) suffixWidth(1) prefix(8) next(8) prev(8),
+ * followed by the key suffixes and then the 8-byte pointers (row values in
+ * leaves, child page ids in internal nodes). Keys are prefix-compressed: the
+ * high-order bytes shared by every key of the node are stored once in the
+ * header and each key keeps only its low suffixWidth bytes. Lookups search
+ * the encoded page directly; only mutations decode the node.
+ */
+final class BPlusTreeNode {
+    static final long NO_PAGE = 0; // page 0 is the tree's meta page, so it never is a node
+
+    private static final byte LEAF = 0;
+    private static final byte INTERNAL = 1;
+    private static final int TYPE_OFFSET = 0;
+    private static final int COUNT_OFFSET = 1;
+    private static final int WIDTH_OFFSET = 3;
+    private static final int PREFIX_OFFSET = 4;
+    private static final int NEXT_OFFSET = 12;
+    private static final int PREV_OFFSET = 20;
+    static final int HEADER_SIZE = 28;
+
+    final long pageId;
+    final boolean leaf;
+    int count;
+    long[] keys;
+    long[] pointers; // leaf: values[count], internal: children[count + 1]
+    long next = NO_PAGE;
+    long prev = NO_PAGE;
+
+    BPlusTreeNode(long pageId, boolean leaf) {
+        this.pageId = pageId;
+        this.leaf = leaf;
+        this.keys = new long[8];
+        this.pointers = new long[9];
+    }
+
+    // ---------------- ENCODING ----------------
+    static BPlusTreeNode decode(long pageId, byte[] page) {
+        BPlusTreeNode node = new BPlusTreeNode(pageId, page[TYPE_OFFSET] == LEAF);
+        int count = count(page);
+        int width = page[WIDTH_OFFSET];
+        long prefix = readLong(page, PREFIX_OFFSET);
+        node.count = count;
+        node.keys = new long[count + 2];
+        node.pointers = new long[count + 3];
+        node.next = readLong(page, NEXT_OFFSET);
+        node.prev = readLong(page, PREV_OFFSET);
+        for (int i = 0; i < count; i++) {
+            node.keys[i] = keyAt(page, i, width, prefix);
+        }
+        int pointerCount = node.pointerCount();
+        int pointerOffset = HEADER_SIZE + count * width;
+        for (int i = 0; i < pointerCount; i++) {
+            node.pointers[i] = readLong(page, pointerOffset + i * 8);
+        }
+        return node;
+    }
+
+    byte[] encode() {
+        byte[] page = new byte[DiskManager.PAGE_SIZE];
+        int width = suffixWidth();
+        long prefix = prefix(width);
+        page[TYPE_OFFSET] = leaf ? LEAF : INTERNAL;
+        page[COUNT_OFFSET] = (byte) (count >>> 8);
+        page[COUNT_OFFSET + 1] = (byte) count;
+        page[WIDTH_OFFSET] = (byte) width;
+        writeLong(page, PREFIX_OFFSET, prefix);
+        writeLong(page, NEXT_OFFSET, next);
+        writeLong(page, PREV_OFFSET, prev);
+        for (int i = 0; i < count; i++) {
+            long suffix = unsigned(keys[i]);
+            for (int b = 0; b < width; b++) {
+                page[HEADER_SIZE + i * width + b] = (byte) (suffix >>> ((width - 1 - b) * 8));
+            }
+        }
+        int pointerOffset = HEADER_SIZE + count * width;
+        for (int i = 0; i < pointerCount(); i++) {
+            writeLong(page, pointerOffset + i * 8, pointers[i]);
+        }
+        return page;
+    }
+
+    int encodedSize() {
+        return HEADER_SIZE + count * suffixWidth() + pointerCount() * 8;
+    }
+
+    boolean fitsInPage() {
+        return encodedSize() <= DiskManager.PAGE_SIZE;
+    }
+
+    private int pointerCount() {
+        return leaf ? count : count + 1;
+    }
+
+    // Bytes needed for the part of the keys that differs between the smallest and the largest key
+    private int suffixWidth() {
+        if (count == 0) {
+            return 1;
+        }
+        long differing = unsigned(keys[0]) ^ unsigned(keys[count - 1]);
+        int bits = 64 - Long.numberOfLeadingZeros(differing);
+        return Math.max(1, (bits + 7) / 8);
+    }
+
+    private long prefix(int width) {
+        if (count == 0 || width == 8) {
+            return 0;
+        }
+        return unsigned(keys[0]) & ~((1L << (width * 8)) - 1);
+    }
+
+    // Flip the sign bit so that signed key order matches unsigned byte order
+    private static long unsigned(long key) {
+        return key ^ Long.MIN_VALUE;
+    }
+
+    // ---------------- PAGE-LEVEL READS ----------------
+    static boolean isLeaf(byte[] page) {
+        return page[TYPE_OFFSET] == LEAF;
+    }
+
+    static int count(byte[] page) {
+        return ((page[COUNT_OFFSET] & 0xFF) << 8) | (page[COUNT_OFFSET + 1] & 0xFF);
+    }
+
+    static long nextPage(byte[] page) {
+        return readLong(page, NEXT_OFFSET);
+    }
+
+    static long prevPage(byte[] page) {
+        return readLong(page, PREV_OFFSET);
+    }
+
+    static long keyAt(byte[] page, int index) {
+        return keyAt(page, index, page[WIDTH_OFFSET], readLong(page, PREFIX_OFFSET));
+    }
+
+    static long pointerAt(byte[] page, int index) {
+        return readLong(page, HEADER_SIZE + count(page) * page[WIDTH_OFFSET] + index * 8);
+    }
+
+    // Same contract as Arrays.binarySearch, evaluated on the encoded page
+    static int search(byte[] page, long key) {
+        int width = page[WIDTH_OFFSET];
+        long prefix = readLong(page, PREFIX_OFFSET);
+        int low = 0;
+        int high = count(page) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = keyAt(page, mid, width, prefix);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Index of the child of an internal page whose subtree may contain the key
+    static int childIndex(byte[] page, long key) {
+        int position = search(page, key);
+        return position >= 0 ? position + 1 : -(position + 1);
+    }
+
+    private static long keyAt(byte[] page, int index, int width, long prefix) {
+        int offset = HEADER_SIZE + index * width;
+        long suffix = 0;
+        for (int b = 0; b < width; b++) {
+            suffix = (suffix << 8) | (page[offset + b] & 0xFF);
+        }
+        return (prefix | suffix) ^ Long.MIN_VALUE;
+    }
+
+    private static long readLong(byte[] page, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (page[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] page, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            page[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    // ---------------- MUTATIONS ----------------
+    int search(long key) {
+        return Arrays.binarySearch(keys, 0, count, key);
+    }
+
+    void insertEntry(int index, long key, long value) {
+        ensureCapacity(count + 1);
+        System.arraycopy(keys, index, keys, index + 1, count - index);
+        System.arraycopy(pointers, index, pointers, index + 1, count - index);
+        keys[index] = key;
+        pointers[index] = value;
+        count++;
+    }
+
+    void removeEntry(int index) {
+        System.arraycopy(keys, index + 1, keys, index, count - index - 1);
+        System.arraycopy(pointers, index + 1, pointers, index, count - index - 1);
+        count--;
+    }
+
+    // Inserts a separator at keyIndex whose right-hand child is rightChild
+    void insertChild(int keyIndex, long separator, long rightChild) {
+        ensureCapacity(count + 1);
+        System.arraycopy(keys, keyIndex, keys, keyIndex + 1, count - keyIndex);
+        System.arraycopy(pointers, keyIndex + 1, pointers, keyIndex + 2, count - keyIndex);
+        keys[keyIndex] = separator;
+        pointers[keyIndex + 1] = rightChild;
+        count++;
+    }
+
+    // Removes the separator at keyIndex together with the child on its right
+    void removeChild(int keyIndex) {
+        System.arraycopy(keys, keyIndex + 1, keys, keyIndex, count - keyIndex - 1);
+        System.arraycopy(pointers, keyIndex + 2, pointers, keyIndex + 1, count - keyIndex - 1);
+        count--;
+    }
+
+    // Moves the upper half into a new right sibling; returns the separator to push into the parent
+    long splitInto(BPlusTreeNode right) {
+        int mid = count / 2;
+        long separator = keys[mid];
+        if (leaf) {
+            int moved = count - mid;
+            right.ensureCapacity(moved);
+            System.arraycopy(keys, mid, right.keys, 0, moved);
+            System.arraycopy(pointers, mid, right.pointers, 0, moved);
+            right.count = moved;
+            count = mid;
+            right.next = next;
+            right.prev = pageId;
+            next = right.pageId;
+        } else {
+            int moved = count - mid - 1; // the middle key moves up instead of right
+            right.ensureCapacity(moved);
+            System.arraycopy(keys, mid + 1, right.keys, 0, moved);
+            System.arraycopy(pointers, mid + 1, right.pointers, 0, moved + 1);
+            right.count = moved;
+            count = mid;
+        }
+        return separator;
+    }
+
+    // Appends the right sibling's content; internal nodes pull the parent separator down between them
+    void absorb(long separator, BPlusTreeNode right) {
+        if (leaf) {
+            ensureCapacity(count + right.count);
+            System.arraycopy(right.keys, 0, keys, count, right.count);
+            System.arraycopy(right.pointers, 0, pointers, count, right.count);
+            count += right.count;
+            next = right.next;
+        } else {
+            ensureCapacity(count + right.count + 1);
+            keys[count] = separator;
+            System.arraycopy(right.keys, 0, keys, count + 1, right.count);
+            System.arraycopy(right.pointers, 0, pointers, count + 1, right.count + 1);
+            count += right.count + 1;
+        }
+    }
+
+    BPlusTreeNode copy() {
+        BPlusTreeNode copy = new BPlusTreeNode(pageId, leaf);
+        copy.count = count;
+        copy.keys = keys.clone();
+        copy.pointers = pointers.clone();
+        copy.next = next;
+        copy.prev = prev;
+        return copy;
+    }
+
+    private void ensureCapacity(int entries) {
+        if (keys.length < entries + 1) {
+            int capacity = Math.max(entries + 1, keys.length * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            pointers = Arrays.copyOf(pointers, capacity + 1);
+        }
+    }
+}
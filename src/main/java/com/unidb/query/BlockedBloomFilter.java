@@ -0,0 +1,133 @@
+package com.unidb.query;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cache-line blocked Bloom filter over long keys. Each key selects one
+ * 512-bit block and sets all of its bits inside that block, so a membership
+ * test touches a single cache line. Bits are set with atomic ORs, so adds
+ * and tests may run concurrently.
+ */
+final class BlockedBloomFilter {
+    private static final int MAGIC = 0x55444246; // "UDBF"
+    private static final int WORDS_PER_BLOCK = 8; // 8 x 64 bits = one 64-byte cache line
+    private static final int MAX_HASHES = 16;
+
+    private final AtomicLongArray words;
+    private final int blocks;
+    private final int hashes;
+    private final long capacity;
+
+    // Sized for the expected key count at the target false-positive rate
+    BlockedBloomFilter(long expectedKeys, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False-positive rate must be in (0, 1)");
+        }
+        long keys = Math.max(1, expectedKeys);
+        double bits = -keys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long blockCount = Math.max(1, (long) Math.ceil(bits / (WORDS_PER_BLOCK * 64)));
+        if (blockCount * WORDS_PER_BLOCK > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter for " + expectedKeys + " keys is too large");
+        }
+        this.blocks = (int) blockCount;
+        this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bits / keys * Math.log(2))));
+        this.capacity = keys;
+        this.words = new AtomicLongArray(blocks * WORDS_PER_BLOCK);
+    }
+
+    private BlockedBloomFilter(int blocks, int hashes, long capacity, long[] words) {
+        this.blocks = blocks;
+        this.hashes = hashes;
+        this.capacity = capacity;
+        this.words = new AtomicLongArray(words);
+    }
+
+    void add(long key) {
+        long hash = mix(key);
+        int base = blockOf(hash) * WORDS_PER_BLOCK;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 16) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & 511;
+            long mask = 1L << bit;
+            int word = base + (bit >>> 6);
+            if ((words.get(word) & mask) == 0) {
+                words.getAndAccumulate(word, mask, (current, update) -> current | update);
+            }
+        }
+    }
+
+    // False means the key was never added; true may be a false positive
+    boolean mightContain(long key) {
+        long hash = mix(key);
+        int base = blockOf(hash) * WORDS_PER_BLOCK;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 16) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & 511;
+            if ((words.get(base + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    long sizeInBytes() {
+        return (long) words.length() * 8;
+    }
+
+    // Expected false-positive rate at the current fill: the chance that all probed bits are set
+    double estimatedFalsePositiveRate() {
+        long setBits = 0;
+        for (int i = 0; i < words.length(); i++) {
+            setBits += Long.bitCount(words.get(i));
+        }
+        return Math.pow((double) setBits / (words.length() * 64L), hashes);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(blocks);
+        out.writeInt(hashes);
+        out.writeLong(capacity);
+        for (int i = 0; i < words.length(); i++) {
+            out.writeLong(words.get(i));
+        }
+    }
+
+    static BlockedBloomFilter readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a Bloom filter file");
+        }
+        int blocks = in.readInt();
+        int hashes = in.readInt();
+        long capacity = in.readLong();
+        long[] words = new long[blocks * WORDS_PER_BLOCK];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return new BlockedBloomFilter(blocks, hashes, capacity, words);
+    }
+
+    // Multiplies the high hash bits onto the block count instead of taking a modulo
+    private int blockOf(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32);
+    }
+
+    // Murmur3 finalizer
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB93FE53E7BB3L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,231 @@
+package com.unidb.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Index decorator that answers "definitely absent" from a blocked Bloom
+ * filter before the wrapped index is touched. Every insert also adds its key
+ * to the filter; only keys the index did not hold yet count towards its
+ * capacity. Removed keys stay in the filter, where they only cost false
+ * positives. Once the inserted keys outgrow the filter's capacity, it is
+ * rebuilt at twice the size from a scan of the index, provided the index
+ * supports scans. With a filter path, {@link #save()} stores the filter
+ * next to the index and the next open loads it. The file is deleted once
+ * loaded, so after a crash the filter is rebuilt from the index instead of
+ * trusting a stale copy. An index that cannot be scanned must be empty when
+ * it is wrapped.
+ */
+@Slf4j
+class BloomFilterIndexManager extends IndexManager {
+    private final IndexManager delegate;
+    private final double falsePositiveRate;
+    private final Path filterPath;
+    private final ReentrantReadWriteLock rebuildLock;
+    private volatile BlockedBloomFilter filter;
+    private final LongAdder insertedKeys;
+    private volatile boolean scannable; // whether the filter can be rebuilt from the index
+
+    // Metrics
+    private final LongAdder lookups;
+    private final LongAdder savedProbes;
+    private final LongAdder falsePositives;
+
+    BloomFilterIndexManager(IndexManager delegate, long expectedKeys, double falsePositiveRate) {
+        this(delegate, expectedKeys, falsePositiveRate, null);
+    }
+
+    BloomFilterIndexManager(IndexManager delegate, long expectedKeys, double falsePositiveRate, Path filterPath) {
+        super(null); // every operation is overridden
+        this.delegate = delegate;
+        this.falsePositiveRate = falsePositiveRate;
+        this.filterPath = filterPath;
+        this.rebuildLock = new ReentrantReadWriteLock();
+        this.insertedKeys = new LongAdder();
+        this.lookups = new LongAdder();
+        this.savedProbes = new LongAdder();
+        this.falsePositives = new LongAdder();
+        this.scannable = true;
+        this.filter = filterPath != null && Files.exists(filterPath) ? load(filterPath)
+                : populate(new BlockedBloomFilter(expectedKeys, falsePositiveRate));
+    }
+
+    // False only when the key was never inserted; the wrapped index is not consulted
+    public boolean mightContain(long key) {
+        lookups.increment();
+        if (filter.mightContain(key)) {
+            return true;
+        }
+        savedProbes.increment();
+        return false;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        if (!mightContain(key)) {
+            return false;
+        }
+        boolean present = delegate.containsKey(key);
+        if (!present) {
+            falsePositives.increment();
+        }
+        return present;
+    }
+
+    @Override
+    public long lookup(long key) {
+        return filter.mightContain(key) ? delegate.lookup(key) : key;
+    }
+
+    @Override
+    public void insert(long key) {
+        rebuildLock.readLock().lock();
+        try {
+            // Updates re-insert keys the index already holds; only new keys use up the filter's capacity
+            boolean added = !delegate.containsKey(key);
+            delegate.insert(key);
+            filter.add(key);
+            if (added) {
+                insertedKeys.increment();
+            }
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+        if (scannable && insertedKeys.sum() > filter.capacity()) {
+            rebuild();
+        }
+    }
+
+    @Override
+    public boolean remove(long key) {
+        return delegate.remove(key);
+    }
+
+    @Override
+    public IndexCursor scan(long low, long high) {
+        return delegate.scan(low, high);
+    }
+
+    @Override
+    public IndexCursor scanDescending(long low, long high) {
+        return delegate.scanDescending(low, high);
+    }
+
+    // Resizes the filter to twice the keys seen so far; skipped when the index cannot enumerate its keys
+    public void rebuild() {
+        rebuildLock.writeLock().lock();
+        try {
+            long keys = insertedKeys.sum();
+            if (keys <= filter.capacity()) {
+                return; // another thread already rebuilt it
+            }
+            BlockedBloomFilter rebuilt = new BlockedBloomFilter(keys * 2, falsePositiveRate);
+            try {
+                insertedKeys.reset();
+                insertedKeys.add(fill(rebuilt, delegate.scan(Long.MIN_VALUE, Long.MAX_VALUE)));
+                filter = rebuilt;
+                log.info("Rebuilt Bloom filter for {} keys ({} bytes).", rebuilt.capacity(), rebuilt.sizeInBytes());
+            } catch (UnsupportedOperationException e) {
+                insertedKeys.reset();
+                insertedKeys.add(keys);
+                scannable = false;
+                log.warn("Index cannot be scanned; Bloom filter stays at capacity {}.", filter.capacity());
+            }
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    // Writes the filter next to the index, replacing the previous file atomically
+    public void save() throws IOException {
+        if (filterPath == null) {
+            return;
+        }
+        Path temporary = filterPath.resolveSibling(filterPath.getFileName() + ".tmp");
+        rebuildLock.writeLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            filter.writeTo(out);
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+        Files.move(temporary, filterPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ---------------- METRICS ----------------
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    // Lookups answered by the filter alone
+    public long getSavedProbes() {
+        return savedProbes.sum();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    // Share of absent keys that the filter failed to reject
+    public double getObservedFalsePositiveRate() {
+        long falsePositiveCount = falsePositives.sum();
+        long absent = falsePositiveCount + savedProbes.sum();
+        return absent == 0 ? 0 : (double) falsePositiveCount / absent;
+    }
+
+    public double getEstimatedFalsePositiveRate() {
+        return filter.estimatedFalsePositiveRate();
+    }
+
+    public long getFilterBytes() {
+        return filter.sizeInBytes();
+    }
+
+    public void logMetrics() {
+        log.info("Bloom filter: {} lookups, {} probes saved, {} false positives (observed rate {}, estimated {}), {} bytes",
+                getLookups(), getSavedProbes(), getFalsePositives(), String.format("%.4f", getObservedFalsePositiveRate()),
+                String.format("%.4f", getEstimatedFalsePositiveRate()), getFilterBytes());
+    }
+
+    // ---------------- LOADING ----------------
+    // A fresh filter over an index that already holds keys must learn them, or it would hide them
+    private BlockedBloomFilter populate(BlockedBloomFilter empty) {
+        try {
+            insertedKeys.add(fill(empty, delegate.scan(Long.MIN_VALUE, Long.MAX_VALUE)));
+        } catch (UnsupportedOperationException e) {
+            scannable = false;
+            log.debug("Index cannot be scanned; starting with an empty Bloom filter.");
+        }
+        return empty;
+    }
+
+    private static long fill(BlockedBloomFilter target, IndexCursor keys) {
+        long count = 0;
+        while (keys.next()) {
+            target.add(keys.key());
+            count++;
+        }
+        return count;
+    }
+
+    private static BlockedBloomFilter load(Path path) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            BlockedBloomFilter loaded = BlockedBloomFilter.readFrom(in);
+            Files.delete(path); // only a save after the last change may be trusted on the next open
+            log.info("Loaded Bloom filter from {} ({} bytes).", path, loaded.sizeInBytes());
+            return loaded;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load Bloom filter " + path, e);
+        }
+    }
+}
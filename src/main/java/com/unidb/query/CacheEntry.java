@@ -1,15 +1,46 @@
 package com.unidb.query;
 
+/**
+ * A cached query result and its links in the owning shard's LRU segment and
+ * timer wheel bucket, and the key range the result was read from. Only the
+ * result is read without the shard lock.
+ */
 public class CacheEntry {
-    final String result;
-    final long expiryTime;
+    static final int WINDOW = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+    static final int REMOVED = 3;
 
-    public CacheEntry(String result, long expiryTime) {
+    final String query;
+    volatile String result;
+    int weight;
+    long expiresAtNanos;
+    int segment;
+    long low; // key range the result depends on
+    long high;
+    CacheEntry previous;
+    CacheEntry next;
+    CacheEntry timerPrevious;
+    CacheEntry timerNext;
+
+    CacheEntry(String query, String result, int weight, long expiresAtNanos) {
+        this.query = query;
         this.result = result;
-        this.expiryTime = expiryTime;
+        this.weight = weight;
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    // Sentinel of a circular list
+    static CacheEntry sentinel() {
+        CacheEntry sentinel = new CacheEntry(null, null, 0, 0);
+        sentinel.previous = sentinel;
+        sentinel.next = sentinel;
+        sentinel.timerPrevious = sentinel;
+        sentinel.timerNext = sentinel;
+        return sentinel;
     }
 
-    public boolean isExpired() {
-        return System.currentTimeMillis() > expiryTime;
+    public String getResult() {
+        return result;
     }
 }
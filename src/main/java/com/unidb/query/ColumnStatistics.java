@@ -0,0 +1,135 @@
+package com.unidb.query;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Planner statistics of one column from an ANALYZE sample: the share of
+ * NULLs, an estimate of the number of distinct values, and for numeric
+ * columns an equi-depth histogram. Selectivities are fractions of all rows
+ * of the table, NULL rows included.
+ */
+public final class ColumnStatistics {
+    // Used without statistics, as in System R: an equality matches few rows, a range about a third
+    static final double DEFAULT_EQUALITY_SELECTIVITY = 0.005;
+    static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+
+    private final String name;
+    private final double nullFraction;
+    private final long distinctCount;
+    private final EquiDepthHistogram histogram; // null unless every sampled value is a number
+
+    ColumnStatistics(String name, double nullFraction, long distinctCount, EquiDepthHistogram histogram) {
+        this.name = name;
+        this.nullFraction = nullFraction;
+        this.distinctCount = distinctCount;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Statistics from the column's values in a uniform sample of a table of
+     * {@code rowCount} rows, one entry per sampled row and null for NULL.
+     * Numbers compare by value, so 1 and 1.0 count as one distinct value.
+     */
+    static ColumnStatistics fromSample(String name, List<Object> values, long rowCount) {
+        Map<Object, Integer> frequencies = new HashMap<>();
+        double[] numbers = new double[values.size()];
+        int numeric = 0;
+        int nulls = 0;
+        for (Object value : values) {
+            if (value == null) {
+                nulls++;
+            } else if (value instanceof Number number) {
+                numbers[numeric++] = number.doubleValue();
+                frequencies.merge(number.doubleValue(), 1, Integer::sum);
+            } else {
+                frequencies.merge(value, 1, Integer::sum);
+            }
+        }
+        int nonNull = values.size() - nulls;
+        double nullFraction = values.isEmpty() ? 0 : (double) nulls / values.size();
+        long distinct = estimateDistinct(frequencies, nonNull, Math.round(rowCount * (1 - nullFraction)));
+        EquiDepthHistogram histogram = null;
+        if (numeric > 0 && numeric == nonNull) {
+            double[] sorted = Arrays.copyOf(numbers, numeric);
+            Arrays.sort(sorted);
+            histogram = EquiDepthHistogram.of(sorted, EquiDepthHistogram.DEFAULT_BUCKETS);
+        }
+        return new ColumnStatistics(name, nullFraction, distinct, histogram);
+    }
+
+    /**
+     * Haas and Stokes' Duj1 estimator, as in PostgreSQL: scales the distinct
+     * values seen in a sample of n out of total values by how many of them
+     * were seen only once. A sample of all-unique values suggests a unique
+     * column, one where every value repeats suggests the sample saw them all.
+     */
+    static long estimateDistinct(Map<Object, Integer> frequencies, long n, long total) {
+        long seen = frequencies.size();
+        if (n == 0 || total <= n) {
+            return seen;
+        }
+        long once = frequencies.values().stream().filter(count -> count == 1).count();
+        double estimate = n * (double) seen / (n - once + once * (double) n / total);
+        return Math.max(seen, Math.min(total, Math.round(estimate)));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getNullFraction() {
+        return nullFraction;
+    }
+
+    public long getDistinctCount() {
+        return distinctCount;
+    }
+
+    public boolean hasHistogram() {
+        return histogram != null;
+    }
+
+    // Rows matching column = constant, assuming the constant is one of the column's values
+    public double equalitySelectivity() {
+        return distinctCount == 0 ? 0 : (1 - nullFraction) / distinctCount;
+    }
+
+    // Rows with low <= column <= high
+    public double rangeSelectivity(double low, double high) {
+        if (histogram == null) {
+            return DEFAULT_RANGE_SELECTIVITY;
+        }
+        double fraction = (1 - nullFraction) * histogram.fraction(low, high);
+        return low == high ? Math.max(fraction, equalitySelectivity()) : fraction;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(name);
+        out.writeDouble(nullFraction);
+        out.writeLong(distinctCount);
+        out.writeBoolean(histogram != null);
+        if (histogram != null) {
+            histogram.writeTo(out);
+        }
+    }
+
+    static ColumnStatistics readFrom(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        double nullFraction = in.readDouble();
+        long distinctCount = in.readLong();
+        EquiDepthHistogram histogram = in.readBoolean() ? EquiDepthHistogram.readFrom(in) : null;
+        return new ColumnStatistics(name, nullFraction, distinctCount, histogram);
+    }
+
+    @Override
+    public String toString() {
+        return name + "{nulls=" + String.format("%.3f", nullFraction) + ", distinct=" + distinctCount
+                + (histogram != null ? ", buckets=" + histogram.buckets() : "") + "}";
+    }
+}
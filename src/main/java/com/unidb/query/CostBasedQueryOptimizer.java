@@ -4,22 +4,68 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class CostBasedQueryOptimizer extends QueryOptimizer {
+    private final PlanEstimator estimator; // learned estimates, or null for the formula alone
+    private final StatisticsCatalog statistics; // null: plans carry their own data size
+    private final String table; // the table key-value plans read
+
+    public CostBasedQueryOptimizer() {
+        this(null);
+    }
+
+    public CostBasedQueryOptimizer(PlanEstimator estimator) {
+        this(estimator, null, null);
+    }
+
+    public CostBasedQueryOptimizer(PlanEstimator estimator, StatisticsCatalog statistics, String table) {
+        this.estimator = estimator;
+        this.statistics = statistics;
+        this.table = table;
+    }
+
     @Override
     public ExecutionPlan optimize(ExecutionPlan plan) throws Exception {
         log.info("Applying Cost-Based Optimization to Execution Plan.");
 
-        plan.setOptimizedQuery(SqlOptimizer.generateOptimizedQuery("query"));
-        plan.setOptimizedCost(evaluateQueryCost(plan));
+        plan.setOptimizedCost(estimateCost(plan));
         return plan;
     }
 
+    // The learned execution time when the estimator has one, otherwise the analytic formula
+    double estimateCost(ExecutionPlan plan) {
+        double learned = estimator == null ? Double.NaN : estimator.estimateCostMicros(plan);
+        return Double.isNaN(learned) ? evaluateQueryCost(plan) : learned;
+    }
+
     private double evaluateQueryCost(ExecutionPlan plan) {
         // Implement cost-based optimization logic based on query properties
         int numJoins = plan.getNumJoins();
         int numFilters = plan.getNumFilters();
-        int dataSize = plan.getDataSize();
+        double dataSize = estimateRows(plan);
 
         // Sample cost function considering joins, filters, and data size
         return (numJoins * 10) + (numFilters * 5) + (dataSize * 0.1);
     }
-}
\ No newline at end of file
+
+    // Rows the plan reads, from the key column's statistics once the table is analyzed
+    double estimateRows(ExecutionPlan plan) {
+        ParsedQuery query = plan.getOptimizedQuery();
+        TableStatistics analyzed = statistics == null || query == null ? null : statistics.get(table);
+        if (analyzed == null) {
+            return plan.getDataSize();
+        }
+        ColumnStatistics key = analyzed.getColumn(QueryExecutor.KEY_COLUMN);
+        switch (query.getType()) {
+            case READ:
+                return analyzed.getRowCount() * (key == null ? ColumnStatistics.DEFAULT_EQUALITY_SELECTIVITY
+                        : key.equalitySelectivity());
+            case RANGE:
+                double selectivity = key == null ? ColumnStatistics.DEFAULT_RANGE_SELECTIVITY
+                        : key.rangeSelectivity(query.getLow(), query.getHigh());
+                return Math.min(query.getLimit(), analyzed.getRowCount() * selectivity);
+            case WRITE:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.unidb.query;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent Count-Min sketch: four rows of atomic counters, each indexed by
+ * a differently seeded hash. The estimate is the smallest of the four
+ * counters, which never undercounts and overcounts by at most
+ * e / width of the total with high probability.
+ */
+final class CountMinSketch {
+    private static final int DEPTH = 4;
+    private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+            0xD6E8FEB86659FD93L };
+
+    private final AtomicLongArray counters;
+    private final int width;
+
+    CountMinSketch(int width) {
+        this.width = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+        this.counters = new AtomicLongArray(DEPTH * this.width);
+    }
+
+    // Adds one occurrence and returns the new estimate
+    long increment(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(hash, row)));
+        }
+        return estimate;
+    }
+
+    void add(long hash, long count) {
+        for (int row = 0; row < DEPTH; row++) {
+            counters.addAndGet(index(hash, row), count);
+        }
+    }
+
+    long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(index(hash, row)));
+        }
+        return estimate;
+    }
+
+    long sizeInBytes() {
+        return 8L * counters.length();
+    }
+
+    private int index(long hash, int row) {
+        long h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) & (DEPTH - 1)];
+        return row * width + (int) (h >>> 32 & (width - 1));
+    }
+}
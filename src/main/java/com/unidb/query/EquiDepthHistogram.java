@@ -0,0 +1,77 @@
+package com.unidb.query;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Equi-depth histogram of a numeric column: bucket bounds are chosen so
+ * that every bucket holds about the same number of sampled values. Dense
+ * key ranges get narrow buckets and frequent values span several buckets,
+ * so range estimates stay close on skewed data where equal-width buckets
+ * would smear them out. Values are assumed uniform within a bucket.
+ */
+final class EquiDepthHistogram {
+    static final int DEFAULT_BUCKETS = 100;
+
+    private final double[] bounds; // ascending; bucket i spans [bounds[i], bounds[i + 1]]
+
+    private EquiDepthHistogram(double[] bounds) {
+        this.bounds = bounds;
+    }
+
+    // From a non-empty array of values in ascending order
+    static EquiDepthHistogram of(double[] sorted, int buckets) {
+        if (sorted.length == 0 || buckets < 1) {
+            throw new IllegalArgumentException("A histogram needs values and at least one bucket");
+        }
+        int count = Math.max(1, Math.min(buckets, sorted.length - 1));
+        double[] bounds = new double[count + 1];
+        for (int i = 0; i <= count; i++) {
+            bounds[i] = sorted[(int) ((long) i * (sorted.length - 1) / count)];
+        }
+        return new EquiDepthHistogram(bounds);
+    }
+
+    int buckets() {
+        return bounds.length - 1;
+    }
+
+    // Share of the values in [low, high]
+    double fraction(double low, double high) {
+        if (low > high || high < bounds[0] || low > bounds[bounds.length - 1]) {
+            return 0;
+        }
+        int first = Arrays.binarySearch(bounds, low);
+        first = first >= 0 ? first : Math.max(0, -first - 2);
+        while (first > 0 && bounds[first - 1] == low) {
+            first--; // a frequent value spans several buckets; start with the first of them
+        }
+        double covered = 0;
+        for (int i = first; i < bounds.length - 1 && bounds[i] <= high; i++) {
+            double from = bounds[i];
+            double to = bounds[i + 1];
+            if (to < low) {
+                continue;
+            }
+            covered += from == to ? 1 : (Math.min(high, to) - Math.max(low, from)) / (to - from);
+        }
+        return Math.min(1, covered / buckets());
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(bounds.length);
+        for (double bound : bounds) {
+            out.writeDouble(bound);
+        }
+    }
+
+    static EquiDepthHistogram readFrom(DataInputStream in) throws IOException {
+        double[] bounds = new double[in.readInt()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = in.readDouble();
+        }
+        return new EquiDepthHistogram(bounds);
+    }
+}
@@ -0,0 +1,133 @@
+package com.unidb.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Offline evaluation of the learned cardinality estimator. Runs a workload
+ * of range scans over a skewed index, trains a fresh model on most of the
+ * measured (plan, rows, time) triples, and reports the q-error of its row
+ * estimates on the held-out rest, next to the uniform-distribution estimate
+ * a statistics-free cost model would make and the estimate from an
+ * ANALYZE-style equi-depth histogram over a sample of the keys. The q-error
+ * of an estimate is max(estimate / actual, actual / estimate), with both
+ * counted as at least one row, so 1 is exact and 10 means an order of
+ * magnitude off either way.
+ */
+@Slf4j
+class EstimatorEvaluation {
+    private static final long KEY_SPACE = 10_000_000;
+
+    private EstimatorEvaluation() {
+    }
+
+    static double qError(double estimate, double actual) {
+        double e = Math.max(1, estimate);
+        double a = Math.max(1, actual);
+        return Math.max(e / a, a / e);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        Random random = new Random(42);
+
+        // 70% of the keys in 20 dense clusters, the rest uniform: far from what a uniform estimate assumes
+        OptimisticBTreeIndexManager index = new OptimisticBTreeIndexManager();
+        long[] centers = new long[20];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = (long) (random.nextDouble() * KEY_SPACE);
+        }
+        for (int i = 0; i < keys; i++) {
+            long key = random.nextDouble() < 0.7
+                    ? centers[random.nextInt(centers.length)] + (long) (random.nextGaussian() * 20_000)
+                    : (long) (random.nextDouble() * KEY_SPACE);
+            index.insert(Math.floorMod(key, KEY_SPACE));
+        }
+        long indexed = 0;
+        List<Object> sample = new ArrayList<>(StatisticsCatalog.SAMPLE_ROWS);
+        for (IndexCursor cursor = index.scan(Long.MIN_VALUE, Long.MAX_VALUE); cursor.next();) {
+            long slot = indexed < StatisticsCatalog.SAMPLE_ROWS ? indexed : random.nextLong(indexed + 1);
+            if (slot == sample.size()) {
+                sample.add(cursor.key());
+            } else if (slot < StatisticsCatalog.SAMPLE_ROWS) {
+                sample.set((int) slot, cursor.key());
+            }
+            indexed++;
+        }
+        ColumnStatistics keyStatistics = ColumnStatistics.fromSample(QueryExecutor.KEY_COLUMN, sample, indexed);
+
+        // Ranges of log-uniform width from 1 key to a tenth of the key space, a fifth of them with a LIMIT
+        List<ExecutionPlan> plans = new ArrayList<>(queries);
+        long[] rows = new long[queries];
+        long[] elapsedNanos = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            long width = (long) Math.pow(10, random.nextDouble() * 6);
+            long low = (long) (random.nextDouble() * (KEY_SPACE - width));
+            long limit = random.nextInt(5) == 0 ? 1 + random.nextInt(1000) : Long.MAX_VALUE;
+            boolean descending = random.nextBoolean();
+            ParsedQuery query = new ParsedQuery(low, low + width - 1, descending, limit);
+            long start = System.nanoTime();
+            IndexCursor cursor = descending ? index.scanDescending(query.getLow(), query.getHigh())
+                    : index.scan(query.getLow(), query.getHigh());
+            long returned = 0;
+            while (returned < limit && cursor.next()) {
+                returned++;
+            }
+            elapsedNanos[i] = System.nanoTime() - start;
+            rows[i] = returned;
+            plans.add(new ExecutionPlan(query));
+        }
+
+        MachineLearningOptimizer estimator = MachineLearningOptimizer.start(null); // a new model, never saved
+        estimator.setInferenceBudgetMicros(TimeUnit.SECONDS.toMicros(1)); // evaluate every plan
+        long waitStart = System.nanoTime();
+        while (!estimator.isReady() && System.nanoTime() - waitStart < TimeUnit.MINUTES.toNanos(1)) {
+            Thread.sleep(10);
+        }
+
+        int training = queries * 4 / 5;
+        long trainStart = System.nanoTime();
+        estimator.fit(plans.subList(0, training), rows, elapsedNanos, passes);
+        log.info("Trained on {} queries over {} keys in {} ms", training, indexed,
+                (System.nanoTime() - trainStart) / 1_000_000);
+
+        int tested = queries - training;
+        double[] learned = new double[tested];
+        double[] uniform = new double[tested];
+        double[] histogram = new double[tested];
+        double[] time = new double[tested];
+        double density = (double) indexed / KEY_SPACE;
+        for (int i = 0; i < tested; i++) {
+            ExecutionPlan plan = plans.get(training + i);
+            ParsedQuery query = plan.getOptimizedQuery();
+            double width = query.getHigh() - query.getLow() + 1;
+            long actual = rows[training + i];
+            learned[i] = qError(estimator.estimateRows(plan), actual);
+            uniform[i] = qError(Math.min(query.getLimit(), width * density), actual);
+            histogram[i] = qError(Math.min(query.getLimit(),
+                    indexed * keyStatistics.rangeSelectivity(query.getLow(), query.getHigh())), actual);
+            time[i] = qError(estimator.estimateCostMicros(plan), elapsedNanos[training + i] / 1000.0);
+        }
+        log.info("Row q-error on {} held-out queries, learned: {}", tested, summary(learned));
+        log.info("Row q-error on {} held-out queries, uniform: {}", tested, summary(uniform));
+        log.info("Row q-error on {} held-out queries, histogram: {}", tested, summary(histogram));
+        log.info("Time q-error on {} held-out queries, learned: {}", tested, summary(time));
+        estimator.logMetrics();
+        estimator.close();
+    }
+
+    private static String summary(double[] errors) {
+        double[] sorted = errors.clone();
+        Arrays.sort(sorted);
+        return String.format("median %.2f, p90 %.2f, p99 %.2f, max %.1f", sorted[sorted.length / 2],
+                sorted[(int) (sorted.length * 0.9)], sorted[(int) (sorted.length * 0.99)], sorted[sorted.length - 1]);
+    }
+}
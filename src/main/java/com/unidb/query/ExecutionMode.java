@@ -0,0 +1,6 @@
+package com.unidb.query;
+
+public enum ExecutionMode {
+    POOLED, // A fixed pool of four platform threads runs every query
+    VIRTUAL_THREADS // Every query runs on its own virtual thread, which releases its carrier while blocked
+}
@@ -18,6 +18,15 @@ public class ExecutionPlan {
         this.numFilters = numFilters;
     }
 
+    // Copy of this plan for another binding of the same query shape
+    public ExecutionPlan withQuery(ParsedQuery query) {
+        ExecutionPlan copy = new ExecutionPlan(numJoins, numFilters, dataSize);
+        copy.optimizedQuery = query;
+        copy.optimizedScore = optimizedScore;
+        copy.optimizedCost = optimizedCost;
+        return copy;
+    }
+
     public ParsedQuery getOptimizedQuery() {
         return optimizedQuery;
     }
@@ -0,0 +1,66 @@
+package com.unidb.query;
+
+/**
+ * Count-Min sketch of 4-bit counters that estimates how often a key was seen
+ * recently. All counters are halved once the number of increments reaches
+ * ten times the table size, so old popularity fades. Not thread-safe; each
+ * cache shard updates its sketch under the shard lock.
+ */
+final class FrequencySketch {
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L };
+
+    private final long[] table; // 16 counters per word
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        int words = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+        this.table = new long[words];
+        this.mask = words - 1;
+        this.sampleSize = 10 * words;
+    }
+
+    // Estimated count, at most 15
+    int frequency(int hash) {
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            frequency = Math.min(frequency, (int) ((table[index(hash, i)] >>> offset(hash, i)) & 0xf));
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = index(hash, i);
+            int offset = offset(hash, i);
+            if (((table[index] >>> offset) & 0xf) != 0xf) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    // Each of the four rows picks its word and its counter within the word from a differently seeded hash
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static int offset(int hash, int row) {
+        return (((hash >>> (row << 3)) & 3) << 2 | row) << 2;
+    }
+}
@@ -0,0 +1,44 @@
+package com.unidb.query;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Concurrent HyperLogLog distinct counter with 2^12 registers, about 1.6%
+ * standard error. Registers only grow, so updates are a compare-and-set
+ * loop that usually ends after the first read.
+ */
+final class HyperLogLog {
+    private static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private final AtomicIntegerArray registers;
+
+    HyperLogLog() {
+        this.registers = new AtomicIntegerArray(REGISTERS);
+    }
+
+    void add(long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        int current = registers.get(index);
+        while (rank > current && !registers.compareAndSet(index, current, rank)) {
+            current = registers.get(index);
+        }
+    }
+
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < REGISTERS; i++) {
+            int register = registers.get(i);
+            sum += 1.0 / (1L << register);
+            zeros += register == 0 ? 1 : 0;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros); // linear counting for small sets
+        }
+        return Math.round(estimate);
+    }
+}
@@ -0,0 +1,16 @@
+package com.unidb.query;
+
+/**
+ * Lazy, forward-only cursor over index entries in key order. Entries are
+ * produced one leaf at a time, so a scan never materializes its result.
+ * Cursors are weakly consistent: changes made while a scan is running may or
+ * may not be seen, but no entry is returned twice or out of order.
+ */
+public interface IndexCursor {
+    // Moves to the next entry; returns false once the scan is exhausted
+    boolean next();
+
+    long key();
+
+    long value();
+}
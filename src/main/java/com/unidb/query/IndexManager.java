@@ -1,15 +1,18 @@
 package com.unidb.query;
 
-import java.util.Map;
-
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class IndexManager {
-    private final Map<Long, Long> index;
+    private final LongHashTable index;
 
     public IndexManager() {
-        this.index = new java.util.HashMap<>();
+        this(new LongHashTable());
+    }
+
+    // Subclasses that override every operation with their own structure pass null and allocate no hash table
+    protected IndexManager(LongHashTable index) {
+        this.index = index;
     }
 
     public boolean containsKey(long key) {
@@ -18,11 +21,33 @@ public class IndexManager {
 
     public long lookup(long key) {
         log.info("Index lookup for key: {}", key);
-        return index.getOrDefault(key, key);
+        return index.get(key, key);
     }
 
     public void insert(long key) {
         index.put(key, key);
         log.info("Inserted key into index: {}", key);
     }
+
+    // Returns whether the key was present
+    public boolean remove(long key) {
+        boolean removed = index.remove(key);
+        log.info("Removed key from index: {}", key);
+        return removed;
+    }
+
+    // Ascending cursor over the keys in [low, high]; only ordered indexes support range scans
+    public IndexCursor scan(long low, long high) {
+        throw new UnsupportedOperationException("Hash index does not support range scans");
+    }
+
+    // Descending cursor over the keys in [low, high]
+    public IndexCursor scanDescending(long low, long high) {
+        throw new UnsupportedOperationException("Hash index does not support range scans");
+    }
+
+    // Ascending cursor starting at the first key >= key
+    public IndexCursor seek(long key) {
+        return scan(key, Long.MAX_VALUE);
+    }
 }
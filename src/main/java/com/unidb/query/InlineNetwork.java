@@ -0,0 +1,124 @@
+package com.unidb.query;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.layers.BaseLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+
+/**
+ * Immutable copy of a dense network's weights for inference on the calling
+ * thread: a plain Java forward pass over thread-local buffers, with no
+ * native call or thread hop, and safe to run concurrently. Each copy owns
+ * the prediction cache for its weights, so swapping in a retrained network
+ * also drops the predictions of the old one.
+ */
+final class InlineNetwork {
+    private static final int PREDICTION_CACHE_SIZE = 4096;
+    private static final ThreadLocal<float[][]> BUFFERS = ThreadLocal.withInitial(() -> new float[2][0]);
+
+    private final float[][] weights; // per layer, row-major [nIn][nOut]
+    private final float[][] biases;
+    private final boolean[] relu; // otherwise identity
+    private final int[] inputs;
+    private final int[] outputs;
+    private final int width;
+    private final Map<Long, float[]> predictions;
+
+    private InlineNetwork(float[][] weights, float[][] biases, boolean[] relu, int[] inputs, int[] outputs) {
+        this.weights = weights;
+        this.biases = biases;
+        this.relu = relu;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        int widest = 0;
+        for (int i = 0; i < outputs.length; i++) {
+            widest = Math.max(widest, Math.max(inputs[i], outputs[i]));
+        }
+        this.width = widest;
+        this.predictions = new ConcurrentHashMap<>();
+    }
+
+    // Null when the network has a layer this forward pass does not implement
+    static InlineNetwork of(MultiLayerNetwork network) {
+        Layer[] layers = network.getLayers();
+        float[][] weights = new float[layers.length][];
+        float[][] biases = new float[layers.length][];
+        boolean[] relu = new boolean[layers.length];
+        int[] inputs = new int[layers.length];
+        int[] outputs = new int[layers.length];
+        for (int i = 0; i < layers.length; i++) {
+            if (!(layers[i].conf().getLayer() instanceof BaseLayer)) {
+                return null;
+            }
+            Object activation = ((BaseLayer) layers[i].conf().getLayer()).getActivationFn();
+            if (!(activation instanceof ActivationReLU) && !(activation instanceof ActivationIdentity)) {
+                return null;
+            }
+            relu[i] = activation instanceof ActivationReLU;
+            inputs[i] = layers[i].getParam("W").rows();
+            outputs[i] = layers[i].getParam("W").columns();
+            weights[i] = layers[i].getParam("W").dup('c').data().asFloat();
+            biases[i] = layers[i].getParam("b").dup('c').data().asFloat();
+        }
+        return new InlineNetwork(weights, biases, relu, inputs, outputs);
+    }
+
+    int inputSize() {
+        return inputs[0];
+    }
+
+    int outputSize() {
+        return outputs[outputs.length - 1];
+    }
+
+    float[] cached(long key) {
+        return predictions.get(key);
+    }
+
+    // A full cache stops admitting; it is replaced with the network on the next training round
+    void cache(long key, float[] prediction) {
+        if (predictions.size() < PREDICTION_CACHE_SIZE) {
+            predictions.put(key, prediction);
+        }
+    }
+
+    // A fresh array of the output layer's activations
+    float[] predict(float[] features) {
+        float[][] buffers = BUFFERS.get();
+        if (buffers[0].length < width) {
+            buffers[0] = new float[width];
+            buffers[1] = new float[width];
+        }
+        float[] in = buffers[0];
+        float[] out = buffers[1];
+        System.arraycopy(features, 0, in, 0, inputs[0]);
+        for (int layer = 0; layer < weights.length; layer++) {
+            float[] w = weights[layer];
+            int nIn = inputs[layer];
+            int nOut = outputs[layer];
+            System.arraycopy(biases[layer], 0, out, 0, nOut);
+            for (int i = 0; i < nIn; i++) {
+                float x = in[i];
+                if (x != 0) { // ReLU leaves many zeros
+                    for (int j = 0, row = i * nOut; j < nOut; j++) {
+                        out[j] += x * w[row + j];
+                    }
+                }
+            }
+            if (relu[layer]) {
+                for (int j = 0; j < nOut; j++) {
+                    out[j] = Math.max(out[j], 0);
+                }
+            }
+            float[] swap = in;
+            in = out;
+            out = swap;
+        }
+        return Arrays.copyOf(in, outputSize());
+    }
+}
@@ -0,0 +1,340 @@
+package com.unidb.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cost-based join ordering over a query graph whose nodes are relations
+ * (with their row counts after local predicates) and whose edges are join
+ * predicates (with their selectivities). Up to {@link #DP_LIMIT} relations
+ * the optimal tree is found with DPccp, which enumerates each pair of
+ * connected sub-graphs exactly once and never considers a cross product the
+ * graph does not need. Larger queries, and graphs that need a cross product
+ * anyway, fall back to greedy operator ordering (GOO), which repeatedly joins
+ * the two sub-trees with the smallest result.
+ *
+ * <p>Trees may be left-deep or bushy, and every join picks its cheapest
+ * physical method. Cardinalities and best sub-plans are memoized per set of
+ * relations, so each is estimated once however many trees share it.
+ */
+final class JoinEnumerator {
+    static final int DP_LIMIT = 12;
+    static final int MAX_RELATIONS = Long.SIZE; // relation sets are bit masks
+
+    // Cost units: one row read once. A hash join hashes its build side and probes with the other; a build side
+    // larger than memory is partitioned to disk and read back. Sorting costs per row and comparison.
+    private static final double HASH_PROBE_COST = 1.0;
+    private static final double HASH_BUILD_COST = 2.0;
+    private static final double HASH_MEMORY_ROWS = 1_000_000;
+    private static final double HASH_SPILL_FACTOR = 3.0;
+    private static final double SORT_COST = 0.1;
+    private static final double NESTED_LOOP_PAIR_COST = 0.2;
+
+    enum Method {
+        HASH, MERGE, NESTED_LOOP
+    }
+
+    /**
+     * A join tree: a single relation, or a join of two sub-trees where the
+     * left is the probe (outer) side and the right the build (inner) side.
+     */
+    static final class Tree {
+        private final long relations;
+        private final Tree left;
+        private final Tree right;
+        private final Method method;
+        private final double rows;
+        private final double cost;
+
+        private Tree(long relations, Tree left, Tree right, Method method, double rows, double cost) {
+            this.relations = relations;
+            this.left = left;
+            this.right = right;
+            this.method = method;
+            this.rows = rows;
+            this.cost = cost;
+        }
+
+        long getRelations() {
+            return relations;
+        }
+
+        // Index of the relation of a leaf
+        int getRelation() {
+            return Long.numberOfTrailingZeros(relations);
+        }
+
+        boolean isLeaf() {
+            return left == null;
+        }
+
+        Tree getLeft() {
+            return left;
+        }
+
+        Tree getRight() {
+            return right;
+        }
+
+        Method getMethod() {
+            return method;
+        }
+
+        double getRows() {
+            return rows;
+        }
+
+        double getCost() {
+            return cost;
+        }
+
+        boolean isLeftDeep() {
+            return isLeaf() || right.isLeaf() && left.isLeftDeep();
+        }
+
+        int getJoinCount() {
+            return isLeaf() ? 0 : 1 + left.getJoinCount() + right.getJoinCount();
+        }
+    }
+
+    private final double[] rows;
+    private final long[] neighbours;
+    private final List<long[]> predicates; // {relations, selectivity bits, 1 if equi-join}
+    private final Map<Long, Double> cardinalities;
+    private final Map<Long, Tree> plans;
+
+    JoinEnumerator(double[] rows) {
+        if (rows.length == 0 || rows.length > MAX_RELATIONS) {
+            throw new IllegalArgumentException("Cannot order " + rows.length + " relations");
+        }
+        this.rows = rows.clone();
+        this.neighbours = new long[rows.length];
+        this.predicates = new ArrayList<>();
+        this.cardinalities = new HashMap<>();
+        this.plans = new HashMap<>();
+    }
+
+    /**
+     * Adds a predicate over two or more relations. A predicate over more
+     * than two (a hyperedge) connects all of them in the graph, and its
+     * selectivity applies once all of them are joined.
+     */
+    void addPredicate(long relations, double selectivity, boolean equiJoin) {
+        if (Long.bitCount(relations) < 2 || Long.SIZE - Long.numberOfLeadingZeros(relations) > rows.length) {
+            throw new IllegalArgumentException("Not a join predicate: " + Long.toBinaryString(relations));
+        }
+        predicates.add(new long[] { relations, Double.doubleToLongBits(selectivity), equiJoin ? 1 : 0 });
+        for (long rest = relations; rest != 0; rest &= rest - 1) {
+            int relation = Long.numberOfTrailingZeros(rest);
+            neighbours[relation] |= relations & ~(1L << relation);
+        }
+        cardinalities.clear();
+    }
+
+    // The cheapest tree joining all relations
+    Tree optimize() {
+        long all = planLeaves();
+        if (rows.length <= DP_LIMIT && connected(all)) {
+            for (int i = rows.length - 1; i >= 0; i--) {
+                emitSubgraph(1L << i);
+                enumerateSubgraphs(1L << i, (1L << (i + 1)) - 1);
+            }
+            return plans.get(all);
+        }
+        return greedy();
+    }
+
+    // Greedy operator ordering whatever the number of relations
+    Tree optimizeGreedy() {
+        planLeaves();
+        return greedy();
+    }
+
+    // The left-deep tree that joins the relations in the given order, each join with its cheapest method
+    Tree leftDeep(int[] order) {
+        planLeaves();
+        long joined = 1L << order[0];
+        for (int i = 1; i < order.length; i++) {
+            join(joined, 1L << order[i]);
+            joined |= 1L << order[i];
+        }
+        return plans.get(joined);
+    }
+
+    // Starts a new search from the single relations; returns the set of all of them
+    private long planLeaves() {
+        plans.clear();
+        for (int i = 0; i < rows.length; i++) {
+            plans.put(1L << i, new Tree(1L << i, null, null, null, rows[i], rows[i]));
+        }
+        return rows.length == Long.SIZE ? -1L : (1L << rows.length) - 1;
+    }
+
+    // ---------------- DPccp ----------------
+    // Moerkotte & Neumann's enumeration: connected sub-graphs grow from their lowest relation, each is paired
+    // with the connected complements that only contain higher relations than it, and the pairs come out in an
+    // order where both halves are already planned.
+    private void enumerateSubgraphs(long subgraph, long excluded) {
+        long extension = neighbours(subgraph) & ~excluded;
+        for (long added = extension & -extension; added != 0; added = (added - extension) & extension) {
+            emitSubgraph(subgraph | added);
+        }
+        for (long added = extension & -extension; added != 0; added = (added - extension) & extension) {
+            enumerateSubgraphs(subgraph | added, excluded | extension);
+        }
+    }
+
+    private void emitSubgraph(long subgraph) {
+        long excluded = subgraph | lowestAndBelow(subgraph);
+        long extension = neighbours(subgraph) & ~excluded;
+        for (long rest = extension; rest != 0; rest &= ~Long.highestOneBit(rest)) {
+            long relation = Long.highestOneBit(rest);
+            join(subgraph, relation);
+            enumerateComplements(subgraph, relation, excluded | (extension & (relation | relation - 1)));
+        }
+    }
+
+    private void enumerateComplements(long subgraph, long complement, long excluded) {
+        long extension = neighbours(complement) & ~excluded;
+        for (long added = extension & -extension; added != 0; added = (added - extension) & extension) {
+            join(subgraph, complement | added);
+        }
+        for (long added = extension & -extension; added != 0; added = (added - extension) & extension) {
+            enumerateComplements(subgraph, complement | added, excluded | extension);
+        }
+    }
+
+    // ---------------- GOO ----------------
+    // Joins the pair of sub-trees with the smallest result until one tree is left, preferring pairs linked by a
+    // predicate over cross products
+    private Tree greedy() {
+        List<Tree> trees = new ArrayList<>();
+        for (int i = 0; i < rows.length; i++) {
+            trees.add(plans.get(1L << i));
+        }
+        while (trees.size() > 1) {
+            int bestLeft = -1;
+            int bestRight = -1;
+            boolean bestLinked = false;
+            double bestRows = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < trees.size(); i++) {
+                for (int j = i + 1; j < trees.size(); j++) {
+                    long left = trees.get(i).getRelations();
+                    long right = trees.get(j).getRelations();
+                    boolean linked = (neighbours(left) & right) != 0;
+                    double joinRows = cardinality(left | right);
+                    if (linked && !bestLinked || linked == bestLinked && joinRows < bestRows) {
+                        bestLeft = i;
+                        bestRight = j;
+                        bestLinked = linked;
+                        bestRows = joinRows;
+                    }
+                }
+            }
+            long left = trees.get(bestLeft).getRelations();
+            long right = trees.get(bestRight).getRelations();
+            join(left, right);
+            trees.remove(bestRight);
+            trees.set(bestLeft, plans.get(left | right));
+        }
+        return trees.get(0);
+    }
+
+    // ---------------- COSTING ----------------
+    // Plans both orientations of the join of two planned sets with every applicable method, keeping the
+    // cheapest tree for their union
+    private void join(long leftRelations, long rightRelations) {
+        Tree left = plans.get(leftRelations);
+        Tree right = plans.get(rightRelations);
+        if (left == null || right == null) {
+            throw new IllegalStateException("Sub-plan missing for " + Long.toBinaryString(leftRelations) + " or "
+                    + Long.toBinaryString(rightRelations));
+        }
+        long relations = leftRelations | rightRelations;
+        double joinRows = cardinality(relations);
+        boolean equiJoin = hasEquiJoin(leftRelations, rightRelations);
+        Tree best = plans.get(relations);
+        best = cheaper(best, tree(left, right, Method.NESTED_LOOP, joinRows));
+        best = cheaper(best, tree(right, left, Method.NESTED_LOOP, joinRows));
+        if (equiJoin) {
+            best = cheaper(best, tree(left, right, Method.HASH, joinRows));
+            best = cheaper(best, tree(right, left, Method.HASH, joinRows));
+            best = cheaper(best, tree(left, right, Method.MERGE, joinRows));
+        }
+        plans.put(relations, best);
+    }
+
+    private static Tree tree(Tree outer, Tree inner, Method method, double rows) {
+        double cost = outer.getCost() + inner.getCost() + rows + switch (method) {
+            case HASH -> HASH_PROBE_COST * outer.getRows() + HASH_BUILD_COST * inner.getRows()
+                    * (inner.getRows() > HASH_MEMORY_ROWS ? HASH_SPILL_FACTOR : 1);
+            case MERGE -> sortCost(outer.getRows()) + sortCost(inner.getRows()) + outer.getRows() + inner.getRows();
+            case NESTED_LOOP -> NESTED_LOOP_PAIR_COST * outer.getRows() * inner.getRows();
+        };
+        return new Tree(outer.getRelations() | inner.getRelations(), outer, inner, method, rows, cost);
+    }
+
+    private static double sortCost(double rows) {
+        return SORT_COST * rows * Math.log(Math.max(2, rows)) / Math.log(2);
+    }
+
+    private static Tree cheaper(Tree current, Tree candidate) {
+        return current == null || candidate.getCost() < current.getCost() ? candidate : current;
+    }
+
+    // Product of the relations' rows and of the selectivities of the predicates among them
+    double cardinality(long relations) {
+        Double cached = cardinalities.get(relations);
+        if (cached != null) {
+            return cached;
+        }
+        double result = 1;
+        for (long rest = relations; rest != 0; rest &= rest - 1) {
+            result *= rows[Long.numberOfTrailingZeros(rest)];
+        }
+        for (long[] predicate : predicates) {
+            if ((predicate[0] & ~relations) == 0) {
+                result *= Double.longBitsToDouble(predicate[1]);
+            }
+        }
+        cardinalities.put(relations, result);
+        return result;
+    }
+
+    // Hash and merge joins need an equality between the two sides
+    private boolean hasEquiJoin(long left, long right) {
+        for (long[] predicate : predicates) {
+            long relations = predicate[0];
+            if (predicate[2] == 1 && (relations & left) != 0 && (relations & right) != 0
+                    && (relations & ~(left | right)) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long neighbours(long relations) {
+        long result = 0;
+        for (long rest = relations; rest != 0; rest &= rest - 1) {
+            result |= neighbours[Long.numberOfTrailingZeros(rest)];
+        }
+        return result & ~relations;
+    }
+
+    private boolean connected(long relations) {
+        long reached = Long.lowestOneBit(relations);
+        for (long frontier = reached; frontier != 0;) {
+            frontier = neighbours(reached) & relations & ~reached;
+            reached |= frontier;
+        }
+        return reached == relations;
+    }
+
+    // The lowest relation of the set and every relation numbered below it
+    private static long lowestAndBelow(long relations) {
+        long lowest = Long.lowestOneBit(relations);
+        return lowest | (lowest - 1);
+    }
+}
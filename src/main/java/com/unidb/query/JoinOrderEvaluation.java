@@ -0,0 +1,117 @@
+package com.unidb.query;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Offline evaluation of join ordering on generated reporting queries: a
+ * fact table joined to filtered dimensions, some of which have their own
+ * sub-dimensions, with the tables in a random order in which each one
+ * joins a table written before it, as hand-written SQL often is.
+ * Each query is planned three ways: as written (left-deep in FROM order),
+ * with greedy operator ordering, and with the DPccp enumerator. Reports
+ * how many times more expensive than the enumerator's plan the other two
+ * are estimated to be, and how long enumeration takes.
+ */
+@Slf4j
+class JoinOrderEvaluation {
+    private JoinOrderEvaluation() {
+    }
+
+    public static void main(String[] args) {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Random random = new Random(42);
+        double[] written = new double[queries];
+        double[] greedy = new double[queries];
+        long[] enumerationNanos = new long[queries];
+        int bushy = 0;
+
+        for (int q = 0; q < queries; q++) {
+            // 6-8 relations: the fact table, 3-5 dimensions and up to 2 sub-dimensions hanging off them
+            int dimensions = 3 + random.nextInt(3);
+            int relations = Math.min(8, 1 + dimensions + random.nextInt(3));
+            double[] tableRows = new double[relations];
+            double[] filtered = new double[relations];
+            int[] parent = new int[relations];
+            tableRows[0] = Math.pow(10, 6 + 2 * random.nextDouble());
+            filtered[0] = tableRows[0] * (random.nextBoolean() ? 1 : Math.pow(10, -2 * random.nextDouble()));
+            for (int i = 1; i < relations; i++) {
+                parent[i] = i <= dimensions ? 0 : 1 + random.nextInt(dimensions);
+                tableRows[i] = Math.pow(10, (i <= dimensions ? 2 : 1) + 3 * random.nextDouble());
+                filtered[i] = tableRows[i] * (random.nextInt(3) == 0 ? 1 : Math.pow(10, -3 * random.nextDouble()));
+            }
+            // Foreign key joins: each child row finds one parent row before the parent's filter
+            int[] order = writtenOrder(parent, random);
+            int[] position = new int[relations];
+            for (int i = 0; i < relations; i++) {
+                position[order[i]] = i;
+            }
+            JoinEnumerator[] enumerators = new JoinEnumerator[3];
+            for (int e = 0; e < enumerators.length; e++) {
+                double[] rows = new double[relations];
+                for (int i = 0; i < relations; i++) {
+                    rows[position[i]] = filtered[i];
+                }
+                enumerators[e] = new JoinEnumerator(rows);
+                for (int i = 1; i < relations; i++) {
+                    enumerators[e].addPredicate((1L << position[i]) | (1L << position[parent[i]]), 1 / tableRows[i],
+                            true);
+                }
+            }
+            int[] fromOrder = new int[relations];
+            Arrays.setAll(fromOrder, i -> i);
+            long start = System.nanoTime();
+            JoinEnumerator.Tree best = enumerators[0].optimize();
+            enumerationNanos[q] = System.nanoTime() - start;
+            written[q] = enumerators[1].leftDeep(fromOrder).getCost() / best.getCost();
+            greedy[q] = enumerators[2].optimizeGreedy().getCost() / best.getCost();
+            bushy += best.isLeftDeep() ? 0 : 1;
+        }
+        log.info("Estimated cost relative to DPccp on {} queries, as written: {}", queries, summary(written));
+        log.info("Estimated cost relative to DPccp on {} queries, greedy: {}", queries, summary(greedy));
+        log.info("DPccp chose a bushy tree for {} queries; enumeration took {} µs median, {} µs max", bushy,
+                median(enumerationNanos) / 1000, Arrays.stream(enumerationNanos).max().getAsLong() / 1000);
+    }
+
+    // Starts anywhere and keeps adding a random table that joins one already written
+    private static int[] writtenOrder(int[] parent, Random random) {
+        int size = parent.length;
+        int[] order = new int[size];
+        boolean[] written = new boolean[size];
+        order[0] = random.nextInt(size);
+        written[order[0]] = true;
+        for (int i = 1; i < size; i++) {
+            int next;
+            do {
+                next = random.nextInt(size);
+            } while (written[next] || !(next > 0 && written[parent[next]] || hasWrittenChild(next, parent, written)));
+            order[i] = next;
+            written[next] = true;
+        }
+        return order;
+    }
+
+    private static boolean hasWrittenChild(int table, int[] parent, boolean[] written) {
+        for (int i = 1; i < parent.length; i++) {
+            if (parent[i] == table && written[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String summary(double[] ratios) {
+        double[] sorted = ratios.clone();
+        Arrays.sort(sorted);
+        return String.format("median %.2fx, p90 %.2fx, p99 %.2fx, max %.1fx", sorted[sorted.length / 2],
+                sorted[(int) (sorted.length * 0.9)], sorted[(int) (sorted.length * 0.99)], sorted[sorted.length - 1]);
+    }
+}
@@ -0,0 +1,72 @@
+package com.unidb.query;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent log-linear latency histogram: every power of two of nanoseconds
+ * is split into four buckets, so a recorded value is off by less than 19%.
+ * Like a LongAdder, the counts are striped by thread so that threads
+ * recording similar latencies do not contend on one bucket; reads sum the
+ * stripes.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int BUCKETS = 64 << SUB_BUCKET_BITS;
+
+    private static final int STRIPES = Math.min(8,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicLongArray counts; // STRIPES rows of BUCKETS counts
+
+    LatencyHistogram() {
+        this.counts = new AtomicLongArray(STRIPES * BUCKETS);
+    }
+
+    void record(long nanos) {
+        long thread = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        int stripe = (int) (thread >>> 61) & (STRIPES - 1);
+        counts.incrementAndGet(stripe * BUCKETS + bucket(Math.max(nanos, 1)));
+    }
+
+    // Upper bound of the bucket holding the given quantile, 0 if nothing was recorded
+    long percentile(double quantile) {
+        long[] merged = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            merged[i & (BUCKETS - 1)] += counts.get(i);
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += merged[i];
+            if (seen >= Math.max(rank, 1)) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    private static int bucket(long nanos) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        if (magnitude < SUB_BUCKET_BITS) {
+            return (int) nanos;
+        }
+        int sub = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return (magnitude << SUB_BUCKET_BITS) | sub;
+    }
+
+    private static long upperBound(int bucket) {
+        int magnitude = bucket >>> SUB_BUCKET_BITS;
+        if (magnitude < SUB_BUCKET_BITS) {
+            return bucket;
+        }
+        int sub = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+        long base = 1L << magnitude;
+        long step = base >>> SUB_BUCKET_BITS;
+        return base + (sub + 1) * step - 1;
+    }
+}
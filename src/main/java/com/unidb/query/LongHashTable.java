@@ -0,0 +1,294 @@
+package com.unidb.query;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Open-addressing long to long hash table over parallel primitive arrays:
+ * 16 bytes per slot, or 21 to 43 bytes per key depending on the load, where
+ * a boxed {@code HashMap<Long, Long>} entry takes 60 to 80.
+ *
+ * Slots are probed linearly from a Fibonacci hash of the key; 0 marks an
+ * empty slot, so the key 0 is kept aside in a field. Removal shifts the rest
+ * of the probe run back instead of leaving tombstones. Growing is
+ * incremental: the old table is kept next to a table twice its size and
+ * every write moves a few of its slots over, so no single insert pays for
+ * rehashing the whole table. Not thread-safe.
+ */
+@Slf4j
+final class LongHashTable {
+    private static final int MIN_CAPACITY = 16;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+    private static final int MIGRATION_STEP = 8; // slots of the retiring table moved per write
+    private static final long EMPTY = 0;
+
+    private Table table;
+    private Table retiring; // previous table still being drained into table, or null
+    private int migrated; // next slot of the retiring table to move
+    private boolean hasZeroKey;
+    private long zeroValue;
+    private long size;
+
+    LongHashTable() {
+        this(MIN_CAPACITY);
+    }
+
+    LongHashTable(int expectedKeys) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD_FACTOR < expectedKeys) {
+            capacity <<= 1;
+        }
+        this.table = new Table(capacity);
+    }
+
+    boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return hasZeroKey;
+        }
+        return table.find(key) >= 0 || retiring != null && retiring.findLive(key) >= 0;
+    }
+
+    long get(long key, long defaultValue) {
+        if (key == EMPTY) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int slot = table.find(key);
+        if (slot >= 0) {
+            return table.values[slot];
+        }
+        if (retiring != null) {
+            slot = retiring.findLive(key);
+            if (slot >= 0) {
+                return retiring.values[slot];
+            }
+        }
+        return defaultValue;
+    }
+
+    void put(long key, long value) {
+        if (key == EMPTY) {
+            size += hasZeroKey ? 0 : 1;
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+        int slot = table.find(key);
+        if (slot >= 0) {
+            table.values[slot] = value;
+        } else {
+            // A key still waiting in the retiring table moves over now; retiring it keeps it unique
+            if (retiring != null) {
+                int old = retiring.findLive(key);
+                if (old >= 0) {
+                    retiring.retire(old);
+                    size--;
+                }
+            }
+            if (table.count + 1 > table.capacity() * MAX_LOAD_FACTOR) {
+                grow();
+            }
+            table.insert(key, value);
+            size++;
+        }
+        migrateStep();
+    }
+
+    // Returns whether the key was present
+    boolean remove(long key) {
+        if (key == EMPTY) {
+            boolean removed = hasZeroKey;
+            size -= removed ? 1 : 0;
+            hasZeroKey = false;
+            return removed;
+        }
+        boolean removed = table.delete(key);
+        if (!removed && retiring != null) {
+            int old = retiring.findLive(key);
+            if (old >= 0) {
+                retiring.retire(old);
+                removed = true;
+            }
+        }
+        if (removed) {
+            size--;
+        }
+        migrateStep();
+        return removed;
+    }
+
+    long size() {
+        return size;
+    }
+
+    // Bytes held by the slot arrays, including a table that is still being drained
+    long memoryBytes() {
+        return table.memoryBytes() + (retiring != null ? retiring.memoryBytes() : 0);
+    }
+
+    // ---------------- INCREMENTAL RESIZING ----------------
+    private void grow() {
+        drain(); // a second resize never starts before the previous one finished
+        if (table.count + 1 <= table.capacity() * MAX_LOAD_FACTOR) {
+            return;
+        }
+        retiring = table;
+        retiring.retired = new BitSet(retiring.capacity());
+        migrated = 0;
+        table = new Table(retiring.capacity() * 2);
+    }
+
+    private void migrateStep() {
+        if (retiring == null) {
+            return;
+        }
+        int end = Math.min(migrated + MIGRATION_STEP, retiring.capacity());
+        for (; migrated < end; migrated++) {
+            long key = retiring.keys[migrated];
+            if (key != EMPTY && !retiring.retired.get(migrated)) {
+                table.insert(key, retiring.values[migrated]);
+                retiring.retire(migrated);
+            }
+        }
+        if (migrated == retiring.capacity()) {
+            retiring = null;
+        }
+    }
+
+    private void drain() {
+        while (retiring != null) {
+            migrateStep();
+        }
+    }
+
+    // ---------------- SLOT ARRAYS ----------------
+    private static final class Table {
+        private final long[] keys;
+        private final long[] values;
+        private final int mask;
+        private final int shift;
+        private int count;
+        // Set once the table is retiring: slots already moved or removed. They stay occupied so that
+        // probe runs through them remain intact while lookups still consult this table.
+        private BitSet retired;
+
+        private Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new long[capacity];
+            this.mask = capacity - 1;
+            this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        private int capacity() {
+            return keys.length;
+        }
+
+        private long memoryBytes() {
+            return 16L * keys.length + (retired != null ? keys.length / 8 : 0);
+        }
+
+        private int home(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        private int find(long key) {
+            for (int slot = home(key);; slot = (slot + 1) & mask) {
+                long current = keys[slot];
+                if (current == key) {
+                    return slot;
+                }
+                if (current == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        private int findLive(long key) {
+            int slot = find(key);
+            return slot >= 0 && !retired.get(slot) ? slot : -1;
+        }
+
+        private void retire(int slot) {
+            retired.set(slot);
+        }
+
+        // The caller guarantees that the key is absent and that a free slot exists
+        private void insert(long key, long value) {
+            int slot = home(key);
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            count++;
+        }
+
+        // Backward-shift deletion: later members of the probe run move into the hole when that does not
+        // put them in front of their home slot
+        private boolean delete(long key) {
+            int hole = find(key);
+            if (hole < 0) {
+                return false;
+            }
+            for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+                int home = home(keys[next]);
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = EMPTY;
+            count--;
+            return true;
+        }
+    }
+
+    // Memory per key and lookup latency against HashMap<Long, Long>; pass the key count
+    public static void main(String[] args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        long[] data = new Random(42).longs(keys).toArray();
+
+        long before = usedMemory();
+        Map<Long, Long> boxed = new HashMap<>();
+        for (long key : data) {
+            boxed.put(key, key);
+        }
+        long boxedBytes = usedMemory() - before;
+        long start = System.nanoTime();
+        long hits = 0;
+        for (long key : data) {
+            hits += boxed.containsKey(key) ? 1 : 0;
+        }
+        long boxedNanos = System.nanoTime() - start;
+        log.info("HashMap<Long, Long>: {} bytes/key, {} ns/lookup ({} hits)", boxedBytes / keys,
+                boxedNanos / keys, hits);
+        boxed = null;
+
+        before = usedMemory();
+        LongHashTable primitive = new LongHashTable();
+        for (long key : data) {
+            primitive.put(key, key);
+        }
+        long primitiveBytes = usedMemory() - before;
+        start = System.nanoTime();
+        hits = 0;
+        for (long key : data) {
+            hits += primitive.containsKey(key) ? 1 : 0;
+        }
+        long primitiveNanos = System.nanoTime() - start;
+        log.info("LongHashTable: {} bytes/key ({} in slot arrays), {} ns/lookup ({} hits)", primitiveBytes / keys,
+                primitive.memoryBytes() / keys, primitiveNanos / keys, hits);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,21 +1,25 @@
 package com.unidb.query;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.deeplearning4j.datasets.iterator.utilty.ListDataSetIterator;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.conf.layers.DenseLayer;
@@ -29,44 +33,131 @@ import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
 import org.nd4j.linalg.api.memory.enums.LearningPolicy;
 import org.nd4j.linalg.api.memory.enums.MirroringPolicy;
 import org.nd4j.linalg.api.memory.enums.SpillPolicy;
-import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
-import org.nd4j.linalg.dataset.api.preprocessor.NormalizerMinMaxScaler;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.Adam;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Learned cardinality and cost estimation. A small neural network maps plan
+ * features (query type, predicate range width and position, row limit,
+ * joins, filters, data size) to the log of the rows a plan returns and the
+ * log of its execution time, and learns from executed queries without
+ * slowing them down. Queries only drop a (features, observed rows and time)
+ * sample into a lossy lock-free ring. A single
+ * background thread drains it into mini-batches, trains a copy of the live
+ * network, and swaps the copy in atomically, so inference never sees a
+ * network mid-update. The live network is checkpointed to disk on a
+ * schedule, and only when it changed.
+ *
+ * <p>The network is loaded or created in the background, so construction
+ * is cheap and the engine serves queries with the cost model meanwhile.
+ * Inference runs inline on the planning thread over a Java copy of the
+ * live weights, with predictions cached by quantized plan features. When
+ * a forward pass costs more than the configured budget, plans keep the
+ * cost model's estimate instead.
+ */
 @Slf4j
-public class MachineLearningOptimizer {
-    private MultiLayerNetwork model;
+public class MachineLearningOptimizer implements PlanEstimator, AutoCloseable {
+    static final int FEATURES = 12;
+    private static final int OUTPUTS = 2; // log2(1 + rows), log2(1 + microseconds)
+    private static final int SAMPLE_BUFFER_SIZE = 4096;
+    private static final int MIN_BATCH = 32;
+    private static final long TRAIN_INTERVAL_MILLIS = 1000;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 60_000;
+    private static final long HASH_WINDOW_BYTES = 256L << 20;
+    private static final int PROBE_INTERVAL = 64; // over budget, still time one inference in this many
+    private static final String DEFAULT_MODEL_FILE = "ml_model.zip";
+
+    private final AtomicReference<MultiLayerNetwork> model = new AtomicReference<>();
     private double learningRate = 0.001;
-    private int batchSize = 128; // Increased batch size for performance
-    private int epochs = 20; // Increased training epochs for better learning
-    private ExecutorService executorService = Executors.newFixedThreadPool(8); // Optimized thread pool
-    private String modelFilePath = "ml_model.zip";
-    private String hashFilePath = "ml_model.hash";
-
-    public MachineLearningOptimizer() {
-        if (!verifyIntegrity() || !loadModel()) {
-            initializeNewModel();
-        }
+    private int batchSize = 128; // samples per mini-batch
+    private int epochs = 5; // passes over each mini-batch
+    private final String modelFilePath; // null: the network is kept in memory only
+    private final String hashFilePath;
+
+    private final AtomicReferenceArray<Sample> samples = new AtomicReferenceArray<>(SAMPLE_BUFFER_SIZE);
+    private final AtomicLong sampleCount = new AtomicLong();
+    private final LongAdder droppedSamples = new LongAdder();
+    private final AtomicLong trainingRounds = new AtomicLong();
+    private final ScheduledExecutorService learner;
+    private final List<Sample> pending = new ArrayList<>(); // drained but not yet trained on, learner thread only
+    private volatile boolean dirty; // the live network changed since the last checkpoint
+
+    private volatile InlineNetwork inline; // weights of the live network, null if it cannot run inline
+    private volatile long inferenceBudgetNanos = 50_000;
+    private volatile long inferenceNanos; // moving average of a forward pass
+    private final LongAdder optimizations = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder overheadNanos = new LongAdder();
+
+    private MachineLearningOptimizer(String modelFilePath) {
+        this.modelFilePath = modelFilePath;
+        this.hashFilePath = modelFilePath == null ? null : modelFilePath + ".hash";
+        this.learner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ml-learner");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
-    public MachineLearningOptimizer(String modelFilePath) {
-        this.modelFilePath = modelFilePath;
-        this.hashFilePath = modelFilePath + ".hash";
-        if (!verifyIntegrity() || !loadModel()) {
-            initializeNewModel();
+    // An optimizer with the default model file whose learner is already loading the network
+    public static MachineLearningOptimizer start() {
+        return start(DEFAULT_MODEL_FILE);
+    }
+
+    // A null path trains a fresh network that is never loaded from or checkpointed to disk
+
+    public static MachineLearningOptimizer start(String modelFilePath) {
+        MachineLearningOptimizer optimizer = new MachineLearningOptimizer(modelFilePath);
+        optimizer.startLearner();
+        return optimizer;
+    }
+
+    // The network is loaded first on the learner thread, so construction does not wait for the ND4J backend.
+    // Scheduled only once the object is constructed, so the learner never sees it half-initialized.
+    private void startLearner() {
+        learner.execute(this::initialize);
+        learner.scheduleWithFixedDelay(this::trainPending, TRAIN_INTERVAL_MILLIS, TRAIN_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        learner.scheduleWithFixedDelay(this::checkpoint, CHECKPOINT_INTERVAL_MILLIS, CHECKPOINT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void initialize() {
+        long start = System.nanoTime();
+        try {
+            if (!verifyIntegrity() || !loadModel()) {
+                initializeNewModel();
+            }
+            log.info("ML optimizer ready in {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException | LinkageError e) {
+            log.error("ML optimizer failed to start; plans keep the cost model's estimate", e);
         }
     }
 
+    // False until the network is loaded; until then optimize() falls back to the cost model
+    public boolean isReady() {
+        return model.get() != null;
+    }
+
     private boolean loadModel() {
+        if (modelFilePath == null) {
+            return false;
+        }
         try {
             File modelFile = new File(modelFilePath);
             if (modelFile.exists()) {
-                model = MultiLayerNetwork.load(modelFile, true);
+                MultiLayerNetwork network = MultiLayerNetwork.load(modelFile, true);
+                InlineNetwork shape = InlineNetwork.of(network);
+                if (shape == null || shape.inputSize() != FEATURES || shape.outputSize() != OUTPUTS) {
+                    log.warn("Saved ML model does not match the current plan features; starting a new one.");
+                    return false;
+                }
+                publish(network);
                 log.info("Loaded ML model from disk.");
                 return true;
             }
@@ -76,11 +167,20 @@ public class MachineLearningOptimizer {
         return false;
     }
 
-    private void saveModel() {
+    // Writes a temporary file and moves it into place, then records its hash for the next integrity check
+    private synchronized void saveModel() {
+        if (model.get() == null || modelFilePath == null) {
+            return; // still loading, or nowhere to save
+        }
         try {
-            model.save(new File(modelFilePath), true);
+            File modelFile = new File(modelFilePath);
+            File temporary = new File(modelFilePath + ".tmp");
+            model.get().save(temporary, true);
+            Files.move(temporary.toPath(), modelFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.write(new File(hashFilePath).toPath(), computeHash(modelFile).getBytes());
             log.info("Saved ML model to disk.");
-        } catch (IOException e) {
+        } catch (IOException | NoSuchAlgorithmException e) {
             log.error("Failed to save ML model to disk.", e);
         }
     }
@@ -90,7 +190,7 @@ public class MachineLearningOptimizer {
                 .seed(123)
                 .updater(new Adam(learningRate))
                 .list()
-                .layer(0, new DenseLayer.Builder().nIn(1).nOut(128)
+                .layer(0, new DenseLayer.Builder().nIn(FEATURES).nOut(128)
                         .activation(Activation.RELU)
                         .build())
                 .layer(1, new DenseLayer.Builder().nIn(128).nOut(64)
@@ -98,96 +198,281 @@ public class MachineLearningOptimizer {
                         .build())
                 .layer(2, new OutputLayer.Builder(LossFunctions.LossFunction.MSE)
                         .activation(Activation.IDENTITY)
-                        .nIn(64).nOut(1)
+                        .nIn(64).nOut(OUTPUTS)
                         .build())
                 .build();
 
-        model = new MultiLayerNetwork(config);
-        model.init();
-        model.setListeners(new ScoreIterationListener(10));
+        MultiLayerNetwork network = new MultiLayerNetwork(config);
+        network.init();
+        network.setListeners(new ScoreIterationListener(10));
+        publish(network);
         log.info("Initialized new ML model with optimized hyperparameters for scalability.");
     }
 
+    private void publish(MultiLayerNetwork network) {
+        model.set(network);
+        inline = InlineNetwork.of(network);
+    }
+
+    // Scores the plan with its predicted execution time, or the cost model's estimate without a prediction
     public ExecutionPlan optimize(ExecutionPlan plan) {
-        Instant startTime = Instant.now();
-        INDArray input = prepareInput(plan);
-        Future<INDArray> futureOutput = executorService.submit(() -> model.output(input));
-        try {
-            INDArray output = futureOutput.get();
-            logExecutionTime("optimize", startTime);
-            return applyOptimization(plan, output);
-        } catch (InterruptedException | ExecutionException e) {
-            log.error("Error during inference execution", e);
-            return plan;
+        long start = System.nanoTime();
+        float[] prediction = predict(plan);
+        float score;
+        if (prediction == null) {
+            fallbacks.increment();
+            score = (float) plan.getOptimizedCost();
+        } else {
+            score = (float) micros(prediction);
         }
+        plan.setOptimizedScore(score);
+        optimizations.increment();
+        overheadNanos.add(System.nanoTime() - start);
+        log.debug("ML Optimizer adjusted execution plan with predicted score: {}", score);
+        return plan;
     }
 
-    private INDArray prepareInput(ExecutionPlan plan) {
-        return Nd4j.create(new float[] { plan.getOptimizedQuery().getKey() }, new int[] { 1, 1 });
+    @Override
+    public double estimateRows(ExecutionPlan plan) {
+        float[] prediction = predict(plan);
+        return prediction == null ? Double.NaN : Math.max(0, Math.pow(2, prediction[0]) - 1);
     }
 
-    private ExecutionPlan applyOptimization(ExecutionPlan plan, INDArray output) {
-        log.info("ML Optimizer adjusted execution plan with predicted score: {}", output.getFloat(0));
-        plan.setOptimizedScore(output.getFloat(0)); // Setting the optimized score to the plan
-        return plan;
+    @Override
+    public double estimateCostMicros(ExecutionPlan plan) {
+        float[] prediction = predict(plan);
+        return prediction == null ? Double.NaN : micros(prediction);
     }
 
-    public void updateModel(List<ExecutionPlan> plans, List<String> executionResults) {
-        log.info("Updating ML model with batch query execution feedback for scalability");
-        List<DataSet> trainingData = prepareTrainingData(plans, executionResults);
-        trainModel(trainingData);
-        evaluateModel(trainingData);
-        saveModel();
+    private static double micros(float[] prediction) {
+        return Math.max(0, Math.pow(2, prediction[1]) - 1);
     }
 
-    public void updateModel(ExecutionPlan plan, String executionResult) {
-        List<ExecutionPlan> planList = new ArrayList<>();
-        planList.add(plan);
+    // Null while the network is loading, cannot run inline, or costs more than the budget
+    private float[] predict(ExecutionPlan plan) {
+        float[] features = features(plan);
+        InlineNetwork network = inline;
+        if (network == null) {
+            return null;
+        }
+        long key = quantize(features);
+        float[] prediction = network.cached(key);
+        if (prediction != null) {
+            cacheHits.increment();
+            return prediction;
+        }
+        if (overBudget()) {
+            return null;
+        }
+        long inferenceStart = System.nanoTime();
+        prediction = network.predict(features);
+        long elapsed = System.nanoTime() - inferenceStart;
+        inferenceNanos += (elapsed - inferenceNanos) / 8; // racy, but only steers the budget check
+        network.cache(key, prediction);
+        return prediction;
+    }
 
-        List<String> resultList = new ArrayList<>();
-        resultList.add(executionResult);
+    // Over budget, inference is skipped except for a periodic probe that keeps the average current
+    private boolean overBudget() {
+        return inferenceNanos > inferenceBudgetNanos && optimizations.sum() % PROBE_INTERVAL != 0;
+    }
 
-        updateModel(planList, resultList); // Calls the existing batch method
+    // Sign, exponent and the top seven mantissa bits of each feature: the features are logarithms already,
+    // so buckets under 1% wide still merge only ranges within a few percent of each other
+    private static long quantize(float[] features) {
+        long key = 0;
+        for (float feature : features) {
+            key = key * 0x9E3779B97F4A7C15L + (Float.floatToIntBits(feature) >>> 16);
+        }
+        return key;
     }
 
-    private void evaluateModel(List<DataSet> testData) {
-        log.info("Evaluating ML model performance on batch data...");
-        RegressionEvaluation eval = new RegressionEvaluation(1);
-        for (DataSet data : testData) {
-            INDArray predicted = model.output(data.getFeatures());
-            eval.eval(data.getLabels(), predicted);
+    public void setInferenceBudgetMicros(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("Inference budget must not be negative: " + micros);
         }
+        this.inferenceBudgetNanos = micros * 1000;
+    }
 
-        log.info("Model Evaluation Metrics:");
-        log.info("MSE: {}", eval.meanSquaredError(0));
-        log.info("MAE: {}", eval.meanAbsoluteError(0));
-        log.info("R Squared: {}", eval.rSquared(0));
+    public long getOptimizations() {
+        return optimizations.sum();
     }
 
-    private List<DataSet> prepareTrainingData(List<ExecutionPlan> plans, List<String> executionResults) {
-        List<DataSet> dataSetList = new ArrayList<>();
-        for (int i = 0; i < plans.size(); i++) {
-            INDArray features = prepareInput(plans.get(i));
-            INDArray labels = Nd4j.create(new float[] { Float.parseFloat(executionResults.get(i)) },
-                    new int[] { 1, 1 });
-            dataSetList.add(new DataSet(features, labels));
+    public long getPredictionCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    // Mean time optimize() added to planning, cache hits and fallbacks included
+    public long getMeanOverheadNanos() {
+        long count = optimizations.sum();
+        return count == 0 ? 0 : overheadNanos.sum() / count;
+    }
+
+    public void logMetrics() {
+        log.info("ML optimizer: {} plans, {} prediction cache hits, {} cost-model fallbacks, {} ns mean overhead, "
+                + "{} ns per forward pass", getOptimizations(), getPredictionCacheHits(), getFallbacks(),
+                getMeanOverheadNanos(), inferenceNanos);
+    }
+
+    /**
+     * Plan features on log scales, so that ranges differing by orders of
+     * magnitude stay apart without any one input dominating: a one-hot query
+     * type, the width of the key range and where it starts, the effective row
+     * limit and scan direction, then the plan's joins, filters and data size.
+     * The range's start stands in for data skew, which the width alone cannot
+     * capture.
+     */
+    static float[] features(ExecutionPlan plan) {
+        float[] features = new float[FEATURES];
+        ParsedQuery query = plan.getOptimizedQuery();
+        if (query != null) {
+            features[query.getType().ordinal()] = 1;
+            if (query.getType() == QueryType.RANGE) {
+                double width = (double) query.getHigh() - query.getLow() + 1; // no overflow for open ranges
+                features[5] = log2(width);
+                features[6] = log2(Math.min(width, query.getLimit()));
+                features[7] = query.isDescending() ? 1 : 0;
+                features[8] = Math.signum(query.getLow()) * log2(Math.abs((double) query.getLow()));
+            }
         }
-        return dataSetList;
+        features[9] = plan.getNumJoins();
+        features[10] = plan.getNumFilters();
+        features[11] = log2(plan.getDataSize());
+        return features;
     }
 
-    private void trainModel(List<DataSet> trainingData) {
-        NormalizerMinMaxScaler normalizer = new NormalizerMinMaxScaler(0, 1);
-        ListDataSetIterator<DataSet> iterator = new ListDataSetIterator<>(trainingData, batchSize);
-        normalizer.fit(iterator);
-        iterator.setPreProcessor(normalizer);
+    private static float log2(double value) {
+        return (float) (Math.log1p(Math.max(0, value)) / Math.log(2));
+    }
 
-        executorService.submit(() -> {
-            for (int i = 0; i < epochs; i++) {
-                model.fit(iterator);
+    // Called on the query path: a full ring drops the sample rather than making the query wait
+    public void recordExecution(ExecutionPlan plan, long rows, long elapsedNanos) {
+        Sample sample = new Sample(features(plan), new float[] { log2(rows), log2(elapsedNanos / 1000.0) });
+        int index = (int) sampleCount.getAndIncrement() & (SAMPLE_BUFFER_SIZE - 1);
+        if (!samples.compareAndSet(index, null, sample)) {
+            droppedSamples.increment();
+        }
+    }
+
+    public long getTrainingRounds() {
+        return trainingRounds.get();
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples.sum();
+    }
+
+    // ---------------- BACKGROUND LEARNING ----------------
+    private void trainPending() {
+        if (!isReady()) {
+            return; // failed to start
+        }
+        try {
+            drainSamples();
+            while (pending.size() >= MIN_BATCH) {
+                List<Sample> batch = pending.subList(0, Math.min(pending.size(), batchSize));
+                train(batch);
+                batch.clear();
             }
-            log.info("ML model retrained with batch data for improved scalability.");
+        } catch (RuntimeException e) {
+            log.error("ML training round failed; keeping the current model", e); // the schedule must survive
+        }
+    }
+
+    private void drainSamples() {
+        for (int i = 0; i < SAMPLE_BUFFER_SIZE; i++) {
+            Sample sample = samples.getAndSet(i, null);
+            if (sample != null) {
+                pending.add(sample);
+            }
+        }
+        // Keep at most a few batches of backlog: old samples are worth less than keeping up
+        if (pending.size() > batchSize * 8) {
+            pending.subList(0, pending.size() - batchSize * 8).clear();
+        }
+    }
+
+    /**
+     * Trains on a recorded workload on the calling thread, in mini-batches as
+     * the learner would, instead of waiting for live samples. For offline
+     * evaluation and for warming a new model; the network must be ready.
+     */
+    void fit(List<ExecutionPlan> plans, long[] rows, long[] elapsedNanos, int passes) {
+        if (!isReady()) {
+            throw new IllegalStateException("ML model is not loaded yet");
+        }
+        List<Sample> workload = new ArrayList<>(plans.size());
+        for (int i = 0; i < plans.size(); i++) {
+            workload.add(new Sample(features(plans.get(i)),
+                    new float[] { log2(rows[i]), log2(elapsedNanos[i] / 1000.0) }));
+        }
+        for (int pass = 0; pass < passes; pass++) {
+            Collections.shuffle(workload);
+            for (int from = 0; from < workload.size(); from += batchSize) {
+                train(workload.subList(from, Math.min(workload.size(), from + batchSize)));
+            }
+        }
+    }
+
+    // Trains a copy of the live network and publishes it unless the live one was replaced meanwhile
+    private void train(List<Sample> batch) {
+        float[][] features = new float[batch.size()][];
+        float[][] labels = new float[batch.size()][];
+        for (int i = 0; i < batch.size(); i++) {
+            features[i] = batch.get(i).features;
+            labels[i] = batch.get(i).labels;
+        }
+        DataSet data = new DataSet(Nd4j.create(features), Nd4j.create(labels));
+
+        MultiLayerNetwork live = model.get();
+        MultiLayerNetwork next = live.clone();
+        evaluateModel(next, data); // before fitting, so the error is measured on unseen samples
+        for (int i = 0; i < epochs; i++) {
+            next.fit(data);
+        }
+        if (Double.isNaN(next.score())) {
+            log.warn("ML training diverged on {} samples; keeping the current model", batch.size());
+            return;
+        }
+        if (model.compareAndSet(live, next)) {
+            inline = InlineNetwork.of(next);
+            dirty = true;
+            trainingRounds.incrementAndGet();
+            log.debug("ML model retrained on {} samples", batch.size());
+        }
+    }
+
+    private void checkpoint() {
+        if (dirty) {
+            dirty = false;
             saveModel();
-        });
+        }
+    }
+
+    // Stops the learner, dropping samples not yet trained on, and checkpoints the network if it changed
+    @Override
+    public void close() {
+        learner.shutdownNow();
+        try {
+            if (learner.awaitTermination(5, TimeUnit.SECONDS)) {
+                checkpoint();
+            } else {
+                log.warn("ML learner did not stop in time; skipping the final checkpoint");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void evaluateModel(MultiLayerNetwork network, DataSet data) {
+        RegressionEvaluation eval = new RegressionEvaluation(OUTPUTS);
+        eval.eval(data.getLabels(), network.output(data.getFeatures()));
+        log.debug("ML model on {} new samples: log2 rows MAE {}, log2 time MAE {}", data.numExamples(),
+                eval.meanAbsoluteError(0), eval.meanAbsoluteError(1));
     }
 
     public void enableFaultTolerance() {
@@ -224,13 +509,11 @@ public class MachineLearningOptimizer {
         log.info("Memory optimization applied.");
     }
 
-    private void logExecutionTime(String operation, Instant startTime) {
-        Instant endTime = Instant.now();
-        long timeElapsed = endTime.toEpochMilli() - startTime.toEpochMilli();
-        log.info("Execution time for {}: {} ms", operation, timeElapsed);
-    }
 
     private boolean verifyIntegrity() {
+        if (modelFilePath == null) {
+            return false;
+        }
         try {
             File modelFile = new File(modelFilePath);
             File hashFile = new File(hashFilePath);
@@ -253,13 +536,14 @@ public class MachineLearningOptimizer {
         }
     }
 
+    // Hashes the file through read-only memory-mapped windows instead of copying it through a small buffer
     private String computeHash(File file) throws IOException, NoSuchAlgorithmException {
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        try (InputStream fis = new FileInputStream(file)) {
-            byte[] byteArray = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = fis.read(byteArray)) != -1) {
-                digest.update(byteArray, 0, bytesRead);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_WINDOW_BYTES) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(HASH_WINDOW_BYTES, size - position)));
             }
         }
         return Base64.getEncoder().encodeToString(digest.digest());
@@ -282,4 +566,13 @@ public class MachineLearningOptimizer {
         log.info("Optimized memory workspace settings for performance.");
     }
 
+    private static final class Sample {
+        private final float[] features;
+        private final float[] labels; // log2(1 + rows), log2(1 + microseconds)
+
+        private Sample(float[] features, float[] labels) {
+            this.features = features;
+            this.labels = labels;
+        }
+    }
 }
@@ -0,0 +1,568 @@
+package com.unidb.query;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Concurrent in-memory B+ tree using optimistic lock coupling.
+ *
+ * Every node carries a version word whose bit 1 marks it write-locked.
+ * Readers never lock: they remember a node's version, read it, and restart
+ * from the root if the version changed underneath them. Writers lock only
+ * the node they modify (plus its parent on a split), so lookups proceed
+ * while inserts are running. Full inner nodes are split eagerly on the way
+ * down so a leaf split never has to propagate more than one level. Removals
+ * do not merge nodes, so a node once reachable stays valid and range cursors
+ * can follow the leaf sibling links.
+ */
+@Slf4j
+class OptimisticBTreeIndexManager extends IndexManager {
+    private static final int DEFAULT_FANOUT = 64;
+    private static final long LOCKED_BIT = 0b10;
+    private static final long OBSOLETE_BIT = 0b01;
+    private static final VarHandle VERSION;
+
+    static {
+        try {
+            VERSION = MethodHandles.lookup().findVarHandle(Node.class, "version", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final int fanout;
+    private volatile Node root;
+
+    public OptimisticBTreeIndexManager() {
+        this(DEFAULT_FANOUT);
+    }
+
+    public OptimisticBTreeIndexManager(int fanout) {
+        super(null); // every operation is overridden
+        if (fanout < 4) {
+            throw new IllegalArgumentException("Fanout must be at least 4");
+        }
+        this.fanout = fanout;
+        this.root = new Node(true, fanout);
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public long lookup(long key) {
+        Long value = find(key);
+        return value != null ? value : key;
+    }
+
+    @Override
+    public void insert(long key) {
+        insert(key, key);
+    }
+
+    public void insert(long key, long value) {
+        while (!tryInsert(key, value)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public boolean remove(long key) {
+        while (true) {
+            Node leaf = lockLeaf(key);
+            if (leaf == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int position = leaf.lowerBound(key);
+            boolean found = position < leaf.count && leaf.keys[position] == key;
+            if (found) {
+                leaf.removeAt(position);
+            }
+            leaf.writeUnlock();
+            return found;
+        }
+    }
+
+    @Override
+    public IndexCursor scan(long low, long high) {
+        return new LeafCursor(low, high, false);
+    }
+
+    @Override
+    public IndexCursor scanDescending(long low, long high) {
+        return new LeafCursor(low, high, true);
+    }
+
+    // ---------------- OPTIMISTIC READS ----------------
+    private Long find(long key) {
+        while (true) {
+            // A root split keeps the old root as the left half, so re-check that it is still the root
+            Node node = root;
+            long version = node.readLockOrRestart();
+            if (version < 0 || node != root) {
+                continue;
+            }
+            boolean restart = false;
+            while (!node.leaf) {
+                Node child = node.childFor(key);
+                if (child == null || !node.validate(version)) {
+                    restart = true;
+                    break;
+                }
+                // Re-check the parent so a split that moved the key right is not missed
+                long childVersion = child.readLockOrRestart();
+                if (childVersion < 0 || !node.validate(version)) {
+                    restart = true;
+                    break;
+                }
+                node = child;
+                version = childVersion;
+            }
+            if (restart) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int count = Math.min(node.count, node.keys.length);
+            int position = node.lowerBound(key, count);
+            boolean found = position < count && node.keys[position] == key;
+            long value = found ? node.values[position] : 0;
+            if (node.validate(version)) {
+                return found ? value : null;
+            }
+        }
+    }
+
+    // Copies the leaf responsible for the key, noting the exclusive lower bound its parent gives it
+    private LeafSnapshot snapshotLeafFor(long key) {
+        while (true) {
+            Node node = root;
+            long version = node.readLockOrRestart();
+            if (version < 0 || node != root) {
+                continue;
+            }
+            boolean restart = false;
+            boolean bounded = false;
+            long lowerFence = 0;
+            while (!node.leaf) {
+                int position = node.lowerBound(key, Math.min(node.count, node.keys.length));
+                Node child = position < node.children.length ? node.children[position] : null;
+                long fence = position > 0 ? node.keys[position - 1] : 0;
+                if (child == null || !node.validate(version)) {
+                    restart = true;
+                    break;
+                }
+                long childVersion = child.readLockOrRestart();
+                if (childVersion < 0 || !node.validate(version)) {
+                    restart = true;
+                    break;
+                }
+                if (position > 0) {
+                    bounded = true;
+                    lowerFence = fence;
+                }
+                node = child;
+                version = childVersion;
+            }
+            if (!restart) {
+                LeafSnapshot snapshot = LeafSnapshot.copyOf(node, version);
+                if (snapshot != null) {
+                    snapshot.bounded = bounded;
+                    snapshot.lowerFence = lowerFence;
+                    return snapshot;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // ---------------- WRITES ----------------
+    private boolean tryInsert(long key, long value) {
+        Node node = root;
+        long version = node.readLockOrRestart();
+        if (version < 0 || node != root) {
+            return false;
+        }
+        Node parent = null;
+        long parentVersion = 0;
+
+        while (!node.leaf) {
+            if (node.isFull()) {
+                splitFull(node, version, parent, parentVersion);
+                return false; // restart on the now roomier tree
+            }
+            if (parent != null && !parent.validate(parentVersion)) {
+                return false;
+            }
+            Node child = node.childFor(key);
+            if (child == null || !node.validate(version)) {
+                return false;
+            }
+            parent = node;
+            parentVersion = version;
+            node = child;
+            version = node.readLockOrRestart();
+            if (version < 0) {
+                return false;
+            }
+        }
+
+        int position = node.lowerBound(key, Math.min(node.count, node.keys.length));
+        boolean exists = position < node.keys.length && position < node.count && node.keys[position] == key;
+        if (!exists && node.isFull()) {
+            splitFull(node, version, parent, parentVersion);
+            return false;
+        }
+        if (!node.upgradeToWriteLock(version)) {
+            return false;
+        }
+        if (parent != null && !parent.validate(parentVersion)) {
+            node.writeUnlock();
+            return false;
+        }
+        node.insert(key, value);
+        node.writeUnlock();
+        return true;
+    }
+
+    // Splits a full node under write locks on it and its parent; the caller restarts either way
+    private void splitFull(Node node, long version, Node parent, long parentVersion) {
+        if (parent != null && !parent.upgradeToWriteLock(parentVersion)) {
+            return;
+        }
+        if (!node.upgradeToWriteLock(version)) {
+            if (parent != null) {
+                parent.writeUnlock();
+            }
+            return;
+        }
+        if (parent == null && node != root) {
+            node.writeUnlock(); // another thread grew a new root meanwhile
+            return;
+        }
+        Node right = new Node(node.leaf, fanout);
+        long separator = node.splitInto(right);
+        if (parent != null) {
+            parent.insertChild(separator, right);
+        } else {
+            Node newRoot = new Node(false, fanout);
+            newRoot.keys[0] = separator;
+            newRoot.children[0] = node;
+            newRoot.children[1] = right;
+            newRoot.count = 1;
+            root = newRoot;
+        }
+        node.writeUnlock();
+        if (parent != null) {
+            parent.writeUnlock();
+        }
+    }
+
+    // Descends optimistically and write-locks the leaf responsible for the key, or returns null to restart
+    private Node lockLeaf(long key) {
+        Node node = root;
+        long version = node.readLockOrRestart();
+        if (version < 0 || node != root) {
+            return null;
+        }
+        while (!node.leaf) {
+            Node child = node.childFor(key);
+            if (child == null || !node.validate(version)) {
+                return null;
+            }
+            long childVersion = child.readLockOrRestart();
+            if (childVersion < 0 || !node.validate(version)) {
+                return null;
+            }
+            node = child;
+            version = childVersion;
+        }
+        return node.upgradeToWriteLock(version) ? node : null;
+    }
+
+    // ---------------- CURSORS ----------------
+    // A validated copy of one leaf, so the cursor can hand out its entries without further version checks
+    private static final class LeafSnapshot {
+        private final long[] keys;
+        private final long[] values;
+        private final int count;
+        private final Node next;
+        private boolean bounded; // whether lowerFence is set; false for the leftmost leaf
+        private long lowerFence;
+
+        private LeafSnapshot(long[] keys, long[] values, int count, Node next) {
+            this.keys = keys;
+            this.values = values;
+            this.count = count;
+            this.next = next;
+        }
+
+        // Returns null if the leaf changed while it was copied
+        private static LeafSnapshot copyOf(Node leaf, long version) {
+            int count = Math.min(leaf.count, leaf.keys.length);
+            long[] keys = Arrays.copyOf(leaf.keys, count);
+            long[] values = Arrays.copyOf(leaf.values, count);
+            Node next = leaf.next;
+            return leaf.validate(version) ? new LeafSnapshot(keys, values, count, next) : null;
+        }
+
+        private int lowerBoundIn(long key) {
+            int found = Arrays.binarySearch(keys, 0, count, key);
+            return found >= 0 ? found : -(found + 1);
+        }
+
+        private static LeafSnapshot copyOf(Node leaf) {
+            while (true) {
+                long version = leaf.readLockOrRestart();
+                LeafSnapshot snapshot = version < 0 ? null : copyOf(leaf, version);
+                if (snapshot != null) {
+                    return snapshot;
+                }
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    // Ascending scans follow the sibling links; descending scans re-descend to the leaf left of the
+    // current one, since leaves only link forward
+    private final class LeafCursor implements IndexCursor {
+        private final long low;
+        private final long high;
+        private final boolean descending;
+        private LeafSnapshot leaf;
+        private int position;
+        private long key;
+        private long value;
+        private boolean exhausted;
+
+        private LeafCursor(long low, long high, boolean descending) {
+            this.low = low;
+            this.high = high;
+            this.descending = descending;
+            this.exhausted = low > high;
+        }
+
+        @Override
+        public boolean next() {
+            if (exhausted) {
+                return false;
+            }
+            if (leaf == null) {
+                leaf = snapshotLeafFor(descending ? high : low);
+                int insertion = leaf.lowerBoundIn(descending ? high : low);
+                position = descending ? lastAtOrBelow(insertion, high) : insertion;
+            } else {
+                position += descending ? -1 : 1;
+            }
+            while (position < 0 || position >= leaf.count) {
+                if (descending) {
+                    if (!leaf.bounded || leaf.lowerFence < low) {
+                        return finish();
+                    }
+                    long fence = leaf.lowerFence;
+                    leaf = snapshotLeafFor(fence);
+                    position = lastAtOrBelow(leaf.lowerBoundIn(fence), fence);
+                } else {
+                    if (leaf.next == null) {
+                        return finish();
+                    }
+                    leaf = LeafSnapshot.copyOf(leaf.next);
+                    position = 0;
+                }
+            }
+            long current = leaf.keys[position];
+            if (descending ? current < low : current > high) {
+                return finish();
+            }
+            key = current;
+            value = leaf.values[position];
+            return true;
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+
+        @Override
+        public long value() {
+            return value;
+        }
+
+        private int lastAtOrBelow(int insertion, long target) {
+            return insertion < leaf.count && leaf.keys[insertion] == target ? insertion : insertion - 1;
+        }
+
+        private boolean finish() {
+            exhausted = true;
+            leaf = null;
+            return false;
+        }
+    }
+
+    // ---------------- NODES ----------------
+    private static final class Node {
+        private final boolean leaf;
+        private final long[] keys;
+        private final long[] values; // leaves only
+        private final Node[] children; // inner nodes only
+        private int count;
+        private volatile Node next; // leaf sibling link for ordered scans
+        @SuppressWarnings("unused")
+        private volatile long version;
+
+        private Node(boolean leaf, int fanout) {
+            this.leaf = leaf;
+            this.keys = new long[fanout];
+            this.values = leaf ? new long[fanout] : null;
+            this.children = leaf ? null : new Node[fanout + 1];
+        }
+
+        // Returns the current version, or -1 when the node is locked or obsolete
+        private long readLockOrRestart() {
+            long current = (long) VERSION.getVolatile(this);
+            return (current & (LOCKED_BIT | OBSOLETE_BIT)) != 0 ? -1 : current;
+        }
+
+        private boolean validate(long expected) {
+            VarHandle.acquireFence(); // order the optimistic reads before the version re-check
+            return (long) VERSION.getVolatile(this) == expected;
+        }
+
+        private boolean upgradeToWriteLock(long expected) {
+            return VERSION.compareAndSet(this, expected, expected + LOCKED_BIT);
+        }
+
+        private void writeUnlock() {
+            VERSION.getAndAdd(this, LOCKED_BIT); // clears the lock bit and bumps the version
+        }
+
+        private boolean isFull() {
+            return count >= keys.length;
+        }
+
+        private int lowerBound(long key) {
+            return lowerBound(key, count);
+        }
+
+        // First position whose key is >= key; tolerates a torn count during optimistic reads
+        private int lowerBound(long key, int limit) {
+            int low = 0;
+            int high = Math.max(0, Math.min(limit, keys.length));
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Child i holds keys in (keys[i - 1], keys[i]]; the last child holds everything larger
+        private Node childFor(long key) {
+            int limit = Math.min(count, keys.length);
+            int position = lowerBound(key, limit);
+            return position < children.length ? children[position] : null;
+        }
+
+        private void insert(long key, long value) {
+            int position = lowerBound(key);
+            if (position < count && keys[position] == key) {
+                values[position] = value;
+                return;
+            }
+            System.arraycopy(keys, position, keys, position + 1, count - position);
+            System.arraycopy(values, position, values, position + 1, count - position);
+            keys[position] = key;
+            values[position] = value;
+            count++;
+        }
+
+        private void removeAt(int position) {
+            System.arraycopy(keys, position + 1, keys, position, count - position - 1);
+            System.arraycopy(values, position + 1, values, position, count - position - 1);
+            count--;
+        }
+
+        private void insertChild(long separator, Node right) {
+            int position = lowerBound(separator);
+            System.arraycopy(keys, position, keys, position + 1, count - position);
+            System.arraycopy(children, position + 1, children, position + 2, count - position);
+            keys[position] = separator;
+            children[position + 1] = right;
+            count++;
+        }
+
+        // Moves the upper half into right and returns the largest key remaining on the left
+        private long splitInto(Node right) {
+            int leftCount = count / 2;
+            if (leaf) {
+                int moved = count - leftCount;
+                System.arraycopy(keys, leftCount, right.keys, 0, moved);
+                System.arraycopy(values, leftCount, right.values, 0, moved);
+                right.count = moved;
+                right.next = next;
+                next = right;
+                count = leftCount;
+                return keys[leftCount - 1];
+            }
+            long separator = keys[leftCount];
+            int moved = count - leftCount - 1;
+            System.arraycopy(keys, leftCount + 1, right.keys, 0, moved);
+            System.arraycopy(children, leftCount + 1, right.children, 0, moved + 1);
+            right.count = moved;
+            count = leftCount;
+            return separator;
+        }
+    }
+
+    // Lookup throughput at increasing thread counts over a pre-filled tree; pass the key count
+    public static void main(String[] args) throws InterruptedException {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        OptimisticBTreeIndexManager index = new OptimisticBTreeIndexManager();
+        for (int i = 0; i < keys; i++) {
+            index.insert(i * 2L, i);
+        }
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            LongAdder lookups = new LongAdder();
+            ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            for (int t = 0; t < threads; t++) {
+                pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long done = 0;
+                    while (System.nanoTime() < deadline) {
+                        for (int i = 0; i < 1_000; i++) {
+                            index.containsKey(random.nextInt(keys) * 2L);
+                        }
+                        done += 1_000;
+                    }
+                    lookups.add(done);
+                });
+            }
+            // A concurrent writer keeps splitting leaves while the readers run
+            pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    index.insert(random.nextInt(keys) * 2L + 1);
+                }
+            });
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            log.info("{} reader threads: {} lookups/s", threads, lookups.sum() / 2);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.unidb.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongBinaryOperator;
+
+import com.unidb.storage.DiskManager;
+import com.unidb.storage.WalManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Builds several B+ tree indexes from one scan of a source. Every index
+ * derives its key from a source entry and maps it to the source key. The
+ * scan only appends (index key, source key) pairs to one buffer per index;
+ * the buffers are then sorted and bulk loaded concurrently, one index per
+ * thread. When two source entries produce the same index key, the later one
+ * wins, as with repeated inserts.
+ */
+@Slf4j
+class ParallelIndexBuilder {
+    private final double fillFactor;
+    private final List<BPlusTreeIndexManager> targets;
+    private final List<LongBinaryOperator> keyExtractors;
+
+    ParallelIndexBuilder(double fillFactor) {
+        this.fillFactor = fillFactor;
+        this.targets = new ArrayList<>();
+        this.keyExtractors = new ArrayList<>();
+    }
+
+    // keyOf receives the source key and value and returns the key to index under
+    ParallelIndexBuilder addIndex(BPlusTreeIndexManager target, LongBinaryOperator keyOf) {
+        targets.add(target);
+        keyExtractors.add(keyOf);
+        return this;
+    }
+
+    void build(IndexCursor source) throws InterruptedException {
+        EntryBuffer[] buffers = new EntryBuffer[targets.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new EntryBuffer();
+        }
+        long scanned = 0;
+        while (source.next()) {
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i].add(keyExtractors.get(i).applyAsLong(source.key(), source.value()), source.key());
+            }
+            scanned++;
+        }
+
+        int threads = Math.max(1, Math.min(buffers.length, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> loads = new ArrayList<>();
+            for (int i = 0; i < buffers.length; i++) {
+                EntryBuffer buffer = buffers[i];
+                BPlusTreeIndexManager target = targets.get(i);
+                loads.add(pool.submit(() -> {
+                    buffer.sort();
+                    target.bulkLoad(buffer.cursor(), fillFactor);
+                }));
+            }
+            for (Future<?> load : loads) {
+                load.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Index build failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        log.info("Built {} indexes from {} source entries.", buffers.length, scanned);
+    }
+
+    // Growable parallel arrays of (key, value) pairs with a stable radix sort on the key
+    private static final class EntryBuffer {
+        private long[] keys = new long[1024];
+        private long[] values = new long[1024];
+        private int size;
+
+        private void add(long key, long value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            values[size] = value;
+            size++;
+        }
+
+        // Four stable passes over 16-bit digits; the sign bit is flipped so negative keys sort first
+        private void sort() {
+            long[] keyScratch = new long[size];
+            long[] valueScratch = new long[size];
+            int[] counts = new int[1 << 16];
+            for (int shift = 0; shift < 64; shift += 16) {
+                Arrays.fill(counts, 0);
+                for (int i = 0; i < size; i++) {
+                    counts[digit(keys[i], shift)]++;
+                }
+                for (int d = 0, total = 0; d < counts.length; d++) {
+                    int count = counts[d];
+                    counts[d] = total;
+                    total += count;
+                }
+                for (int i = 0; i < size; i++) {
+                    int target = counts[digit(keys[i], shift)]++;
+                    keyScratch[target] = keys[i];
+                    valueScratch[target] = values[i];
+                }
+                long[] swap = keys;
+                keys = keyScratch;
+                keyScratch = swap;
+                swap = values;
+                values = valueScratch;
+                valueScratch = swap;
+            }
+        }
+
+        private static int digit(long key, int shift) {
+            return (int) (((key ^ Long.MIN_VALUE) >>> shift) & 0xFFFF);
+        }
+
+        // Iterates the sorted pairs, returning only the last pair of each run of equal keys
+        private IndexCursor cursor() {
+            return new IndexCursor() {
+                private int position = -1;
+
+                @Override
+                public boolean next() {
+                    position++;
+                    while (position + 1 < size && keys[position + 1] == keys[position]) {
+                        position++;
+                    }
+                    return position < size;
+                }
+
+                @Override
+                public long key() {
+                    return keys[position];
+                }
+
+                @Override
+                public long value() {
+                    return values[position];
+                }
+            };
+        }
+    }
+
+    // Per-key inserts against a bulk load of the same keys, then three secondary indexes built from one scan
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int order = 256;
+        List<File> files = new ArrayList<>();
+        try {
+            BPlusTreeIndexManager inserted = open("unidb_bulk_bench_insert", order, files);
+            long start = System.nanoTime();
+            for (long key = 0; key < keys; key++) {
+                inserted.insert(key * 3, key);
+            }
+            long insertNanos = System.nanoTime() - start;
+            inserted.close();
+
+            BPlusTreeIndexManager loaded = open("unidb_bulk_bench_load", order, files);
+            start = System.nanoTime();
+            loaded.bulkLoad(new IndexCursor() {
+                private long key = -1;
+
+                @Override
+                public boolean next() {
+                    return ++key < keys;
+                }
+
+                @Override
+                public long key() {
+                    return key * 3;
+                }
+
+                @Override
+                public long value() {
+                    return key;
+                }
+            }, 0.9);
+            long loadNanos = System.nanoTime() - start;
+            log.info("{} keys: per-key insert {} ms, bulk load {} ms", keys, insertNanos / 1_000_000,
+                    loadNanos / 1_000_000);
+
+            ParallelIndexBuilder builder = new ParallelIndexBuilder(0.9)
+                    .addIndex(open("unidb_bulk_bench_a", order, files), (key, value) -> value)
+                    .addIndex(open("unidb_bulk_bench_b", order, files), (key, value) -> -key)
+                    .addIndex(open("unidb_bulk_bench_c", order, files), (key, value) -> key % 1_000_003);
+            start = System.nanoTime();
+            builder.build(loaded.scan(Long.MIN_VALUE, Long.MAX_VALUE));
+            log.info("3 secondary indexes built from one scan in {} ms", (System.nanoTime() - start) / 1_000_000);
+            loaded.close();
+            for (BPlusTreeIndexManager target : builder.targets) {
+                target.close();
+            }
+        } finally {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static BPlusTreeIndexManager open(String name, int order, List<File> files) throws IOException {
+        File indexFile = new File(name + ".db");
+        File walFile = new File(name + "_wal.log");
+        indexFile.delete();
+        walFile.delete();
+        files.add(indexFile);
+        files.add(walFile);
+        return new BPlusTreeIndexManager(order, new DiskManager(indexFile.getPath(), 65_536),
+                new WalManager(walFile.getPath()));
+    }
+}
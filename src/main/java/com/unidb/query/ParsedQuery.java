@@ -4,14 +4,37 @@ class ParsedQuery {
     private final QueryType type;
     private final long key;
     private final String value;
+    // Range queries only: inclusive key bounds, scan direction and row limit
+    private final long low;
+    private final long high;
+    private final boolean descending;
+    private final long limit;
 
     public ParsedQuery(QueryType type, long key, String value) {
         this.type = type;
         this.key = key;
         this.value = value;
+        this.low = key;
+        this.high = key;
+        this.descending = false;
+        this.limit = Long.MAX_VALUE;
+    }
+
+    public ParsedQuery(long low, long high, boolean descending, long limit) {
+        this.type = QueryType.RANGE;
+        this.key = low;
+        this.value = null;
+        this.low = low;
+        this.high = high;
+        this.descending = descending;
+        this.limit = limit;
     }
 
     public QueryType getType() { return type; }
     public long getKey() { return key; }
     public String getValue() { return value; }
+    public long getLow() { return low; }
+    public long getHigh() { return high; }
+    public boolean isDescending() { return descending; }
+    public long getLimit() { return limit; }
 }
\ No newline at end of file
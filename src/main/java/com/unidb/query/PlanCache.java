@@ -0,0 +1,62 @@
+package com.unidb.query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded LRU cache of prepared queries keyed by query shape, so every query
+ * of a shape after the first skips parsing and optimization.
+ */
+@Slf4j
+class PlanCache {
+    private final Map<String, PreparedQuery> plans;
+    private long hits;
+    private long misses;
+
+    PlanCache(int capacity) {
+        this.plans = new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedQuery> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Planning runs outside the lock; two threads racing on a new shape may both plan it once
+    PreparedQuery get(String shape, Function<String, PreparedQuery> planner) {
+        synchronized (this) {
+            PreparedQuery cached = plans.get(shape);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        PreparedQuery planned = planner.apply(shape);
+        synchronized (this) {
+            plans.put(shape, planned);
+        }
+        log.debug("Planned new query shape: {}", shape);
+        return planned;
+    }
+
+    // Cached plan without planning on a miss or counting the lookup
+    synchronized PreparedQuery peek(String shape) {
+        return plans.get(shape);
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized int size() {
+        return plans.size();
+    }
+}
@@ -0,0 +1,14 @@
+package com.unidb.query;
+
+/**
+ * Learned estimates for an execution plan, consulted by the cost-based
+ * optimizer ahead of its analytic formula. Either estimate is NaN while the
+ * estimator has none to offer, e.g. before its model is loaded.
+ */
+public interface PlanEstimator {
+    // Rows the plan returns
+    double estimateRows(ExecutionPlan plan);
+
+    // Execution time in microseconds
+    double estimateCostMicros(ExecutionPlan plan);
+}
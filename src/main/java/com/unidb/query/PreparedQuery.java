@@ -0,0 +1,56 @@
+package com.unidb.query;
+
+/**
+ * Handle to a parsed and optimized query shape. Each '?' left in the SQL is
+ * an open parameter that must be supplied on every execution; literals that
+ * were written into the SQL stay bound to the handle.
+ */
+public final class PreparedQuery {
+    private final String shape;
+    private final QueryTemplate template;
+    private final ExecutionPlan plan;
+    private final String[] literals; // null where a parameter is still open
+
+    PreparedQuery(String shape, QueryTemplate template, ExecutionPlan plan, String[] literals) {
+        this.shape = shape;
+        this.template = template;
+        this.plan = plan;
+        this.literals = literals;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public int getParameterCount() {
+        int open = 0;
+        for (String literal : literals) {
+            open += literal == null ? 1 : 0;
+        }
+        return open;
+    }
+
+    boolean isRead() {
+        return template.getType() == QueryType.READ || template.getType() == QueryType.RANGE;
+    }
+
+    // Same plan, different literals: used for queries that hit the plan cache with their own literals
+    PreparedQuery withLiterals(String[] otherLiterals) {
+        return new PreparedQuery(shape, template, plan, otherLiterals);
+    }
+
+    // Fills the open parameters in order and produces the plan for this execution
+    ExecutionPlan bind(Object... parameters) {
+        if (parameters.length != getParameterCount()) {
+            throw new IllegalArgumentException(
+                    "Prepared query expects " + getParameterCount() + " parameters, got " + parameters.length);
+        }
+        String[] values = literals.clone();
+        for (int i = 0, next = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                values[i] = String.valueOf(parameters[next++]);
+            }
+        }
+        return plan.withQuery(template.bind(values));
+    }
+}
@@ -1,65 +1,416 @@
 package com.unidb.query;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import com.unidb.document.DocumentCollection;
+import com.unidb.document.DocumentStore;
+import com.unidb.transaction.CommitListener;
 import com.unidb.transaction.IsolationLevel;
 import com.unidb.transaction.VersionManager;
 
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
-public class QueryExecutor {
+public class QueryExecutor implements AutoCloseable {
+    // Statistics name and columns of the key-value table every parsed query reads and writes
+    public static final String KEY_VALUE_TABLE = "kv";
+    public static final String KEY_COLUMN = "id";
+    public static final String VALUE_COLUMN = "value";
+    // Reserved id for speculative reads and ANALYZE: it never writes, and every version's timestamp is at
+    // most its own, so it sees exactly the committed versions
+    private static final long READ_ONLY_TRANSACTION = Long.MAX_VALUE;
+
     private final VersionManager versionManager;
     private final QueryOptimizer queryOptimizer;
     private final QueryParser queryParser;
     private final QueryExecutionPlan executionPlan;
-    private final IndexManager indexManager;
+    private final BloomFilterIndexManager indexManager;
     private final ExecutorService executorService;
     private final AdaptiveQueryCache queryCache;
     private final QueryPrefetcher queryPrefetcher;
     private final WorkloadAnalyzer workloadAnalyzer;
     private final MachineLearningOptimizer mlOptimizer;
+    private final DocumentStore documentStore;
+    private final PlanCache planCache;
+    private final StatisticsCatalog statistics;
+    private final CommitListener commitListener;
 
     public QueryExecutor(VersionManager versionManager) {
+        this(versionManager, ExecutionMode.POOLED);
+    }
+
+    public QueryExecutor(VersionManager versionManager, ExecutionMode executionMode) {
+        this(versionManager, executionMode, "ml_model.h5", "table_statistics.bin");
+    }
+
+    /**
+     * The model and statistics files are read at startup and written as
+     * they change; a null path keeps that state in memory only.
+     */
+    public QueryExecutor(VersionManager versionManager, ExecutionMode executionMode, String modelFilePath,
+            String statisticsFilePath) {
         this.versionManager = versionManager;
-        this.queryOptimizer = new CostBasedQueryOptimizer();
+        this.mlOptimizer = MachineLearningOptimizer.start(modelFilePath);
+        this.statistics = new StatisticsCatalog(statisticsFilePath);
+        // Learned cost once the model is loaded, and row estimates from the statistics once analyzed
+        this.queryOptimizer = new CostBasedQueryOptimizer(mlOptimizer, statistics, KEY_VALUE_TABLE);
         this.queryParser = new QueryParser();
         this.executionPlan = new QueryExecutionPlan();
-        this.indexManager = new BPlusTreeIndexManager(4); // B+ Tree order 4
-        this.executorService = Executors.newFixedThreadPool(4); // Parallel execution
-        this.queryCache = new AdaptiveQueryCache(100, 30000); // Adaptive cache
-        this.queryPrefetcher = new QueryPrefetcher(queryCache);
+        // Concurrent ordered index, safe for the executor pool, behind a Bloom filter for absent keys
+        this.indexManager = new BloomFilterIndexManager(new OptimisticBTreeIndexManager(), 1_000_000, 0.01);
+        this.executorService = executionMode == ExecutionMode.VIRTUAL_THREADS
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(4); // Parallel execution
+        this.planCache = new PlanCache(1024);
+        this.queryCache = new AdaptiveQueryCache(32L << 20, 30000); // 32 MB of results, W-TinyLFU admission
+        this.queryPrefetcher = new QueryPrefetcher(queryCache, planCache::peek,
+                plan -> processQuery(plan, READ_ONLY_TRANSACTION, IsolationLevel.READ_COMMITTED, null));
         this.workloadAnalyzer = new WorkloadAnalyzer();
-        this.mlOptimizer = new MachineLearningOptimizer("ml_model.h5");
+        this.documentStore = new DocumentStore(versionManager);
+        // Transactions settle here whoever ends them, this executor or a TransactionManager sharing the versions
+        this.commitListener = new CommitListener() {
+            @Override
+            public void committed(long transactionId, long[] keys) {
+                queryCache.invalidate(keys);
+                statistics.recordModifications(KEY_VALUE_TABLE, countKeyValueKeys(keys));
+                // Statistics count committed changes only, so a refresh never samples a load still in flight
+                documentStore.transactionFinished(transactionId).forEach(statistics::recordModifications);
+            }
+
+            @Override
+            public void rolledBack(long transactionId, long[] keys) {
+                documentStore.transactionFinished(transactionId);
+            }
+        };
+        versionManager.addCommitListener(commitListener);
+        statistics.register(KEY_VALUE_TABLE, this::sampleKeyValueTable);
     }
 
     public String executeQuery(String sqlQuery, long transactionId, IsolationLevel isolationLevel)
             throws Exception {
-        workloadAnalyzer.analyze(sqlQuery);
+        return executeQueryAsync(sqlQuery, transactionId, isolationLevel).get();
+    }
 
-        if (queryCache.contains(sqlQuery)) {
-            log.info("Cache hit for query: {}", sqlQuery);
-            return queryCache.get(sqlQuery);
+    /**
+     * Runs the query on the executor and completes the future with its
+     * result, so the caller thread is free while the query waits on storage.
+     * Cache hits complete immediately. A query that cannot be parsed throws
+     * here; failures during execution complete the future exceptionally.
+     */
+    public CompletableFuture<String> executeQueryAsync(String sqlQuery, long transactionId,
+            IsolationLevel isolationLevel) {
+        long start = System.nanoTime();
+        // Results are cached by shape and literals, so differently spelled queries and prefetches share them
+        QueryShape shape = QueryShape.of(sqlQuery);
+        String cacheKey = QueryShape.cacheKey(shape.text(), shape.literals());
+        // Queries that differ only in their literals reuse one parsed and optimized plan
+        ExecutionPlan plan = prepare(shape).bind();
+        ParsedQuery query = plan.getOptimizedQuery();
+        // Taken before the check, so a commit the check misses refuses the put instead
+        long cacheEpoch = queryCache.currentEpoch();
+        boolean cacheable = (query.getType() == QueryType.READ || query.getType() == QueryType.RANGE)
+                && seesCommittedState(transactionId, isolationLevel)
+                && versionManager.seesLatestCommitted(transactionId, query.getLow(), query.getHigh());
+        // A snapshot's predicted reads would fill the cache with data it cannot use
+        boolean observed = !versionManager.isSnapshot(transactionId);
+        if (cacheable) {
+            String cached = queryCache.get(cacheKey);
+            if (cached != null) {
+                log.info("Cache hit for query: {}", sqlQuery);
+                queryPrefetcher.observe(transactionId, shape, cacheKey, true);
+                workloadAnalyzer.analyze(shape.text(), System.nanoTime() - start);
+                return CompletableFuture.completedFuture(cached);
+            }
         }
 
-        ParsedQuery parsedQuery = queryParser.parse(sqlQuery);
-        ExecutionPlan plan = mlOptimizer.optimize(queryOptimizer.optimize(executionPlan.generatePlan(parsedQuery)));
+        return submit(plan, transactionId, isolationLevel).thenApply(result -> {
+            if (cacheable && result != null) {
+                queryCache.put(cacheKey, result, query.getLow(), query.getHigh(), cacheEpoch);
+            }
+            if (observed) {
+                queryPrefetcher.observe(transactionId, shape, cacheKey, false);
+            }
+            workloadAnalyzer.analyze(shape.text(), System.nanoTime() - start);
+            return result;
+        });
+    }
+
+    /**
+     * Cached results hold the latest committed data, so only a transaction
+     * whose reads return exactly that may use or fill them: not one with its
+     * own pending writes, not a dirty reader, and not an optimistic one,
+     * which must record every read for validation. Callers also check, per
+     * query, that no snapshot or reader older than a committed writer of the
+     * query's keys gets through.
+     */
+    private boolean seesCommittedState(long transactionId, IsolationLevel isolationLevel) {
+        return isolationLevel != IsolationLevel.READ_UNCOMMITTED
+                && isolationLevel != IsolationLevel.SERIALIZABLE_OPTIMISTIC
+                && !versionManager.hasUncommittedWrites(transactionId);
+    }
+
+    // Parses and optimizes the query's shape once; '?' placeholders become parameters of execute
+    public PreparedQuery prepare(String sqlQuery) {
+        return prepare(QueryShape.of(sqlQuery));
+    }
+
+    private PreparedQuery prepare(QueryShape shape) {
+        return planCache.get(shape.text(), this::plan).withLiterals(shape.literals());
+    }
 
-        String result = executorService.submit(() -> processQuery(plan, transactionId, isolationLevel)).get();
-        queryCache.put(sqlQuery, result);
-        queryPrefetcher.prefetchRelatedQueries(sqlQuery);
-        mlOptimizer.updateModel(plan, result);
+    public String execute(PreparedQuery query, long transactionId, IsolationLevel isolationLevel,
+            Object... parameters) throws Exception {
+        return executeAsync(query, transactionId, isolationLevel, parameters).get();
+    }
+
+    public CompletableFuture<String> executeAsync(PreparedQuery query, long transactionId,
+            IsolationLevel isolationLevel, Object... parameters) {
+        long start = System.nanoTime();
+        ExecutionPlan plan = query.bind(parameters);
+        return submit(plan, transactionId, isolationLevel).thenApply(result -> {
+            workloadAnalyzer.analyze(query.getShape(), System.nanoTime() - start);
+            return result;
+        });
+    }
+
+    private CompletableFuture<String> submit(ExecutionPlan plan, long transactionId, IsolationLevel isolationLevel) {
+        return CompletableFuture.supplyAsync(() -> processAndRecord(plan, transactionId, isolationLevel),
+                executorService);
+    }
+
+    // The learner only gets a sample of rows and time; training happens on its own thread
+    private String processAndRecord(ExecutionPlan plan, long transactionId, IsolationLevel isolationLevel) {
+        long[] rows = new long[1];
+        long start = System.nanoTime();
+        String result = processQuery(plan, transactionId, isolationLevel, rows);
+        mlOptimizer.recordExecution(plan, rows[0], System.nanoTime() - start);
         return result;
     }
 
-    private String processQuery(ExecutionPlan plan, long transactionId, IsolationLevel isolationLevel) {
+    /**
+     * Runs the queries of one transaction in a single executor hop and
+     * returns their results in input order. Each shape is planned once. Point
+     * reads and writes between barriers (range queries, COMMIT, ROLLBACK) run
+     * sorted by key for index locality; the sort is stable, so accesses to
+     * one key keep their order, and accesses to different keys commute within
+     * a transaction.
+     */
+    public List<String> executeBatch(List<String> queries, long transactionId, IsolationLevel isolationLevel)
+            throws Exception {
+        long start = System.nanoTime();
+        QueryShape[] shapes = new QueryShape[queries.size()];
+        ExecutionPlan[] plans = new ExecutionPlan[queries.size()];
+        Map<String, PreparedQuery> prepared = new HashMap<>();
+        boolean readOnly = true;
+        for (int i = 0; i < plans.length; i++) {
+            shapes[i] = QueryShape.of(queries.get(i));
+            PreparedQuery query = prepared.computeIfAbsent(shapes[i].text(), shape -> planCache.get(shape, this::plan));
+            plans[i] = query.withLiterals(shapes[i].literals()).bind();
+            readOnly &= query.isRead();
+        }
+        // A batch that writes changes what its own later reads see, so only read-only batches use the cache
+        String[] cacheKeys = null;
+        if (readOnly && seesCommittedState(transactionId, isolationLevel)) {
+            cacheKeys = new String[plans.length];
+            for (int i = 0; i < plans.length; i++) {
+                cacheKeys[i] = QueryShape.cacheKey(shapes[i].text(), shapes[i].literals());
+            }
+        }
+        String[] keys = cacheKeys;
+        String[] results = CompletableFuture
+                .supplyAsync(() -> processBatch(plans, keys, transactionId, isolationLevel), executorService).get();
+
+        long perQuery = (System.nanoTime() - start) / Math.max(1, plans.length);
+        for (QueryShape shape : shapes) {
+            workloadAnalyzer.analyze(shape.text(), perQuery);
+        }
+        log.info("Executed batch of {} queries ({} shapes) for transaction {}", plans.length, prepared.size(),
+                transactionId);
+        return Arrays.asList(results);
+    }
+
+    private String[] processBatch(ExecutionPlan[] plans, String[] cacheKeys, long transactionId,
+            IsolationLevel isolationLevel) {
+        long cacheEpoch = queryCache.currentEpoch();
+        Integer[] order = new Integer[plans.length];
+        for (int i = 0, from = 0; i <= plans.length; i++) {
+            QueryType type = i < plans.length ? plans[i].getOptimizedQuery().getType() : null;
+            if (type == QueryType.READ || type == QueryType.WRITE) {
+                order[i] = i;
+                continue;
+            }
+            Arrays.sort(order, from, i, (a, b) -> Long.compare(plans[a].getOptimizedQuery().getKey(),
+                    plans[b].getOptimizedQuery().getKey()));
+            if (i < plans.length) {
+                order[i] = i; // the barrier itself runs in place
+            }
+            from = i + 1;
+        }
+
+        String[] results = new String[plans.length];
+        for (int index : order) {
+            ParsedQuery query = plans[index].getOptimizedQuery();
+            // Checked per query after the epoch was taken; the batch only reads, so its view cannot change
+            boolean cacheable = cacheKeys != null
+                    && versionManager.seesLatestCommitted(transactionId, query.getLow(), query.getHigh());
+            if (cacheable) {
+                String cached = queryCache.get(cacheKeys[index]);
+                if (cached != null) {
+                    results[index] = cached;
+                    continue;
+                }
+            }
+            results[index] = processAndRecord(plans[index], transactionId, isolationLevel);
+            if (cacheable && results[index] != null) {
+                queryCache.put(cacheKeys[index], results[index], query.getLow(), query.getHigh(), cacheEpoch);
+            }
+        }
+        return results;
+    }
+
+    // The optimizers see the unbound query; every execution copies the plan with its own literals
+    private PreparedQuery plan(String shape) {
+        QueryTemplate template = queryParser.parseTemplate(shape);
+        try {
+            ExecutionPlan plan = mlOptimizer
+                    .optimize(queryOptimizer.optimize(executionPlan.generatePlan(template.unbound())));
+            return new PreparedQuery(shape, template, plan, new String[template.getParameterCount()]);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to plan query: " + shape, e);
+        }
+    }
+
+    // Frequencies, distinct shapes and latencies of the queries executed so far
+    public WorkloadSnapshot getWorkloadSnapshot() {
+        return workloadAnalyzer.snapshot();
+    }
+
+    // ---------------- STATISTICS ----------------
+    // ANALYZE: samples the key-value table or a document collection and replaces its statistics
+    public TableStatistics analyze(String table) {
+        return statistics.analyze(table);
+    }
+
+    public StatisticsCatalog getStatistics() {
+        return statistics;
+    }
+
+    // Rewrites a SQL query with join order and predicate estimates from the tables' statistics
+    public String optimizeSql(String sqlQuery) throws Exception {
+        return SqlOptimizer.generateOptimizedQuery(sqlQuery, statistics);
+    }
+
+    // The join tree and join methods the optimizer picks for a SQL query
+    public String explainSql(String sqlQuery) throws Exception {
+        return SqlOptimizer.explainJoinOrder(sqlQuery, statistics);
+    }
+
+    private static long countKeyValueKeys(long[] keys) {
+        long count = 0;
+        for (long key : keys) {
+            count += DocumentCollection.isDocumentKey(key) ? 0 : 1;
+        }
+        return count;
+    }
+
+    // Reservoir sample over the index, reading committed values only for the keys that stay in the reservoir
+    private TableSampler.Sample sampleKeyValueTable(int maxRows) {
+        long[] keys = new long[maxRows];
+        long[] storageKeys = new long[maxRows];
+        long seen = 0;
+        IndexCursor cursor = indexManager.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+        while (cursor.next()) {
+            long slot = seen < maxRows ? seen : ThreadLocalRandom.current().nextLong(seen + 1);
+            if (slot < maxRows) {
+                keys[(int) slot] = cursor.key();
+                storageKeys[(int) slot] = cursor.value();
+            }
+            seen++;
+        }
+        int sampled = (int) Math.min(seen, maxRows);
+        List<Map<String, Object>> rows = new ArrayList<>(sampled);
+        for (int i = 0; i < sampled; i++) {
+            String value = versionManager.readVersion(READ_ONLY_TRANSACTION, storageKeys[i],
+                    IsolationLevel.READ_COMMITTED);
+            if (value != null) { // uncommitted inserts and deleted keys are not rows yet
+                Map<String, Object> row = new HashMap<>(4);
+                row.put(KEY_COLUMN, keys[i]);
+                row.put(VALUE_COLUMN, value);
+                rows.add(row);
+            }
+        }
+        long rowCount = sampled == 0 ? 0 : Math.round((double) seen * rows.size() / sampled);
+        return new TableSampler.Sample(rowCount, rows);
+    }
+
+    // ---------------- DOCUMENTS ----------------
+    public DocumentCollection createCollection(String name, String... indexedPaths) {
+        DocumentCollection collection = documentStore.createCollection(name);
+        for (String path : indexedPaths) {
+            collection.createIndex(path);
+        }
+        statistics.register(name, maxRows -> sampleCollection(collection, maxRows));
+        return collection;
+    }
+
+    // Documents without a committed version are not rows yet; scale the id count by the committed share
+    private static TableSampler.Sample sampleCollection(DocumentCollection collection, int maxRows) {
+        long documents = collection.getDocumentCount();
+        List<Map<String, Object>> rows = collection.sample(maxRows);
+        long sampled = Math.min(documents, maxRows);
+        return new TableSampler.Sample(sampled == 0 ? 0 : Math.round((double) documents * rows.size() / sampled),
+                rows);
+    }
+
+    public void putDocument(long transactionId, String collection, long documentId, String json) {
+        documentStore.getCollection(collection).put(transactionId, documentId, json);
+        log.info("Executed PUT: Transaction {} wrote document {}/{}", transactionId, collection, documentId);
+    }
+
+    // Equality predicate on a JSON path; uses the path's secondary index when one exists
+    public Map<Long, String> findDocuments(long transactionId, IsolationLevel isolationLevel, String collection,
+            String path, Object value) {
+        return findDocuments(transactionId, isolationLevel, collection, path, value, value);
+    }
+
+    // Range predicate low <= value <= high on a JSON path
+    public Map<Long, String> findDocuments(long transactionId, IsolationLevel isolationLevel, String collection,
+            String path, Object low, Object high) {
+        Map<Long, String> documents = documentStore.getCollection(collection).findRange(transactionId,
+                isolationLevel, path, low, high);
+        log.info("Executed FIND: Transaction {} matched {} documents in {} on {}", transactionId, documents.size(),
+                collection, path);
+        return documents;
+    }
+
+    // Stores the number of rows read or written in rows[0] unless rows is null
+    private String processQuery(ExecutionPlan plan, long transactionId, IsolationLevel isolationLevel,
+            long[] rows) {
+        long[] counted = rows != null ? rows : new long[1];
         switch (plan.getOptimizedQuery().getType()) {
             case READ:
-                return executeReadQuery(transactionId, plan.getOptimizedQuery().getKey(), isolationLevel);
+                String result = executeReadQuery(transactionId, plan.getOptimizedQuery().getKey(), isolationLevel);
+                counted[0] = result != null ? 1 : 0;
+                return result;
+            case RANGE:
+                return executeRangeQuery(transactionId, plan.getOptimizedQuery(), isolationLevel, counted);
             case WRITE:
                 executeWriteQuery(transactionId, plan.getOptimizedQuery().getKey(),
                         plan.getOptimizedQuery().getValue());
+                counted[0] = 1;
                 return "WRITE SUCCESS";
             case COMMIT:
                 executeCommit(transactionId);
@@ -74,6 +425,12 @@ public class QueryExecutor {
 
     private String executeReadQuery(long transactionId, long key, IsolationLevel isolationLevel) {
         key = queryOptimizer.optimizeReadKey(key);
+        // Every write through this executor is indexed, so a filter miss means no version exists either.
+        // Optimistic transactions still read through so the absent key lands in their read set.
+        if (isolationLevel != IsolationLevel.SERIALIZABLE_OPTIMISTIC && !indexManager.mightContain(key)) {
+            log.info("Executed READ query: Transaction {} key {} is absent (Bloom filter)", transactionId, key);
+            return null;
+        }
         if (indexManager.containsKey(key)) {
             key = indexManager.lookup(key);
         }
@@ -82,6 +439,27 @@ public class QueryExecutor {
         return result;
     }
 
+    // Streams the index range in key order and stops as soon as the limit is reached
+    private String executeRangeQuery(long transactionId, ParsedQuery query, IsolationLevel isolationLevel,
+            long[] rowCount) {
+        IndexCursor cursor = query.isDescending()
+                ? indexManager.scanDescending(query.getLow(), query.getHigh())
+                : indexManager.scan(query.getLow(), query.getHigh());
+        StringJoiner rows = new StringJoiner(", ", "{", "}");
+        long returned = 0;
+        while (returned < query.getLimit() && cursor.next()) {
+            String value = versionManager.readVersion(transactionId, cursor.value(), isolationLevel);
+            if (value != null) { // skip keys whose versions are not visible to this transaction
+                rows.add(cursor.key() + "=" + value);
+                returned++;
+            }
+        }
+        log.info("Executed RANGE query: Transaction {} fetched {} rows in [{}, {}]", transactionId, returned,
+                query.getLow(), query.getHigh());
+        rowCount[0] = returned;
+        return rows.toString();
+    }
+
     private void executeWriteQuery(long transactionId, long key, String value) {
         key = queryOptimizer.optimizeWriteKey(key);
         versionManager.writeVersion(transactionId, key, value);
@@ -98,4 +476,130 @@ public class QueryExecutor {
         versionManager.rollbackTransaction(transactionId);
         log.info("Transaction {} rolled back successfully.", transactionId);
     }
-}
\ No newline at end of file
+
+    /**
+     * Lets submitted queries finish, then stops the prefetch thread, the
+     * background ANALYZE and the learner, which checkpoints the model if it
+     * changed. The shared version manager stays open, without this
+     * executor's commit listener.
+     */
+    @Override
+    public void close() {
+        executorService.shutdown();
+        queryPrefetcher.close();
+        try {
+            if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Queries still running after 10 s; interrupting them");
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        versionManager.removeCommitListener(commitListener);
+        statistics.close();
+        mlOptimizer.close();
+    }
+
+    // Throughput of 10k concurrent clients on the four-thread pool and on virtual threads
+    public static void main(String[] args) throws Exception {
+        runStartupBenchmark();
+        int clients = 10_000;
+        int queriesPerClient = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        VersionManager versionManager = new VersionManager();
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            try (QueryExecutor executor = new QueryExecutor(versionManager, mode)) {
+                ExecutionPlan[] reads = new ExecutionPlan[1000];
+                for (int key = 0; key < reads.length; key++) {
+                    executor.processQuery(executor.prepare("INSERT " + key + " VALUE " + key).bind(), 1,
+                            IsolationLevel.READ_COMMITTED, null);
+                    reads[key] = executor.prepare("SELECT value FROM t WHERE id = " + key).bind();
+                }
+                versionManager.commitTransaction(1);
+                // A 1 ms stall stands in for a page read that misses the buffer pool
+                for (long stallNanos : new long[] { 0, 1_000_000 }) {
+                    long queriesPerSecond = runBenchmark(executor, reads, clients, queriesPerClient, stallNanos);
+                    log.info("{}, {} us stall per query: {} queries/s", mode, stallNanos / 1000, queriesPerSecond);
+                }
+            }
+        }
+        try (QueryExecutor ingest = new QueryExecutor(new VersionManager())) {
+            runIngestBenchmark(ingest, 100_000, 500);
+        }
+    }
+
+    // Bulk ingest of random keys, one query at a time and in batches of one transaction each
+    private static void runIngestBenchmark(QueryExecutor executor, int rows, int batchSize) throws Exception {
+        long[] keys = ThreadLocalRandom.current().longs(rows, 0, 1L << 40).toArray();
+        long transactionId = 1_000_000;
+        long start = System.nanoTime();
+        for (int from = 0; from < rows / 2; from += batchSize, transactionId++) {
+            for (int i = from; i < from + batchSize; i++) {
+                executor.executeQuery("INSERT " + keys[i] + " VALUE " + i, transactionId,
+                        IsolationLevel.READ_COMMITTED);
+            }
+            executor.executeQuery("COMMIT", transactionId, IsolationLevel.READ_COMMITTED);
+        }
+        long singleNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int from = rows / 2; from < rows; from += batchSize, transactionId++) {
+            List<String> batch = new ArrayList<>(batchSize + 1);
+            for (int i = from; i < from + batchSize; i++) {
+                batch.add("INSERT " + keys[i] + " VALUE " + i);
+            }
+            batch.add("COMMIT");
+            executor.executeBatch(batch, transactionId, IsolationLevel.READ_COMMITTED);
+        }
+        long batchNanos = System.nanoTime() - start;
+        log.info("Ingest of {} rows: {} rows/s one query at a time, {} rows/s in batches of {}", rows / 2,
+                rows / 2 * 1_000_000_000L / singleNanos, rows / 2 * 1_000_000_000L / batchNanos, batchSize);
+    }
+
+    // Time from JVM start to the first answered query, which must not wait for the ML optimizer
+    private static void runStartupBenchmark() throws Exception {
+        long start = System.nanoTime();
+        try (QueryExecutor executor = new QueryExecutor(new VersionManager())) {
+            long constructed = System.nanoTime();
+            executor.executeQuery("INSERT 1 VALUE 1", 1, IsolationLevel.READ_COMMITTED);
+            executor.executeQuery("SELECT value FROM t WHERE id = 1", 1, IsolationLevel.READ_COMMITTED);
+            long answered = System.nanoTime();
+            while (!executor.mlOptimizer.isReady() && System.nanoTime() - start < TimeUnit.MINUTES.toNanos(1)) {
+                Thread.sleep(5);
+            }
+            long ready = System.nanoTime();
+            log.info("Cold start: JVM up for {} ms, executor built in {} ms, first query answered after {} ms, "
+                    + "ML optimizer ready after {} ms", ManagementFactory.getRuntimeMXBean().getUptime()
+                            - (ready - start) / 1_000_000, (constructed - start) / 1_000_000,
+                    (answered - start) / 1_000_000, (ready - start) / 1_000_000);
+        }
+    }
+
+    // Clients are virtual threads in both modes; only the threads running the queries differ
+    private static long runBenchmark(QueryExecutor executor, ExecutionPlan[] reads, int clients,
+            int queriesPerClient, long stallNanos) throws InterruptedException {
+        AtomicLong completed = new AtomicLong();
+        long start = System.nanoTime();
+        try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                long transactionId = 2 + c;
+                clientThreads.submit(() -> {
+                    for (int i = 0; i < queriesPerClient; i++) {
+                        ExecutionPlan plan = reads[(int) ((transactionId * 31 + i) % reads.length)];
+                        CompletableFuture.supplyAsync(() -> {
+                            if (stallNanos > 0) {
+                                LockSupport.parkNanos(stallNanos);
+                            }
+                            return executor.processQuery(plan, transactionId, IsolationLevel.READ_COMMITTED, null);
+                        }, executor.executorService).join();
+                        completed.incrementAndGet();
+                    }
+                });
+            }
+            clientThreads.shutdown();
+            clientThreads.awaitTermination(1, TimeUnit.HOURS);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        return completed.get() * 1_000_000_000L / Math.max(1, elapsedNanos);
+    }
+}
@@ -0,0 +1,217 @@
+package com.unidb.query;
+
+/**
+ * Single-pass SQL tokenizer over a {@link CharSequence}. A token is kept as
+ * its type and offsets into the input, so scanning allocates nothing;
+ * keywords are matched in place, ignoring case, and numbers are read straight
+ * from the characters.
+ */
+final class QueryLexer {
+    static final int END = 0;
+    static final int WORD = 1; // keyword or identifier, possibly quoted
+    static final int NUMBER = 2;
+    static final int STRING = 3; // offsets exclude the quotes
+    static final int PARAMETER = 4; // '?'
+    static final int SYMBOL = 5;
+
+    // Keywords after which a minus sign belongs to the number that follows
+    private static final String[] SIGN_KEYWORDS = { "SELECT", "WHERE", "AND", "OR", "NOT", "BETWEEN", "LIMIT",
+            "OFFSET", "INSERT", "UPDATE", "INTO", "SET", "VALUE", "VALUES" };
+
+    private final CharSequence input;
+    private final int length;
+    private int position;
+    private int type;
+    private int start;
+    private int end;
+    private boolean spaceBefore;
+
+    QueryLexer(CharSequence input) {
+        this.input = input;
+        this.length = input.length();
+    }
+
+    int next() {
+        int previousType = type;
+        int previousStart = start;
+        int previousEnd = end;
+        spaceBefore = false;
+        while (position < length && Character.isWhitespace(input.charAt(position))) {
+            position++;
+            spaceBefore = true;
+        }
+        start = position;
+        if (position == length) {
+            end = position;
+            return type = END;
+        }
+        char c = input.charAt(position);
+        if (Character.isLetter(c) || c == '_') {
+            while (position < length && isWordPart(input.charAt(position))) {
+                position++;
+            }
+            type = WORD;
+        } else if (c == '"' || c == '`') {
+            position = closingQuote(c, position + 1) + 1;
+            type = WORD;
+        } else if (c == '\'') {
+            start = position + 1;
+            end = closingQuote(c, start);
+            position = end + 1;
+            return type = STRING;
+        } else if (Character.isDigit(c)
+                || c == '-' && nextIsDigit() && signAllowed(previousType, previousStart, previousEnd)) {
+            position++;
+            while (position < length && (Character.isDigit(input.charAt(position))
+                    || input.charAt(position) == '.' && position + 1 < length
+                            && Character.isDigit(input.charAt(position + 1)))) {
+                position++;
+            }
+            type = NUMBER;
+        } else if (c == '?') {
+            position++;
+            type = PARAMETER;
+        } else {
+            position++;
+            if (position < length && isTwoCharSymbol(c, input.charAt(position))) {
+                position++;
+            }
+            type = SYMBOL;
+        }
+        end = position;
+        return type;
+    }
+
+    int type() {
+        return type;
+    }
+
+    int start() {
+        return start;
+    }
+
+    int end() {
+        return end;
+    }
+
+    // Whether whitespace separated this token from the previous one
+    boolean spaceBefore() {
+        return spaceBefore;
+    }
+
+    boolean isLiteral() {
+        return type == NUMBER || type == STRING || type == PARAMETER;
+    }
+
+    boolean isKeyword(String keyword) {
+        return type == WORD && end - start == keyword.length() && regionMatches(start, keyword, true);
+    }
+
+    boolean isSymbol(String symbol) {
+        return type == SYMBOL && end - start == symbol.length() && regionMatches(start, symbol, false);
+    }
+
+    // Quoted identifiers keep their case, everything else is upper-cased
+    void appendNormalized(StringBuilder out) {
+        boolean quoted = type == WORD && (input.charAt(start) == '"' || input.charAt(start) == '`');
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            out.append(type == WORD && !quoted ? Character.toUpperCase(c) : c);
+        }
+    }
+
+    // Token text as written; doubled quotes in a string literal collapse to one
+    String text() {
+        String text = input.subSequence(start, end).toString();
+        return type == STRING ? text.replace("''", "'") : text;
+    }
+
+    static String text(CharSequence input, int start, int end) {
+        return input.subSequence(start, end).toString().replace("''", "'");
+    }
+
+    // Long.parseLong over a region without copying it out
+    static long parseLong(CharSequence input, int start, int end) {
+        boolean negative = start < end && input.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            throw new NumberFormatException("Not an integer: " + input.subSequence(start, end));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = input.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not an integer: " + input.subSequence(start, end));
+            }
+            // Accumulate negatively so that Long.MIN_VALUE does not overflow
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException("Integer out of range: " + input.subSequence(start, end));
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            throw new NumberFormatException("Integer out of range: " + input.subSequence(start, end));
+        }
+        return negative ? value : -value;
+    }
+
+    // ---------------- HELPERS ----------------
+    private int closingQuote(char quote, int from) {
+        for (int i = from; i < length; i++) {
+            if (input.charAt(i) == quote) {
+                if (i + 1 < length && input.charAt(i + 1) == quote) {
+                    i++; // doubled quote inside the literal
+                } else {
+                    return i;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unterminated quote in SQL Query");
+    }
+
+    private boolean nextIsDigit() {
+        return position + 1 < length && Character.isDigit(input.charAt(position + 1));
+    }
+
+    // "a - 5" is arithmetic, "> -5", "BETWEEN -5" and "LIMIT -1" start a negative literal
+    private boolean signAllowed(int previousType, int previousStart, int previousEnd) {
+        switch (previousType) {
+        case END:
+            return true;
+        case SYMBOL:
+            return input.charAt(previousEnd - 1) != ')';
+        case WORD:
+            int size = previousEnd - previousStart;
+            for (String keyword : SIGN_KEYWORDS) {
+                if (keyword.length() == size && regionMatches(previousStart, keyword, true)) {
+                    return true;
+                }
+            }
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    private boolean regionMatches(int offset, String text, boolean ignoreCase) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = input.charAt(offset + i);
+            char expected = text.charAt(i);
+            if (c != expected && !(ignoreCase && Character.toUpperCase(c) == expected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWordPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static boolean isTwoCharSymbol(char first, char second) {
+        return (first == '<' || first == '>' || first == '!') && second == '='
+                || first == '<' && second == '>'
+                || first == '|' && second == '|'
+                || first == ':' && second == ':';
+    }
+}
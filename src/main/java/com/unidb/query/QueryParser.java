@@ -1,21 +1,456 @@
 package com.unidb.query;
 
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.ComparisonOperator;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.select.Limit;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.Select;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Parses the supported grammar in one pass over the SQL text:
+ *
+ * <pre>
+ * SELECT ... FROM table [WHERE predicate [AND predicate]...] [ORDER BY column [ASC|DESC]] [LIMIT n]
+ *     predicate: column {= | &lt; | &lt;= | &gt; | &gt;=} literal | column BETWEEN literal AND literal
+ * INSERT|UPDATE key word value
+ * COMMIT | ROLLBACK
+ * </pre>
+ *
+ * Every comparison constrains the key. A single equality is a point read,
+ * anything else a range scan. SQL outside this grammar, such as parenthesized
+ * or reversed predicates, is handed to JSqlParser with its literals stripped.
+ */
+@Slf4j
 class QueryParser {
-    public ParsedQuery parse(String sqlQuery) {
-        sqlQuery = sqlQuery.trim().toUpperCase();
-        if (sqlQuery.startsWith("SELECT")) {
-            long key = Long.parseLong(sqlQuery.replaceAll("[^0-9]", ""));
-            return new ParsedQuery(QueryType.READ, key, null);
-        } else if (sqlQuery.startsWith("INSERT") || sqlQuery.startsWith("UPDATE")) {
-            String[] parts = sqlQuery.split(" ");
-            long key = Long.parseLong(parts[1]);
-            String value = parts[3];
-            return new ParsedQuery(QueryType.WRITE, key, value);
-        } else if (sqlQuery.startsWith("COMMIT")) {
-            return new ParsedQuery(QueryType.COMMIT, -1, null);
-        } else if (sqlQuery.startsWith("ROLLBACK")) {
-            return new ParsedQuery(QueryType.ROLLBACK, -1, null);
-        }
-        throw new IllegalArgumentException("Invalid SQL Query");
-    }
-}
\ No newline at end of file
+
+    public ParsedQuery parse(CharSequence sqlQuery) {
+        Walk walk = new Walk(sqlQuery, true);
+        QueryTemplate template = walk.statement();
+        if (template != null) {
+            return template.bind(walk);
+        }
+        QueryShape shape = QueryShape.of(sqlQuery);
+        return parseTemplate(shape.text()).bind(shape.literals());
+    }
+
+    // Parses a literal-free query shape; the result can be bound to the literals of any query of that shape
+    QueryTemplate parseTemplate(String shape) {
+        QueryTemplate template = new Walk(shape, false).statement();
+        return template != null ? template : parseWithJSqlParser(shape);
+    }
+
+    // ---------------- BUILT-IN GRAMMAR ----------------
+    /**
+     * Recursive descent over the lexer's tokens. Every literal token takes the
+     * next parameter slot, in the same order in which {@link QueryShape}
+     * replaces literals, so a walk over raw SQL and a walk over its shape
+     * produce the same template. Returns null for SQL outside the grammar.
+     */
+    private static final class Walk implements QueryTemplate.Literals {
+        private final CharSequence sql;
+        private final QueryLexer lexer;
+        private final boolean capture; // record literal offsets so the walk can bind its own template
+        private final Bounds bounds = new Bounds();
+        private int[] starts; // -1 for an open '?' parameter
+        private int[] ends;
+        private int slots;
+
+        private Walk(CharSequence sql, boolean capture) {
+            this.sql = sql;
+            this.lexer = new QueryLexer(sql);
+            this.capture = capture;
+            this.starts = capture ? new int[8] : null;
+            this.ends = capture ? new int[8] : null;
+        }
+
+        private QueryTemplate statement() {
+            next();
+            if (lexer.isKeyword("SELECT")) {
+                return select();
+            } else if (lexer.isKeyword("INSERT") || lexer.isKeyword("UPDATE")) {
+                return write();
+            } else if (lexer.isKeyword("COMMIT")) {
+                next();
+                return end() ? QueryTemplate.point(QueryType.COMMIT, slots, -1, -1) : null;
+            } else if (lexer.isKeyword("ROLLBACK")) {
+                next();
+                return end() ? QueryTemplate.point(QueryType.ROLLBACK, slots, -1, -1) : null;
+            }
+            return null;
+        }
+
+        private QueryTemplate select() {
+            next();
+            while (!lexer.isKeyword("FROM")) {
+                if (lexer.type() == QueryLexer.END || lexer.isSymbol("(")) {
+                    return null; // functions and subqueries go to JSqlParser
+                }
+                next();
+            }
+            next();
+            if (!name()) {
+                return null;
+            }
+            if (lexer.isKeyword("AS")) {
+                next();
+            }
+            if (lexer.type() == QueryLexer.WORD && !lexer.isKeyword("WHERE") && !lexer.isKeyword("ORDER")
+                    && !lexer.isKeyword("LIMIT")) {
+                next(); // table alias
+            }
+            if (lexer.isKeyword("WHERE")) {
+                do {
+                    next();
+                    if (!predicate()) {
+                        return null;
+                    }
+                } while (lexer.isKeyword("AND"));
+            }
+            if (lexer.isKeyword("ORDER")) {
+                next();
+                if (!lexer.isKeyword("BY")) {
+                    return null;
+                }
+                next();
+                if (!name()) {
+                    return null;
+                }
+                boolean descending = lexer.isKeyword("DESC");
+                if (descending || lexer.isKeyword("ASC")) {
+                    next();
+                }
+                bounds.order(descending);
+            }
+            if (lexer.isKeyword("LIMIT")) {
+                next();
+                if (!lexer.isLiteral()) {
+                    return null;
+                }
+                bounds.limit(slots - 1);
+                next();
+            }
+            return end() ? bounds.build(slots) : null;
+        }
+
+        private boolean predicate() {
+            if (!name()) {
+                return false;
+            }
+            if (lexer.isKeyword("BETWEEN")) {
+                next();
+                if (!lexer.isLiteral()) {
+                    return false;
+                }
+                bounds.lower(slots - 1, false);
+                next();
+                if (!lexer.isKeyword("AND")) {
+                    return false;
+                }
+                next();
+                if (!lexer.isLiteral()) {
+                    return false;
+                }
+                bounds.upper(slots - 1, false);
+                next();
+                return true;
+            }
+            int operator = lexer.isSymbol("=") ? 0 : lexer.isSymbol("<") ? 1 : lexer.isSymbol("<=") ? 2
+                    : lexer.isSymbol(">") ? 3 : lexer.isSymbol(">=") ? 4 : -1;
+            if (operator < 0) {
+                return false;
+            }
+            next();
+            if (!lexer.isLiteral()) {
+                return false;
+            }
+            bounds.compare(operator, slots - 1);
+            next();
+            return true;
+        }
+
+        // "INSERT <key> <word> <value>": the key and value tokens take slots 0 and 1 whatever their type
+        private QueryTemplate write() {
+            next();
+            if (lexer.type() == QueryLexer.END) {
+                return null;
+            }
+            if (!lexer.isLiteral()) {
+                record();
+            }
+            next();
+            if (lexer.type() != QueryLexer.WORD) {
+                return null;
+            }
+            next();
+            if (lexer.type() == QueryLexer.END) {
+                return null;
+            }
+            if (!lexer.isLiteral()) {
+                record();
+            }
+            next();
+            return end() ? QueryTemplate.point(QueryType.WRITE, slots, 0, 1) : null;
+        }
+
+        // Table or column, optionally qualified
+        private boolean name() {
+            if (lexer.type() != QueryLexer.WORD) {
+                return false;
+            }
+            next();
+            if (lexer.isSymbol(".")) {
+                next();
+                if (lexer.type() != QueryLexer.WORD) {
+                    return false;
+                }
+                next();
+            }
+            return true;
+        }
+
+        private boolean end() {
+            if (lexer.isSymbol(";")) {
+                next();
+            }
+            return lexer.type() == QueryLexer.END;
+        }
+
+        private void next() {
+            if (lexer.next() != QueryLexer.END && lexer.isLiteral()) {
+                record();
+            }
+        }
+
+        private void record() {
+            if (capture) {
+                if (slots == starts.length) {
+                    starts = Arrays.copyOf(starts, slots * 2);
+                    ends = Arrays.copyOf(ends, slots * 2);
+                }
+                starts[slots] = lexer.type() == QueryLexer.PARAMETER ? -1 : lexer.start();
+                ends[slots] = lexer.end();
+            }
+            slots++;
+        }
+
+        @Override
+        public int size() {
+            return slots;
+        }
+
+        @Override
+        public boolean isBound(int slot) {
+            return starts[slot] >= 0;
+        }
+
+        @Override
+        public long number(int slot) {
+            return QueryLexer.parseLong(sql, starts[slot], ends[slot]);
+        }
+
+        @Override
+        public String text(int slot) {
+            return QueryLexer.text(sql, starts[slot], ends[slot]);
+        }
+    }
+
+    // ---------------- JSQLPARSER FALLBACK ----------------
+    private QueryTemplate parseWithJSqlParser(String shape) {
+        Statement statement;
+        try {
+            statement = CCJSqlParserUtil.parse(shape);
+        } catch (JSQLParserException e) {
+            throw new IllegalArgumentException("Invalid SQL Query: " + shape, e);
+        }
+        if (!(statement instanceof Select) || !(((Select) statement).getSelectBody() instanceof PlainSelect)) {
+            throw new IllegalArgumentException("Unsupported SQL statement: " + shape);
+        }
+        PlainSelect select = (PlainSelect) ((Select) statement).getSelectBody();
+        if (select.getJoins() != null || select.getGroupBy() != null || select.getHaving() != null) {
+            throw new IllegalArgumentException("Joins and grouping are not supported: " + shape);
+        }
+        Bounds bounds = new Bounds();
+        if (select.getWhere() != null) {
+            addPredicate(select.getWhere(), bounds);
+        }
+        List<OrderByElement> orderBy = select.getOrderByElements();
+        if (orderBy != null) {
+            bounds.order(!orderBy.get(0).isAsc());
+        }
+        Limit limit = select.getLimit();
+        if (select.getOffset() != null || limit != null && limit.getOffset() != null) {
+            throw new IllegalArgumentException("OFFSET is not supported: " + shape);
+        }
+        if (limit != null) {
+            bounds.limit(slotOf(limit.getRowCount()));
+        }
+        log.debug("Parsed query shape with JSqlParser: {}", shape);
+        return bounds.build((int) shape.chars().filter(c -> c == '?').count());
+    }
+
+    private static void addPredicate(Expression expression, Bounds bounds) {
+        if (expression instanceof Parenthesis) {
+            addPredicate(((Parenthesis) expression).getExpression(), bounds);
+        } else if (expression instanceof AndExpression) {
+            addPredicate(((AndExpression) expression).getLeftExpression(), bounds);
+            addPredicate(((AndExpression) expression).getRightExpression(), bounds);
+        } else if (expression instanceof Between && !((Between) expression).isNot()
+                && ((Between) expression).getLeftExpression() instanceof Column) {
+            bounds.lower(slotOf(((Between) expression).getBetweenExpressionStart()), false);
+            bounds.upper(slotOf(((Between) expression).getBetweenExpressionEnd()), false);
+        } else if (expression instanceof ComparisonOperator) {
+            ComparisonOperator comparison = (ComparisonOperator) expression;
+            int operator = expression instanceof EqualsTo ? 0 : expression instanceof MinorThan ? 1
+                    : expression instanceof MinorThanEquals ? 2 : expression instanceof GreaterThan ? 3
+                            : expression instanceof GreaterThanEquals ? 4 : -1;
+            Expression left = comparison.getLeftExpression();
+            Expression right = comparison.getRightExpression();
+            if (operator >= 0 && left instanceof Column && right instanceof JdbcParameter) {
+                bounds.compare(operator, slotOf(right));
+            } else if (operator >= 0 && left instanceof JdbcParameter && right instanceof Column) {
+                bounds.compare(operator == 0 ? 0 : operator < 3 ? operator + 2 : operator - 2, slotOf(left));
+            } else {
+                throw new IllegalArgumentException("Unsupported predicate: " + expression);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported predicate: " + expression);
+        }
+    }
+
+    private static int slotOf(Expression expression) {
+        if (!(expression instanceof JdbcParameter)) {
+            throw new IllegalArgumentException("Expected a literal: " + expression);
+        }
+        return ((JdbcParameter) expression).getIndex() - 1;
+    }
+
+    // ---------------- KEY BOUNDS ----------------
+    // Constraints collected from the predicates of one SELECT, by parameter slot
+    private static final class Bounds {
+        private int[] lowerSlots = new int[0];
+        private boolean[] lowerExclusive = new boolean[0];
+        private int[] upperSlots = new int[0];
+        private boolean[] upperExclusive = new boolean[0];
+        private int equalities;
+        private boolean ordered;
+        private boolean descending;
+        private int limitSlot = -1;
+
+        // Operators: 0 =, 1 <, 2 <=, 3 >, 4 >=
+        private void compare(int operator, int slot) {
+            if (operator == 0) {
+                equalities++;
+                lower(slot, false);
+                upper(slot, false);
+            } else if (operator <= 2) {
+                upper(slot, operator == 1);
+            } else {
+                lower(slot, operator == 3);
+            }
+        }
+
+        private void lower(int slot, boolean exclusive) {
+            lowerSlots = append(lowerSlots, slot);
+            lowerExclusive = append(lowerExclusive, exclusive);
+        }
+
+        private void upper(int slot, boolean exclusive) {
+            upperSlots = append(upperSlots, slot);
+            upperExclusive = append(upperExclusive, exclusive);
+        }
+
+        private void order(boolean descending) {
+            this.ordered = true;
+            this.descending = descending;
+        }
+
+        private void limit(int slot) {
+            this.limitSlot = slot;
+        }
+
+        private QueryTemplate build(int parameters) {
+            if (equalities == 1 && lowerSlots.length == 1 && upperSlots.length == 1 && !ordered && limitSlot < 0) {
+                return QueryTemplate.point(QueryType.READ, parameters, lowerSlots[0], -1);
+            }
+            return QueryTemplate.range(parameters, lowerSlots, lowerExclusive, upperSlots, upperExclusive, descending,
+                    limitSlot);
+        }
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] grown = Arrays.copyOf(values, values.length + 1);
+        grown[values.length] = value;
+        return grown;
+    }
+
+    private static boolean[] append(boolean[] values, boolean value) {
+        boolean[] grown = Arrays.copyOf(values, values.length + 1);
+        grown[values.length] = value;
+        return grown;
+    }
+
+    // Parse throughput of the single-pass parser against shape-then-bind and a JSqlParser parse
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String[] queries = { "SELECT * FROM accounts WHERE id = 42", "SELECT 1 FROM t2 WHERE id=3",
+                "SELECT * FROM orders WHERE id BETWEEN 100 AND 200 ORDER BY id DESC LIMIT 10",
+                "INSERT 7 INTO value7", "COMMIT" };
+        QueryParser parser = new QueryParser();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        for (int pass = 0; pass < 2; pass++) { // the first pass warms up the JIT
+            long checksum = 0;
+            long bytes = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                checksum += parser.parse(queries[i % queries.length]).getKey();
+            }
+            long nanos = System.nanoTime() - start;
+            bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+            log.info("Single-pass parse: {} ns/query, {} bytes/query (checksum {})", nanos / rounds, bytes / rounds,
+                    checksum);
+
+            bytes = threads.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                QueryShape shape = QueryShape.of(queries[i % queries.length]);
+                checksum += shape.text().length() + shape.literals().length;
+            }
+            nanos = System.nanoTime() - start;
+            bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+            log.info("Query shape (plan cache key): {} ns/query, {} bytes/query (checksum {})", nanos / rounds,
+                    bytes / rounds, checksum);
+
+            int jsqlRounds = rounds / 20; // orders of magnitude slower
+            bytes = threads.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < jsqlRounds; i++) {
+                checksum += CCJSqlParserUtil.parse(queries[i % 3]).hashCode();
+            }
+            nanos = System.nanoTime() - start;
+            bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+            log.info("JSqlParser parse: {} ns/query, {} bytes/query (checksum {})", nanos / jsqlRounds,
+                    bytes / jsqlRounds, checksum);
+        }
+    }
+}
@@ -1,34 +1,371 @@
 package com.unidb.query;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Predicts the next query of a transaction and runs it ahead of time.
+ *
+ * <p>A Markov model over query shapes counts, for each shape, which shapes
+ * followed it in the same transaction. For every observed transition it
+ * also learns how the next query's literals derive from the previous
+ * query's: copied, shifted by a constant, or fixed. When a transition is
+ * likely enough and its literal rules held on recent observations, the
+ * predicted read runs on a single low-priority thread. Its result goes into
+ * the query cache like any other committed read.
+ *
+ * <p>Prefetching stops paying when its results expire unread. Every window
+ * of prefetches is scored by the share later hit by a real query, and below
+ * {@link #MIN_USEFUL_RATE} prefetching pauses for a while before probing
+ * again.
+ */
 @Slf4j
 class QueryPrefetcher {
+    private static final int MAX_SESSIONS = 65_536;
+    private static final int MAX_SHAPES = 4096;
+    private static final int MAX_SUCCESSORS = 8;
+    private static final double MIN_PROBABILITY = 0.25;
+    private static final int MIN_TRANSITIONS = 4;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int SCORE_WINDOW = 256;
+    private static final double MIN_USEFUL_RATE = 0.1;
+    private static final long PAUSE_OBSERVATIONS = 50_000;
+
     private final AdaptiveQueryCache queryCache;
+    private final Function<String, PreparedQuery> plans; // cached plan for a shape, or null
+    private final Function<ExecutionPlan, String> reader; // runs a read against committed data
+    private final ThreadPoolExecutor executor;
+    private final Map<Long, Observation> sessions; // last query per transaction
+    private final Map<String, Successors> model;
+    private final Map<String, Boolean> outstanding; // prefetched keys not yet read by a query
+    private final AtomicLong observations;
+    private final AtomicLong issued;
+    private final AtomicLong useful;
+    private long windowIssued;
+    private long windowUseful;
+    private volatile long pausedUntil;
 
-    public QueryPrefetcher(AdaptiveQueryCache queryCache) {
+    QueryPrefetcher(AdaptiveQueryCache queryCache, Function<String, PreparedQuery> plans,
+            Function<ExecutionPlan, String> reader) {
         this.queryCache = queryCache;
+        this.plans = plans;
+        this.reader = reader;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "query-prefetcher");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy()); // over budget: drop the prediction
+        this.sessions = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Observation> eldest) {
+                return size() > MAX_SESSIONS;
+            }
+        };
+        this.model = new ConcurrentHashMap<>();
+        this.outstanding = new LinkedHashMap<>(1024, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > SCORE_WINDOW * 4;
+            }
+        };
+        this.observations = new AtomicLong();
+        this.issued = new AtomicLong();
+        this.useful = new AtomicLong();
+    }
+
+    // Learns the transition from the transaction's previous query and prefetches the likely next ones
+    public void observe(long transactionId, QueryShape shape, String cacheKey, boolean cacheHit) {
+        long observed = observations.incrementAndGet();
+        if (cacheHit) {
+            recordHit(cacheKey);
+        }
+        String text = shape.text();
+        if (text.startsWith("COMMIT") || text.startsWith("ROLLBACK")) {
+            synchronized (sessions) {
+                sessions.remove(transactionId);
+            }
+            return;
+        }
+        Observation current = new Observation(text, shape.literals());
+        if (Arrays.asList(current.literals).contains(null)) {
+            return; // open parameters
+        }
+        Observation previous;
+        synchronized (sessions) {
+            previous = sessions.put(transactionId, current);
+        }
+        if (previous != null) {
+            Successors successors = model.get(previous.shape);
+            if (successors == null && model.size() < MAX_SHAPES) {
+                successors = model.computeIfAbsent(previous.shape, shapeText -> new Successors());
+            }
+            if (successors != null) {
+                successors.record(previous.literals, current);
+            }
+        }
+        if (observed >= pausedUntil) {
+            predict(current);
+        }
+    }
+
+    public long getIssued() {
+        return issued.get();
+    }
+
+    public long getUseful() {
+        return useful.get();
     }
 
-    public void prefetchRelatedQueries(String query) {
-        List<String> relatedQueries = getRelatedQueries(query);
-        for (String relatedQuery : relatedQueries) {
-            if (!queryCache.contains(relatedQuery)) {
-                log.info("Prefetching query: {}", relatedQuery);
-                queryCache.put(relatedQuery, "PREFETCHED_RESULT");
+    // Drops queued predictions and stops the prefetch thread
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public boolean isPaused() {
+        return observations.get() < pausedUntil;
+    }
+
+    // ---------------- PREDICTION ----------------
+    private void predict(Observation current) {
+        Successors successors = model.get(current.shape);
+        if (successors == null) {
+            return;
+        }
+        for (Prediction prediction : successors.likely(current.literals)) {
+            PreparedQuery prepared = plans.apply(prediction.shape);
+            if (prepared == null || !prepared.isRead()) {
+                continue; // never speculate writes or shapes that were never planned
             }
+            String cacheKey = QueryShape.cacheKey(prediction.shape, prediction.literals);
+            if (queryCache.contains(cacheKey)) {
+                continue;
+            }
+            executor.execute(() -> prefetch(cacheKey, prepared.withLiterals(prediction.literals)));
         }
     }
 
-    private List<String> getRelatedQueries(String query) {
-        List<String> relatedQueries = new ArrayList<>();
-        if (query.contains("SELECT")) {
-            relatedQueries.add(query.replace("SELECT", "COUNT"));
+    private void prefetch(String cacheKey, PreparedQuery prepared) {
+        try {
+            long epoch = queryCache.currentEpoch();
+            ExecutionPlan plan = prepared.bind();
+            String result = reader.apply(plan);
+            ParsedQuery query = plan.getOptimizedQuery();
+            if (result != null && queryCache.put(cacheKey, result, query.getLow(), query.getHigh(), epoch)) {
+                synchronized (outstanding) {
+                    outstanding.put(cacheKey, Boolean.TRUE);
+                }
+                issued.incrementAndGet();
+                score(false);
+                log.debug("Prefetched query of shape {}", prepared.getShape());
+            }
+        } catch (RuntimeException e) {
+            // e.g. a derived key out of range
+            log.debug("Prefetch of shape {} failed: {}", prepared.getShape(), e.getMessage());
         }
-        return relatedQueries;
     }
-}
 
+    // ---------------- FEEDBACK ----------------
+    private void recordHit(String cacheKey) {
+        boolean prefetched;
+        synchronized (outstanding) {
+            prefetched = outstanding.remove(cacheKey) != null;
+        }
+        if (prefetched) {
+            useful.incrementAndGet();
+            score(true);
+        }
+    }
+
+    // Closes a window every SCORE_WINDOW prefetches and pauses prefetching if too few of them were read
+    private synchronized void score(boolean hit) {
+        if (hit) {
+            windowUseful++;
+            return;
+        }
+        if (++windowIssued < SCORE_WINDOW) {
+            return;
+        }
+        double rate = (double) windowUseful / windowIssued;
+        if (rate < MIN_USEFUL_RATE) {
+            pausedUntil = observations.get() + PAUSE_OBSERVATIONS;
+            log.info("Pausing prefetching for {} queries: only {} of the last {} prefetches were used",
+                    PAUSE_OBSERVATIONS, windowUseful, windowIssued);
+        }
+        windowIssued = 0;
+        windowUseful = 0;
+    }
+
+    // ---------------- MODEL ----------------
+    private static final class Observation {
+        private final String shape;
+        private final String[] literals;
+
+        private Observation(String shape, String[] literals) {
+            this.shape = shape;
+            this.literals = literals;
+        }
+    }
+
+    private static final class Prediction {
+        private final String shape;
+        private final String[] literals;
+
+        private Prediction(String shape, String[] literals) {
+            this.shape = shape;
+            this.literals = literals;
+        }
+    }
+
+    // Outgoing transitions of one shape; counts are halved periodically so the model follows the workload
+    private static final class Successors {
+        private final List<Transition> transitions = new ArrayList<>();
+        private long total;
+
+        private synchronized void record(String[] previous, Observation next) {
+            Transition transition = null;
+            for (Transition candidate : transitions) {
+                if (candidate.shape.equals(next.shape)) {
+                    transition = candidate;
+                }
+            }
+            if (transition == null) {
+                if (transitions.size() == MAX_SUCCESSORS) {
+                    Transition rarest = transitions.get(0);
+                    for (Transition candidate : transitions) {
+                        rarest = candidate.count < rarest.count ? candidate : rarest;
+                    }
+                    total -= rarest.count;
+                    transitions.remove(rarest);
+                }
+                transition = new Transition(next.shape, next.literals.length);
+                transitions.add(transition);
+            }
+            transition.count++;
+            transition.learn(previous, next.literals);
+            if (++total > 10_000) {
+                total = 0;
+                for (Transition candidate : transitions) {
+                    candidate.count /= 2;
+                    total += candidate.count;
+                }
+            }
+        }
+
+        private synchronized List<Prediction> likely(String[] literals) {
+            List<Prediction> predictions = new ArrayList<>(2);
+            for (Transition transition : transitions) {
+                if (transition.count >= MIN_TRANSITIONS && transition.count >= MIN_PROBABILITY * total) {
+                    String[] derived = transition.derive(literals);
+                    if (derived != null) {
+                        predictions.add(new Prediction(transition.shape, derived));
+                    }
+                }
+            }
+            return predictions;
+        }
+    }
+
+    /**
+     * How each literal of the next query follows from the previous query:
+     * source slot and numeric delta, or a constant when the source is -1.
+     * A rule that breaks is re-learned from the observation that broke it,
+     * and only rules that held at least twice in a row are used.
+     */
+    private static final class Transition {
+        private static final int CONSTANT = -1;
+        private static final int NO_RULE = -2;
+
+        private final String shape;
+        private final int[] sources;
+        private final long[] deltas;
+        private final String[] constants;
+        private final int[] streaks;
+        private long count;
+
+        private Transition(String shape, int slots) {
+            this.shape = shape;
+            this.sources = new int[slots];
+            this.deltas = new long[slots];
+            this.constants = new String[slots];
+            this.streaks = new int[slots];
+            Arrays.fill(sources, NO_RULE);
+        }
+
+        private void learn(String[] previous, String[] next) {
+            for (int slot = 0; slot < next.length; slot++) {
+                if (sources[slot] != NO_RULE && next[slot].equals(apply(slot, previous))) {
+                    streaks[slot]++;
+                    continue;
+                }
+                streaks[slot] = 0;
+                sources[slot] = CONSTANT;
+                constants[slot] = next[slot];
+                Long value = number(next[slot]);
+                // Prefer a copied literal, then the same position shifted, then a constant
+                for (int source = 0; source < previous.length; source++) {
+                    if (next[slot].equals(previous[source])) {
+                        sources[slot] = source;
+                        deltas[slot] = 0;
+                        break;
+                    }
+                }
+                if (sources[slot] == CONSTANT && value != null && slot < previous.length) {
+                    Long base = number(previous[slot]);
+                    if (base != null) {
+                        sources[slot] = slot;
+                        deltas[slot] = value - base;
+                    }
+                }
+            }
+        }
+
+        private String[] derive(String[] previous) {
+            String[] next = new String[sources.length];
+            for (int slot = 0; slot < next.length; slot++) {
+                if (sources[slot] == NO_RULE || streaks[slot] < 2) {
+                    return null;
+                }
+                next[slot] = apply(slot, previous);
+                if (next[slot] == null) {
+                    return null;
+                }
+            }
+            return next;
+        }
+
+        private String apply(int slot, String[] previous) {
+            if (sources[slot] == CONSTANT) {
+                return constants[slot];
+            }
+            if (sources[slot] >= previous.length) {
+                return null;
+            }
+            if (deltas[slot] == 0) {
+                return previous[sources[slot]];
+            }
+            Long base = number(previous[sources[slot]]);
+            return base == null ? null : Long.toString(base + deltas[slot]);
+        }
+
+        private static Long number(String literal) {
+            try {
+                return Long.valueOf(literal);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.unidb.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query with its literals replaced by '?' placeholders, plus the literals
+ * that were taken out. Queries that differ only in their literals share a
+ * shape, so the shape text keys the plan cache. A '?' already present in the
+ * SQL is an open parameter; its literal slot is null until a prepared query
+ * is executed with a value for it.
+ */
+final class QueryShape {
+    private final String text;
+    private final String[] literals;
+
+    private QueryShape(String text, String[] literals) {
+        this.text = text;
+        this.literals = literals;
+    }
+
+    String text() {
+        return text;
+    }
+
+    String[] literals() {
+        return literals.clone();
+    }
+
+    // Result cache key: queries with the same shape and literals return the same rows
+    static String cacheKey(String text, String[] literals) {
+        StringBuilder key = new StringBuilder(text);
+        for (String literal : literals) {
+            key.append('\0').append(literal);
+        }
+        return key.toString();
+    }
+
+    // One lexer pass: keywords and identifiers are upper-cased, whitespace runs collapse to one space
+    static QueryShape of(CharSequence sqlQuery) {
+        QueryLexer lexer = new QueryLexer(sqlQuery);
+        StringBuilder text = new StringBuilder(sqlQuery.length());
+        List<String> literals = new ArrayList<>();
+        boolean write = false;
+        for (int token = 0; lexer.next() != QueryLexer.END; token++) {
+            if (token == 0) {
+                write = lexer.isKeyword("INSERT") || lexer.isKeyword("UPDATE");
+            }
+            if (token > 0 && lexer.spaceBefore()) {
+                text.append(' ');
+            }
+            // The write grammar is "INSERT <key> <word> <value>": the key and value tokens are the literals
+            boolean literal = write ? token == 1 || token == 3 : lexer.isLiteral();
+            if (literal) {
+                literals.add(lexer.type() == QueryLexer.PARAMETER ? null : lexer.text());
+                text.append('?');
+            } else {
+                lexer.appendNormalized(text);
+            }
+        }
+        return new QueryShape(text.toString(), literals.toArray(new String[0]));
+    }
+}
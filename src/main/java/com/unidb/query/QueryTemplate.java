@@ -0,0 +1,137 @@
+package com.unidb.query;
+
+/**
+ * A parsed query shape whose keys, values and bounds refer to parameter
+ * slots instead of literals. Binding the slots to the literals of one query
+ * produces its {@link ParsedQuery} without parsing the SQL again.
+ */
+final class QueryTemplate {
+    private static final int NONE = -1;
+
+    private final QueryType type;
+    private final int parameterCount;
+    private final int keySlot;
+    private final int valueSlot;
+    // Range queries: every bound slot tightens the range; exclusive bounds are shifted by one on binding
+    private final int[] lowerSlots;
+    private final boolean[] lowerExclusive;
+    private final int[] upperSlots;
+    private final boolean[] upperExclusive;
+    private final boolean descending;
+    private final int limitSlot;
+
+    private QueryTemplate(QueryType type, int parameterCount, int keySlot, int valueSlot, int[] lowerSlots,
+            boolean[] lowerExclusive, int[] upperSlots, boolean[] upperExclusive, boolean descending, int limitSlot) {
+        this.type = type;
+        this.parameterCount = parameterCount;
+        this.keySlot = keySlot;
+        this.valueSlot = valueSlot;
+        this.lowerSlots = lowerSlots;
+        this.lowerExclusive = lowerExclusive;
+        this.upperSlots = upperSlots;
+        this.upperExclusive = upperExclusive;
+        this.descending = descending;
+        this.limitSlot = limitSlot;
+    }
+
+    static QueryTemplate point(QueryType type, int parameterCount, int keySlot, int valueSlot) {
+        return new QueryTemplate(type, parameterCount, keySlot, valueSlot, new int[0], new boolean[0], new int[0],
+                new boolean[0], false, NONE);
+    }
+
+    static QueryTemplate range(int parameterCount, int[] lowerSlots, boolean[] lowerExclusive, int[] upperSlots,
+            boolean[] upperExclusive, boolean descending, int limitSlot) {
+        return new QueryTemplate(QueryType.RANGE, parameterCount, NONE, NONE, lowerSlots, lowerExclusive, upperSlots,
+                upperExclusive, descending, limitSlot);
+    }
+
+    QueryType getType() {
+        return type;
+    }
+
+    int getParameterCount() {
+        return parameterCount;
+    }
+
+    // Stand-in query for planning before any parameter is known
+    ParsedQuery unbound() {
+        return type == QueryType.RANGE ? new ParsedQuery(Long.MIN_VALUE, Long.MAX_VALUE, descending, Long.MAX_VALUE)
+                : new ParsedQuery(type, -1, null);
+    }
+
+    // Literal values by slot, read either from bound strings or straight from the SQL text
+    interface Literals {
+        int size();
+
+        boolean isBound(int slot);
+
+        long number(int slot);
+
+        String text(int slot);
+    }
+
+    ParsedQuery bind(String[] parameters) {
+        return bind(new Literals() {
+            @Override
+            public int size() {
+                return parameters.length;
+            }
+
+            @Override
+            public boolean isBound(int slot) {
+                return parameters[slot] != null;
+            }
+
+            @Override
+            public long number(int slot) {
+                return Long.parseLong(parameters[slot]);
+            }
+
+            @Override
+            public String text(int slot) {
+                return parameters[slot];
+            }
+        });
+    }
+
+    ParsedQuery bind(Literals parameters) {
+        if (parameters.size() != parameterCount) {
+            throw new IllegalArgumentException(
+                    "Query expects " + parameterCount + " parameters, got " + parameters.size());
+        }
+        for (int slot = 0; slot < parameterCount; slot++) {
+            if (!parameters.isBound(slot)) {
+                throw new IllegalArgumentException("Unbound query parameter");
+            }
+        }
+        if (type != QueryType.RANGE) {
+            long key = keySlot == NONE ? -1 : parameters.number(keySlot);
+            return new ParsedQuery(type, key, valueSlot == NONE ? null : parameters.text(valueSlot));
+        }
+        long low = Long.MIN_VALUE;
+        long high = Long.MAX_VALUE;
+        boolean empty = false;
+        for (int i = 0; i < lowerSlots.length; i++) {
+            long bound = parameters.number(lowerSlots[i]);
+            if (lowerExclusive[i]) {
+                empty |= bound == Long.MAX_VALUE; // nothing lies beyond the extreme key
+                bound = empty ? bound : bound + 1;
+            }
+            low = Math.max(low, bound);
+        }
+        for (int i = 0; i < upperSlots.length; i++) {
+            long bound = parameters.number(upperSlots[i]);
+            if (upperExclusive[i]) {
+                empty |= bound == Long.MIN_VALUE;
+                bound = empty ? bound : bound - 1;
+            }
+            high = Math.min(high, bound);
+        }
+        if (empty) {
+            low = 1;
+            high = 0;
+        }
+        long limit = limitSlot == NONE ? Long.MAX_VALUE : parameters.number(limitSlot);
+        return new ParsedQuery(low, high, descending, limit);
+    }
+}
@@ -1,5 +1,5 @@
 package com.unidb.query;
 
 enum QueryType {
-    READ, WRITE, COMMIT, ROLLBACK
+    READ, RANGE, WRITE, COMMIT, ROLLBACK
 }
\ No newline at end of file
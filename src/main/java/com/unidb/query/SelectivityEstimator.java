@@ -0,0 +1,203 @@
+package com.unidb.query;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NotExpression;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.ComparisonOperator;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.expression.operators.relational.IsNullExpression;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.NotEqualsTo;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+
+/**
+ * Selectivity and cardinality estimates for the predicates of one SQL
+ * query, from the statistics catalog. Tables and columns that were never
+ * analyzed fall back to System R's defaults: {@link #DEFAULT_TABLE_ROWS}
+ * rows, {@link #DEFAULT_DISTINCT} distinct values per column, and a third
+ * of the rows for a range. Conjuncts are assumed independent.
+ */
+final class SelectivityEstimator {
+    static final long DEFAULT_TABLE_ROWS = 1000;
+    static final long DEFAULT_DISTINCT = 200; // 1 / ColumnStatistics.DEFAULT_EQUALITY_SELECTIVITY
+
+    private final StatisticsCatalog statistics; // null: defaults only
+    private final Map<String, String> tables; // name or alias in the query -> table
+
+    SelectivityEstimator(StatisticsCatalog statistics) {
+        this.statistics = statistics;
+        this.tables = new HashMap<>();
+    }
+
+    // Makes the table known under its name and its alias
+    void addTable(Table table) {
+        tables.put(table.getName(), table.getName());
+        if (table.getAlias() != null) {
+            tables.put(table.getAlias().getName(), table.getName());
+        }
+    }
+
+    // The table behind a name or alias of the query
+    String resolve(String nameOrAlias) {
+        return tables.getOrDefault(nameOrAlias, nameOrAlias);
+    }
+
+    double tableRows(String table) {
+        TableStatistics analyzed = statistics == null ? null : statistics.get(resolve(table));
+        return analyzed == null ? DEFAULT_TABLE_ROWS : analyzed.getRowCount();
+    }
+
+    // Rows of the table left after its own predicates
+    double filteredRows(String table, List<Expression> predicates) {
+        double rows = tableRows(table);
+        for (Expression predicate : predicates) {
+            rows *= selectivity(predicate);
+        }
+        return rows;
+    }
+
+    /**
+     * Selectivity of an equi-join predicate between two columns: each value
+     * of the side with fewer distinct values is assumed to find its matches
+     * among the other side's, so the join keeps 1 / max(distinct values).
+     */
+    double joinSelectivity(Column left, Column right) {
+        return 1.0 / Math.max(1, Math.max(distinctValues(left), distinctValues(right)));
+    }
+
+    // Share of a table's rows that satisfy a predicate over its columns
+    double selectivity(Expression predicate) {
+        if (predicate instanceof Parenthesis parenthesis) {
+            return selectivity(parenthesis.getExpression());
+        }
+        if (predicate instanceof AndExpression and) {
+            return selectivity(and.getLeftExpression()) * selectivity(and.getRightExpression());
+        }
+        if (predicate instanceof OrExpression or) {
+            double left = selectivity(or.getLeftExpression());
+            double right = selectivity(or.getRightExpression());
+            return left + right - left * right;
+        }
+        if (predicate instanceof NotExpression not) {
+            return 1 - selectivity(not.getExpression());
+        }
+        if (predicate instanceof IsNullExpression isNull && isNull.getLeftExpression() instanceof Column column) {
+            ColumnStatistics analyzed = column(column);
+            double nulls = analyzed == null ? ColumnStatistics.DEFAULT_EQUALITY_SELECTIVITY
+                    : analyzed.getNullFraction();
+            return isNull.isNot() ? 1 - nulls : nulls;
+        }
+        if (predicate instanceof Between between && between.getLeftExpression() instanceof Column column) {
+            double selectivity = range(column, number(between.getBetweenExpressionStart()),
+                    number(between.getBetweenExpressionEnd()));
+            return between.isNot() ? 1 - selectivity : selectivity;
+        }
+        if (predicate instanceof InExpression in && in.getLeftExpression() instanceof Column column
+                && in.getRightItemsList() instanceof ExpressionList list) {
+            return Math.min(1, list.getExpressions().size() * equality(column));
+        }
+        if (predicate instanceof ComparisonOperator comparison) {
+            return comparison(comparison);
+        }
+        return ColumnStatistics.DEFAULT_RANGE_SELECTIVITY;
+    }
+
+    private double comparison(ComparisonOperator comparison) {
+        Expression left = comparison.getLeftExpression();
+        Expression right = comparison.getRightExpression();
+        boolean flipped = !(left instanceof Column) && right instanceof Column; // 5 < x reads as x > 5
+        Column column = (Column) (flipped ? right : left instanceof Column ? left : null);
+        if (column == null) {
+            return ColumnStatistics.DEFAULT_RANGE_SELECTIVITY;
+        }
+        Double value = number(flipped ? left : right);
+        if (comparison instanceof EqualsTo) {
+            return equality(column);
+        }
+        if (comparison instanceof NotEqualsTo) {
+            return 1 - equality(column);
+        }
+        boolean lower = comparison instanceof GreaterThan || comparison instanceof GreaterThanEquals;
+        boolean upper = comparison instanceof MinorThan || comparison instanceof MinorThanEquals;
+        if (!lower && !upper) {
+            return ColumnStatistics.DEFAULT_RANGE_SELECTIVITY;
+        }
+        if (lower != flipped) {
+            return range(column, value, Double.POSITIVE_INFINITY);
+        }
+        return range(column, Double.NEGATIVE_INFINITY, value);
+    }
+
+    private double equality(Column column) {
+        ColumnStatistics analyzed = column(column);
+        return analyzed == null ? ColumnStatistics.DEFAULT_EQUALITY_SELECTIVITY : analyzed.equalitySelectivity();
+    }
+
+    // Null bounds are not numeric constants
+    private double range(Column column, Double low, Double high) {
+        ColumnStatistics analyzed = column(column);
+        if (analyzed == null || low == null || high == null) {
+            return ColumnStatistics.DEFAULT_RANGE_SELECTIVITY;
+        }
+        return analyzed.rangeSelectivity(low, high);
+    }
+
+    private long distinctValues(Column column) {
+        ColumnStatistics analyzed = column(column);
+        return analyzed == null ? DEFAULT_DISTINCT : analyzed.getDistinctCount();
+    }
+
+    // Statistics of a qualified column, or of the only analyzed table in the query with that column
+    private ColumnStatistics column(Column column) {
+        if (statistics == null) {
+            return null;
+        }
+        if (column.getTable() != null && column.getTable().getName() != null) {
+            TableStatistics analyzed = statistics.get(resolve(column.getTable().getName()));
+            return analyzed == null ? null : analyzed.getColumn(column.getColumnName());
+        }
+        ColumnStatistics found = null;
+        for (String table : new HashSet<>(tables.values())) {
+            TableStatistics analyzed = statistics.get(table);
+            ColumnStatistics candidate = analyzed == null ? null : analyzed.getColumn(column.getColumnName());
+            if (candidate != null) {
+                if (found != null) {
+                    return null; // ambiguous
+                }
+                found = candidate;
+            }
+        }
+        return found;
+    }
+
+    private static Double number(Expression expression) {
+        if (expression instanceof LongValue value) {
+            return (double) value.getValue();
+        }
+        if (expression instanceof DoubleValue value) {
+            return value.getValue();
+        }
+        if (expression instanceof SignedExpression signed && signed.getSign() == '-') {
+            Double value = number(signed.getExpression());
+            return value == null ? null : -value;
+        }
+        return null;
+    }
+}
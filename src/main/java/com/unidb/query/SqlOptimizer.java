@@ -2,7 +2,6 @@ package com.unidb.query;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -12,22 +11,27 @@ import java.util.Set;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
 import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.FromItem;
 import net.sf.jsqlparser.statement.select.Join;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.Select;
 import net.sf.jsqlparser.statement.select.SelectBody;
 import net.sf.jsqlparser.statement.select.SelectExpressionItem;
 import net.sf.jsqlparser.statement.select.SelectItem;
+import net.sf.jsqlparser.statement.select.SubJoin;
 
 public class SqlOptimizer {
 
     /**
      * Rewrites the given SQL query to apply advanced optimizations:
-     * 1. Join Reordering – smaller tables first in JOIN order.
+     * 1. Join Reordering – cheapest join tree by estimated cardinalities.
      * 2. Predicate Pushdown – move WHERE filters into subqueries or joins.
      * 3. Index Utilization – rewrite conditions to use indexes (avoid functions on
      * indexed columns).
@@ -38,6 +42,20 @@ public class SqlOptimizer {
      * @throws Exception if the SQL cannot be parsed or rewritten
      */
     public static String generateOptimizedQuery(String originalQuery) throws Exception {
+        return generateOptimizedQuery(originalQuery, null);
+    }
+
+    /**
+     * Same rewrites, with join order estimated from the tables' ANALYZE
+     * statistics; tables without statistics get default estimates.
+     *
+     * @param originalQuery the original SQL query string
+     * @param statistics    table statistics, or null for defaults only
+     * @return an optimized SQL query string
+     * @throws Exception if the SQL cannot be parsed or rewritten
+     */
+    public static String generateOptimizedQuery(String originalQuery, StatisticsCatalog statistics)
+            throws Exception {
         // Parse the SQL query into an AST (using JSQLParser)
         Statement statement = CCJSqlParserUtil.parse(originalQuery);
 
@@ -54,9 +72,9 @@ public class SqlOptimizer {
 
         PlainSelect query = (PlainSelect) selectBody;
 
-        // 1. **Join Reordering**: reorder JOINs so that the smallest/restricted tables
-        // are joined first.
-        optimizeJoinOrder(query);
+        // 1. **Join Reordering**: choose the cheapest join tree by estimated
+        // intermediate result sizes.
+        optimizeJoinOrder(query, statistics);
 
         // 2. **Predicate Pushdown**: move WHERE filters into subqueries or join
         // conditions when possible.
@@ -73,62 +91,254 @@ public class SqlOptimizer {
     }
 
     // ---------------- JOIN REORDERING ----------------
-    private static void optimizeJoinOrder(PlainSelect query) {
-        if (query.getJoins() == null)
+    /**
+     * Cost-based join ordering: the FROM table and the joined tables are the
+     * relations of a query graph, sized by their row counts after their own
+     * filters, and every conjunct over two or more of them, from WHERE or any
+     * ON clause, is an edge weighted by its estimated selectivity. The
+     * cheapest tree found by {@link JoinEnumerator} is written back with each
+     * join predicate in the ON clause of the join that first brings its
+     * tables together; a bushy tree becomes parenthesized joins. Outer,
+     * natural and USING joins do not commute freely, so queries with them
+     * keep their order.
+     */
+    private static void optimizeJoinOrder(PlainSelect query, StatisticsCatalog statistics) throws Exception {
+        JoinGraph graph = joinGraph(query, statistics);
+        if (graph == null)
             return; // No joins to reorder
 
-        List<Join> joins = query.getJoins();
-        Map<String, Integer> tableSize = getTableSizeEstimates(); // Assume some size estimates
+        List<Join> joins = new ArrayList<>();
+        query.setFromItem(render(graph, graph.tree, joins));
+        query.setJoins(joins);
+        query.setWhere(graph.filters.isEmpty() ? null : conjunction(graph.filters));
+    }
+
+    /**
+     * The join tree chosen for a SQL query, one line per join or table with
+     * its physical join method, estimated rows and cost.
+     *
+     * @param sqlQuery   the SQL query string
+     * @param statistics table statistics, or null for defaults only
+     * @return the indented plan, or a note when the joins cannot be reordered
+     * @throws Exception if the SQL cannot be parsed
+     */
+    public static String explainJoinOrder(String sqlQuery, StatisticsCatalog statistics) throws Exception {
+        Statement statement = CCJSqlParserUtil.parse(sqlQuery);
+        JoinGraph graph = statement instanceof Select select && select.getSelectBody() instanceof PlainSelect query
+                ? joinGraph(query, statistics) : null;
+        if (graph == null) {
+            return "Joins kept in query order";
+        }
+        StringBuilder explained = new StringBuilder();
+        explain(graph, graph.tree, 0, explained);
+        return explained.toString();
+    }
+
+    // The query graph and its cheapest tree, or null when the query has no joins that may be reordered
+    private static JoinGraph joinGraph(PlainSelect query, StatisticsCatalog statistics) throws Exception {
+        if (query.getJoins() == null || query.getJoins().isEmpty() || !(query.getFromItem() instanceof Table))
+            return null;
+        List<Table> tables = new ArrayList<>();
+        tables.add((Table) query.getFromItem());
+        List<Expression> conjuncts = new ArrayList<>(splitConjunctiveConditions(query.getWhere()));
+        for (Join join : query.getJoins()) {
+            if (!isInnerJoinOfTable(join) || join.getUsingColumns() != null && !join.getUsingColumns().isEmpty())
+                return null;
+            tables.add((Table) join.getRightItem());
+            if (join.getOnExpressions() != null) {
+                for (Expression on : join.getOnExpressions()) {
+                    conjuncts.addAll(splitConjunctiveConditions(on));
+                }
+            }
+        }
+        if (tables.size() > JoinEnumerator.MAX_RELATIONS)
+            return null;
 
-        // Sort joins based on estimated table size (smallest first)
-        joins.sort(Comparator.comparingInt(j -> {
-            if (j.getRightItem() instanceof Table) {
-                String tableName = ((Table) j.getRightItem()).getName();
-                return tableSize.getOrDefault(tableName, Integer.MAX_VALUE);
+        SelectivityEstimator estimator = new SelectivityEstimator(statistics);
+        Map<String, Integer> relations = new HashMap<>();
+        for (int i = 0; i < tables.size(); i++) {
+            estimator.addTable(tables.get(i));
+            if (relations.put(nameInQuery(tables.get(i)), i) != null)
+                return null; // the same name twice: columns cannot tell the tables apart
+        }
+        JoinGraph graph = new JoinGraph(tables);
+        for (Expression conjunct : conjuncts) {
+            long referenced = 0;
+            for (String table : extractTablesFromExpression(conjunct)) {
+                Integer relation = relations.get(table);
+                if (relation == null)
+                    return null; // refers to a table outside this FROM clause
+                referenced |= 1L << relation;
             }
-            return Integer.MAX_VALUE;
-        }));
+            if (Long.bitCount(referenced) < 2) {
+                graph.filters.add(conjunct);
+            } else {
+                graph.joinPredicates.add(conjunct);
+                graph.joinRelations.add(referenced);
+            }
+        }
 
-        query.setJoins(joins);
+        double[] rows = new double[tables.size()];
+        for (int i = 0; i < tables.size(); i++) {
+            String table = nameInQuery(tables.get(i));
+            rows[i] = estimator.filteredRows(table, localPredicates(table, graph.filters));
+        }
+        JoinEnumerator enumerator = new JoinEnumerator(rows);
+        for (int i = 0; i < graph.joinPredicates.size(); i++) {
+            Expression predicate = graph.joinPredicates.get(i);
+            boolean equiJoin = predicate instanceof EqualsTo equals && equals.getLeftExpression() instanceof Column
+                    && equals.getRightExpression() instanceof Column;
+            double selectivity = equiJoin ? estimator.joinSelectivity(
+                    (Column) ((EqualsTo) predicate).getLeftExpression(),
+                    (Column) ((EqualsTo) predicate).getRightExpression()) : estimator.selectivity(predicate);
+            enumerator.addPredicate(graph.joinRelations.get(i), selectivity, equiJoin);
+        }
+        graph.tree = enumerator.optimize();
+        return graph;
+    }
+
+    // Flattens the left spine of the tree into the FROM item and a join list; right sub-trees that join several
+    // tables become parenthesized joins
+    private static FromItem render(JoinGraph graph, JoinEnumerator.Tree tree, List<Join> joins) {
+        if (tree.isLeaf()) {
+            return graph.tables.get(tree.getRelation());
+        }
+        // Inner joins commute: keep the longer chain on the left so left-deep trees read as a plain join list
+        boolean swap = tree.getLeft().isLeaf() && !tree.getRight().isLeaf();
+        JoinEnumerator.Tree left = swap ? tree.getRight() : tree.getLeft();
+        JoinEnumerator.Tree right = swap ? tree.getLeft() : tree.getRight();
+        FromItem from = render(graph, left, joins);
+        Join join = new Join();
+        if (right.isLeaf()) {
+            join.setRightItem(graph.tables.get(right.getRelation()));
+        } else {
+            List<Join> nested = new ArrayList<>();
+            SubJoin subJoin = new SubJoin();
+            subJoin.setLeft(render(graph, right, nested));
+            subJoin.setJoinList(nested);
+            join.setRightItem(subJoin);
+        }
+        List<Expression> on = graph.predicatesJoinedAt(tree);
+        if (on.isEmpty()) {
+            join.setCross(true);
+        } else {
+            join.setOnExpressions(List.of(conjunction(on)));
+        }
+        joins.add(join);
+        return from;
+    }
+
+    private static void explain(JoinGraph graph, JoinEnumerator.Tree tree, int depth, StringBuilder out) {
+        out.append("  ".repeat(depth));
+        if (tree.isLeaf()) {
+            out.append("Scan ").append(graph.tables.get(tree.getRelation()));
+        } else {
+            out.append(switch (tree.getMethod()) {
+                case HASH -> "Hash join";
+                case MERGE -> "Merge join";
+                case NESTED_LOOP -> "Nested loop join";
+            });
+            List<Expression> on = graph.predicatesJoinedAt(tree);
+            out.append(on.isEmpty() ? " (cross product)" : " on " + conjunction(on));
+        }
+        out.append(String.format(" (rows=%.0f cost=%.0f)%n", tree.getRows(), tree.getCost()));
+        if (!tree.isLeaf()) {
+            explain(graph, tree.getLeft(), depth + 1, out);
+            explain(graph, tree.getRight(), depth + 1, out);
+        }
+    }
+
+    private static final class JoinGraph {
+        private final List<Table> tables;
+        private final List<Expression> filters = new ArrayList<>(); // over at most one table
+        private final List<Expression> joinPredicates = new ArrayList<>();
+        private final List<Long> joinRelations = new ArrayList<>(); // bit mask of the tables of each join predicate
+        private JoinEnumerator.Tree tree;
+
+        private JoinGraph(List<Table> tables) {
+            this.tables = tables;
+        }
+
+        // Join predicates over both sides of the join and nothing outside it
+        private List<Expression> predicatesJoinedAt(JoinEnumerator.Tree join) {
+            List<Expression> predicates = new ArrayList<>();
+            for (int i = 0; i < joinPredicates.size(); i++) {
+                long relations = joinRelations.get(i);
+                if ((relations & ~join.getRelations()) == 0 && (relations & ~join.getLeft().getRelations()) != 0
+                        && (relations & ~join.getRight().getRelations()) != 0) {
+                    predicates.add(joinPredicates.get(i));
+                }
+            }
+            return predicates;
+        }
+    }
+
+    // Conjuncts that reference this table and no other
+    private static List<Expression> localPredicates(String table, List<Expression> predicates) {
+        List<Expression> local = new ArrayList<>();
+        for (Expression predicate : predicates) {
+            if (extractTablesFromExpression(predicate).equals(Set.of(table))) {
+                local.add(predicate);
+            }
+        }
+        return local;
+    }
+
+    // Columns qualify a table by its alias when it has one
+    private static String nameInQuery(Table table) {
+        return table.getAlias() != null ? table.getAlias().getName() : table.getName();
     }
 
     // ---------------- PREDICATE PUSHDOWN ----------------
+    // Moves single-table filters into the ON clause of the inner join that brings in their table; the rest,
+    // including filters on the FROM table, stay in WHERE
     private static void optimizePredicatePushdown(PlainSelect query) throws Exception {
         if (query.getWhere() == null)
             return; // No filters to push down
 
-        List<Expression> predicates = splitConjunctiveConditions(query.getWhere());
-        List<Expression> remainingPredicates = new ArrayList<>();
-        Map<String, Expression> pushdownMap = new HashMap<>();
+        Map<String, Join> pushdownTargets = new HashMap<>();
+        if (query.getJoins() != null) {
+            for (Join join : query.getJoins()) {
+                if (isInnerJoinOfTable(join) && !join.isSimple() && !join.isCross()) {
+                    pushdownTargets.put(nameInQuery((Table) join.getRightItem()), join);
+                }
+            }
+        }
 
-        for (Expression pred : predicates) {
+        List<Expression> remainingPredicates = new ArrayList<>();
+        for (Expression pred : splitConjunctiveConditions(query.getWhere())) {
             Set<String> tables = extractTablesFromExpression(pred);
-            if (tables.size() == 1) {
-                String tableName = tables.iterator().next();
-                pushdownMap.merge(tableName, pred, (oldExpr, newExpr) -> {
-                    try {
-                        return CCJSqlParserUtil.parseCondExpression(oldExpr + " AND " + newExpr);
-                    } catch (Exception e) {
-                        throw new RuntimeException("Error parsing condition expression", e);
-                    }
-                });
+            Join target = tables.size() == 1 ? pushdownTargets.get(tables.iterator().next()) : null;
+            if (target != null) {
+                target.setOnExpressions(List.of(conjunction(joinConditions(target, pred))));
             } else {
                 remainingPredicates.add(pred);
             }
         }
+        query.setWhere(remainingPredicates.isEmpty() ? null : conjunction(remainingPredicates));
+    }
 
-        if (query.getFromItem() instanceof Table) {
-            Table baseTable = (Table) query.getFromItem();
-            if (pushdownMap.containsKey(baseTable.getName())) {
-                query.setWhere(pushdownMap.get(baseTable.getName()));
-            }
+    // Inner joins, with ON, comma or CROSS, commute; outer and natural joins do not
+    private static boolean isInnerJoinOfTable(Join join) {
+        return join.getRightItem() instanceof Table && !join.isOuter() && !join.isLeft() && !join.isRight()
+                && !join.isFull() && !join.isNatural();
+    }
+
+    private static List<Expression> joinConditions(Join join, Expression extra) {
+        List<Expression> conditions = new ArrayList<>();
+        if (join.getOnExpressions() != null) {
+            conditions.addAll(join.getOnExpressions());
         }
+        conditions.add(extra);
+        return conditions;
+    }
 
-        if (remainingPredicates.isEmpty()) {
-            query.setWhere(null);
-        } else {
-            query.setWhere(CCJSqlParserUtil.parseCondExpression(String.join(" AND ", remainingPredicates.toString())));
+    private static Expression conjunction(List<Expression> predicates) {
+        Expression combined = predicates.get(0);
+        for (int i = 1; i < predicates.size(); i++) {
+            combined = new AndExpression(combined, predicates.get(i));
         }
+        return combined;
     }
 
     // ---------------- INDEX UTILIZATION ----------------
@@ -162,15 +372,14 @@ public class SqlOptimizer {
     }
 
     // ---------------- HELPERS ----------------
+    // Walks the AND tree rather than splitting the text, which would also split BETWEEN x AND y
     private static List<Expression> splitConjunctiveConditions(Expression where) throws Exception {
         List<Expression> list = new ArrayList<>();
         if (where == null)
             return list;
-        String whereStr = where.toString();
-        if (whereStr.contains(" AND ")) {
-            for (String part : whereStr.split(" AND ")) {
-                list.add(CCJSqlParserUtil.parseCondExpression(part));
-            }
+        if (where instanceof AndExpression) {
+            list.addAll(splitConjunctiveConditions(((AndExpression) where).getLeftExpression()));
+            list.addAll(splitConjunctiveConditions(((AndExpression) where).getRightExpression()));
         } else {
             list.add(where);
         }
@@ -190,14 +399,6 @@ public class SqlOptimizer {
         return tables;
     }
 
-    private static Map<String, Integer> getTableSizeEstimates() {
-        Map<String, Integer> sizes = new HashMap<>();
-        sizes.put("Customers", 1000);
-        sizes.put("Orders", 50000);
-        sizes.put("Employees", 100);
-        return sizes;
-    }
-
     private static List<String> getAllColumnsForQuery(PlainSelect query) {
         return Arrays.asList("id", "name", "email", "created_at"); // Placeholder, replace with metadata retrieval
     }
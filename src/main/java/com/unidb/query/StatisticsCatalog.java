@@ -0,0 +1,195 @@
+package com.unidb.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The planner's table statistics, gathered by ANALYZE. Every table the
+ * engine stores registers a {@link TableSampler}; analyzing a table draws a
+ * uniform sample of up to {@link #SAMPLE_ROWS} rows, builds per-column
+ * statistics from it and writes the catalog to disk, so statistics survive
+ * a restart.
+ *
+ * <p>Writes are counted per table. Once a table has seen more than 50 plus
+ * 10% of its rows in modifications since its last ANALYZE, it is analyzed
+ * again on a background thread. Only tables that changed enough are
+ * refreshed, and queries keep the previous statistics until the new ones
+ * are swapped in.
+ */
+@Slf4j
+public class StatisticsCatalog implements AutoCloseable {
+    static final int SAMPLE_ROWS = 30_000; // 300 rows per bucket of a 100-bucket histogram, as PostgreSQL samples
+    private static final long MIN_MODIFICATIONS = 50;
+    private static final double MODIFIED_FRACTION = 0.1;
+    private static final int MAGIC = 0x53544154; // "STAT"
+
+    private final Path path; // null: kept in memory only
+    private final Map<String, TableStatistics> tables;
+    private final Map<String, TableSampler> samplers;
+    private final Map<String, AtomicLong> modifications; // since the table's last ANALYZE
+    private final Set<String> refreshing;
+    private final ExecutorService analyzer;
+
+    public StatisticsCatalog() {
+        this(null);
+    }
+
+    public StatisticsCatalog(String filePath) {
+        this.path = filePath == null ? null : Paths.get(filePath);
+        this.tables = new ConcurrentHashMap<>();
+        this.samplers = new ConcurrentHashMap<>();
+        this.modifications = new ConcurrentHashMap<>();
+        this.refreshing = ConcurrentHashMap.newKeySet();
+        this.analyzer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "statistics-analyzer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (path != null && Files.exists(path)) {
+            load();
+        }
+    }
+
+    public void register(String table, TableSampler sampler) {
+        samplers.put(table, sampler);
+        modifications.putIfAbsent(table, new AtomicLong());
+    }
+
+    // Null until the table is analyzed
+    public TableStatistics get(String table) {
+        return tables.get(table);
+    }
+
+    // Samples the table now and replaces its statistics
+    public TableStatistics analyze(String table) {
+        TableSampler sampler = samplers.get(table);
+        if (sampler == null) {
+            throw new IllegalArgumentException("Unknown table: " + table);
+        }
+        long start = System.nanoTime();
+        AtomicLong modified = modifications.get(table);
+        long counted = modified.get();
+        TableSampler.Sample sample = sampler.sample(SAMPLE_ROWS);
+
+        // Transpose the rows into one value list per column, with NULL where a row lacks the column
+        List<Map<String, Object>> rows = sample.getRows();
+        Map<String, List<Object>> values = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            for (Map.Entry<String, Object> entry : rows.get(i).entrySet()) {
+                List<Object> column = values.computeIfAbsent(entry.getKey(), name -> new ArrayList<>(rows.size()));
+                while (column.size() < i) {
+                    column.add(null);
+                }
+                column.add(entry.getValue());
+            }
+        }
+        Map<String, ColumnStatistics> columns = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Object>> entry : values.entrySet()) {
+            List<Object> column = entry.getValue();
+            while (column.size() < rows.size()) {
+                column.add(null);
+            }
+            columns.put(entry.getKey(), ColumnStatistics.fromSample(entry.getKey(), column, sample.getRowCount()));
+        }
+        TableStatistics statistics = new TableStatistics(table, sample.getRowCount(), System.currentTimeMillis(),
+                columns);
+        tables.put(table, statistics);
+        modified.addAndGet(-counted); // writes that raced the sample count toward the next refresh
+        log.info("Analyzed {} from {} sampled rows in {} ms: {}", table, rows.size(),
+                (System.nanoTime() - start) / 1_000_000, statistics);
+        try {
+            save();
+        } catch (IOException e) {
+            log.warn("Failed to save table statistics to {}: {}", path, e.getMessage());
+        }
+        return statistics;
+    }
+
+    // Called on every write; schedules a background ANALYZE once enough of the table changed
+    public void recordModifications(String table, long count) {
+        AtomicLong modified = modifications.get(table);
+        if (modified == null) {
+            return; // no sampler, nothing to refresh
+        }
+        long total = modified.addAndGet(count);
+        TableStatistics current = tables.get(table);
+        long threshold = MIN_MODIFICATIONS + (long) (MODIFIED_FRACTION * (current == null ? 0 : current.getRowCount()));
+        if (total > threshold && refreshing.add(table)) {
+            analyzer.execute(() -> {
+                try {
+                    analyze(table);
+                } catch (RuntimeException e) {
+                    log.error("Background ANALYZE of {} failed; keeping its previous statistics", table, e);
+                } finally {
+                    refreshing.remove(table);
+                }
+            });
+        }
+    }
+
+    public long getModificationsSinceAnalyze(String table) {
+        AtomicLong modified = modifications.get(table);
+        return modified == null ? 0 : modified.get();
+    }
+
+    // Stops background refreshes; the statistics already gathered stay readable
+    @Override
+    public void close() {
+        analyzer.shutdownNow();
+    }
+
+    // ---------------- PERSISTENCE ----------------
+    // Writes a temporary file and moves it into place, so a crash leaves the previous catalog intact
+    public synchronized void save() throws IOException {
+        if (path == null) {
+            return;
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        List<TableStatistics> snapshot = new ArrayList<>(tables.values());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(snapshot.size());
+            for (TableStatistics statistics : snapshot) {
+                statistics.writeTo(out);
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Unreadable statistics are only a planning aid: start without them rather than fail
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a statistics file");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                TableStatistics statistics = TableStatistics.readFrom(in);
+                tables.put(statistics.getTable(), statistics);
+            }
+            log.info("Loaded statistics of {} tables from {}.", count, path);
+        } catch (IOException e) {
+            tables.clear();
+            log.warn("Ignoring table statistics in {}: {}", path, e.getMessage());
+        }
+    }
+}
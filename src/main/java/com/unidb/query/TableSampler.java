@@ -0,0 +1,36 @@
+package com.unidb.query;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Draws the rows ANALYZE builds a table's statistics from. Implemented by
+ * each kind of table the engine stores.
+ */
+@FunctionalInterface
+public interface TableSampler {
+    /**
+     * Up to {@code maxRows} committed rows chosen uniformly at random, each
+     * as a map from column name to a number, string or boolean, with NULL
+     * columns null or absent, together with the table's row count.
+     */
+    Sample sample(int maxRows);
+
+    final class Sample {
+        private final long rowCount;
+        private final List<Map<String, Object>> rows;
+
+        public Sample(long rowCount, List<Map<String, Object>> rows) {
+            this.rowCount = rowCount;
+            this.rows = rows;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        public List<Map<String, Object>> getRows() {
+            return rows;
+        }
+    }
+}
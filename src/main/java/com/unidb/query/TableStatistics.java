@@ -0,0 +1,76 @@
+package com.unidb.query;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Statistics of one table as of its last ANALYZE: the row count and the
+ * statistics of every column seen in the sample. Immutable; a new ANALYZE
+ * replaces the whole object in the catalog.
+ */
+public final class TableStatistics {
+    private final String table;
+    private final long rowCount;
+    private final long analyzedAtMillis;
+    private final Map<String, ColumnStatistics> columns;
+
+    TableStatistics(String table, long rowCount, long analyzedAtMillis, Map<String, ColumnStatistics> columns) {
+        this.table = table;
+        this.rowCount = rowCount;
+        this.analyzedAtMillis = analyzedAtMillis;
+        this.columns = Collections.unmodifiableMap(new LinkedHashMap<>(columns));
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getAnalyzedAtMillis() {
+        return analyzedAtMillis;
+    }
+
+    // Null when the sample never had the column
+    public ColumnStatistics getColumn(String column) {
+        return columns.get(column);
+    }
+
+    public Map<String, ColumnStatistics> getColumns() {
+        return columns;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(table);
+        out.writeLong(rowCount);
+        out.writeLong(analyzedAtMillis);
+        out.writeInt(columns.size());
+        for (ColumnStatistics column : columns.values()) {
+            column.writeTo(out);
+        }
+    }
+
+    static TableStatistics readFrom(DataInputStream in) throws IOException {
+        String table = in.readUTF();
+        long rowCount = in.readLong();
+        long analyzedAtMillis = in.readLong();
+        int count = in.readInt();
+        Map<String, ColumnStatistics> columns = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            ColumnStatistics column = ColumnStatistics.readFrom(in);
+            columns.put(column.getName(), column);
+        }
+        return new TableStatistics(table, rowCount, analyzedAtMillis, columns);
+    }
+
+    @Override
+    public String toString() {
+        return table + "{rows=" + rowCount + ", columns=" + columns.values() + "}";
+    }
+}
@@ -1,20 +1,210 @@
 package com.unidb.query;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Streaming statistics over executed query shapes in bounded memory.
+ *
+ * <p>A Count-Min sketch estimates the frequency of every shape, a
+ * HyperLogLog counts distinct shapes, and a Space-Saving table tracks the
+ * {@link #TOP_K} heaviest hitters together with their latency histograms.
+ * Recording a query only touches atomic counters. A heavy hitter counts in
+ * its own LongAdder instead of the sketch, so the hottest shapes do not all
+ * hammer the same sketch cells, and its count is folded back into the
+ * sketch when it is evicted. The table's lock is taken only to admit a
+ * shape whose sketch estimate beats the table's smallest count, which for a
+ * skewed workload is rare once the hot shapes are in.
+ */
 @Slf4j
 public class WorkloadAnalyzer {
-    private final Map<String, Integer> queryFrequency;
+    static final int TOP_K = 128;
+    private static final int SKETCH_WIDTH = 8192; // 4 x 8192 longs = 256 KB
+
+    private final CountMinSketch frequencies;
+    private final HyperLogLog distinctShapes;
+    private final LatencyHistogram latencies;
+    private final LongAdder totalQueries;
+    private final Map<String, HeavyHitter> heavyHitters;
+    private volatile long minimumCount; // smallest heavy hitter count when the table is full, else 0
 
     public WorkloadAnalyzer() {
-        this.queryFrequency = new ConcurrentHashMap<>();
+        this.frequencies = new CountMinSketch(SKETCH_WIDTH);
+        this.distinctShapes = new HyperLogLog();
+        this.latencies = new LatencyHistogram();
+        this.totalQueries = new LongAdder();
+        this.heavyHitters = new ConcurrentHashMap<>(TOP_K * 2);
+    }
+
+    public void analyze(String shape, long latencyNanos) {
+        long hash = hash(shape);
+        totalQueries.increment();
+        distinctShapes.add(hash);
+        latencies.record(latencyNanos);
+
+        HeavyHitter hitter = heavyHitters.get(shape);
+        if (hitter != null) {
+            hitter.count.increment();
+        } else {
+            long estimate = frequencies.increment(hash);
+            if (estimate > minimumCount) {
+                hitter = admit(shape, hash, estimate);
+            }
+        }
+        if (hitter != null) {
+            hitter.latencies.record(latencyNanos);
+        }
+    }
+
+    // Frequency estimate for any shape, at least its true count but for increments racing an eviction
+    public long estimate(String shape) {
+        HeavyHitter hitter = heavyHitters.get(shape);
+        return hitter != null ? hitter.count.sum() : frequencies.estimate(hash(shape));
+    }
+
+    public WorkloadSnapshot snapshot() {
+        List<WorkloadSnapshot.HotShape> hot = new ArrayList<>(heavyHitters.size());
+        for (Map.Entry<String, HeavyHitter> entry : heavyHitters.entrySet()) {
+            HeavyHitter hitter = entry.getValue();
+            hot.add(new WorkloadSnapshot.HotShape(entry.getKey(), hitter.count.sum(), hitter.error,
+                    hitter.latencies.percentile(0.5), hitter.latencies.percentile(0.99)));
+        }
+        hot.sort(Comparator.comparingLong(WorkloadSnapshot.HotShape::getCount).reversed());
+        return new WorkloadSnapshot(totalQueries.sum(), distinctShapes.estimate(), latencies.percentile(0.5),
+                latencies.percentile(0.99), hot);
+    }
+
+    public void logSnapshot() {
+        log.info("Query workload: {}", snapshot());
     }
 
-    public void analyze(String query) {
-        queryFrequency.put(query, queryFrequency.getOrDefault(query, 0) + 1);
-        log.info("Analyzed query workload: {} executed {} times", query, queryFrequency.get(query));
+    /**
+     * Space-Saving replacement: the newcomer takes the slot of the smallest
+     * heavy hitter. It starts from its sketch estimate rather than the
+     * evicted count plus one, since the sketch saw every earlier occurrence
+     * the table filtered out; the sketch's overestimate bounds the error.
+     */
+    private synchronized HeavyHitter admit(String shape, long hash, long estimate) {
+        HeavyHitter hitter = heavyHitters.get(shape);
+        if (hitter != null) {
+            hitter.count.increment(); // admitted by a racing thread
+            return hitter;
+        }
+        if (heavyHitters.size() >= TOP_K) {
+            String victim = null;
+            long smallest = Long.MAX_VALUE;
+            for (Map.Entry<String, HeavyHitter> entry : heavyHitters.entrySet()) {
+                long count = entry.getValue().count.sum();
+                if (count < smallest) {
+                    smallest = count;
+                    victim = entry.getKey();
+                }
+            }
+            if (estimate <= smallest) {
+                minimumCount = smallest;
+                return null;
+            }
+            HeavyHitter evicted = heavyHitters.remove(victim);
+            frequencies.add(evicted.hash, evicted.count.sum() - evicted.admittedAt);
+        }
+        hitter = new HeavyHitter(hash, estimate);
+        heavyHitters.put(shape, hitter);
+        if (heavyHitters.size() >= TOP_K) {
+            long smallest = Long.MAX_VALUE;
+            for (HeavyHitter candidate : heavyHitters.values()) {
+                smallest = Math.min(smallest, candidate.count.sum());
+            }
+            minimumCount = smallest;
+        }
+        return hitter;
+    }
+
+    // Spreads the string's cached hash over 64 bits; 32 bits of entropy suffice for millions of shapes
+    private static long hash(String shape) {
+        long h = shape.hashCode() * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static final class HeavyHitter {
+        private final long hash;
+        private final long admittedAt; // sketch estimate on admission, already counted in the sketch
+        private final long error; // the count may exceed the true frequency by this much
+        private final LongAdder count;
+        private final LatencyHistogram latencies;
+
+        private HeavyHitter(long hash, long estimate) {
+            this.hash = hash;
+            this.admittedAt = estimate;
+            this.error = estimate - 1;
+            this.count = new LongAdder();
+            this.count.add(estimate);
+            this.latencies = new LatencyHistogram();
+        }
+    }
+
+    // Throughput and accuracy of analyze under 8 threads on a Zipf-skewed workload of 100k shapes
+    public static void main(String[] args) throws InterruptedException {
+        int shapes = 100_000;
+        int perThread = 2_000_000;
+        int threads = 8;
+        String[] texts = new String[shapes];
+        for (int i = 0; i < shapes; i++) {
+            texts[i] = "SELECT VALUE FROM T" + i + " WHERE ID = ?";
+        }
+        // Zipf(1.0) by inverse CDF over precomputed cumulative weights
+        double[] cumulative = new double[shapes];
+        double total = 0;
+        for (int i = 0; i < shapes; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        long[] exact = new long[shapes];
+        int[][] streams = new int[threads][perThread];
+        for (int[] stream : streams) {
+            for (int i = 0; i < perThread; i++) {
+                int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble() * total);
+                stream[i] = Math.min(index < 0 ? -index - 1 : index, shapes - 1);
+                exact[stream[i]]++;
+            }
+        }
+
+        WorkloadAnalyzer analyzer = new WorkloadAnalyzer();
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int[] stream = streams[t];
+            workers[t] = new Thread(() -> {
+                for (int index : stream) {
+                    analyzer.analyze(texts[index], 1000 + (index & 1023));
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        WorkloadSnapshot snapshot = analyzer.snapshot();
+        int correct = 0;
+        for (WorkloadSnapshot.HotShape hot : snapshot.getHotShapes().subList(0, 20)) {
+            int index = Integer.parseInt(hot.getShape().substring(19, hot.getShape().indexOf(' ', 19)));
+            correct += index < 20 ? 1 : 0;
+        }
+        long distinct = Arrays.stream(exact).filter(count -> count > 0).count();
+        log.info("{} analyses in {} ms ({} ns each across {} threads)", (long) threads * perThread,
+                elapsed / 1_000_000, elapsed / ((long) threads * perThread), threads);
+        log.info("Top 20 correct: {}/20; distinct shapes ~{} (exact {}); top shape {} (exact {})", correct,
+                snapshot.getDistinctShapes(), distinct, snapshot.getHotShapes().get(0).getCount(), exact[0]);
     }
-}
\ No newline at end of file
+}
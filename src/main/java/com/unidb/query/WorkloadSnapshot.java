@@ -0,0 +1,74 @@
+package com.unidb.query;
+
+import java.util.List;
+
+/**
+ * Point-in-time view of the workload statistics. Counts come from
+ * concurrently updated sketches, so they are estimates and may lag queries
+ * still in flight.
+ */
+public final class WorkloadSnapshot {
+    private final long totalQueries;
+    private final long distinctShapes;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final List<HotShape> hotShapes; // most frequent first
+
+    WorkloadSnapshot(long totalQueries, long distinctShapes, long p50Nanos, long p99Nanos, List<HotShape> hotShapes) {
+        this.totalQueries = totalQueries;
+        this.distinctShapes = distinctShapes;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.hotShapes = List.copyOf(hotShapes);
+    }
+
+    public long getTotalQueries() { return totalQueries; }
+    public long getDistinctShapes() { return distinctShapes; }
+    public long getP50Nanos() { return p50Nanos; }
+    public long getP99Nanos() { return p99Nanos; }
+    public List<HotShape> getHotShapes() { return hotShapes; }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(totalQueries).append(" queries, ~").append(distinctShapes).append(" shapes, p50 ")
+                .append(p50Nanos / 1000).append(" us, p99 ").append(p99Nanos / 1000).append(" us");
+        for (HotShape shape : hotShapes) {
+            text.append("\n  ").append(shape);
+        }
+        return text.toString();
+    }
+
+    /**
+     * A heavy hitter: its count may overstate the true frequency by at most
+     * {@code error}, and its latencies cover the executions since it was
+     * last admitted to the top-K table.
+     */
+    public static final class HotShape {
+        private final String shape;
+        private final long count;
+        private final long error;
+        private final long p50Nanos;
+        private final long p99Nanos;
+
+        HotShape(String shape, long count, long error, long p50Nanos, long p99Nanos) {
+            this.shape = shape;
+            this.count = count;
+            this.error = error;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        public String getShape() { return shape; }
+        public long getCount() { return count; }
+        public long getError() { return error; }
+        public long getP50Nanos() { return p50Nanos; }
+        public long getP99Nanos() { return p99Nanos; }
+
+        @Override
+        public String toString() {
+            return count + " (+/-" + error + ") p50 " + p50Nanos / 1000 + " us, p99 " + p99Nanos / 1000 + " us: "
+                    + shape;
+        }
+    }
+}
@@ -8,7 +8,7 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class DiskManager {
-    private static final int PAGE_SIZE = 4096; // 4KB page size
+    public static final int PAGE_SIZE = 4096; // 4KB page size
     private final RandomAccessFile dbFile;
     private final BufferPoolManager bufferPool;
 
@@ -51,6 +51,10 @@ public class DiskManager {
         return newPageId;
     }
 
+    public long pageCount() throws IOException {
+        return dbFile.length() / PAGE_SIZE;
+    }
+
     public void close() throws IOException {
         dbFile.close();
     }
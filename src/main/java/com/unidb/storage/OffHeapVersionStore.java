@@ -0,0 +1,708 @@
+package com.unidb.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Multi-version key/value store that keeps row data outside the Java heap.
+ *
+ * Versions are appended to direct-memory arena segments as
+ * (key, timestamp, previous, length, bytes) entries. Every key maps, through
+ * a primitive open-addressing index, to the head of a chain of its versions
+ * ordered newest first. Removed versions are only unlinked; their space is
+ * reclaimed by {@link #compact()}. Old versions can be moved to pages of a
+ * {@link DiskManager} with {@link #spillColdVersions(long)}, after which the
+ * chain continues on disk.
+ *
+ * <p>The index is split into stripes by key hash, each with its own table
+ * and read/write lock, so operations on keys of different stripes run in
+ * parallel. Appends only serialize on reserving arena space; compaction and
+ * spilling lock every stripe.
+ */
+@Slf4j
+public class OffHeapVersionStore {
+    public static final long NO_VERSION = -1;
+
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int STRIPE_BITS = 6;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+
+    // Entry layout
+    private static final int KEY_OFFSET = 0;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int PREV_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+    private static final int HEADER_SIZE = 28;
+    private static final int NULL_LENGTH = -1;
+
+    // Address encoding: 0 is the end of a chain, bit 62 marks an entry spilled to a disk page
+    private static final long NO_ENTRY = 0;
+    private static final long SPILLED_FLAG = 1L << 62;
+    private static final int SEGMENT_START = 8;
+
+    private final int segmentSize;
+    private final List<ByteBuffer> segments; // read without the arena lock
+    private final ReentrantLock arenaLock;
+    private int segmentOffset;
+
+    private final Stripe[] stripes;
+
+    private final DiskManager spillManager;
+    private final ReentrantLock spillLock; // not a monitor, so a virtual thread waiting on page I/O unmounts
+    private long spillPageId = -1;
+    private byte[] spillPage;
+    private int spillOffset;
+    private boolean spilling; // the open spill page is only written out when a spill pass ends
+
+    private final LongAdder liveBytes;
+    private final LongAdder deadBytes;
+    private final LongAdder spilledBytes;
+
+    public OffHeapVersionStore() {
+        this(DEFAULT_SEGMENT_SIZE, null);
+    }
+
+    public OffHeapVersionStore(int segmentSize, DiskManager spillManager) {
+        this.segmentSize = segmentSize;
+        this.spillManager = spillManager;
+        this.spillLock = new ReentrantLock();
+        this.segments = new CopyOnWriteArrayList<>();
+        this.arenaLock = new ReentrantLock();
+        this.stripes = new Stripe[1 << STRIPE_BITS];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.liveBytes = new LongAdder();
+        this.deadBytes = new LongAdder();
+        this.spilledBytes = new LongAdder();
+        addSegment();
+    }
+
+    // Stores a version of the key; a version with the same timestamp is replaced
+    public void put(long key, long timestamp, byte[] value) {
+        int entrySize = entrySize(value == null ? 0 : value.length);
+        if (entrySize > segmentSize - SEGMENT_START) {
+            throw new IllegalArgumentException("Version entry of " + entrySize + " bytes exceeds segment size");
+        }
+        Stripe stripe = stripeOf(key);
+        stripe.lock.writeLock().lock();
+        try {
+            int slot = stripe.findSlot(key);
+            long head = slot >= 0 ? stripe.heads[slot] : NO_ENTRY;
+
+            // Walk to the insertion point that keeps the chain ordered by descending timestamp
+            long previous = NO_ENTRY;
+            long current = head;
+            while (current != NO_ENTRY && timestampAt(current) > timestamp) {
+                previous = current;
+                current = prevAt(current);
+            }
+            if (current != NO_ENTRY && timestampAt(current) == timestamp) {
+                markDead(current);
+                current = prevAt(current);
+            }
+
+            long address = append(key, timestamp, current, value);
+            if (previous == NO_ENTRY) {
+                if (slot >= 0) {
+                    stripe.heads[slot] = address;
+                } else {
+                    stripe.insert(key, address);
+                }
+            } else {
+                setPrev(previous, address);
+            }
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    // Newest version timestamp <= maxTimestamp accepted by the predicate, or NO_VERSION
+    public long findVisible(long key, long maxTimestamp, LongPredicate visible) {
+        Stripe stripe = stripeOf(key);
+        stripe.lock.readLock().lock();
+        try {
+            int slot = stripe.findSlot(key);
+            if (slot < 0) {
+                return NO_VERSION;
+            }
+            for (long address = stripe.heads[slot]; address != NO_ENTRY; address = prevAt(address)) {
+                long timestamp = timestampAt(address);
+                if (timestamp <= maxTimestamp && visible.test(timestamp)) {
+                    return timestamp;
+                }
+            }
+            return NO_VERSION;
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    // Value bytes of an exact version, or null if the version is absent or holds null
+    public byte[] read(long key, long timestamp) {
+        Stripe stripe = stripeOf(key);
+        stripe.lock.readLock().lock();
+        try {
+            long address = locate(stripe, key, timestamp);
+            return address == NO_ENTRY ? null : valueAt(address);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(long key, long timestamp) {
+        Stripe stripe = stripeOf(key);
+        stripe.lock.readLock().lock();
+        try {
+            return locate(stripe, key, timestamp) != NO_ENTRY;
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    // Removes one version (rollback of its writer)
+    public boolean remove(long key, long timestamp) {
+        Stripe stripe = stripeOf(key);
+        stripe.lock.writeLock().lock();
+        try {
+            int slot = stripe.findSlot(key);
+            if (slot < 0) {
+                return false;
+            }
+            long previous = NO_ENTRY;
+            for (long address = stripe.heads[slot]; address != NO_ENTRY; address = prevAt(address)) {
+                long current = timestampAt(address);
+                if (current < timestamp) {
+                    return false;
+                }
+                if (current == timestamp) {
+                    long next = prevAt(address);
+                    markDead(address);
+                    if (previous != NO_ENTRY) {
+                        setPrev(previous, next);
+                    } else if (next != NO_ENTRY) {
+                        stripe.heads[slot] = next;
+                    } else {
+                        stripe.delete(slot);
+                    }
+                    return true;
+                }
+                previous = address;
+            }
+            return false;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    // Drops every version of the key older than the given timestamp; returns how many were dropped
+    public int removeOlderThan(long key, long timestamp) {
+        Stripe stripe = stripeOf(key);
+        stripe.lock.writeLock().lock();
+        try {
+            int slot = stripe.findSlot(key);
+            if (slot < 0) {
+                return 0;
+            }
+            long address = stripe.heads[slot];
+            long keep = NO_ENTRY;
+            while (address != NO_ENTRY && timestampAt(address) >= timestamp) {
+                keep = address;
+                address = prevAt(address);
+            }
+            int removed = 0;
+            for (long dropped = address; dropped != NO_ENTRY; dropped = prevAt(dropped)) {
+                markDead(dropped);
+                removed++;
+            }
+            if (removed > 0) {
+                if (keep == NO_ENTRY) {
+                    stripe.delete(slot);
+                } else {
+                    setPrev(keep, NO_ENTRY);
+                }
+            }
+            return removed;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    // Visits the keys one stripe at a time; keys added or removed meanwhile in other stripes may be missed
+    public void forEachKey(LongConsumer consumer) {
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                for (int slot = 0; slot < stripe.keys.length; slot++) {
+                    if (stripe.heads[slot] != NO_ENTRY) {
+                        consumer.accept(stripe.keys[slot]);
+                    }
+                }
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    public int keyCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                count += stripe.size;
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return count;
+    }
+
+    public long getLiveBytes() {
+        return liveBytes.sum();
+    }
+
+    public long getDeadBytes() {
+        return deadBytes.sum();
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes.sum();
+    }
+
+    // Compaction pays off once the unlinked entries would fill a segment and outweigh the live ones
+    public boolean needsCompaction() {
+        long dead = deadBytes.sum();
+        return dead >= segmentSize && dead > liveBytes.sum();
+    }
+
+    public long getAllocatedBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    /**
+     * Moves every non-head version older than the given timestamp to disk
+     * pages. The newest version of a key always stays in memory.
+     */
+    public int spillColdVersions(long olderThan) {
+        if (spillManager == null) {
+            throw new IllegalStateException("No DiskManager configured for spilling");
+        }
+        lockAllStripes();
+        spilling = true;
+        try {
+            int spilled = 0;
+            for (Stripe stripe : stripes) {
+                for (int slot = 0; slot < stripe.keys.length; slot++) {
+                    long previous = stripe.heads[slot];
+                    if (previous == NO_ENTRY) {
+                        continue;
+                    }
+                    long address = prevAt(previous);
+                    while (address != NO_ENTRY && !isSpilled(address)) {
+                        long next = prevAt(address);
+                        if (timestampAt(address) >= olderThan) {
+                            previous = address;
+                            address = next;
+                            continue;
+                        }
+                        if (HEADER_SIZE + Math.max(0, lengthOf(address)) > DiskManager.PAGE_SIZE) {
+                            break; // larger than a page: this and everything older stays in memory
+                        }
+                        long spilledAddress = spill(address);
+                        setPrev(previous, spilledAddress);
+                        markDead(address);
+                        spilled++;
+                        previous = spilledAddress;
+                        address = next;
+                    }
+                }
+            }
+            flushSpillPage();
+            log.info("Spilled {} cold versions to disk ({} bytes on disk).", spilled, spilledBytes.sum());
+            return spilled;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill versions to disk", e);
+        } finally {
+            spilling = false;
+            unlockAllStripes();
+        }
+    }
+
+    // Copies the in-memory part of every chain into fresh segments, reclaiming unlinked entries
+    public void compact() {
+        lockAllStripes();
+        try {
+            List<ByteBuffer> oldSegments = new ArrayList<>(segments);
+            long reclaimed = deadBytes.sum();
+            segments.clear();
+            addSegment();
+            liveBytes.reset();
+            deadBytes.reset();
+            for (Stripe stripe : stripes) {
+                for (int slot = 0; slot < stripe.keys.length; slot++) {
+                    long address = stripe.heads[slot];
+                    if (address == NO_ENTRY) {
+                        continue;
+                    }
+                    long newPrevious = NO_ENTRY;
+                    while (address != NO_ENTRY) {
+                        long next;
+                        long relocated;
+                        if (isSpilled(address)) {
+                            next = prevAt(address);
+                            relocated = address;
+                        } else {
+                            ByteBuffer segment = oldSegments.get(segmentOf(address));
+                            int offset = offsetOf(address);
+                            next = segment.getLong(offset + PREV_OFFSET);
+                            relocated = append(segment.getLong(offset + KEY_OFFSET),
+                                    segment.getLong(offset + TIMESTAMP_OFFSET), NO_ENTRY, readValue(segment, offset));
+                        }
+                        if (newPrevious == NO_ENTRY) {
+                            stripe.heads[slot] = relocated;
+                        } else {
+                            setPrev(newPrevious, relocated);
+                        }
+                        newPrevious = relocated;
+                        address = next;
+                    }
+                }
+            }
+            log.info("Compacted version store: reclaimed {} bytes, {} live bytes remain.", reclaimed, liveBytes.sum());
+        } finally {
+            unlockAllStripes();
+        }
+    }
+
+    // ---------------- STRIPES ----------------
+    // The top hash bits pick the stripe, the low ones the slot within it
+    private Stripe stripeOf(long key) {
+        return stripes[hash(key) >>> (Integer.SIZE - STRIPE_BITS)];
+    }
+
+    // Always in stripe order, so two threads locking everything cannot deadlock
+    private void lockAllStripes() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.writeLock().lock();
+        }
+    }
+
+    private void unlockAllStripes() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------- ARENA ----------------
+    private void addSegment() {
+        segments.add(ByteBuffer.allocateDirect(segmentSize));
+        segmentOffset = SEGMENT_START;
+    }
+
+    // Only the space is reserved under the arena lock; the caller's stripe lock publishes the written entry
+    private long append(long key, long timestamp, long prev, byte[] value) {
+        int entrySize = entrySize(value == null ? 0 : value.length);
+        int segmentIndex;
+        int offset;
+        arenaLock.lock();
+        try {
+            if (segmentOffset + entrySize > segmentSize) {
+                addSegment();
+            }
+            segmentIndex = segments.size() - 1;
+            offset = segmentOffset;
+            segmentOffset += entrySize;
+        } finally {
+            arenaLock.unlock();
+        }
+        // Absolute puts leave the buffer's position alone, so threads can fill disjoint ranges at once
+        ByteBuffer segment = segments.get(segmentIndex);
+        segment.putLong(offset + KEY_OFFSET, key);
+        segment.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+        segment.putLong(offset + PREV_OFFSET, prev);
+        segment.putInt(offset + LENGTH_OFFSET, value == null ? NULL_LENGTH : value.length);
+        if (value != null) {
+            segment.put(offset + HEADER_SIZE, value);
+        }
+        liveBytes.add(entrySize);
+        return ((long) segmentIndex << 32) | offset;
+    }
+
+    private static int entrySize(int valueLength) {
+        return (HEADER_SIZE + valueLength + 7) & ~7; // keep entries 8-byte aligned
+    }
+
+    private void markDead(long address) {
+        int size = entrySize(Math.max(0, lengthOf(address)));
+        if (isSpilled(address)) {
+            spilledBytes.add(-size);
+        } else {
+            liveBytes.add(-size);
+            deadBytes.add(size);
+        }
+    }
+
+    // ---------------- ENTRY ACCESS ----------------
+    private long locate(Stripe stripe, long key, long timestamp) {
+        int slot = stripe.findSlot(key);
+        if (slot < 0) {
+            return NO_ENTRY;
+        }
+        for (long address = stripe.heads[slot]; address != NO_ENTRY; address = prevAt(address)) {
+            long current = timestampAt(address);
+            if (current == timestamp) {
+                return address;
+            }
+            if (current < timestamp) {
+                break;
+            }
+        }
+        return NO_ENTRY;
+    }
+
+    private static boolean isSpilled(long address) {
+        return (address & SPILLED_FLAG) != 0;
+    }
+
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private ByteBuffer bufferOf(long address) {
+        if (isSpilled(address)) {
+            return ByteBuffer.wrap(readSpillPage((address & ~SPILLED_FLAG) >>> 12));
+        }
+        return segments.get(segmentOf(address));
+    }
+
+    private static int positionOf(long address) {
+        return isSpilled(address) ? (int) (address & (DiskManager.PAGE_SIZE - 1)) : offsetOf(address);
+    }
+
+    private long timestampAt(long address) {
+        return bufferOf(address).getLong(positionOf(address) + TIMESTAMP_OFFSET);
+    }
+
+    private long prevAt(long address) {
+        return bufferOf(address).getLong(positionOf(address) + PREV_OFFSET);
+    }
+
+    private int lengthOf(long address) {
+        return bufferOf(address).getInt(positionOf(address) + LENGTH_OFFSET);
+    }
+
+    private byte[] valueAt(long address) {
+        return readValue(bufferOf(address), positionOf(address));
+    }
+
+    private static byte[] readValue(ByteBuffer buffer, int position) {
+        int length = buffer.getInt(position + LENGTH_OFFSET);
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        buffer.get(position + HEADER_SIZE, value);
+        return value;
+    }
+
+    private void setPrev(long address, long prev) {
+        if (!isSpilled(address)) {
+            segments.get(segmentOf(address)).putLong(offsetOf(address) + PREV_OFFSET, prev);
+            return;
+        }
+        long pageId = (address & ~SPILLED_FLAG) >>> 12;
+        // A page holds entries of keys from several stripes, so its read-modify-write is serialized
+        spillLock.lock();
+        try {
+            byte[] page = readSpillPage(pageId);
+            ByteBuffer.wrap(page).putLong(positionOf(address) + PREV_OFFSET, prev);
+            if (!spilling || pageId != spillPageId) {
+                spillManager.writePage(pageId, page);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to update spilled version", e);
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    // ---------------- SPILLING ----------------
+    private long spill(long address) throws IOException {
+        ByteBuffer segment = segments.get(segmentOf(address));
+        int offset = offsetOf(address);
+        int size = entrySize(Math.max(0, segment.getInt(offset + LENGTH_OFFSET)));
+        if (spillPage == null || spillOffset + size > DiskManager.PAGE_SIZE) {
+            flushSpillPage();
+            spillLock.lock();
+            try {
+                spillPageId = spillManager.allocatePage();
+            } finally {
+                spillLock.unlock();
+            }
+            spillPage = new byte[DiskManager.PAGE_SIZE];
+            spillOffset = 0;
+        }
+        segment.get(offset, spillPage, spillOffset, HEADER_SIZE + Math.max(0, segment.getInt(offset + LENGTH_OFFSET)));
+        long spilledAddress = SPILLED_FLAG | (spillPageId << 12) | spillOffset;
+        spillOffset += size;
+        spilledBytes.add(size);
+        return spilledAddress;
+    }
+
+    private void flushSpillPage() throws IOException {
+        if (spillPage != null) {
+            spillLock.lock();
+            try {
+                spillManager.writePage(spillPageId, spillPage);
+            } finally {
+                spillLock.unlock();
+            }
+        }
+    }
+
+    private byte[] readSpillPage(long pageId) {
+        if (pageId == spillPageId && spillPage != null) {
+            return spillPage;
+        }
+        try {
+            spillLock.lock();
+            try {
+                return spillManager.readPage(pageId);
+            } finally {
+                spillLock.unlock();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read spilled version page " + pageId, e);
+        }
+    }
+
+    // ---------------- OPEN-ADDRESSING INDEX ----------------
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    // Read-mostly throughput (9 reads per write) on one thread and on all of them, to show how the stripes scale
+    public static void main(String[] args) throws InterruptedException {
+        int keys = 100_000;
+        int operationsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        OffHeapVersionStore store = new OffHeapVersionStore();
+        byte[] value = new byte[64];
+        for (long key = 0; key < keys; key++) {
+            store.put(key, 1, value);
+        }
+        int cores = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int threads : new int[] { 1, cores }) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        long key = random.nextInt(keys);
+                        if (i % 10 == 0) {
+                            store.put(key, 2 + i, value);
+                            store.removeOlderThan(key, 2 + i);
+                        } else {
+                            store.read(key, store.findVisible(key, Long.MAX_VALUE, ts -> true));
+                        }
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.HOURS);
+            long elapsedNanos = System.nanoTime() - start;
+            log.info("{} threads: {} operations/s", threads,
+                    (long) threads * operationsPerThread * 1_000_000_000L / Math.max(1, elapsedNanos));
+        }
+    }
+
+    /**
+     * One slice of the open-addressing index: key -> chain head, with the
+     * lock guarding it and the chains of its keys.
+     */
+    private static final class Stripe {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        private long[] heads = new long[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        private int findSlot(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+                if (heads[slot] == NO_ENTRY) {
+                    return -1;
+                }
+                if (keys[slot] == key) {
+                    return slot;
+                }
+            }
+        }
+
+        private void insert(long key, long head) {
+            if (size + 1 > keys.length * MAX_LOAD_FACTOR) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (heads[slot] != NO_ENTRY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            heads[slot] = head;
+            size++;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldHeads = heads;
+            keys = new long[oldKeys.length << 1];
+            heads = new long[oldKeys.length << 1];
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldHeads[slot] != NO_ENTRY) {
+                    insert(oldKeys[slot], oldHeads[slot]);
+                }
+            }
+        }
+
+        // Backward-shift deletion keeps probe sequences intact without tombstones
+        private void delete(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; heads[next] != NO_ENTRY; next = (next + 1) & mask) {
+                int home = hash(keys[next]) & mask;
+                boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+                if (movable) {
+                    keys[hole] = keys[next];
+                    heads[hole] = heads[next];
+                    hole = next;
+                }
+            }
+            heads[hole] = NO_ENTRY;
+            size--;
+        }
+    }
+}
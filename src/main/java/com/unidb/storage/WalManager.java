@@ -31,6 +31,20 @@ public class WalManager {
         writer.flush();
     }
 
+    // Append several entries of one transaction with a single write and flush, so they stay contiguous in the log
+    public void logBatch(long transactionId, long[] pageIds, byte[][] data) throws IOException {
+        if (pageIds.length != data.length) {
+            throw new IllegalArgumentException("Got " + pageIds.length + " page ids for " + data.length + " entries");
+        }
+        StringBuilder batch = new StringBuilder();
+        for (int i = 0; i < pageIds.length; i++) {
+            batch.append(transactionId).append('|').append(pageIds[i]).append('|').append(new String(data[i]))
+                    .append('\n');
+        }
+        writer.write(batch.toString());
+        writer.flush();
+    }
+
     // Read all log entries from WAL
     public List<String> readLogs() throws IOException {
         List<String> logs = new ArrayList<>();
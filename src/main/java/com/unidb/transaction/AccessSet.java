@@ -0,0 +1,62 @@
+package com.unidb.transaction;
+
+import java.util.Arrays;
+
+/**
+ * Compact per-transaction record of the (key, version) pairs a transaction
+ * touched. Backed by parallel primitive arrays so commit, rollback and WAL
+ * emission only walk the entries of the owning transaction instead of the
+ * whole version store.
+ */
+final class AccessSet {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private long[] keys;
+    private long[] versions;
+    private int size;
+
+    AccessSet() {
+        this.keys = new long[INITIAL_CAPACITY];
+        this.versions = new long[INITIAL_CAPACITY];
+    }
+
+    synchronized void add(long key, long version) {
+        if (size == keys.length) {
+            int newCapacity = keys.length << 1;
+            keys = Arrays.copyOf(keys, newCapacity);
+            versions = Arrays.copyOf(versions, newCapacity);
+        }
+        keys[size] = key;
+        versions[size] = version;
+        size++;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized long keyAt(int index) {
+        return keys[index];
+    }
+
+    synchronized long versionAt(int index) {
+        return versions[index];
+    }
+
+    // Snapshot of the distinct keys in this set, in ascending order
+    synchronized long[] distinctKeys() {
+        long[] sorted = Arrays.copyOf(keys, size);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+}
@@ -0,0 +1,20 @@
+package com.unidb.transaction;
+
+/**
+ * Notified by {@link VersionManager} after a transaction's versions became
+ * visible as committed, so that derived state such as cached query results
+ * can drop whatever depended on the old values. Only transactions that wrote
+ * something are reported.
+ */
+public interface CommitListener {
+    // Keys are distinct and in ascending order; runs on the committing thread before the commit returns
+    void committed(long transactionId, long[] keys);
+
+    // Runs on the committing thread just before the versions become visible
+    default void committing(long transactionId, long[] keys) {
+    }
+
+    // Runs after the transaction's versions were removed
+    default void rolledBack(long transactionId, long[] keys) {
+    }
+}
@@ -39,19 +39,23 @@ class LockManager {
         }
     }
 
+    // Walks only the resources recorded for this transaction instead of every owned lock
     public synchronized void releaseLocks(long transactionId) {
-        waitForGraph.remove(transactionId);
-        lockOwners.forEach((resourceId, ownerId) -> {
-            if (ownerId == transactionId) {
-                ReentrantReadWriteLock lock = locks.get(resourceId);
-                if (lock != null) {
-                    lock.writeLock().unlock();
-                    lock.readLock().unlock();
-                }
-                lockOwners.remove(resourceId);
-                log.info("Transaction {} released locks on resource {}", transactionId, resourceId);
+        Set<Long> heldResources = waitForGraph.remove(transactionId);
+        if (heldResources == null) {
+            return;
+        }
+        for (long resourceId : heldResources) {
+            if (!lockOwners.remove(resourceId, transactionId)) {
+                continue;
             }
-        });
+            ReentrantReadWriteLock lock = locks.get(resourceId);
+            if (lock != null) {
+                lock.writeLock().unlock();
+                lock.readLock().unlock();
+            }
+            log.info("Transaction {} released locks on resource {}", transactionId, resourceId);
+        }
     }
 
     private boolean detectDeadlock(long transactionId) {
@@ -0,0 +1,148 @@
+package com.unidb.transaction;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Backward validation for optimistic serializable transactions. At commit a
+ * transaction's read set is checked against the write sets of every
+ * transaction that committed after it started; any overlap means it may have
+ * read stale data and it must abort.
+ *
+ * <p>The validator also runs the clock that transaction ids and commit
+ * timestamps come from. A writer's keys are recorded as pending before its
+ * versions become visible and get their commit timestamp only afterwards, so
+ * a transaction that starts while a commit is in flight is validated against
+ * it as well. Writers of every isolation level are recorded, and their keys
+ * are kept only as long as some optimistic transaction that started before
+ * them is active.
+ */
+@Slf4j
+class OptimisticValidator implements CommitListener {
+    private static final long PENDING = Long.MAX_VALUE; // not visible yet: later than every start
+
+    private final AtomicLong clock;
+    private final Map<Long, CommittedWrites> commits; // by writer, in the order their commits began
+    private final TreeMap<Long, Integer> activeStarts;
+
+    OptimisticValidator() {
+        this.clock = new AtomicLong();
+        this.commits = new LinkedHashMap<>();
+        this.activeStarts = new TreeMap<>();
+    }
+
+    // Transaction ids double as snapshot and validation timestamps, so they must never repeat
+    long nextTimestamp() {
+        return clock.updateAndGet(last -> Math.max(System.nanoTime(), last + 1));
+    }
+
+    // The id is taken and registered atomically, so no commit can be pruned that this transaction still needs
+    synchronized long begin() {
+        long startTimestamp = nextTimestamp();
+        activeStarts.merge(startTimestamp, 1, Integer::sum);
+        return startTimestamp;
+    }
+
+    synchronized void deregister(long startTimestamp) {
+        activeStarts.computeIfPresent(startTimestamp, (ts, count) -> count == 1 ? null : count - 1);
+        pruneCommits();
+    }
+
+    // Validates and, on success, records the write set as pending until the versions are visible
+    synchronized void validate(long transactionId, AccessSet readSet, AccessSet writeSet) {
+        if (readSet != null && !readSet.isEmpty()) {
+            long[] readKeys = readSet.distinctKeys();
+            for (Map.Entry<Long, CommittedWrites> entry : commits.entrySet()) {
+                CommittedWrites committed = entry.getValue();
+                if (entry.getKey() == transactionId || committed.commitTimestamp <= transactionId) {
+                    continue;
+                }
+                int overlap = committed.firstOverlap(readKeys);
+                if (overlap >= 0) {
+                    long conflict = readKeys[overlap];
+                    log.warn("Optimistic validation failed for transaction {} on key {}", transactionId, conflict);
+                    throw new SerializationConflictException(transactionId, conflict);
+                }
+            }
+        }
+        if (writeSet != null && !writeSet.isEmpty()) {
+            commits.put(transactionId, new CommittedWrites(writeSet.distinctKeys()));
+        }
+    }
+
+    @Override
+    public synchronized void committing(long transactionId, long[] keys) {
+        commits.putIfAbsent(transactionId, new CommittedWrites(keys));
+    }
+
+    // The versions are visible now: stamp the commit after every transaction that may have missed them
+    @Override
+    public synchronized void committed(long transactionId, long[] keys) {
+        CommittedWrites committed = commits.get(transactionId);
+        if (committed != null) {
+            committed.commitTimestamp = nextTimestamp();
+            pruneCommits();
+        }
+    }
+
+    @Override
+    public synchronized void rolledBack(long transactionId, long[] keys) {
+        commits.remove(transactionId);
+    }
+
+    synchronized int retainedCommits() {
+        return commits.size();
+    }
+
+    // A commit only matters to transactions that started before it, so drop everything older than the oldest start
+    private void pruneCommits() {
+        long oldestStart = activeStarts.isEmpty() ? Long.MAX_VALUE : activeStarts.firstKey();
+        Iterator<CommittedWrites> iterator = commits.values().iterator();
+        while (iterator.hasNext()) {
+            long commitTimestamp = iterator.next().commitTimestamp;
+            if (commitTimestamp != PENDING && commitTimestamp <= oldestStart) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class CommittedWrites {
+        private final long[] sortedKeys;
+        private long commitTimestamp;
+
+        private CommittedWrites(long[] sortedKeys) {
+            this.sortedKeys = sortedKeys;
+            this.commitTimestamp = PENDING;
+        }
+
+        // Index of the first read key also written here, or -1; probes when the read set is much smaller
+        private int firstOverlap(long[] sortedReadKeys) {
+            if (sortedReadKeys.length < sortedKeys.length / 8) {
+                for (int i = 0; i < sortedReadKeys.length; i++) {
+                    if (Arrays.binarySearch(sortedKeys, sortedReadKeys[i]) >= 0) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            int i = 0;
+            int j = 0;
+            while (i < sortedReadKeys.length && j < sortedKeys.length) {
+                if (sortedReadKeys[i] == sortedKeys[j]) {
+                    return i;
+                } else if (sortedReadKeys[i] < sortedKeys[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.unidb.transaction;
+
+// Raised at commit when optimistic validation finds a conflicting concurrent commit; the transaction is rolled back
+public class SerializationConflictException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private final long transactionId;
+    private final long conflictingKey;
+
+    public SerializationConflictException(long transactionId, long conflictingKey) {
+        super("Transaction " + transactionId + " aborted: key " + conflictingKey
+                + " was modified by a concurrently committed transaction.");
+        this.transactionId = transactionId;
+        this.conflictingKey = conflictingKey;
+    }
+
+    public long getTransactionId() {
+        return transactionId;
+    }
+
+    public long getConflictingKey() {
+        return conflictingKey;
+    }
+}
@@ -1,7 +1,15 @@
 package com.unidb.transaction;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.unidb.storage.WalManager;
 
@@ -10,33 +18,91 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class TransactionManager {
     private final WalManager walManager;
-    private final ConcurrentHashMap<Long, String> activeTransactions;
+    private final ConcurrentHashMap<Long, IsolationLevel> activeTransactions;
+    private final Set<Long> readOnlySnapshots;
     private final LockManager lockManager;
     private final VersionManager versionManager;
+    private final OptimisticValidator optimisticValidator;
+    private final Object beginLock; // ids are taken and registered as one step, so a snapshot sees all lower ids
 
     public TransactionManager(WalManager walManager) {
+        this(walManager, new VersionManager());
+    }
+
+    // Share the version store with the query executor so its writes land in this manager's write sets
+    public TransactionManager(WalManager walManager, VersionManager versionManager) {
         this.walManager = walManager;
         this.activeTransactions = new ConcurrentHashMap<>();
+        this.readOnlySnapshots = ConcurrentHashMap.newKeySet();
         this.lockManager = new LockManager();
-        this.versionManager = new VersionManager();
+        this.versionManager = versionManager;
+        this.optimisticValidator = new OptimisticValidator();
+        this.beginLock = new Object();
+        // Every writer's keys, whatever its isolation level, are validated against by optimistic transactions
+        versionManager.addCommitListener(optimisticValidator);
     }
 
     // Start a new transaction with a specified isolation level
     public long beginTransaction(IsolationLevel isolationLevel) {
-        long transactionId = System.nanoTime(); // Unique transaction ID
-        activeTransactions.put(transactionId, isolationLevel.name());
+        boolean optimistic = isolationLevel == IsolationLevel.SERIALIZABLE_OPTIMISTIC;
+        long transactionId;
+        synchronized (beginLock) {
+            // Unique, monotonically increasing transaction ID
+            transactionId = optimistic ? optimisticValidator.begin() : optimisticValidator.nextTimestamp();
+            activeTransactions.put(transactionId, isolationLevel);
+        }
+        if (optimistic) {
+            versionManager.trackReads(transactionId);
+        }
         log.info("Transaction {} started with isolation level: {}", transactionId, isolationLevel);
         return transactionId;
     }
 
-    // Commit a transaction
+    /**
+     * Start a read-only transaction: it takes no locks and writes no WAL
+     * records. It reads a snapshot of what was committed when it started;
+     * transactions still running then stay invisible to it even after they
+     * commit, and their commits keep the older versions it needs.
+     */
+    public long beginReadOnlyTransaction() {
+        long snapshot;
+        synchronized (beginLock) {
+            snapshot = optimisticValidator.nextTimestamp();
+            readOnlySnapshots.add(snapshot);
+        }
+        versionManager.beginSnapshot(snapshot, activeTransactions.keySet());
+        log.debug("Read-only transaction {} started.", snapshot);
+        return snapshot;
+    }
+
+    public boolean isReadOnly(long transactionId) {
+        return readOnlySnapshots.contains(transactionId);
+    }
+
+    // Commit a transaction; optimistic transactions are validated first and rolled back on conflict
     public void commitTransaction(long transactionId) throws IOException {
-        if (activeTransactions.containsKey(transactionId)) {
-            walManager.logWrite(transactionId, -1, "COMMIT".getBytes());
+        if (readOnlySnapshots.remove(transactionId)) {
+            versionManager.endSnapshot(transactionId);
+            finishReadOnly(transactionId);
+            log.debug("Read-only transaction {} committed.", transactionId);
+            return;
+        }
+        IsolationLevel isolationLevel = activeTransactions.get(transactionId);
+        if (isolationLevel != null) {
+            AccessSet writeSet = versionManager.getWriteSet(transactionId);
+            if (isolationLevel == IsolationLevel.SERIALIZABLE_OPTIMISTIC) {
+                try {
+                    optimisticValidator.validate(transactionId, versionManager.getReadSet(transactionId), writeSet);
+                } catch (SerializationConflictException e) {
+                    rollbackTransaction(transactionId);
+                    throw e;
+                }
+            }
+            logCommit(transactionId, writeSet);
             activeTransactions.remove(transactionId);
             lockManager.releaseLocks(transactionId);
             versionManager.commitTransaction(transactionId);
-            versionManager.cleanupOldVersions();
+            deregisterOptimistic(transactionId, isolationLevel);
             log.info("Transaction {} committed.", transactionId);
         } else {
             throw new IllegalStateException("Transaction " + transactionId + " not found.");
@@ -45,15 +111,124 @@ public class TransactionManager {
 
     // Rollback a transaction
     public void rollbackTransaction(long transactionId) throws IOException {
-        if (activeTransactions.containsKey(transactionId)) {
+        if (readOnlySnapshots.remove(transactionId)) {
+            versionManager.endSnapshot(transactionId);
+            log.debug("Read-only transaction {} rolled back.", transactionId);
+            return;
+        }
+        IsolationLevel isolationLevel = activeTransactions.get(transactionId);
+        if (isolationLevel != null) {
             walManager.logWrite(transactionId, -1, "ROLLBACK".getBytes());
             activeTransactions.remove(transactionId);
             lockManager.releaseLocks(transactionId);
             versionManager.rollbackTransaction(transactionId);
-            versionManager.cleanupOldVersions();
+            deregisterOptimistic(transactionId, isolationLevel);
             log.info("Transaction {} rolled back.", transactionId);
         } else {
             throw new IllegalStateException("Transaction " + transactionId + " not found.");
         }
     }
+
+    public VersionManager getVersionManager() {
+        return versionManager;
+    }
+
+    // Ending a read-only transaction just drops its snapshot; any stray writes are discarded and reported
+    private void finishReadOnly(long transactionId) {
+        if (versionManager.getWriteSet(transactionId) != null) {
+            versionManager.rollbackTransaction(transactionId);
+            throw new IllegalStateException("Read-only transaction " + transactionId + " attempted to write.");
+        }
+    }
+
+    private void deregisterOptimistic(long transactionId, IsolationLevel isolationLevel) {
+        if (isolationLevel == IsolationLevel.SERIALIZABLE_OPTIMISTIC) {
+            optimisticValidator.deregister(transactionId);
+        }
+    }
+
+    // One WAL batch per commit: a record per written key, with the key as its page reference, then COMMIT
+    // (a single flush instead of one per record)
+    private void logCommit(long transactionId, AccessSet writeSet) throws IOException {
+        long[] keys = writeSet == null ? new long[0] : writeSet.distinctKeys();
+        long[] pageIds = Arrays.copyOf(keys, keys.length + 1);
+        byte[][] data = new byte[keys.length + 1][];
+        for (int i = 0; i < keys.length; i++) {
+            String value = versionManager.readOwnWrite(transactionId, keys[i]);
+            data[i] = value == null ? new byte[0] : value.getBytes();
+        }
+        pageIds[keys.length] = -1;
+        data[keys.length] = "COMMIT".getBytes();
+        walManager.logBatch(transactionId, pageIds, data);
+    }
+
+    // Compares lock-based (sequential) and optimistic serializable read-modify-write throughput
+    public static void main(String[] args) {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int transactionsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        try {
+            WalManager walManager = new WalManager("unidb_wal.log");
+            for (int keySpace : new int[] { 100_000, 16 }) {
+                String contention = keySpace > 1_000 ? "low" : "high";
+                for (IsolationLevel level : new IsolationLevel[] { IsolationLevel.SERIALIZABLE,
+                        IsolationLevel.SERIALIZABLE_OPTIMISTIC }) {
+                    TransactionManager manager = new TransactionManager(walManager);
+                    long[] outcome = runBenchmark(manager, level, threads, transactionsPerThread, keySpace);
+                    log.info("{} contention, {}: {} commits/s, {} aborts", contention, level, outcome[0], outcome[1]);
+                }
+            }
+            walManager.clearWal();
+            walManager.close();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long[] runBenchmark(TransactionManager manager, IsolationLevel level, int threads,
+            int transactionsPerThread, int keySpace) throws InterruptedException {
+        // Without a lock-based read/write path, SERIALIZABLE is modelled as running transactions one at a time
+        ReentrantLock sequentialLock = new ReentrantLock();
+        AtomicLong aborts = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < transactionsPerThread; i++) {
+                    long from = random.nextInt(keySpace);
+                    long to = random.nextInt(keySpace);
+                    boolean committed = false;
+                    while (!committed) {
+                        boolean sequential = level == IsolationLevel.SERIALIZABLE;
+                        if (sequential) {
+                            sequentialLock.lock();
+                        }
+                        try {
+                            long tx = manager.beginTransaction(level);
+                            VersionManager versions = manager.getVersionManager();
+                            String a = versions.readVersion(tx, from, level);
+                            String b = versions.readVersion(tx, to, level);
+                            long sum = (a == null ? 0 : Long.parseLong(a)) + (b == null ? 0 : Long.parseLong(b));
+                            versions.writeVersion(tx, to, Long.toString(sum + 1));
+                            manager.commitTransaction(tx);
+                            committed = true;
+                        } catch (SerializationConflictException e) {
+                            aborts.incrementAndGet();
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        } finally {
+                            if (sequential) {
+                                sequentialLock.unlock();
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.HOURS);
+        long elapsedNanos = System.nanoTime() - start;
+        long commits = (long) threads * transactionsPerThread;
+        return new long[] { commits * 1_000_000_000L / Math.max(1, elapsedNanos), aborts.get() };
+    }
 }
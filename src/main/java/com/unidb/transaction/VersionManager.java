@@ -1,58 +1,265 @@
 package com.unidb.transaction;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.unidb.storage.OffHeapVersionStore;
 
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class VersionManager {
-    private final ConcurrentHashMap<Long, Map<Long, String>> versionStore;
+    private final OffHeapVersionStore versionStore;
+    private final ConcurrentHashMap<Long, AccessSet> writeSets;
+    private final ConcurrentHashMap<Long, AccessSet> readSets;
+    private final List<CommitListener> commitListeners;
+    private final ConcurrentSkipListMap<Long, long[]> snapshots; // snapshot -> sorted writers in flight at its start
+    private final ExecutorService compactor;
+    private final AtomicBoolean compactionScheduled;
+    private final AtomicLong newestCommittedWriter; // highest id whose writes are committed or being committed
+
+    private static final long[] CAPTURING = new long[0]; // snapshot registered, in-flight writers not known yet
 
     public VersionManager() {
-        this.versionStore = new ConcurrentHashMap<>();
+        this(new OffHeapVersionStore());
+    }
+
+    // Use a store configured with a custom segment size or a DiskManager for spilling cold versions
+    public VersionManager(OffHeapVersionStore versionStore) {
+        this.versionStore = versionStore;
+        this.writeSets = new ConcurrentHashMap<>();
+        this.readSets = new ConcurrentHashMap<>();
+        this.commitListeners = new CopyOnWriteArrayList<>();
+        this.snapshots = new ConcurrentSkipListMap<>();
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "version-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactionScheduled = new AtomicBoolean();
+        this.newestCommittedWriter = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    public void addCommitListener(CommitListener listener) {
+        commitListeners.add(listener);
+    }
+
+    public void removeCommitListener(CommitListener listener) {
+        commitListeners.remove(listener);
+    }
+
+    /**
+     * Opens a snapshot: reads under its id see exactly the writers that
+     * committed before it started, and commits keep the versions it needs
+     * until {@link #endSnapshot}. The given transactions (all those with a
+     * lower id that may still commit) and every writer with pending writes
+     * count as in flight, so their versions stay invisible to it even once
+     * they commit.
+     */
+    public void beginSnapshot(long snapshot, Collection<Long> activeTransactions) {
+        // Registered before the writers are collected, so no commit prunes a version the snapshot turns out to need
+        snapshots.put(snapshot, CAPTURING);
+        long[] inFlight = Stream.concat(activeTransactions.stream(), writeSets.keySet().stream())
+                .mapToLong(Long::longValue).filter(id -> id < snapshot).sorted().distinct().toArray();
+        snapshots.put(snapshot, inFlight);
+    }
+
+    public void endSnapshot(long snapshot) {
+        snapshots.remove(snapshot);
+    }
+
+    public boolean isSnapshot(long transactionId) {
+        return snapshots.containsKey(transactionId);
+    }
+
+    /**
+     * Whether committed reads under the id return the newest committed
+     * version of every key in [low, high], as a reader starting now would.
+     * A writer with a higher id that committed there is invisible to it, and
+     * a snapshot also misses writers that were in flight when it started.
+     * Ranges are checked against the newest committed writer overall, a
+     * single key against its own newest committed version.
+     */
+    public boolean seesLatestCommitted(long transactionId, long low, long high) {
+        if (snapshots.containsKey(transactionId)) {
+            return false;
+        }
+        if (transactionId > newestCommittedWriter.get()) {
+            return true;
+        }
+        return low == high
+                && versionStore.findVisible(low, Long.MAX_VALUE, txId -> !writeSets.containsKey(txId)) <= transactionId;
     }
 
     public String readVersion(long transactionId, long key, IsolationLevel isolationLevel) {
-        Map<Long, String> versions = versionStore.get(key);
-        if (versions == null) return null;
-        
+        long version;
+        long[] inFlight = snapshots.get(transactionId);
         if (isolationLevel == IsolationLevel.READ_UNCOMMITTED) {
-            return versions.values().iterator().next(); // Read the most recent version
+            version = versionStore.findVisible(key, Long.MAX_VALUE, txId -> true); // Read the most recent version
+        } else if (inFlight != null) {
+            version = versionStore.findVisible(key, transactionId,
+                    txId -> isVisibleTo(txId, transactionId) && Arrays.binarySearch(inFlight, txId) < 0);
+        } else {
+            version = versionStore.findVisible(key, transactionId, txId -> isVisibleTo(txId, transactionId));
         }
-        
-        return versions.entrySet().stream()
-                .filter(entry -> entry.getKey() <= transactionId)
-                .max(Map.Entry.comparingByKey())
-                .map(Map.Entry::getValue)
-                .orElse(null);
+        AccessSet readSet = readSets.get(transactionId);
+        if (readSet != null) {
+            readSet.add(key, version);
+        }
+        return version == OffHeapVersionStore.NO_VERSION ? null : decode(versionStore.read(key, version));
+    }
+
+    // A version is committed once its writer's write set is gone; a transaction always sees its own writes
+    private boolean isVisibleTo(long versionTransactionId, long readerTransactionId) {
+        return versionTransactionId == readerTransactionId || !writeSets.containsKey(versionTransactionId);
     }
 
     public void writeVersion(long transactionId, long key, String value) {
-        versionStore.computeIfAbsent(key, k -> new HashMap<>()).put(transactionId, value);
+        // Record the write first so the new version is never visible to others as committed
+        writeSets.computeIfAbsent(transactionId, id -> new AccessSet()).add(key, transactionId);
+        versionStore.put(key, transactionId, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
         log.info("Transaction {} wrote version for key {}: {}", transactionId, key, value);
     }
 
+    // Whether the transaction has written anything not yet committed or rolled back
+    public boolean hasUncommittedWrites(long transactionId) {
+        return writeSets.containsKey(transactionId);
+    }
+
+    // Value written by the transaction itself for the given key, or null
+    String readOwnWrite(long transactionId, long key) {
+        return decode(versionStore.read(key, transactionId));
+    }
+
+    AccessSet getWriteSet(long transactionId) {
+        return writeSets.get(transactionId);
+    }
+
+    // Start recording the keys (and observed versions) this transaction reads, for commit-time validation
+    void trackReads(long transactionId) {
+        readSets.put(transactionId, new AccessSet());
+    }
+
+    AccessSet getReadSet(long transactionId) {
+        return readSets.get(transactionId);
+    }
+
+    // Only the keys recorded in the write set are visited, so the cost is O(writes)
     public void commitTransaction(long transactionId) {
-        versionStore.forEach((key, versions) -> versions.keySet().removeIf(txId -> txId < transactionId));
+        readSets.remove(transactionId);
+        AccessSet writeSet = writeSets.get(transactionId);
+        long[] keys = writeSet == null || commitListeners.isEmpty() ? null : writeSet.distinctKeys();
+        if (keys != null) {
+            for (CommitListener listener : commitListeners) {
+                listener.committing(transactionId, keys);
+            }
+        }
+        if (writeSet != null) {
+            // Raised before the versions become visible, so no older reader is ever taken to see the latest state
+            newestCommittedWriter.accumulateAndGet(transactionId, Math::max);
+        }
+        writeSets.remove(transactionId); // the versions are visible from here on
+        if (writeSet != null) {
+            for (int i = 0; i < writeSet.size(); i++) {
+                pruneVersions(writeSet.keyAt(i));
+            }
+            // Listeners run after the new versions became visible, so a reader they trigger sees them
+            if (keys != null) {
+                for (CommitListener listener : commitListeners) {
+                    listener.committed(transactionId, keys);
+                }
+            }
+            scheduleCompaction();
+        }
         log.info("Transaction {} committed versions.", transactionId);
     }
 
     public void rollbackTransaction(long transactionId) {
-        versionStore.forEach((key, versions) -> versions.remove(transactionId));
+        readSets.remove(transactionId);
+        AccessSet writeSet = writeSets.remove(transactionId);
+        if (writeSet != null) {
+            for (int i = 0; i < writeSet.size(); i++) {
+                versionStore.remove(writeSet.keyAt(i), writeSet.versionAt(i));
+            }
+            if (!commitListeners.isEmpty()) {
+                long[] keys = writeSet.distinctKeys();
+                for (CommitListener listener : commitListeners) {
+                    listener.rolledBack(transactionId, keys);
+                }
+            }
+            scheduleCompaction();
+        }
         log.info("Transaction {} rolled back versions.", transactionId);
     }
     
+    // Background maintenance: reclaim arena space once unlinked versions outweigh live ones
     public void cleanupOldVersions() {
-        versionStore.forEach((key, versions) -> {
-            if (versions.size() > 1) {
-                long minTransaction = Collections.min(versions.keySet());
-                versions.keySet().removeIf(txId -> txId < minTransaction);
-                log.info("Cleaned up old versions for key {}.", key);
+        if (versionStore.needsCompaction()) {
+            versionStore.compact();
+            log.info("Cleaned up old versions for {} keys.", versionStore.keyCount());
+        }
+    }
+
+    // Commits and rollbacks only unlink replaced versions; one compaction at a time reclaims their space
+    private void scheduleCompaction() {
+        if (versionStore.needsCompaction() && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    cleanupOldVersions();
+                } catch (RuntimeException e) {
+                    log.error("Version store compaction failed", e);
+                    return;
+                } finally {
+                    compactionScheduled.set(false);
+                }
+                // Commits that finished while it ran did not schedule another pass
+                scheduleCompaction();
+            });
+        }
+    }
+
+    /**
+     * Drops the versions of the key no reader can see any more: those older
+     * than the newest committed version, or, while snapshots are open, older
+     * than the newest version visible to all of them.
+     */
+    private void pruneVersions(long key) {
+        long horizon = Long.MAX_VALUE;
+        if (!snapshots.isEmpty()) {
+            for (long[] inFlight : snapshots.values()) {
+                if (inFlight == CAPTURING) {
+                    return; // cannot tell yet what that snapshot needs
+                }
             }
-        });
+            horizon = snapshots.firstKey();
+        }
+        long keep = versionStore.findVisible(key, horizon, txId -> !writeSets.containsKey(txId)
+                && (snapshots.isEmpty() || isVisibleToAllSnapshots(txId)));
+        if (keep != OffHeapVersionStore.NO_VERSION) {
+            versionStore.removeOlderThan(key, keep);
+        }
     }
-}
 
+    private boolean isVisibleToAllSnapshots(long writerTransactionId) {
+        for (long[] inFlight : snapshots.values()) {
+            if (inFlight == CAPTURING || Arrays.binarySearch(inFlight, writerTransactionId) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveQueryCacheTest {
+    private static final String RESULT = "x".repeat(400);
+
+    @Test
+    void admissionBeatsLruOnAZipfTraceWithOneOffQueries() {
+        int requests = 400_000;
+        long budget = 2L << 20;
+        Random random = new Random(42);
+        String[] trace = new String[requests];
+        for (int i = 0; i < requests; i++) {
+            // Half the traffic is Zipf-like over 20k hot queries, half is never repeated
+            trace[i] = random.nextBoolean()
+                    ? "SELECT * FROM t WHERE id = " + (int) Math.pow(20_000, random.nextDouble())
+                    : "SELECT * FROM scan WHERE id = " + (requests + i);
+        }
+
+        AdaptiveQueryCache cache = new AdaptiveQueryCache(budget, 60_000);
+        for (int i = 0; i < requests; i++) {
+            if (cache.get(trace[i]) == null) {
+                cache.put(trace[i], RESULT, i, i, cache.currentEpoch());
+            }
+        }
+        assertTrue(cache.getWeightedSize() <= budget, cache.getWeightedSize() + " bytes cached");
+
+        // An LRU map holding as many results as the cache does
+        long capacity = cache.size();
+        Map<String, String> lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+        long lruHits = 0;
+        for (String query : trace) {
+            if (lru.get(query) != null) {
+                lruHits++;
+            } else {
+                lru.put(query, RESULT);
+            }
+        }
+        double lruHitRate = (double) lruHits / requests;
+        assertTrue(cache.getHitRate() > lruHitRate + 0.05, cache.getHitRate() + " against LRU " + lruHitRate);
+    }
+
+    @Test
+    void frequentlyReadResultsSurviveAFloodOfOneOffQueries() {
+        AdaptiveQueryCache cache = new AdaptiveQueryCache(256 * 1024, 60_000);
+        for (int i = 0; i < 20; i++) {
+            String hot = "SELECT * FROM t WHERE id = " + i;
+            cache.put(hot, RESULT, i, i, cache.currentEpoch());
+            for (int read = 0; read < 10; read++) {
+                assertNotNull(cache.get(hot));
+            }
+        }
+        for (int i = 0; i < 20_000; i++) {
+            String once = "SELECT * FROM scan WHERE id = " + i;
+            if (cache.get(once) == null) {
+                cache.put(once, RESULT, 1_000 + i, 1_000 + i, cache.currentEpoch());
+            }
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(RESULT, cache.get("SELECT * FROM t WHERE id = " + i), "hot query " + i);
+        }
+        assertTrue(cache.getWeightedSize() <= 256 * 1024);
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test
+    void putRacingAnInvalidationOfItsKeyIsRefused() {
+        AdaptiveQueryCache cache = new AdaptiveQueryCache(1 << 20, 60_000);
+        long readStarted = cache.currentEpoch();
+        cache.invalidate(new long[] { 5 }); // a commit lands while the read runs
+
+        assertFalse(cache.put("SELECT * FROM t WHERE id = 5", "old", 5, 5, readStarted));
+        assertNull(cache.get("SELECT * FROM t WHERE id = 5"));
+        assertEquals(1, cache.getRefusedPuts());
+        // Another key is unaffected, and a read started after the commit caches normally
+        assertTrue(cache.put("SELECT * FROM t WHERE id = 6", "six", 6, 6, readStarted));
+        assertTrue(cache.put("SELECT * FROM t WHERE id = 5", "new", 5, 5, cache.currentEpoch()));
+        assertEquals("new", cache.get("SELECT * FROM t WHERE id = 5"));
+        // A range read cannot tell which keys changed, so any commit since it started refuses it
+        assertFalse(cache.put("SELECT * FROM t WHERE id BETWEEN 100 AND 200", "range", 100, 200, readStarted));
+    }
+
+    @Test
+    void commitsDropExactlyTheEntriesWhoseKeysTheyWrote() {
+        AdaptiveQueryCache cache = new AdaptiveQueryCache(1 << 20, 60_000);
+        long epoch = cache.currentEpoch();
+        cache.put("point 7", "7", 7, 7, epoch);
+        cache.put("point 15", "15", 15, 15, epoch);
+        cache.put("range 10-20", "10-20", 10, 20, epoch);
+        cache.put("range 30-40", "30-40", 30, 40, epoch);
+
+        cache.invalidate(new long[] { 8, 15 });
+        assertEquals("7", cache.get("point 7"));
+        assertNull(cache.get("point 15"));
+        assertNull(cache.get("range 10-20"));
+        assertEquals("30-40", cache.get("range 30-40"));
+
+        // Keys on both sides of a range leave it cached; one inside drops it
+        cache.invalidate(new long[] { 29, 41 });
+        assertEquals("30-40", cache.get("range 30-40"));
+        cache.invalidate(new long[] { 1, 40, 50 });
+        assertNull(cache.get("range 30-40"));
+        assertEquals(3, cache.getInvalidations());
+    }
+}
@@ -0,0 +1,415 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.unidb.storage.DiskManager;
+import com.unidb.storage.WalManager;
+
+class BPlusTreeIndexManagerTest {
+    private static final Pattern WAL_RECORD = Pattern.compile("-1\\|(\\d+)\\|(SPLIT (\\d+) -> (\\d+) at -?\\d+"
+            + "|NEWROOT (\\d+)|MERGE (\\d+) -> (\\d+))");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void randomOperationsMatchATreeMap() throws IOException {
+        Random random = new Random(11);
+        // Keys cluster at both extremes and around zero, so nodes share long prefixes and cross the sign bit
+        long[] bases = { Long.MIN_VALUE, -1_000, Long.MAX_VALUE - 3_000 };
+        BPlusTreeIndexManager tree = open(4);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                long key = bases[random.nextInt(bases.length)] + random.nextInt(3_000);
+                if (random.nextInt(3) == 0) {
+                    assertEquals(expected.remove(key) != null, tree.remove(key));
+                } else {
+                    long value = random.nextLong();
+                    tree.insert(key, value);
+                    expected.put(key, value);
+                }
+                if (i % 5_000 == 0) {
+                    assertMatches(expected, tree);
+                }
+            }
+            assertMatches(expected, tree);
+
+            // Draining the tree merges every level back into a single leaf
+            for (long key : new ArrayList<>(expected.keySet())) {
+                assertTrue(tree.remove(key));
+            }
+            assertEquals(0, tree.size());
+            assertEquals(List.of(), keys(tree.scan(Long.MIN_VALUE, Long.MAX_VALUE)));
+        } finally {
+            tree.close();
+        }
+    }
+
+    @Test
+    void largeOrderSplitsWhenTheEncodingNoLongerFitsAPage() throws IOException {
+        Random random = new Random(5);
+        // 1023 random keys with their pointers would need about four pages, so nodes split once a page is full
+        BPlusTreeIndexManager tree = open(1024);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                long key = random.nextLong();
+                tree.insert(key, i);
+                expected.put(key, (long) i);
+            }
+            assertMatches(expected, tree);
+            long leafBytes = 20_000L * 2 * Long.BYTES;
+            assertTrue(Files.size(directory.resolve("index.db")) / DiskManager.PAGE_SIZE > leafBytes
+                    / DiskManager.PAGE_SIZE);
+        } finally {
+            tree.close();
+        }
+    }
+
+    @Test
+    void cursorsSeeEveryStableKeyOnceWhileTheTreeChanges() throws IOException {
+        BPlusTreeIndexManager tree = open(4);
+        try {
+            for (long key = 0; key < 2_000; key += 2) {
+                tree.insert(key);
+            }
+            IndexCursor ascending = tree.scan(0, 2_000);
+            IndexCursor descending = tree.scanDescending(0, 2_000);
+            List<Long> up = new ArrayList<>();
+            List<Long> down = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                assertTrue(ascending.next());
+                up.add(ascending.key());
+                assertTrue(descending.next());
+                down.add(descending.key());
+            }
+            // Odd keys split the leaves the cursors stand on; multiples of 10 merge them away again
+            for (long key = 1; key < 2_000; key += 2) {
+                tree.insert(key);
+            }
+            for (long key = 0; key < 2_000; key += 10) {
+                tree.remove(key);
+            }
+            while (ascending.next()) {
+                up.add(ascending.key());
+            }
+            while (descending.next()) {
+                down.add(descending.key());
+            }
+
+            for (int i = 1; i < up.size(); i++) {
+                assertTrue(up.get(i) > up.get(i - 1), "ascending out of order at " + i);
+            }
+            for (int i = 1; i < down.size(); i++) {
+                assertTrue(down.get(i) < down.get(i - 1), "descending out of order at " + i);
+            }
+            for (long key = 0; key < 2_000; key += 2) {
+                if (key % 10 != 0) {
+                    assertTrue(up.contains(key), "ascending missed " + key);
+                    assertTrue(down.contains(key), "descending missed " + key);
+                }
+            }
+            // Removed keys the cursors had not reached yet are not returned
+            assertFalse(up.subList(10, up.size()).stream().anyMatch(key -> key % 10 == 0));
+            assertFalse(down.subList(10, down.size()).stream().anyMatch(key -> key % 10 == 0));
+        } finally {
+            tree.close();
+        }
+    }
+
+    @Test
+    void reopenRestoresTheTreeFromTheMetaPageAndReusesFreedPages() throws IOException {
+        Random random = new Random(3);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        BPlusTreeIndexManager tree = open(8);
+        try {
+            for (int i = 0; i < 5_000; i++) {
+                long key = random.nextInt(1_000_000) - 500_000;
+                tree.insert(key, i);
+                expected.put(key, (long) i);
+            }
+            for (long key : new ArrayList<>(expected.keySet())) {
+                if (random.nextInt(5) != 0) {
+                    assertTrue(tree.remove(key));
+                    expected.remove(key);
+                }
+            }
+        } finally {
+            tree.close();
+        }
+
+        BPlusTreeIndexManager reopened = open(8);
+        try {
+            assertMatches(expected, reopened);
+            long pages = Files.size(directory.resolve("index.db")) / DiskManager.PAGE_SIZE;
+            for (int i = 0; i < 500; i++) {
+                reopened.insert(1_000_000 + i, i);
+                expected.put(1_000_000L + i, (long) i);
+            }
+            // The merges freed far more pages than 500 keys need, and the free list survived the reopen
+            assertEquals(pages, Files.size(directory.resolve("index.db")) / DiskManager.PAGE_SIZE);
+            assertMatches(expected, reopened);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void fileWithoutTheMetaPageIsRejected() throws IOException {
+        Files.write(directory.resolve("index.db"), new byte[DiskManager.PAGE_SIZE]);
+        assertThrows(UncheckedIOException.class, () -> open(8));
+    }
+
+    @Test
+    void orderBelowThreeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> open(2));
+    }
+
+    @Test
+    void structuralChangesAreLoggedAsTheyHappen() throws IOException {
+        BPlusTreeIndexManager tree = open(4);
+        try {
+            for (long key = 0; key < 200; key++) {
+                tree.insert(key);
+            }
+            for (long key = 0; key < 200; key++) {
+                tree.remove(key);
+            }
+        } finally {
+            tree.close();
+        }
+
+        // There is no replay: the WAL holds one text record per split, merge and root change
+        List<String> records = new WalManager(directory.resolve("index.wal").toString()).readLogs();
+        int splits = 0;
+        int merges = 0;
+        int roots = 0;
+        TreeSet<Long> freed = new TreeSet<>();
+        for (String record : records) {
+            Matcher matcher = WAL_RECORD.matcher(record);
+            assertTrue(matcher.matches(), record);
+            long page = Long.parseLong(matcher.group(1));
+            if (matcher.group(3) != null) {
+                assertEquals(page, Long.parseLong(matcher.group(3)), record);
+                assertFalse(freed.contains(page), "split of freed page " + record);
+                freed.remove(Long.parseLong(matcher.group(4)));
+                splits++;
+            } else if (matcher.group(5) != null) {
+                assertEquals(page, Long.parseLong(matcher.group(5)), record);
+                freed.remove(page);
+                roots++;
+            } else {
+                assertEquals(page, Long.parseLong(matcher.group(7)), record);
+                freed.add(Long.parseLong(matcher.group(6)));
+                merges++;
+            }
+        }
+        assertTrue(splits > 50 && merges > 50, splits + " splits, " + merges + " merges");
+        // Every root raised by a split is lowered again once the tree is empty
+        assertTrue(roots >= 2 && roots % 2 == 0, roots + " root changes");
+    }
+
+    @Test
+    void bulkLoadedTreeAnswersLookupsAndScansAfterReopen() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        for (long key = -49_000; key < 49_000; key += 7) {
+            expected.put(key, key * 3);
+        }
+        BPlusTreeIndexManager tree = open(64);
+        try {
+            tree.bulkLoad(entries(expected), 0.7);
+            assertMatches(expected, tree);
+        } finally {
+            tree.close();
+        }
+
+        BPlusTreeIndexManager reopened = open(64);
+        try {
+            assertMatches(expected, reopened);
+            assertEquals(-48_993 * 3, reopened.lookup(-48_993));
+            assertEquals(List.of(-7L, 0L, 7L), keys(reopened.scan(-10, 10)));
+            // The loaded nodes split and merge like any others
+            for (long key = -50_000; key < 50_000; key += 3) {
+                reopened.insert(key, key);
+                expected.put(key, key);
+            }
+            for (long key = -49_000; key < 0; key += 7) {
+                assertTrue(reopened.remove(key));
+                expected.remove(key);
+            }
+            assertMatches(expected, reopened);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void fillFactorSetsHowFullTheLoadedLeavesAre() throws IOException {
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        for (long key = 0; key < 20_000; key++) {
+            expected.put(key, key);
+        }
+        long[] pages = new long[2];
+        double[] fillFactors = { 1.0, 0.5 };
+        for (int i = 0; i < fillFactors.length; i++) {
+            BPlusTreeIndexManager tree = open(64, "fill" + i);
+            try {
+                tree.bulkLoad(entries(expected), fillFactors[i]);
+                assertMatches(expected, tree);
+            } finally {
+                tree.close();
+            }
+            pages[i] = Files.size(directory.resolve("fill" + i + ".db")) / DiskManager.PAGE_SIZE;
+        }
+        // 63 keys per full leaf against 31 per half-full one
+        assertTrue(pages[0] >= 20_000 / 63 && pages[0] < 20_000 / 63 + 20, pages[0] + " pages at 1.0");
+        assertTrue(pages[1] >= 20_000 / 31 && pages[1] < 20_000 / 31 + 40, pages[1] + " pages at 0.5");
+    }
+
+    @Test
+    void bulkLoadRejectsFillFactorsOutsideTheUnitInterval() throws IOException {
+        BPlusTreeIndexManager tree = open(16);
+        try {
+            for (double fillFactor : new double[] { 0, -0.5, 1.01, Double.NaN }) {
+                assertThrows(IllegalArgumentException.class, () -> tree.bulkLoad(entries(1, 2, 3), fillFactor));
+            }
+            // The smallest fill factor still puts one key in every leaf
+            tree.bulkLoad(entries(1, 2, 3), 0.01);
+            assertEquals(List.of(1L, 2L, 3L), keys(tree.scan(Long.MIN_VALUE, Long.MAX_VALUE)));
+        } finally {
+            tree.close();
+        }
+    }
+
+    @Test
+    void bulkLoadRejectsUnsortedAndDuplicateKeys() throws IOException {
+        BPlusTreeIndexManager unsorted = open(16, "unsorted");
+        BPlusTreeIndexManager duplicate = open(16, "duplicate");
+        try {
+            assertThrows(IllegalArgumentException.class, () -> unsorted.bulkLoad(entries(1, 5, 3), 1.0));
+            assertThrows(IllegalArgumentException.class, () -> duplicate.bulkLoad(entries(1, 5, 5, 9), 1.0));
+            assertEquals(0, unsorted.size());
+            assertEquals(0, duplicate.size());
+        } finally {
+            unsorted.close();
+            duplicate.close();
+        }
+    }
+
+    @Test
+    void bulkLoadRequiresAnEmptyTree() throws IOException {
+        BPlusTreeIndexManager tree = open(16);
+        try {
+            tree.insert(42);
+            assertThrows(IllegalStateException.class, () -> tree.bulkLoad(entries(1, 2, 3), 1.0));
+            assertEquals(List.of(42L), keys(tree.scan(Long.MIN_VALUE, Long.MAX_VALUE)));
+
+            // An empty input leaves a non-empty tree as it is and an empty tree empty
+            tree.remove(42);
+            tree.bulkLoad(entries(), 1.0);
+            assertEquals(0, tree.size());
+        } finally {
+            tree.close();
+        }
+    }
+
+    private BPlusTreeIndexManager open(int order) throws IOException {
+        return open(order, "index");
+    }
+
+    private BPlusTreeIndexManager open(int order, String name) throws IOException {
+        return new BPlusTreeIndexManager(order, new DiskManager(directory.resolve(name + ".db").toString(), 64),
+                new WalManager(directory.resolve(name + ".wal").toString()));
+    }
+
+    // Each key maps to itself, passed through in the given order with any duplicates
+    private static IndexCursor entries(long... keys) {
+        return new IndexCursor() {
+            private int position = -1;
+
+            @Override
+            public boolean next() {
+                return ++position < keys.length;
+            }
+
+            @Override
+            public long key() {
+                return keys[position];
+            }
+
+            @Override
+            public long value() {
+                return keys[position];
+            }
+        };
+    }
+
+    private static IndexCursor entries(TreeMap<Long, Long> sorted) {
+        List<Map.Entry<Long, Long>> list = new ArrayList<>(sorted.entrySet());
+        return new IndexCursor() {
+            private int position = -1;
+
+            @Override
+            public boolean next() {
+                return ++position < list.size();
+            }
+
+            @Override
+            public long key() {
+                return list.get(position).getKey();
+            }
+
+            @Override
+            public long value() {
+                return list.get(position).getValue();
+            }
+        };
+    }
+
+    private static void assertMatches(TreeMap<Long, Long> expected, BPlusTreeIndexManager tree) {
+        assertEquals(expected.size(), tree.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertTrue(tree.containsKey(entry.getKey()));
+        }
+        List<Long> values = new ArrayList<>();
+        IndexCursor cursor = tree.scan(Long.MIN_VALUE, Long.MAX_VALUE);
+        while (cursor.next()) {
+            values.add(cursor.value());
+        }
+        assertEquals(new ArrayList<>(expected.values()), values);
+        assertEquals(new ArrayList<>(expected.keySet()), keys(tree.scan(Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertEquals(new ArrayList<>(expected.descendingKeySet()),
+                keys(tree.scanDescending(Long.MIN_VALUE, Long.MAX_VALUE)));
+        long low = expected.isEmpty() ? 0 : expected.firstKey() / 2;
+        long high = expected.isEmpty() ? 0 : expected.lastKey() / 2;
+        assertEquals(new ArrayList<>(expected.subMap(low, true, high, true).keySet()), keys(tree.scan(low, high)));
+    }
+
+    private static List<Long> keys(IndexCursor cursor) {
+        List<Long> keys = new ArrayList<>();
+        while (cursor.next()) {
+            keys.add(cursor.key());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,36 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class BloomFilterIndexManagerTest {
+    @Test
+    void reinsertingKnownKeysDoesNotGrowTheFilter() {
+        BloomFilterIndexManager index = new BloomFilterIndexManager(new OptimisticBTreeIndexManager(), 100, 0.01);
+        for (long key = 0; key < 50; key++) {
+            index.insert(key);
+        }
+        long bytes = index.getFilterBytes();
+        for (int round = 0; round < 100; round++) {
+            for (long key = 0; key < 50; key++) {
+                index.insert(key);
+            }
+        }
+        assertEquals(bytes, index.getFilterBytes());
+    }
+
+    @Test
+    void newKeysPastCapacityRebuildTheFilter() {
+        BloomFilterIndexManager index = new BloomFilterIndexManager(new OptimisticBTreeIndexManager(), 100, 0.01);
+        long bytes = index.getFilterBytes();
+        for (long key = 0; key < 1_000; key++) {
+            index.insert(key);
+        }
+        assertTrue(index.getFilterBytes() > bytes);
+        for (long key = 0; key < 1_000; key++) {
+            assertTrue(index.containsKey(key));
+        }
+    }
+}
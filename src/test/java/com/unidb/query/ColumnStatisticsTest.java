@@ -0,0 +1,79 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ColumnStatisticsTest {
+    @Test
+    void nullsCountTowardRowsButNotValues() {
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            values.add(i % 10 < 3 ? null : i);
+        }
+        ColumnStatistics column = ColumnStatistics.fromSample("c", values, values.size());
+
+        assertEquals(0.3, column.getNullFraction(), 1e-9);
+        assertEquals(700, column.getDistinctCount());
+        assertTrue(column.hasHistogram());
+        assertEquals(0.7, column.rangeSelectivity(0, 1_000), 1e-9);
+        assertEquals(0.001, column.equalitySelectivity(), 1e-9);
+    }
+
+    @Test
+    void distinctCountScalesWithTheSample() {
+        // Every sampled value unique: the whole table is assumed unique
+        List<Object> unique = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            unique.add(i);
+        }
+        assertEquals(100_000, ColumnStatistics.fromSample("c", unique, 100_000).getDistinctCount());
+
+        // Every sampled value repeated: the sample saw them all
+        List<Object> repeated = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            repeated.add(i % 50);
+        }
+        ColumnStatistics column = ColumnStatistics.fromSample("c", repeated, 100_000);
+        assertEquals(50, column.getDistinctCount());
+        assertEquals(0.02, column.equalitySelectivity(), 1e-9);
+    }
+
+    @Test
+    void frequentValueKeepsItsShareOfRows() {
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            values.add(i < 900 ? 7 : i - 900);
+        }
+        ColumnStatistics column = ColumnStatistics.fromSample("c", values, values.size());
+
+        assertEquals(100, column.getDistinctCount());
+        // Equality alone assumes uniform values; the histogram sees the spike
+        assertEquals(0.01, column.equalitySelectivity(), 1e-9);
+        assertEquals(0.9, column.rangeSelectivity(7, 7), 0.02);
+        assertEquals(column.equalitySelectivity(), column.rangeSelectivity(50, 50), 1e-9);
+    }
+
+    @Test
+    void nonNumericColumnsHaveNoHistogram() {
+        ColumnStatistics strings = ColumnStatistics.fromSample("c", Arrays.asList("a", "b", "a", null), 4);
+        assertFalse(strings.hasHistogram());
+        assertEquals(2, strings.getDistinctCount());
+        assertEquals(0.25, strings.getNullFraction(), 1e-9);
+        assertEquals(ColumnStatistics.DEFAULT_RANGE_SELECTIVITY, strings.rangeSelectivity(0, 10));
+
+        ColumnStatistics mixed = ColumnStatistics.fromSample("c", Arrays.asList(1, 1.0, 2L), 3);
+        assertEquals(2, mixed.getDistinctCount());
+        assertTrue(mixed.hasHistogram());
+
+        ColumnStatistics empty = ColumnStatistics.fromSample("c", List.of(), 0);
+        assertEquals(0, empty.getNullFraction());
+        assertEquals(0, empty.equalitySelectivity());
+    }
+}
@@ -0,0 +1,44 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.unidb.document.DocumentCollection;
+import com.unidb.storage.WalManager;
+import com.unidb.transaction.IsolationLevel;
+import com.unidb.transaction.TransactionManager;
+
+class DocumentSettlementTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void transactionsEndedByTheTransactionManagerSettle() throws IOException {
+        TransactionManager manager = new TransactionManager(new WalManager(directory.resolve("wal.log").toString()));
+        // No model or statistics files: the executor keeps both in memory
+        try (QueryExecutor executor = new QueryExecutor(manager.getVersionManager(), ExecutionMode.POOLED, null,
+                null)) {
+            DocumentCollection people = executor.createCollection("people", "$.age");
+
+            long insert = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+            executor.putDocument(insert, "people", 1, "{\"age\": 30}");
+            executor.putDocument(insert, "people", 2, "{\"age\": 40}");
+            manager.commitTransaction(insert);
+
+            long delete = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+            people.delete(delete, 1);
+            manager.commitTransaction(delete);
+            assertEquals(1, people.getDocumentCount());
+
+            long abandoned = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+            executor.putDocument(abandoned, "people", 3, "{\"age\": 50}");
+            manager.rollbackTransaction(abandoned);
+            assertEquals(1, people.getDocumentCount());
+        }
+    }
+}
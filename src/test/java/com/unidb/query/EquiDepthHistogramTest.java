@@ -0,0 +1,85 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class EquiDepthHistogramTest {
+    @Test
+    void bucketsSplitUniformValuesEvenly() {
+        EquiDepthHistogram histogram = EquiDepthHistogram.of(range(0, 1000), 100); // bounds every 10
+
+        assertEquals(100, histogram.buckets());
+        assertEquals(1, histogram.fraction(0, 1000), 1e-9);
+        assertEquals(0.01, histogram.fraction(0, 10), 1e-9);
+        assertEquals(0.01, histogram.fraction(5, 15), 1e-9); // half of two buckets
+        assertEquals(0.25, histogram.fraction(250, 500), 1e-9);
+        assertEquals(0.5, histogram.fraction(Double.NEGATIVE_INFINITY, 500), 1e-9);
+        assertEquals(0, histogram.fraction(-10, -1));
+        assertEquals(0, histogram.fraction(1001, 2000));
+        assertEquals(0, histogram.fraction(20, 10));
+    }
+
+    @Test
+    void fewValuesGetFewerBuckets() {
+        assertEquals(2, EquiDepthHistogram.of(new double[] { 1, 2, 3 }, 100).buckets());
+
+        EquiDepthHistogram single = EquiDepthHistogram.of(new double[] { 5 }, 100);
+        assertEquals(1, single.buckets());
+        assertEquals(1, single.fraction(5, 5));
+        assertEquals(0, single.fraction(6, 7));
+
+        assertThrows(IllegalArgumentException.class, () -> EquiDepthHistogram.of(new double[0], 10));
+        assertThrows(IllegalArgumentException.class, () -> EquiDepthHistogram.of(new double[] { 1 }, 0));
+    }
+
+    @Test
+    void frequentValueSpansSeveralBuckets() {
+        // 900 copies of 7 among 100 distinct values from 0 to 99
+        double[] values = new double[1_000];
+        Arrays.fill(values, 0, 900, 7);
+        System.arraycopy(range(0, 99), 0, values, 900, 100);
+        Arrays.sort(values);
+        EquiDepthHistogram histogram = EquiDepthHistogram.of(values, 100);
+
+        assertEquals(0.9, histogram.fraction(7, 7), 0.02);
+        assertEquals(0.9, histogram.fraction(6.5, 7.5), 0.02);
+        // The values around the spike keep narrow estimates of their own
+        assertEquals(0.09, histogram.fraction(8, 99), 0.02);
+        assertEquals(1, histogram.fraction(0, 99), 1e-9);
+    }
+
+    @Test
+    void boundsSurviveARoundTrip() throws IOException {
+        double[] values = new double[500];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (double) i * i / 100; // skewed toward small values
+        }
+        EquiDepthHistogram histogram = EquiDepthHistogram.of(values, 20);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        histogram.writeTo(new DataOutputStream(bytes));
+        EquiDepthHistogram read = EquiDepthHistogram.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(histogram.buckets(), read.buckets());
+        for (double low = 0; low < 2_500; low += 97) {
+            assertEquals(histogram.fraction(low, low + 300), read.fraction(low, low + 300));
+        }
+    }
+
+    private static double[] range(int from, int to) {
+        double[] values = new double[to - from + 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = from + i;
+        }
+        return values;
+    }
+}
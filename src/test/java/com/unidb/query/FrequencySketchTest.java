@@ -0,0 +1,65 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class FrequencySketchTest {
+    @Test
+    void estimatesNeverFallBelowTheTrueCount() {
+        FrequencySketch sketch = new FrequencySketch(4096);
+        Random random = new Random(1);
+        int[] hashes = new int[500];
+        int[] counts = new int[hashes.length];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextInt();
+            counts[i] = random.nextInt(12);
+            for (int c = 0; c < counts[i]; c++) {
+                sketch.increment(hashes[i]);
+            }
+        }
+        int exact = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            int estimate = sketch.frequency(hashes[i]);
+            assertTrue(estimate >= counts[i], "hash " + i + ": " + estimate + " < " + counts[i]);
+            exact += estimate == counts[i] ? 1 : 0;
+        }
+        // 500 keys in 64k counters rarely collide in all four rows
+        assertTrue(exact > hashes.length * 9 / 10, exact + " exact estimates");
+    }
+
+    @Test
+    void countersSaturateAtFifteen() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(42);
+        }
+        assertEquals(15, sketch.frequency(42));
+    }
+
+    @Test
+    void countsAreHalvedOnceTheSampleIsFull() {
+        // 16 expected entries give 16 words, and a reset after 160 additions
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 12; i++) {
+            sketch.increment(7);
+        }
+        assertTrue(sketch.frequency(7) >= 12);
+        int before = sketch.frequency(7);
+        Random random = new Random(2);
+        int additions = 12;
+        while (additions < 160) {
+            int hash = random.nextInt();
+            if (sketch.frequency(hash) < 15) {
+                sketch.increment(hash);
+                additions++;
+            }
+        }
+        int after = sketch.frequency(7);
+        assertTrue(after <= before / 2 + 1, before + " became " + after);
+        assertTrue(after >= 12 / 2, before + " became " + after);
+    }
+}
@@ -0,0 +1,275 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class JoinEnumeratorTest {
+    @Test
+    void dynamicProgrammingMatchesExhaustiveSearchOnRandomConnectedGraphs() {
+        Random random = new Random(17);
+        for (int round = 0; round < 200; round++) {
+            Graph graph = Graph.random(random, 2 + random.nextInt(7));
+            JoinEnumerator.Tree tree = graph.enumerator().optimize();
+
+            assertEquals(graph.all(), tree.getRelations());
+            assertEquals(graph.cost(tree), tree.getCost(), 1e-9 * tree.getCost(), "cost model of round " + round);
+            double best = graph.exhaustive(graph.all());
+            assertEquals(best, tree.getCost(), 1e-9 * best, "round " + round);
+            assertTrue(tree.getCost() <= graph.enumerator().optimizeGreedy().getCost() * (1 + 1e-9));
+        }
+    }
+
+    @Test
+    void disconnectedGraphFallsBackToGreedyOrdering() {
+        Graph graph = new Graph(new double[] { 1_000, 50, 20_000, 300 });
+        graph.edge(0, 1, 0.01, true);
+        graph.edge(2, 3, 0.001, true);
+        JoinEnumerator enumerator = graph.enumerator();
+
+        JoinEnumerator.Tree tree = enumerator.optimize();
+        JoinEnumerator.Tree greedy = enumerator.optimizeGreedy();
+        assertEquals(graph.all(), tree.getRelations());
+        assertEquals(greedy.getCost(), tree.getCost());
+        assertEquals(greedy.getRelations(), tree.getRelations());
+        // The components are joined first, and the cross product between them last
+        assertEquals(JoinEnumerator.Method.NESTED_LOOP, tree.getMethod());
+        assertEquals(3, tree.getJoinCount());
+        assertEquals(2, Long.bitCount(tree.getLeft().getRelations()));
+        assertEquals(2, Long.bitCount(tree.getRight().getRelations()));
+    }
+
+    @Test
+    void hashAndMergeJoinsNeedAnEquiPredicate() {
+        Random random = new Random(23);
+        for (int round = 0; round < 100; round++) {
+            Graph graph = Graph.random(random, 2 + random.nextInt(7));
+            JoinEnumerator enumerator = graph.enumerator();
+            graph.assertMethodsHavePredicates(enumerator.optimize());
+            graph.assertMethodsHavePredicates(enumerator.optimizeGreedy());
+        }
+
+        // Large inputs make a hash join far cheaper, but a range predicate still forces nested loops
+        Graph ranges = new Graph(new double[] { 1e6, 1e6, 1e6 });
+        ranges.edge(0, 1, 1e-3, false);
+        ranges.edge(1, 2, 1e-3, false);
+        JoinEnumerator.Tree tree = ranges.enumerator().optimize();
+        assertEquals(JoinEnumerator.Method.NESTED_LOOP, tree.getMethod());
+        assertEquals(JoinEnumerator.Method.NESTED_LOOP,
+                (tree.getLeft().isLeaf() ? tree.getRight() : tree.getLeft()).getMethod());
+    }
+
+    @Test
+    void sixtyFourRelationsUseTheFullMask() {
+        double[] rows = new double[JoinEnumerator.MAX_RELATIONS];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = 100 + i;
+        }
+        Graph graph = new Graph(rows);
+        for (int i = 1; i < rows.length; i++) {
+            graph.edge(i - 1, i, 0.01, true);
+        }
+        JoinEnumerator.Tree tree = graph.enumerator().optimize();
+        assertEquals(-1L, graph.all());
+        assertEquals(-1L, tree.getRelations());
+        assertEquals(63, tree.getJoinCount());
+        graph.assertMethodsHavePredicates(tree);
+        assertEquals(graph.enumerator().cardinality(-1L), tree.getRows());
+
+        assertThrows(IllegalArgumentException.class, () -> new JoinEnumerator(new double[rows.length + 1]));
+        assertThrows(IllegalArgumentException.class, () -> new JoinEnumerator(new double[3]).addPredicate(0b1001, 1,
+                true));
+    }
+
+    @Test
+    void leftDeepTreeFollowsTheGivenOrder() {
+        Graph graph = new Graph(new double[] { 10, 20, 30 });
+        graph.edge(0, 1, 0.1, true);
+        graph.edge(1, 2, 0.1, true);
+        JoinEnumerator.Tree tree = graph.enumerator().leftDeep(new int[] { 2, 1, 0 });
+        assertTrue(tree.isLeftDeep());
+        assertEquals(0b111, tree.getRelations());
+        assertEquals(0, (tree.getLeft().isLeaf() ? tree.getLeft() : tree.getRight()).getRelation());
+        assertEquals(graph.cost(tree), tree.getCost(), 1e-9);
+    }
+
+    // The query graph, kept alongside the enumerator so the test can recompute costs on its own
+    private static final class Graph {
+        // Cost model of JoinEnumerator, restated so exhaustive search prices trees the same way
+        private static final double HASH_PROBE_COST = 1.0;
+        private static final double HASH_BUILD_COST = 2.0;
+        private static final double HASH_MEMORY_ROWS = 1_000_000;
+        private static final double HASH_SPILL_FACTOR = 3.0;
+        private static final double SORT_COST = 0.1;
+        private static final double NESTED_LOOP_PAIR_COST = 0.2;
+
+        private final double[] rows;
+        private final List<long[]> edges = new ArrayList<>(); // {relations, selectivity bits, equi}
+        private final Map<Long, Double> best = new HashMap<>();
+
+        private Graph(double[] rows) {
+            this.rows = rows;
+        }
+
+        // A random spanning tree plus a few extra edges, with row counts from 10 to 10 million
+        private static Graph random(Random random, int relations) {
+            double[] rows = new double[relations];
+            for (int i = 0; i < relations; i++) {
+                rows[i] = Math.round(Math.pow(10, 1 + random.nextDouble() * 6));
+            }
+            Graph graph = new Graph(rows);
+            for (int i = 1; i < relations; i++) {
+                graph.edge(random.nextInt(i), i, Math.pow(10, -random.nextDouble() * 4), random.nextInt(4) != 0);
+            }
+            for (int extra = random.nextInt(relations); extra > 0; extra--) {
+                int a = random.nextInt(relations);
+                int b = random.nextInt(relations);
+                if (a != b) {
+                    graph.edge(a, b, Math.pow(10, -random.nextDouble() * 4), random.nextBoolean());
+                }
+            }
+            return graph;
+        }
+
+        private void edge(int a, int b, double selectivity, boolean equiJoin) {
+            edges.add(new long[] { 1L << a | 1L << b, Double.doubleToLongBits(selectivity), equiJoin ? 1 : 0 });
+        }
+
+        private JoinEnumerator enumerator() {
+            JoinEnumerator enumerator = new JoinEnumerator(rows);
+            for (long[] edge : edges) {
+                enumerator.addPredicate(edge[0], Double.longBitsToDouble(edge[1]), edge[2] == 1);
+            }
+            return enumerator;
+        }
+
+        private long all() {
+            return rows.length == Long.SIZE ? -1L : (1L << rows.length) - 1;
+        }
+
+        private double cardinality(long relations) {
+            double result = 1;
+            for (int i = 0; i < rows.length; i++) {
+                if ((relations >>> i & 1) != 0) {
+                    result *= rows[i];
+                }
+            }
+            for (long[] edge : edges) {
+                if ((edge[0] & ~relations) == 0) {
+                    result *= Double.longBitsToDouble(edge[1]);
+                }
+            }
+            return result;
+        }
+
+        private boolean linked(long left, long right) {
+            for (long[] edge : edges) {
+                if ((edge[0] & left) != 0 && (edge[0] & right) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean equiJoined(long left, long right) {
+            for (long[] edge : edges) {
+                if (edge[2] == 1 && (edge[0] & left) != 0 && (edge[0] & right) != 0
+                        && (edge[0] & ~(left | right)) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean connected(long relations) {
+            long reached = Long.lowestOneBit(relations);
+            for (boolean grew = true; grew;) {
+                grew = false;
+                for (long[] edge : edges) {
+                    if ((edge[0] & ~relations) == 0 && (edge[0] & reached) != 0 && (edge[0] & ~reached) != 0) {
+                        reached |= edge[0];
+                        grew = true;
+                    }
+                }
+            }
+            return reached == relations;
+        }
+
+        // Cheapest tree over every split of the set into two connected, linked halves, in every orientation
+        private double exhaustive(long relations) {
+            if (Long.bitCount(relations) == 1) {
+                return rows[Long.numberOfTrailingZeros(relations)];
+            }
+            Double cached = best.get(relations);
+            if (cached != null) {
+                return cached;
+            }
+            double result = Double.POSITIVE_INFINITY;
+            for (long left = (relations - 1) & relations; left != 0; left = (left - 1) & relations) {
+                long right = relations & ~left;
+                if (!connected(left) || !connected(right) || !linked(left, right)) {
+                    continue;
+                }
+                double children = exhaustive(left) + exhaustive(right);
+                double leftRows = cardinality(left);
+                double rightRows = cardinality(right);
+                result = Math.min(result, joinCost(children, cardinality(relations), leftRows, rightRows,
+                        JoinEnumerator.Method.NESTED_LOOP));
+                if (equiJoined(left, right)) {
+                    result = Math.min(result, joinCost(children, cardinality(relations), leftRows, rightRows,
+                            JoinEnumerator.Method.HASH));
+                    result = Math.min(result, joinCost(children, cardinality(relations), leftRows, rightRows,
+                            JoinEnumerator.Method.MERGE));
+                }
+            }
+            best.put(relations, result);
+            return result;
+        }
+
+        // Recomputes the cost of a tree the enumerator built
+        private double cost(JoinEnumerator.Tree tree) {
+            if (tree.isLeaf()) {
+                return rows[tree.getRelation()];
+            }
+            return joinCost(cost(tree.getLeft()) + cost(tree.getRight()), tree.getRows(), tree.getLeft().getRows(),
+                    tree.getRight().getRows(), tree.getMethod());
+        }
+
+        private static double joinCost(double children, double rows, double outer, double inner,
+                JoinEnumerator.Method method) {
+            return children + rows + switch (method) {
+                case HASH -> HASH_PROBE_COST * outer + HASH_BUILD_COST * inner
+                        * (inner > HASH_MEMORY_ROWS ? HASH_SPILL_FACTOR : 1);
+                case MERGE -> sortCost(outer) + sortCost(inner) + outer + inner;
+                case NESTED_LOOP -> NESTED_LOOP_PAIR_COST * outer * inner;
+            };
+        }
+
+        private static double sortCost(double rows) {
+            return SORT_COST * rows * Math.log(Math.max(2, rows)) / Math.log(2);
+        }
+
+        private void assertMethodsHavePredicates(JoinEnumerator.Tree tree) {
+            if (tree.isLeaf()) {
+                return;
+            }
+            long left = tree.getLeft().getRelations();
+            long right = tree.getRight().getRelations();
+            assertEquals(left | right, tree.getRelations());
+            assertEquals(0, left & right);
+            if (tree.getMethod() != JoinEnumerator.Method.NESTED_LOOP) {
+                assertTrue(equiJoined(left, right), tree.getMethod() + " join without an equi predicate");
+            }
+            assertMethodsHavePredicates(tree.getLeft());
+            assertMethodsHavePredicates(tree.getRight());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LongHashTableTest {
+    private static final long SLOT_BYTES = 16;
+
+    @Test
+    void growingKeepsTheOldTableUntilItIsDrained() {
+        LongHashTable table = new LongHashTable(12); // 16 slots
+        for (long key = 1; key <= 12; key++) {
+            table.put(key, key * 10);
+        }
+        assertEquals(16 * SLOT_BYTES, table.memoryBytes());
+
+        // The 13th key doubles the table; the old one is only moved over a few slots per write
+        table.put(13, 130);
+        assertTrue(table.memoryBytes() > 32 * SLOT_BYTES);
+        for (long key = 1; key <= 13; key++) {
+            assertEquals(key * 10, table.get(key, -1));
+        }
+        assertEquals(13, table.size());
+
+        table.put(14, 140);
+        assertEquals(32 * SLOT_BYTES, table.memoryBytes());
+        for (long key = 1; key <= 14; key++) {
+            assertEquals(key * 10, table.get(key, -1));
+        }
+    }
+
+    @Test
+    void keysStillInTheRetiringTableCanBeUpdatedAndRemoved() {
+        LongHashTable table = new LongHashTable(12);
+        for (long key = 1; key <= 13; key++) {
+            table.put(key, key);
+        }
+        // Mid-migration: updating a key that has not moved yet must not duplicate it
+        for (long key = 1; key <= 12; key++) {
+            assertTrue(table.containsKey(key));
+        }
+        table.put(12, 1200);
+        assertEquals(13, table.size());
+        assertEquals(1200, table.get(12, -1));
+        assertTrue(table.remove(11));
+        assertFalse(table.remove(11));
+        assertEquals(12, table.size());
+        assertFalse(table.containsKey(11));
+        assertEquals(1200, table.get(12, -1));
+    }
+
+    @Test
+    void zeroAndNegativeKeys() {
+        LongHashTable table = new LongHashTable();
+        assertFalse(table.containsKey(0));
+        table.put(0, 7);
+        table.put(-1, 8);
+        table.put(Long.MIN_VALUE, 9);
+        assertEquals(3, table.size());
+        assertEquals(7, table.get(0, -1));
+        assertEquals(8, table.get(-1, -1));
+        assertEquals(9, table.get(Long.MIN_VALUE, -1));
+        assertTrue(table.remove(0));
+        assertEquals(-1, table.get(0, -1));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void randomOperationsMatchAHashMap() {
+        Random random = new Random(42);
+        LongHashTable table = new LongHashTable();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(20_000) - 1_000;
+            int operation = random.nextInt(10);
+            if (operation < 6) {
+                long value = random.nextLong();
+                table.put(key, value);
+                expected.put(key, value);
+            } else if (operation < 8) {
+                assertEquals(expected.remove(key) != null, table.remove(key));
+            } else {
+                assertEquals(expected.getOrDefault(key, Long.MIN_VALUE), table.get(key, Long.MIN_VALUE));
+            }
+            assertEquals(expected.size(), table.size());
+        }
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), table.get(entry.getKey(), Long.MIN_VALUE));
+        }
+    }
+}
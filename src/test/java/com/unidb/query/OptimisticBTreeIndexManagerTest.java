@@ -0,0 +1,133 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class OptimisticBTreeIndexManagerTest {
+    @Test
+    void smallFanoutSplitsMatchATreeMap() {
+        Random random = new Random(7);
+        OptimisticBTreeIndexManager index = new OptimisticBTreeIndexManager(4);
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            long key = random.nextInt(5_000) - 2_500;
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(key) != null, index.remove(key));
+            } else {
+                long value = random.nextLong();
+                index.insert(key, value);
+                expected.put(key, value);
+            }
+        }
+        for (long key = -2_600; key < 2_600; key++) {
+            assertEquals(expected.containsKey(key), index.containsKey(key));
+            assertEquals(expected.getOrDefault(key, key), index.lookup(key));
+        }
+        assertEquals(new ArrayList<>(expected.subMap(-100L, true, 100L, true).keySet()),
+                keys(index.scan(-100, 100)));
+        assertEquals(new ArrayList<>(expected.subMap(-100L, true, 100L, true).descendingKeySet()),
+                keys(index.scanDescending(-100, 100)));
+        assertEquals(new ArrayList<>(expected.keySet()), keys(index.scan(Long.MIN_VALUE, Long.MAX_VALUE)));
+    }
+
+    @Test
+    void scansRespectBoundsAtTheExtremes() {
+        OptimisticBTreeIndexManager index = new OptimisticBTreeIndexManager(4);
+        for (long key : new long[] { Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE }) {
+            index.insert(key);
+        }
+        assertEquals(List.of(Long.MIN_VALUE, -1L, 0L, 1L, Long.MAX_VALUE),
+                keys(index.scan(Long.MIN_VALUE, Long.MAX_VALUE)));
+        assertEquals(List.of(1L, 0L), keys(index.scanDescending(0, 1)));
+        assertEquals(List.of(), keys(index.scan(2, 100)));
+        assertEquals(List.of(), keys(index.scan(5, 4)));
+        assertEquals(List.of(0L, 1L), keys(index.seek(0)).subList(0, 2));
+    }
+
+    @Test
+    void fanoutBelowFourIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new OptimisticBTreeIndexManager(3));
+    }
+
+    @Test
+    void readersNeverMissStableKeysWhileWritersSplitNodes() throws Exception {
+        OptimisticBTreeIndexManager index = new OptimisticBTreeIndexManager(8);
+        // Even keys are present throughout; writers add and remove odd keys around them
+        for (long key = 0; key < 20_000; key += 2) {
+            index.insert(key);
+        }
+        int writers = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(writers + 2);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                writes.add(pool.submit(() -> {
+                    for (long key = 1 + 2L * writer; key < 20_000; key += 2L * writers) {
+                        index.insert(key);
+                    }
+                    for (long key = 1 + 2L * writer; key < 20_000; key += 4L * writers) {
+                        assertTrue(index.remove(key));
+                    }
+                }));
+            }
+            Future<?> pointReader = pool.submit(() -> {
+                Random random = new Random(1);
+                while (running.get()) {
+                    long key = 2L * random.nextInt(10_000);
+                    assertTrue(index.containsKey(key), "missing " + key);
+                }
+            });
+            Future<?> scanner = pool.submit(() -> {
+                while (running.get()) {
+                    IndexCursor cursor = index.scan(0, 19_999);
+                    long previous = -1;
+                    long even = 0;
+                    while (cursor.next()) {
+                        assertTrue(cursor.key() > previous, "out of order");
+                        previous = cursor.key();
+                        even += cursor.key() % 2 == 0 ? 1 : 0;
+                    }
+                    assertEquals(10_000, even);
+                }
+            });
+            for (Future<?> write : writes) {
+                write.get();
+            }
+            running.set(false);
+            pointReader.get();
+            scanner.get();
+        } finally {
+            running.set(false);
+            pool.shutdown();
+        }
+
+        for (long key = 0; key < 20_000; key++) {
+            boolean removed = key % 2 == 1 && (key - 1) % (4 * writers) < 2 * writers;
+            assertEquals(!removed, index.containsKey(key), "key " + key);
+        }
+        assertFalse(index.containsKey(20_000));
+    }
+
+    private static List<Long> keys(IndexCursor cursor) {
+        List<Long> keys = new ArrayList<>();
+        while (cursor.next()) {
+            keys.add(cursor.key());
+        }
+        return keys;
+    }
+}
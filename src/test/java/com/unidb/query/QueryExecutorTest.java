@@ -0,0 +1,296 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.unidb.storage.WalManager;
+import com.unidb.transaction.IsolationLevel;
+import com.unidb.transaction.TransactionManager;
+import com.unidb.transaction.VersionManager;
+
+class QueryExecutorTest {
+    @TempDir
+    Path directory;
+
+    private VersionManager versions;
+    private QueryExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        versions = new VersionManager();
+        executor = new QueryExecutor(versions, ExecutionMode.POOLED, null, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    void closeStopsTheLearnerAndRejectsNewQueries() throws Exception {
+        Set<Thread> learners = liveThreads("ml-learner");
+        QueryExecutor closed = new QueryExecutor(new VersionManager(), ExecutionMode.POOLED,
+                directory.resolve("model.zip").toString(), directory.resolve("statistics.bin").toString());
+        closed.executeQuery("INSERT 1 VALUE 10", 1, IsolationLevel.READ_COMMITTED);
+        closed.executeQuery("COMMIT", 1, IsolationLevel.READ_COMMITTED);
+        assertEquals("10", closed.executeQuery("SELECT value FROM t WHERE id = 1", 2,
+                IsolationLevel.READ_COMMITTED));
+        Set<Thread> started = liveThreads("ml-learner");
+        started.removeAll(learners);
+        assertEquals(1, started.size());
+        closed.close();
+
+        // The pool reports termination just before its last thread exits
+        Thread learner = started.iterator().next();
+        learner.join(10_000);
+        assertFalse(learner.isAlive());
+        assertThrows(RejectedExecutionException.class,
+                () -> closed.executeQueryAsync("SELECT value FROM t WHERE id = 2", 3,
+                        IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void readerOlderThanTheLastWriterNeitherFillsNorHitsTheCache() throws Exception {
+        write(1, 1, "10");
+        write(2, 2, "10");
+        versions.beginSnapshot(3, List.of()); // keeps the versions reader 5 sees
+        write(10, 1, "20");
+        write(10, 2, "20");
+
+        // Key 1: the old reader goes first and must not cache the version the newer one cannot see
+        assertEquals("10", read("SELECT value FROM t WHERE id = 1", 5, IsolationLevel.READ_COMMITTED));
+        assertEquals("20", read("SELECT value FROM t WHERE id = 1", 20, IsolationLevel.READ_COMMITTED));
+        // Key 2: the new reader caches first and the old one must still read its own version
+        assertEquals("20", read("SELECT value FROM t WHERE id = 2", 20, IsolationLevel.REPEATABLE_READ));
+        assertEquals("20", read("SELECT value FROM t WHERE id = 2", 21, IsolationLevel.REPEATABLE_READ));
+        assertEquals("10", read("SELECT value FROM t WHERE id = 2", 5, IsolationLevel.REPEATABLE_READ));
+    }
+
+    @Test
+    void oldReaderOfAnUntouchedKeyStillUsesTheCache() throws Exception {
+        write(1, 1, "10");
+        write(10, 2, "20");
+        assertEquals("10", read("SELECT value FROM t WHERE id = 1", 20, IsolationLevel.READ_COMMITTED));
+        // Writer 10 never touched key 1, so reader 5 sees the latest committed version there
+        assertEquals("10", read("SELECT value FROM t WHERE id = 1", 5, IsolationLevel.READ_COMMITTED));
+        write(30, 1, "30");
+        assertEquals("30", read("SELECT value FROM t WHERE id = 1", 40, IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void rangeReadersOlderThanTheLastWriterBypassTheCache() throws Exception {
+        write(1, 1, "10");
+        write(1, 2, "10");
+        versions.beginSnapshot(3, List.of());
+        write(10, 2, "20");
+
+        String range = "SELECT * FROM t WHERE id BETWEEN 1 AND 3";
+        assertEquals("{1=10, 2=10}", read(range, 5, IsolationLevel.READ_COMMITTED));
+        assertEquals("{1=10, 2=20}", read(range, 20, IsolationLevel.READ_COMMITTED));
+        assertEquals("{1=10, 2=10}", read(range, 5, IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void batchReadersOlderThanTheLastWriterBypassTheCache() throws Exception {
+        write(1, 1, "10");
+        write(1, 2, "10");
+        versions.beginSnapshot(3, List.of());
+        write(10, 1, "20");
+
+        List<String> reads = List.of("SELECT value FROM t WHERE id = 1", "SELECT value FROM t WHERE id = 2");
+        assertEquals(List.of("10", "10"), executor.executeBatch(reads, 5, IsolationLevel.READ_COMMITTED));
+        assertEquals(List.of("20", "10"), executor.executeBatch(reads, 20, IsolationLevel.READ_COMMITTED));
+        assertEquals(List.of("10", "10"), executor.executeBatch(reads, 5, IsolationLevel.READ_COMMITTED));
+        assertEquals("20", read("SELECT value FROM t WHERE id = 1", 21, IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void batchResultsComeBackInInputOrder() throws Exception {
+        List<String> batch = List.of("INSERT 5 VALUE a", "INSERT 3 VALUE b", "SELECT value FROM t WHERE id = 5",
+                "SELECT value FROM t WHERE id = 3", "INSERT 1 VALUE c", "SELECT value FROM t WHERE id = 1",
+                "SELECT value FROM t WHERE id = 4");
+        assertEquals(Arrays.asList("WRITE SUCCESS", "WRITE SUCCESS", "a", "b", "WRITE SUCCESS", "c", null),
+                executor.executeBatch(batch, 1, IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void batchKeepsTheOrderOfAccessesToOneKey() throws Exception {
+        write(1, 7, "old");
+        // The lower keys sort ahead of key 7, but its reads and writes stay in their input order
+        List<String> batch = List.of("SELECT value FROM t WHERE id = 7", "INSERT 7 VALUE x", "INSERT 2 VALUE a",
+                "SELECT value FROM t WHERE id = 7", "INSERT 7 VALUE y", "INSERT 1 VALUE b",
+                "SELECT value FROM t WHERE id = 7");
+        assertEquals(List.of("old", "WRITE SUCCESS", "WRITE SUCCESS", "x", "WRITE SUCCESS", "WRITE SUCCESS", "y"),
+                executor.executeBatch(batch, 2, IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void commitRollbackAndRangeQueriesAreBarriers() throws Exception {
+        // COMMIT has no key; sorted with the write it would commit before key 9 is written
+        assertEquals(List.of("WRITE SUCCESS", "COMMIT SUCCESS"), executor.executeBatch(
+                List.of("INSERT 9 VALUE a", "COMMIT"), 1, IsolationLevel.READ_COMMITTED));
+        assertEquals(List.of("a"), executor.executeBatch(List.of("SELECT value FROM t WHERE id = 9"), 2,
+                IsolationLevel.READ_COMMITTED));
+
+        // The rolled back write of key 8 must not move past the ROLLBACK
+        write(3, 8, "old");
+        assertEquals(List.of("WRITE SUCCESS", "ROLLBACK SUCCESS", "WRITE SUCCESS", "old", "COMMIT SUCCESS"),
+                executor.executeBatch(List.of("INSERT 8 VALUE new", "ROLLBACK", "INSERT 3 VALUE x",
+                        "SELECT value FROM t WHERE id = 8", "COMMIT"), 4, IsolationLevel.READ_COMMITTED));
+        assertEquals("x", read("SELECT value FROM t WHERE id = 3", 5, IsolationLevel.READ_COMMITTED));
+
+        // Each range sees exactly the writes before it
+        String range = "SELECT * FROM t WHERE id BETWEEN 10 AND 20";
+        assertEquals(List.of("WRITE SUCCESS", "{19=a}", "WRITE SUCCESS", "{12=b, 19=a}"), executor.executeBatch(
+                List.of("INSERT 19 VALUE a", range, "INSERT 12 VALUE b", range), 6, IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void failureInABatchIsThrownToTheCaller() throws Exception {
+        try (QueryExecutor failing = new QueryExecutor(new FailingVersionManager(13), ExecutionMode.POOLED, null,
+                null)) {
+            ExecutionException thrown = assertThrows(ExecutionException.class, () -> failing.executeBatch(
+                    List.of("INSERT 12 VALUE a", "INSERT 13 VALUE b"), 1, IsolationLevel.READ_COMMITTED));
+            assertInstanceOf(IllegalStateException.class, thrown.getCause());
+            assertEquals(List.of("a"), failing.executeBatch(List.of("SELECT value FROM t WHERE id = 12"), 1,
+                    IsolationLevel.READ_COMMITTED));
+        }
+    }
+
+    @Test
+    void snapshotsReadTheirOwnVersionsThroughTheExecutor() throws Exception {
+        TransactionManager manager = new TransactionManager(new WalManager(directory.resolve("wal.log").toString()));
+        try (QueryExecutor snapshotExecutor = new QueryExecutor(manager.getVersionManager(), ExecutionMode.POOLED,
+                null, null)) {
+            String query = "SELECT value FROM t WHERE id = 1";
+            long first = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+            snapshotExecutor.executeQuery("INSERT 1 VALUE 10", first, IsolationLevel.READ_COMMITTED);
+            manager.commitTransaction(first);
+
+            long inFlight = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+            long snapshot = manager.beginReadOnlyTransaction();
+            snapshotExecutor.executeQuery("INSERT 1 VALUE 20", inFlight, IsolationLevel.READ_COMMITTED);
+            manager.commitTransaction(inFlight);
+
+            // The writer was in flight when the snapshot started: invisible to it, visible to a new reader
+            assertEquals("10", snapshotExecutor.executeQuery(query, snapshot, IsolationLevel.READ_COMMITTED));
+            long reader = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+            assertEquals("20", snapshotExecutor.executeQuery(query, reader, IsolationLevel.READ_COMMITTED));
+            assertEquals("10", snapshotExecutor.executeQuery(query, snapshot, IsolationLevel.READ_COMMITTED));
+            assertEquals(List.of("10"), snapshotExecutor.executeBatch(List.of(query), snapshot,
+                    IsolationLevel.READ_COMMITTED));
+            manager.commitTransaction(reader);
+            manager.commitTransaction(snapshot);
+
+            assertEquals("20", snapshotExecutor.executeQuery(query, manager.beginReadOnlyTransaction(),
+                    IsolationLevel.READ_COMMITTED));
+        }
+    }
+
+    @Test
+    void asyncQueriesCompleteWithTheirOwnResults() throws Exception {
+        List<CompletableFuture<String>> writes = new ArrayList<>();
+        for (long key = 0; key < 50; key++) {
+            writes.add(executor.executeQueryAsync("INSERT " + key + " VALUE v" + key, 1 + key,
+                    IsolationLevel.READ_COMMITTED));
+        }
+        for (CompletableFuture<String> write : writes) {
+            assertEquals("WRITE SUCCESS", write.get());
+        }
+        for (long key = 0; key < 50; key++) {
+            executor.executeQuery("COMMIT", 1 + key, IsolationLevel.READ_COMMITTED);
+        }
+
+        List<CompletableFuture<String>> reads = new ArrayList<>();
+        for (long key = 49; key >= 0; key--) {
+            reads.add(executor.executeQueryAsync("SELECT value FROM t WHERE id = " + key, 100,
+                    IsolationLevel.READ_COMMITTED));
+        }
+        for (int i = 0; i < reads.size(); i++) {
+            assertEquals("v" + (49 - i), reads.get(i).get());
+        }
+    }
+
+    @Test
+    void transactionReadsItsOwnAsyncWrite() throws Exception {
+        write(1, 7, "old");
+        assertEquals("WRITE SUCCESS", executor.executeQueryAsync("INSERT 7 VALUE new", 2,
+                IsolationLevel.READ_COMMITTED).get());
+        // The writer's pending write bypasses the cache; other readers keep the committed value
+        assertEquals("new", read("SELECT value FROM t WHERE id = 7", 2, IsolationLevel.READ_COMMITTED));
+        assertEquals("old", read("SELECT value FROM t WHERE id = 7", 3, IsolationLevel.READ_COMMITTED));
+        executor.executeQueryAsync("COMMIT", 2, IsolationLevel.READ_COMMITTED).get();
+        assertEquals("new", read("SELECT value FROM t WHERE id = 7", 4, IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void failureDuringExecutionCompletesTheFutureExceptionally() throws Exception {
+        try (QueryExecutor failing = new QueryExecutor(new FailingVersionManager(13), ExecutionMode.POOLED, null,
+                null)) {
+            CompletableFuture<String> write = failing.executeQueryAsync("INSERT 13 VALUE x", 1,
+                    IsolationLevel.READ_COMMITTED);
+            ExecutionException thrown = assertThrows(ExecutionException.class, write::get);
+            assertInstanceOf(IllegalStateException.class, thrown.getCause());
+            assertTrue(write.isCompletedExceptionally());
+
+            // The executor keeps serving other queries
+            assertEquals("WRITE SUCCESS", failing.executeQuery("INSERT 12 VALUE y", 1,
+                    IsolationLevel.READ_COMMITTED));
+            assertEquals("y", failing.executeQuery("SELECT value FROM t WHERE id = 12", 1,
+                    IsolationLevel.READ_COMMITTED));
+        }
+        // A query that cannot be planned fails before anything is submitted
+        assertThrows(IllegalArgumentException.class,
+                () -> executor.executeQueryAsync("DROP TABLE t", 1, IsolationLevel.READ_COMMITTED));
+    }
+
+    private void write(long transactionId, long key, String value) throws Exception {
+        executor.executeQuery("INSERT " + key + " VALUE " + value, transactionId, IsolationLevel.READ_COMMITTED);
+        executor.executeQuery("COMMIT", transactionId, IsolationLevel.READ_COMMITTED);
+    }
+
+    // Fails every write of one key, as a full disk would
+    private static final class FailingVersionManager extends VersionManager {
+        private final long failingKey;
+
+        private FailingVersionManager(long failingKey) {
+            this.failingKey = failingKey;
+        }
+
+        @Override
+        public void writeVersion(long transactionId, long key, String value) {
+            if (key == failingKey) {
+                throw new IllegalStateException("No space left to write key " + key);
+            }
+            super.writeVersion(transactionId, key, value);
+        }
+    }
+
+    private static Set<Thread> liveThreads(String name) {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals(name) && thread.isAlive())
+                .collect(Collectors.toSet());
+    }
+
+    private String read(String query, long transactionId, IsolationLevel isolationLevel) throws Exception {
+        return executor.executeQueryAsync(query, transactionId, isolationLevel).get();
+    }
+}
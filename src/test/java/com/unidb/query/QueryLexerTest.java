@@ -0,0 +1,75 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class QueryLexerTest {
+    @Test
+    void tokenTypes() {
+        QueryLexer lexer = new QueryLexer("SELECT \"Mixed\" FROM t WHERE id >= 1.5 AND name = 'x' AND k <> ?");
+        List<Integer> types = new ArrayList<>();
+        while (lexer.next() != QueryLexer.END) {
+            types.add(lexer.type());
+        }
+        assertEquals(List.of(QueryLexer.WORD, QueryLexer.WORD, QueryLexer.WORD, QueryLexer.WORD, QueryLexer.WORD,
+                QueryLexer.WORD, QueryLexer.SYMBOL, QueryLexer.NUMBER, QueryLexer.WORD, QueryLexer.WORD,
+                QueryLexer.SYMBOL, QueryLexer.STRING, QueryLexer.WORD, QueryLexer.WORD, QueryLexer.SYMBOL,
+                QueryLexer.PARAMETER), types);
+    }
+
+    @Test
+    void minusStartsANumberOnlyWhereAnOperandIsExpected() {
+        assertEquals(List.of("id", ">", "-5"), texts("id > -5"));
+        assertEquals(List.of("BETWEEN", "-5", "AND", "-1"), texts("BETWEEN -5 AND -1"));
+        assertEquals(List.of("LIMIT", "-1"), texts("LIMIT -1"));
+        assertEquals(List.of("a", "-", "5"), texts("a - 5"));
+        assertEquals(List.of("a", "-", "5"), texts("a -5"));
+        assertEquals(List.of("(", "a", ")", "-", "5"), texts("(a) -5"));
+    }
+
+    @Test
+    void keywordsMatchCaseInsensitively() {
+        QueryLexer lexer = new QueryLexer("select");
+        lexer.next();
+        assertTrue(lexer.isKeyword("SELECT"));
+    }
+
+    @Test
+    void stringsCollapseDoubledQuotes() {
+        QueryLexer lexer = new QueryLexer("'it''s'");
+        assertEquals(QueryLexer.STRING, lexer.next());
+        assertEquals("it's", lexer.text());
+        assertThrows(IllegalArgumentException.class, () -> new QueryLexer("'open").next());
+    }
+
+    @Test
+    void parseLongCoversTheWholeRange() {
+        assertEquals(Long.MIN_VALUE, parse(Long.toString(Long.MIN_VALUE)));
+        assertEquals(Long.MAX_VALUE, parse(Long.toString(Long.MAX_VALUE)));
+        assertEquals(-42, parse("-42"));
+        assertEquals(0, parse("0"));
+        assertThrows(NumberFormatException.class, () -> parse("9223372036854775808"));
+        assertThrows(NumberFormatException.class, () -> parse("-9223372036854775809"));
+        assertThrows(NumberFormatException.class, () -> parse("-"));
+        assertThrows(NumberFormatException.class, () -> parse("1.5"));
+    }
+
+    private static long parse(String text) {
+        return QueryLexer.parseLong(text, 0, text.length());
+    }
+
+    private static List<String> texts(String sql) {
+        QueryLexer lexer = new QueryLexer(sql);
+        List<String> texts = new ArrayList<>();
+        while (lexer.next() != QueryLexer.END) {
+            texts.add(lexer.text());
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,152 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class QueryParserTest {
+    private final QueryParser parser = new QueryParser();
+
+    @Test
+    void singleEqualityIsAPointRead() {
+        ParsedQuery query = parser.parse("SELECT value FROM t WHERE id = 42");
+        assertEquals(QueryType.READ, query.getType());
+        assertEquals(42, query.getKey());
+    }
+
+    @Test
+    void comparisonsNarrowTheRange() {
+        assertRange(parser.parse("SELECT * FROM t WHERE id >= 5 AND id <= 10"), 5, 10);
+        assertRange(parser.parse("SELECT * FROM t WHERE id > 5 AND id < 10"), 6, 9);
+        assertRange(parser.parse("SELECT * FROM t WHERE id > 5"), 6, Long.MAX_VALUE);
+        assertRange(parser.parse("SELECT * FROM t WHERE id <= 7"), Long.MIN_VALUE, 7);
+        // Every bound tightens the range, whatever order they come in
+        assertRange(parser.parse("SELECT * FROM t WHERE id <= 10 AND id >= 0 AND id > 3 AND id < 20"), 4, 10);
+    }
+
+    @Test
+    void betweenIsInclusive() {
+        assertRange(parser.parse("SELECT * FROM t WHERE id BETWEEN 3 AND 8"), 3, 8);
+        assertRange(parser.parse("SELECT * FROM t WHERE id BETWEEN 3 AND 8 AND id > 3"), 4, 8);
+    }
+
+    @Test
+    void reversedPredicatesGoThroughJSqlParser() {
+        assertRange(parser.parse("SELECT * FROM t WHERE 5 < id"), 6, Long.MAX_VALUE);
+        assertRange(parser.parse("SELECT * FROM t WHERE 5 >= id AND 1 <= id"), 1, 5);
+        ParsedQuery point = parser.parse("SELECT value FROM t WHERE 9 = id");
+        assertEquals(QueryType.READ, point.getType());
+        assertEquals(9, point.getKey());
+    }
+
+    @Test
+    void parenthesizedPredicatesGoThroughJSqlParser() {
+        assertRange(parser.parse("SELECT * FROM t WHERE (id > 1) AND (id < 5)"), 2, 4);
+    }
+
+    @Test
+    void contradictoryBoundsGiveAnEmptyRange() {
+        ParsedQuery query = parser.parse("SELECT * FROM t WHERE id > 10 AND id < 5");
+        assertTrue(query.getLow() > query.getHigh());
+        // An exclusive bound past the extreme key matches nothing instead of wrapping around
+        ParsedQuery beyondMax = parser.parse("SELECT * FROM t WHERE id > " + Long.MAX_VALUE);
+        assertTrue(beyondMax.getLow() > beyondMax.getHigh());
+        ParsedQuery beforeMin = parser.parse("SELECT * FROM t WHERE id < " + Long.MIN_VALUE);
+        assertTrue(beforeMin.getLow() > beforeMin.getHigh());
+    }
+
+    @Test
+    void orderAndLimitShapeTheScan() {
+        ParsedQuery query = parser.parse("SELECT * FROM t WHERE id >= 1 ORDER BY id DESC LIMIT 3");
+        assertRange(query, 1, Long.MAX_VALUE);
+        assertTrue(query.isDescending());
+        assertEquals(3, query.getLimit());
+
+        ParsedQuery unlimited = parser.parse("SELECT * FROM t WHERE id >= 1 ORDER BY id");
+        assertEquals(Long.MAX_VALUE, unlimited.getLimit());
+        // An equality with a limit is still a range, so the limit applies
+        assertEquals(QueryType.RANGE, parser.parse("SELECT * FROM t WHERE id = 4 LIMIT 1").getType());
+    }
+
+    @Test
+    void negativeLiterals() {
+        assertEquals(-5, parser.parse("SELECT value FROM t WHERE id = -5").getKey());
+        assertRange(parser.parse("SELECT * FROM t WHERE id BETWEEN -10 AND -2"), -10, -2);
+        assertRange(parser.parse("SELECT * FROM t WHERE id > -3 AND id < 3"), -2, 2);
+        assertRange(parser.parse("SELECT * FROM t WHERE -3 < id"), -2, Long.MAX_VALUE);
+        ParsedQuery write = parser.parse("INSERT -7 VALUE -1");
+        assertEquals(QueryType.WRITE, write.getType());
+        assertEquals(-7, write.getKey());
+        assertEquals("-1", write.getValue());
+    }
+
+    @Test
+    void writesAndTransactionControl() {
+        ParsedQuery write = parser.parse("UPDATE 12 SET 'it''s'");
+        assertEquals(QueryType.WRITE, write.getType());
+        assertEquals(12, write.getKey());
+        assertEquals("it's", write.getValue());
+        assertEquals(QueryType.COMMIT, parser.parse("COMMIT;").getType());
+        assertEquals(QueryType.ROLLBACK, parser.parse("rollback").getType());
+    }
+
+    @Test
+    void templateSlotsFollowTheLiteralOrder() {
+        String sql = "SELECT * FROM t WHERE id > 2 AND id <= 9 ORDER BY id DESC LIMIT 4";
+        QueryShape shape = QueryShape.of(sql);
+        QueryTemplate template = parser.parseTemplate(shape.text());
+        assertEquals(3, template.getParameterCount());
+        ParsedQuery direct = parser.parse(sql);
+        ParsedQuery bound = template.bind(shape.literals());
+        assertRange(bound, direct.getLow(), direct.getHigh());
+        assertEquals(direct.getLimit(), bound.getLimit());
+        assertEquals(direct.isDescending(), bound.isDescending());
+
+        // Rebinding the same template to other literals needs no parse
+        ParsedQuery rebound = template.bind(new String[] { "10", "20", "1" });
+        assertRange(rebound, 11, 20);
+        assertEquals(1, rebound.getLimit());
+    }
+
+    @Test
+    void fallbackSlotsFollowTheLiteralOrder() {
+        QueryShape shape = QueryShape.of("SELECT * FROM t WHERE (id >= 3) AND 8 > id LIMIT 2");
+        QueryTemplate template = parser.parseTemplate(shape.text());
+        assertEquals(3, template.getParameterCount());
+        ParsedQuery query = template.bind(shape.literals());
+        assertRange(query, 3, 7);
+        assertEquals(2, query.getLimit());
+    }
+
+    @Test
+    void openParametersMustBeBound() {
+        QueryTemplate template = parser.parseTemplate(QueryShape.of("SELECT value FROM t WHERE id = ?").text());
+        assertEquals(5, template.bind(new String[] { "5" }).getKey());
+        assertThrows(IllegalArgumentException.class, () -> template.bind(new String[] { null }));
+        assertThrows(IllegalArgumentException.class, () -> template.bind(new String[0]));
+    }
+
+    @Test
+    void unsupportedSqlIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("SELECT * FROM t WHERE id = 1 OR id = 2"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("SELECT * FROM a JOIN b ON a.x = b.x"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("SELECT * FROM t LIMIT 1 OFFSET 2"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("DELETE FROM t"));
+    }
+
+    @Test
+    void selectWithoutWhereScansEverything() {
+        ParsedQuery query = parser.parse("SELECT * FROM kv AS k");
+        assertRange(query, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertNull(query.getValue());
+    }
+
+    private static void assertRange(ParsedQuery query, long low, long high) {
+        assertEquals(QueryType.RANGE, query.getType());
+        assertEquals(low, query.getLow(), "low");
+        assertEquals(high, query.getHigh(), "high");
+    }
+}
@@ -0,0 +1,123 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class QueryPrefetcherTest {
+    private final Map<Long, String> store = new ConcurrentHashMap<>();
+    private final Map<Long, CountDownLatch> blocked = new ConcurrentHashMap<>();
+    private final CountDownLatch readStarted = new CountDownLatch(1);
+    private AdaptiveQueryCache cache;
+    private QueryPrefetcher prefetcher;
+
+    @BeforeEach
+    void setUp() {
+        for (long key = 0; key < 1_000; key++) {
+            store.put(key, "v" + key);
+        }
+        QueryParser parser = new QueryParser();
+        QueryExecutionPlan planner = new QueryExecutionPlan();
+        Function<String, PreparedQuery> plans = shape -> {
+            QueryTemplate template = parser.parseTemplate(shape);
+            return new PreparedQuery(shape, template, planner.generatePlan(template.unbound()),
+                    new String[template.getParameterCount()]);
+        };
+        cache = new AdaptiveQueryCache(1 << 20, 60_000);
+        prefetcher = new QueryPrefetcher(cache, plans, plan -> {
+            long key = plan.getOptimizedQuery().getKey();
+            CountDownLatch release = blocked.get(key);
+            if (release != null) {
+                readStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return store.get(key);
+        });
+        // Every transaction reads a key and then the next one, so the model learns a +1 shift
+        for (long transaction = 1; transaction <= 6; transaction++) {
+            observe(transaction, transaction * 10);
+            observe(transaction, transaction * 10 + 1);
+            prefetcher.observe(transaction, QueryShape.of("COMMIT"), "COMMIT", false);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        prefetcher.close();
+    }
+
+    @Test
+    void predictedReadIsCachedAndCountsAsUsefulWhenRead() throws InterruptedException {
+        observe(100, 500);
+        awaitCached(501);
+        assertEquals("v501", cache.get(cacheKey(501)));
+
+        prefetcher.observe(100, QueryShape.of(read(501)), cacheKey(501), true);
+        assertTrue(prefetcher.getIssued() >= 1);
+        assertEquals(1, prefetcher.getUseful());
+    }
+
+    @Test
+    void prefetchedEntryIsDroppedByALaterWrite() throws InterruptedException {
+        observe(100, 500);
+        awaitCached(501);
+
+        store.put(501L, "new");
+        cache.invalidate(new long[] { 501 }); // the writer's commit
+        assertNull(cache.get(cacheKey(501)));
+    }
+
+    @Test
+    void prefetchRacingAWriteIsNotCached() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        blocked.put(701L, release);
+        observe(200, 700);
+        assertTrue(readStarted.await(10, TimeUnit.SECONDS));
+
+        // The prefetch read the old value; the write commits before it can cache it
+        store.put(701L, "new");
+        cache.invalidate(new long[] { 701 });
+        release.countDown();
+
+        // Prefetches run in order on one thread, so once the next one is cached the racing one is done
+        observe(300, 800);
+        awaitCached(801);
+        assertFalse(cache.contains(cacheKey(701)));
+    }
+
+    private void observe(long transactionId, long key) {
+        prefetcher.observe(transactionId, QueryShape.of(read(key)), cacheKey(key), false);
+    }
+
+    private void awaitCached(long key) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!cache.contains(cacheKey(key)) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(cache.contains(cacheKey(key)), "key " + key + " was not prefetched");
+    }
+
+    private static String read(long key) {
+        return "SELECT value FROM t WHERE id = " + key;
+    }
+
+    private static String cacheKey(long key) {
+        QueryShape shape = QueryShape.of(read(key));
+        return QueryShape.cacheKey(shape.text(), shape.literals());
+    }
+}
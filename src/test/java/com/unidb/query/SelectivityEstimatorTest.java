@@ -0,0 +1,124 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.Alias;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+
+class SelectivityEstimatorTest {
+    private StatisticsCatalog catalog;
+    private SelectivityEstimator estimator;
+
+    @BeforeEach
+    void setUp() {
+        // orders: ids 0..999, status NULL in 20% of rows; customers: 100 rows, ids 0..99
+        catalog = new StatisticsCatalog();
+        catalog.register("orders", maxRows -> {
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", i);
+                row.put("customer", i % 100);
+                row.put("status", i % 5 == 0 ? null : "s" + i % 4);
+                rows.add(row);
+            }
+            return new TableSampler.Sample(1_000, rows);
+        });
+        catalog.register("customers", maxRows -> {
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                rows.add(Map.of("id", i));
+            }
+            return new TableSampler.Sample(100, rows);
+        });
+        catalog.analyze("orders");
+        catalog.analyze("customers");
+
+        estimator = new SelectivityEstimator(catalog);
+        Table orders = new Table("orders");
+        orders.setAlias(new Alias("o"));
+        estimator.addTable(orders);
+        estimator.addTable(new Table("customers"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        catalog.close();
+    }
+
+    @Test
+    void tablesWithoutStatisticsUseTheDefaults() throws JSQLParserException {
+        SelectivityEstimator defaults = new SelectivityEstimator(null);
+        defaults.addTable(new Table("orders"));
+
+        assertEquals(SelectivityEstimator.DEFAULT_TABLE_ROWS, defaults.tableRows("orders"));
+        assertEquals(ColumnStatistics.DEFAULT_EQUALITY_SELECTIVITY, selectivity(defaults, "id = 5"));
+        assertEquals(ColumnStatistics.DEFAULT_RANGE_SELECTIVITY, selectivity(defaults, "id > 5"));
+        assertEquals(ColumnStatistics.DEFAULT_RANGE_SELECTIVITY, selectivity(defaults, "id BETWEEN 1 AND 10"));
+        assertEquals(1.0 / SelectivityEstimator.DEFAULT_DISTINCT,
+                defaults.joinSelectivity(new Column("a"), new Column("b")));
+        assertEquals(SelectivityEstimator.DEFAULT_TABLE_ROWS, estimator.tableRows("never_analyzed"));
+    }
+
+    @Test
+    void rangesFollowTheHistogram() throws JSQLParserException {
+        assertEquals(1_000, estimator.tableRows("o"));
+        assertEquals(0.1, selectivity("o.id BETWEEN 100 AND 199"), 0.01);
+        assertEquals(0.25, selectivity("orders.id < 250"), 0.01);
+        assertEquals(0.25, selectivity("250 > o.id"), 0.01); // flipped comparison
+        assertEquals(0.9, selectivity("o.id NOT BETWEEN 100 AND 199"), 0.01);
+        assertEquals(0.5, selectivity("o.id >= -500 AND o.id <= 499"), 0.01);
+        // A range over a string column, or against a non-constant, falls back
+        assertEquals(ColumnStatistics.DEFAULT_RANGE_SELECTIVITY, selectivity("status > 3"));
+        assertEquals(ColumnStatistics.DEFAULT_RANGE_SELECTIVITY, selectivity("o.id > o.customer"));
+    }
+
+    @Test
+    void equalitiesAndNullsUseColumnStatistics() throws JSQLParserException {
+        assertEquals(0.001, selectivity("o.id = 5"), 1e-9);
+        assertEquals(0.01, selectivity("customer = 5"), 1e-9);
+        assertEquals(0.003, selectivity("o.id IN (1, 2, 3)"), 1e-9);
+        assertEquals(0.2, selectivity("status IS NULL"), 1e-9);
+        assertEquals(0.8, selectivity("status IS NOT NULL"), 1e-9);
+        assertEquals(0.2, selectivity("status = 's1'"), 1e-9); // 80% of rows over 4 values
+        // Conjuncts multiply, disjuncts add without double counting
+        assertEquals(0.01 * 0.8, selectivity("customer = 5 AND status IS NOT NULL"), 1e-9);
+        assertEquals(0.2 + 0.01 - 0.2 * 0.01, selectivity("(status IS NULL OR customer = 5)"), 1e-9);
+        assertEquals(1000 * 0.01 * 0.2, estimator.filteredRows("o", List.of(
+                CCJSqlParserUtil.parseCondExpression("customer = 5"),
+                CCJSqlParserUtil.parseCondExpression("status IS NULL"))), 1e-9);
+    }
+
+    @Test
+    void ambiguousColumnsAndJoinsUseDistinctCounts() throws JSQLParserException {
+        // id exists in both tables, so an unqualified id is not attributed to either
+        assertEquals(ColumnStatistics.DEFAULT_EQUALITY_SELECTIVITY, selectivity("id = 5"));
+        assertEquals(0.01, selectivity("customers.id = 5"), 1e-9);
+
+        Column orderCustomer = new Column(new Table("o"), "customer");
+        Column customerId = new Column(new Table("customers"), "id");
+        Column orderId = new Column(new Table("o"), "id");
+        assertEquals(0.01, estimator.joinSelectivity(orderCustomer, customerId), 1e-9);
+        assertEquals(0.001, estimator.joinSelectivity(orderId, customerId), 1e-9);
+    }
+
+    private double selectivity(String condition) throws JSQLParserException {
+        return selectivity(estimator, condition);
+    }
+
+    private static double selectivity(SelectivityEstimator estimator, String condition) throws JSQLParserException {
+        return estimator.selectivity(CCJSqlParserUtil.parseCondExpression(condition));
+    }
+}
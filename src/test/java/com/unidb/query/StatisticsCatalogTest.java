@@ -0,0 +1,179 @@
+package com.unidb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StatisticsCatalogTest {
+    @TempDir
+    Path directory;
+
+    private final List<StatisticsCatalog> catalogs = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        catalogs.forEach(StatisticsCatalog::close);
+    }
+
+    @Test
+    void analyzeBuildsStatisticsOfEveryColumn() {
+        StatisticsCatalog catalog = open(null);
+        assertThrows(IllegalArgumentException.class, () -> catalog.analyze("t"));
+        catalog.register("t", new Table(1_000));
+        assertNull(catalog.get("t"));
+
+        TableStatistics statistics = catalog.analyze("t");
+        assertEquals(statistics, catalog.get("t"));
+        assertEquals(1_000, statistics.getRowCount());
+        assertEquals(1_000, statistics.getColumn("id").getDistinctCount());
+        assertEquals(0.25, statistics.getColumn("id").rangeSelectivity(0, 249), 0.01);
+        // Rows without the column count as NULL
+        assertEquals(0.5, statistics.getColumn("note").getNullFraction(), 1e-9);
+        assertNull(statistics.getColumn("missing"));
+    }
+
+    @Test
+    void statisticsSurviveARestart() {
+        String path = directory.resolve("statistics.bin").toString();
+        StatisticsCatalog catalog = open(path);
+        catalog.register("t", new Table(1_000));
+        catalog.register("u", new Table(10));
+        TableStatistics t = catalog.analyze("t");
+        TableStatistics u = catalog.analyze("u");
+        catalog.close();
+
+        StatisticsCatalog reopened = open(path);
+        for (TableStatistics expected : List.of(t, u)) {
+            TableStatistics read = reopened.get(expected.getTable());
+            assertEquals(expected.getRowCount(), read.getRowCount());
+            assertEquals(expected.getAnalyzedAtMillis(), read.getAnalyzedAtMillis());
+            assertEquals(expected.getColumns().keySet(), read.getColumns().keySet());
+            for (ColumnStatistics column : expected.getColumns().values()) {
+                ColumnStatistics readColumn = read.getColumn(column.getName());
+                assertEquals(column.getNullFraction(), readColumn.getNullFraction());
+                assertEquals(column.getDistinctCount(), readColumn.getDistinctCount());
+                assertEquals(column.hasHistogram(), readColumn.hasHistogram());
+                assertEquals(column.rangeSelectivity(100, 300), readColumn.rangeSelectivity(100, 300));
+            }
+        }
+    }
+
+    @Test
+    void unreadableFileStartsEmpty() throws IOException {
+        Path path = directory.resolve("statistics.bin");
+        Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        assertNull(open(path.toString()).get("t"));
+    }
+
+    @Test
+    void tableIsAnalyzedAgainOnceEnoughOfItChanged() throws InterruptedException {
+        StatisticsCatalog catalog = open(null);
+        Table table = new Table(1_000);
+        Table untouched = new Table(1_000);
+        catalog.register("t", table);
+        catalog.register("u", untouched);
+        catalog.analyze("t");
+        catalog.analyze("u");
+
+        // 50 plus 10% of 1000 rows
+        catalog.recordModifications("t", 100);
+        catalog.recordModifications("t", 50);
+        assertEquals(150, catalog.getModificationsSinceAnalyze("t"));
+        Thread.sleep(100);
+        assertEquals(1, table.samples.get());
+
+        table.rows = 2_000;
+        catalog.recordModifications("t", 1);
+        awaitRows(catalog, "t", 2_000);
+        assertEquals(2, table.samples.get());
+        assertEquals(1, untouched.samples.get());
+
+        // The threshold grows with the table
+        catalog.recordModifications("t", 250);
+        Thread.sleep(100);
+        assertEquals(2, table.samples.get());
+        catalog.recordModifications("t", 1);
+        awaitSamples(table, 3);
+
+        catalog.recordModifications("unknown", 1_000); // no sampler: ignored
+        assertEquals(0, catalog.getModificationsSinceAnalyze("unknown"));
+    }
+
+    @Test
+    void tableNeverAnalyzedIsAnalyzedAfterFiftyWrites() throws InterruptedException {
+        StatisticsCatalog catalog = open(null);
+        Table table = new Table(100);
+        catalog.register("t", table);
+
+        catalog.recordModifications("t", 50);
+        Thread.sleep(100);
+        assertNull(catalog.get("t"));
+        catalog.recordModifications("t", 1);
+        awaitRows(catalog, "t", 100);
+    }
+
+    private StatisticsCatalog open(String path) {
+        StatisticsCatalog catalog = new StatisticsCatalog(path);
+        catalogs.add(catalog);
+        return catalog;
+    }
+
+    private static void awaitRows(StatisticsCatalog catalog, String table, long rows)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((catalog.get(table) == null || catalog.get(table).getRowCount() != rows
+                || catalog.getModificationsSinceAnalyze(table) != 0) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(rows, catalog.get(table).getRowCount());
+        assertEquals(0, catalog.getModificationsSinceAnalyze(table));
+    }
+
+    private static void awaitSamples(Table table, int samples) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (table.samples.get() < samples && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(table.samples.get() >= samples, "table was sampled " + table.samples.get() + " times");
+    }
+
+    // Rows {id: i, note: "n" + i} for every other id and {id: i} for the rest
+    private static final class Table implements TableSampler {
+        private final AtomicInteger samples = new AtomicInteger();
+        private volatile int rows;
+
+        private Table(int rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Sample sample(int maxRows) {
+            samples.incrementAndGet();
+            List<Map<String, Object>> sampled = new ArrayList<>();
+            for (int i = 0; i < Math.min(rows, maxRows); i++) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", i);
+                if (i % 2 == 0) {
+                    row.put("note", "n" + i);
+                }
+                sampled.add(row);
+            }
+            return new Sample(rows, sampled);
+        }
+    }
+}
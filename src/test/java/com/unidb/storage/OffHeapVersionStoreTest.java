@@ -0,0 +1,75 @@
+package com.unidb.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class OffHeapVersionStoreTest {
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 5_000;
+
+    @Test
+    void concurrentWritersAndCompactionKeepEveryChainIntact() throws Exception {
+        OffHeapVersionStore store = new OffHeapVersionStore(64 * 1024, null);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long firstKey = (long) t * KEYS_PER_THREAD;
+                writers.add(pool.submit(() -> {
+                    for (long version = 1; version <= 3; version++) {
+                        for (long key = firstKey; key < firstKey + KEYS_PER_THREAD; key++) {
+                            store.put(key, version, encode(key, version));
+                            store.removeOlderThan(key, version);
+                        }
+                    }
+                }));
+            }
+            Future<?> compactor = pool.submit(() -> {
+                while (!writers.stream().allMatch(Future::isDone)) {
+                    store.compact();
+                }
+            });
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            compactor.get();
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(THREADS * KEYS_PER_THREAD, store.keyCount());
+        for (long key = 0; key < THREADS * KEYS_PER_THREAD; key++) {
+            assertEquals(3, store.findVisible(key, Long.MAX_VALUE, ts -> true));
+            assertEquals(OffHeapVersionStore.NO_VERSION, store.findVisible(key, 2, ts -> true));
+            assertArrayEquals(encode(key, 3), store.read(key, 3));
+        }
+    }
+
+    @Test
+    void removingTheLastVersionDropsTheKey() {
+        OffHeapVersionStore store = new OffHeapVersionStore(4096, null);
+        for (long key = 0; key < 1_000; key++) {
+            store.put(key, 1, encode(key, 1));
+        }
+        for (long key = 0; key < 1_000; key += 2) {
+            store.remove(key, 1);
+        }
+        assertEquals(500, store.keyCount());
+        for (long key = 1; key < 1_000; key += 2) {
+            assertArrayEquals(encode(key, 1), store.read(key, 1));
+        }
+    }
+
+    private static byte[] encode(long key, long version) {
+        return ByteBuffer.allocate(16).putLong(key).putLong(version).array();
+    }
+}
@@ -0,0 +1,93 @@
+package com.unidb.transaction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.unidb.storage.WalManager;
+
+class OptimisticValidationTest {
+    @TempDir
+    Path directory;
+
+    private final AtomicReference<Runnable> duringCommitFlush = new AtomicReference<>();
+    private TransactionManager manager;
+    private VersionManager versions;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // Runs a hook right after a commit's WAL batch is flushed, before its versions become visible
+        WalManager walManager = new WalManager(directory.resolve("wal.log").toString()) {
+            @Override
+            public void logBatch(long transactionId, long[] pageIds, byte[][] data) throws IOException {
+                super.logBatch(transactionId, pageIds, data);
+                Runnable hook = duringCommitFlush.getAndSet(null);
+                if (hook != null) {
+                    hook.run();
+                }
+            }
+        };
+        manager = new TransactionManager(walManager);
+        versions = manager.getVersionManager();
+        long setup = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+        versions.writeVersion(setup, 1, "0");
+        versions.writeVersion(setup, 2, "0");
+        manager.commitTransaction(setup);
+    }
+
+    @Test
+    void transactionStartedWhileACommitIsInFlightIsValidatedAgainstIt() throws IOException {
+        long writer = manager.beginTransaction(IsolationLevel.SERIALIZABLE_OPTIMISTIC);
+        versions.readVersion(writer, 1, IsolationLevel.SERIALIZABLE_OPTIMISTIC);
+        versions.writeVersion(writer, 1, "1");
+        long[] reader = new long[1];
+        duringCommitFlush.set(() -> {
+            reader[0] = manager.beginTransaction(IsolationLevel.SERIALIZABLE_OPTIMISTIC);
+            // The writer is validated but its version is not visible yet
+            assertEquals("0", versions.readVersion(reader[0], 1, IsolationLevel.SERIALIZABLE_OPTIMISTIC));
+        });
+        manager.commitTransaction(writer);
+
+        versions.writeVersion(reader[0], 2, "1");
+        assertThrows(SerializationConflictException.class, () -> manager.commitTransaction(reader[0]));
+        assertEquals("0", versions.readVersion(Long.MAX_VALUE, 2, IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void commitsOfOtherIsolationLevelsConflictWithOptimisticReads() throws IOException {
+        for (IsolationLevel level : new IsolationLevel[] { IsolationLevel.READ_COMMITTED,
+                IsolationLevel.SERIALIZABLE }) {
+            long reader = manager.beginTransaction(IsolationLevel.SERIALIZABLE_OPTIMISTIC);
+            String seen = versions.readVersion(reader, 1, IsolationLevel.SERIALIZABLE_OPTIMISTIC);
+
+            long writer = manager.beginTransaction(level);
+            versions.writeVersion(writer, 1, seen + "+");
+            manager.commitTransaction(writer);
+
+            versions.writeVersion(reader, 2, seen);
+            assertThrows(SerializationConflictException.class, () -> manager.commitTransaction(reader), level.name());
+        }
+    }
+
+    @Test
+    void disjointConcurrentTransactionsCommit() throws IOException {
+        long first = manager.beginTransaction(IsolationLevel.SERIALIZABLE_OPTIMISTIC);
+        long second = manager.beginTransaction(IsolationLevel.SERIALIZABLE_OPTIMISTIC);
+        versions.readVersion(first, 1, IsolationLevel.SERIALIZABLE_OPTIMISTIC);
+        versions.writeVersion(first, 1, "1");
+        versions.readVersion(second, 2, IsolationLevel.SERIALIZABLE_OPTIMISTIC);
+        versions.writeVersion(second, 2, "2");
+        manager.commitTransaction(first);
+        manager.commitTransaction(second);
+
+        assertEquals("1", versions.readVersion(Long.MAX_VALUE, 1, IsolationLevel.READ_COMMITTED));
+        assertEquals("2", versions.readVersion(Long.MAX_VALUE, 2, IsolationLevel.READ_COMMITTED));
+    }
+}
@@ -0,0 +1,74 @@
+package com.unidb.transaction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.unidb.storage.WalManager;
+
+class ReadOnlySnapshotTest {
+    @TempDir
+    Path directory;
+
+    private TransactionManager manager;
+    private VersionManager versions;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        manager = new TransactionManager(new WalManager(directory.resolve("wal.log").toString()));
+        versions = manager.getVersionManager();
+        write(1, "a");
+    }
+
+    @Test
+    void commitAfterSnapshotKeepsTheVersionItReads() throws IOException {
+        long snapshot = manager.beginReadOnlyTransaction();
+        write(1, "b");
+        write(1, "c");
+
+        assertEquals("a", read(snapshot, 1));
+        manager.commitTransaction(snapshot);
+        assertEquals("c", read(manager.beginReadOnlyTransaction(), 1));
+    }
+
+    @Test
+    void writerRunningAtSnapshotStartStaysInvisibleAfterItCommits() throws IOException {
+        long writer = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+        long snapshot = manager.beginReadOnlyTransaction();
+        versions.writeVersion(writer, 1, "b");
+        versions.writeVersion(writer, 2, "b");
+        assertEquals("a", read(snapshot, 1));
+
+        manager.commitTransaction(writer);
+        assertEquals("a", read(snapshot, 1));
+        assertEquals(null, read(snapshot, 2));
+        manager.commitTransaction(snapshot);
+    }
+
+    @Test
+    void versionsAreReclaimedOnceNoSnapshotNeedsThem() throws IOException {
+        long snapshot = manager.beginReadOnlyTransaction();
+        write(1, "b");
+        manager.commitTransaction(snapshot);
+        write(1, "c");
+
+        long reader = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+        assertEquals("c", read(reader, 1));
+        assertEquals(null, versions.readVersion(snapshot, 1, IsolationLevel.READ_COMMITTED));
+    }
+
+    private void write(long key, String value) throws IOException {
+        long writer = manager.beginTransaction(IsolationLevel.READ_COMMITTED);
+        versions.writeVersion(writer, key, value);
+        manager.commitTransaction(writer);
+    }
+
+    private String read(long transactionId, long key) {
+        return versions.readVersion(transactionId, key, IsolationLevel.READ_COMMITTED);
+    }
+}
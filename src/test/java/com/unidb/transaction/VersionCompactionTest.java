@@ -0,0 +1,50 @@
+package com.unidb.transaction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.unidb.storage.OffHeapVersionStore;
+
+class VersionCompactionTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Test
+    void overwritesDoNotGrowTheArenaWithoutBound() throws InterruptedException {
+        OffHeapVersionStore store = new OffHeapVersionStore(SEGMENT_SIZE, null);
+        VersionManager versions = new VersionManager(store);
+        String value = "x".repeat(100);
+        for (long tx = 1; tx <= 20_000; tx++) {
+            versions.writeVersion(tx, tx % 4, value);
+            versions.commitTransaction(tx);
+        }
+
+        // Compaction runs in the background; wait for the last one scheduled to finish
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (store.needsCompaction() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(store.getAllocatedBytes() <= 4L * SEGMENT_SIZE, "allocated " + store.getAllocatedBytes());
+        assertEquals(value, versions.readVersion(20_001, 3, IsolationLevel.READ_COMMITTED));
+    }
+
+    @Test
+    void rolledBackWritesAreReclaimed() throws InterruptedException {
+        OffHeapVersionStore store = new OffHeapVersionStore(SEGMENT_SIZE, null);
+        VersionManager versions = new VersionManager(store);
+        versions.writeVersion(1, 7, "kept");
+        versions.commitTransaction(1);
+        for (long tx = 2; tx <= 5_000; tx++) {
+            versions.writeVersion(tx, 7, "y".repeat(100));
+            versions.rollbackTransaction(tx);
+        }
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (store.needsCompaction() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(store.getAllocatedBytes() <= 4L * SEGMENT_SIZE, "allocated " + store.getAllocatedBytes());
+        assertEquals("kept", versions.readVersion(5_001, 7, IsolationLevel.READ_COMMITTED));
+    }
+}